@@ -27,6 +27,7 @@ import de.pirckheimer_gymnasium.jbox2d.collision.Distance.SimplexCache;
 import de.pirckheimer_gymnasium.jbox2d.collision.Manifold.ManifoldType;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.EdgeShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
@@ -49,6 +50,8 @@ public class Collision
 
     private final WorldPool pool;
 
+    private float speculativeMargin;
+
     public Collision(WorldPool argPool)
     {
         incidentEdge[0] = new ClipVertex();
@@ -60,6 +63,21 @@ public class Collision
         pool = argPool;
     }
 
+    /**
+     * Set how far apart two shapes may be for the collide functions to still
+     * create manifold points. Such speculative points have a positive
+     * separation.
+     */
+    public void setSpeculativeMargin(float margin)
+    {
+        speculativeMargin = margin;
+    }
+
+    public float getSpeculativeMargin()
+    {
+        return speculativeMargin;
+    }
+
     private final DistanceInput input = new DistanceInput();
 
     private final SimplexCache cache = new SimplexCache();
@@ -173,7 +191,7 @@ public class Collision
     // #### COLLISION STUFF (not from collision.h or collision.cpp) ####
 
     // djm pooling
-    private static final Vec2 d = new Vec2();
+    private final Vec2 d = new Vec2();
 
     /**
      * Compute the collision manifold between two circles.
@@ -199,7 +217,8 @@ public class Collision
         float dy = pBy - pAy;
         float distSqr = dx * dx + dy * dy;
         // end inline
-        final float radius = circle1.radius + circle2.radius;
+        final float radius = circle1.radius + circle2.radius
+                + speculativeMargin;
         if (distSqr > radius * radius)
         {
             return;
@@ -242,7 +261,8 @@ public class Collision
         // Find the min separating edge.
         int normalIndex = 0;
         float separation = -Float.MAX_VALUE;
-        final float radius = polygon.radius + circle.radius;
+        final float radius = polygon.radius + circle.radius
+                + speculativeMargin;
         final int vertexCount = polygon.count;
         float s;
         final Vec2[] vertices = polygon.vertices;
@@ -547,13 +567,14 @@ public class Collision
         // The normal points from 1 to 2
         manifold.pointCount = 0;
         float totalRadius = polyA.radius + polyB.radius;
+        float maxSeparation = totalRadius + speculativeMargin;
         findMaxSeparation(results1, polyA, xfA, polyB, xfB);
-        if (results1.separation > totalRadius)
+        if (results1.separation > maxSeparation)
         {
             return;
         }
         findMaxSeparation(results2, polyB, xfB, polyA, xfA);
-        if (results2.separation > totalRadius)
+        if (results2.separation > maxSeparation)
         {
             return;
         }
@@ -651,7 +672,7 @@ public class Collision
             // frontOffset;
             float separation = normalx * clipPoints2[i].v.x
                     + normaly * clipPoints2[i].v.y - frontOffset;
-            if (separation <= totalRadius)
+            if (separation <= maxSeparation)
             {
                 ManifoldPoint cp = manifold.points[pointCount];
                 // cp.localPoint = MulT(xf2, clipPoints2[i].v);
@@ -698,7 +719,7 @@ public class Collision
         // Barycentric coordinates
         float u = Vec2.dot(e, temp.set(B).subLocal(Q));
         float v = Vec2.dot(e, temp.set(Q).subLocal(A));
-        float radius = edgeA.radius + circleB.radius;
+        float radius = edgeA.radius + circleB.radius + speculativeMargin;
         // ContactFeature cf;
         cf.indexB = 0;
         cf.typeB = (byte) ContactID.Type.VERTEX.ordinal();
@@ -803,9 +824,38 @@ public class Collision
             final Transform xfA, final PolygonShape polygonB,
             final Transform xfB)
     {
+        collider.speculativeMargin = speculativeMargin;
         collider.collide(manifold, edgeA, xfA, polygonB, xfB);
     }
 
+    private final EdgeShape heightfieldEdge = new EdgeShape();
+
+    /**
+     * Compute contact points for a segment of a heightfield versus a circle.
+     * The segment is read from the heights on every call, so the heights may
+     * change between calls.
+     */
+    public void collideHeightfieldAndCircle(Manifold manifold,
+            final HeightfieldShape heightfieldA, int indexA,
+            final Transform xfA, final CircleShape circleB,
+            final Transform xfB)
+    {
+        heightfieldA.getChildEdge(heightfieldEdge, indexA);
+        collideEdgeAndCircle(manifold, heightfieldEdge, xfA, circleB, xfB);
+    }
+
+    /**
+     * Compute contact points for a segment of a heightfield versus a polygon.
+     */
+    public void collideHeightfieldAndPolygon(Manifold manifold,
+            final HeightfieldShape heightfieldA, int indexA,
+            final Transform xfA, final PolygonShape polygonB,
+            final Transform xfB)
+    {
+        heightfieldA.getChildEdge(heightfieldEdge, indexA);
+        collideEdgeAndPolygon(manifold, heightfieldEdge, xfA, polygonB, xfB);
+    }
+
     /**
      * Java-specific class for returning edge results
      */
@@ -970,6 +1020,8 @@ public class Collision
 
         float radius;
 
+        float speculativeMargin;
+
         boolean front;
 
         public EPCollider()
@@ -1256,7 +1308,7 @@ public class Collision
                 Rot.mulToOutUnsafe(xf.q, polygonB.normals[i],
                         this.polygonB.normals[i]);
             }
-            radius = 2.0f * Settings.polygonRadius;
+            radius = 2.0f * Settings.polygonRadius + speculativeMargin;
             manifold.pointCount = 0;
             computeEdgeSeparation(edgeAxis);
             // If no valid normal can be found than this edge should not
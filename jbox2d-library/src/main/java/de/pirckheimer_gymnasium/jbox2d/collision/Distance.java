@@ -26,6 +26,7 @@ package de.pirckheimer_gymnasium.jbox2d.collision;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ChainShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.EdgeShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
@@ -592,6 +593,17 @@ public class Distance
                 radius = edge.radius;
                 break;
 
+            case HEIGHTFIELD:
+                final HeightfieldShape heightfield = (HeightfieldShape) shape;
+                assert (0 <= index && index < heightfield.count - 1);
+                vertices[0].set(index * heightfield.spacing,
+                        heightfield.heights[index]);
+                vertices[1].set((index + 1) * heightfield.spacing,
+                        heightfield.heights[index + 1]);
+                count = 2;
+                radius = heightfield.radius;
+                break;
+
             default:
                 assert (false);
             }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.collision;
+
+import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+
+/**
+ * A packet of up to {@link #MAX_RAYS} rays that traverse a tree together. The
+ * rays are stored as parallel float arrays, and each ray is identified by its
+ * bit in a {@code long} mask. A node is visited once for the whole packet and
+ * only the rays whose segments may hit it are carried on to its children, so
+ * rays that start close together and point in similar directions share most
+ * of the traversal.
+ */
+public class RayCastPacket
+{
+    public static final int MAX_RAYS = 64;
+
+    private int count;
+
+    private final float[] p1x = new float[MAX_RAYS];
+
+    private final float[] p1y = new float[MAX_RAYS];
+
+    private final float[] p2x = new float[MAX_RAYS];
+
+    private final float[] p2y = new float[MAX_RAYS];
+
+    private final float[] maxFraction = new float[MAX_RAYS];
+
+    // The perpendicular of each ray for the separating axis test.
+    private final float[] vx = new float[MAX_RAYS];
+
+    private final float[] vy = new float[MAX_RAYS];
+
+    // The bounding box of each segment up to its max fraction.
+    private final float[] lowerX = new float[MAX_RAYS];
+
+    private final float[] lowerY = new float[MAX_RAYS];
+
+    private final float[] upperX = new float[MAX_RAYS];
+
+    private final float[] upperY = new float[MAX_RAYS];
+
+    // The bounding box of the whole packet. It is not shrunk when single rays
+    // are clipped, so it stays conservative.
+    private final AABB bounds = new AABB();
+
+    public void clear()
+    {
+        count = 0;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Get the mask with a bit set for each ray in the packet.
+     */
+    public long getMask()
+    {
+        return count == MAX_RAYS ? -1L : (1L << count) - 1;
+    }
+
+    /**
+     * Add a ray that extends from p1 to p1 + maxFraction * (p2 - p1).
+     *
+     * @return The index of the ray in the packet.
+     */
+    public int add(Vec2 p1, Vec2 p2, float maxFraction)
+    {
+        assert (count < MAX_RAYS);
+        float rx = p2.x - p1.x;
+        float ry = p2.y - p1.y;
+        float length = MathUtils.sqrt(rx * rx + ry * ry);
+        assert (length > 0f);
+        int i = count++;
+        p1x[i] = p1.x;
+        p1y[i] = p1.y;
+        p2x[i] = p2.x;
+        p2y[i] = p2.y;
+        vx[i] = -ry / length;
+        vy[i] = rx / length;
+        setMaxFraction(i, maxFraction);
+        if (i == 0)
+        {
+            bounds.lowerBound.set(lowerX[i], lowerY[i]);
+            bounds.upperBound.set(upperX[i], upperY[i]);
+        }
+        else
+        {
+            bounds.lowerBound.x = MathUtils.min(bounds.lowerBound.x, lowerX[i]);
+            bounds.lowerBound.y = MathUtils.min(bounds.lowerBound.y, lowerY[i]);
+            bounds.upperBound.x = MathUtils.max(bounds.upperBound.x, upperX[i]);
+            bounds.upperBound.y = MathUtils.max(bounds.upperBound.y, upperY[i]);
+        }
+        return i;
+    }
+
+    public float getMaxFraction(int ray)
+    {
+        return maxFraction[ray];
+    }
+
+    /**
+     * Clip a ray, e.g. to the fraction of a hit.
+     */
+    public void setMaxFraction(int ray, float fraction)
+    {
+        maxFraction[ray] = fraction;
+        float tx = (p2x[ray] - p1x[ray]) * fraction + p1x[ray];
+        float ty = (p2y[ray] - p1y[ray]) * fraction + p1y[ray];
+        lowerX[ray] = MathUtils.min(p1x[ray], tx);
+        lowerY[ray] = MathUtils.min(p1y[ray], ty);
+        upperX[ray] = MathUtils.max(p1x[ray], tx);
+        upperY[ray] = MathUtils.max(p1y[ray], ty);
+    }
+
+    /**
+     * Copy a ray into a single ray-cast input.
+     */
+    public void getInput(int ray, RayCastInput out)
+    {
+        out.p1.x = p1x[ray];
+        out.p1.y = p1y[ray];
+        out.p2.x = p2x[ray];
+        out.p2.y = p2y[ray];
+        out.maxFraction = maxFraction[ray];
+    }
+
+    /**
+     * Test the rays of a mask against a box.
+     *
+     * @return The mask of the rays whose segments may overlap the box.
+     */
+    public long test(AABB box, long mask)
+    {
+        final float boxLowerX = box.lowerBound.x;
+        final float boxLowerY = box.lowerBound.y;
+        final float boxUpperX = box.upperBound.x;
+        final float boxUpperY = box.upperBound.y;
+        if (boxUpperX < bounds.lowerBound.x || boxUpperY < bounds.lowerBound.y
+                || bounds.upperBound.x < boxLowerX
+                || bounds.upperBound.y < boxLowerY)
+        {
+            return 0;
+        }
+        final float cx = (boxLowerX + boxUpperX) * .5f;
+        final float cy = (boxLowerY + boxUpperY) * .5f;
+        final float hx = (boxUpperX - boxLowerX) * .5f;
+        final float hy = (boxUpperY - boxLowerY) * .5f;
+        long result = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            // Branch free per ray, the mask is applied at the end.
+            boolean overlap = lowerX[i] <= boxUpperX & lowerY[i] <= boxUpperY
+                    & boxLowerX <= upperX[i] & boxLowerY <= upperY[i];
+            // Separating axis for segment (Gino, p80).
+            // |dot(v, p1 - c)| > dot(|v|, h)
+            float separation = Math
+                    .abs(vx[i] * (p1x[i] - cx) + vy[i] * (p1y[i] - cy))
+                    - (Math.abs(vx[i]) * hx + Math.abs(vy[i]) * hy);
+            if (overlap & separation <= 0.0f)
+            {
+                result |= 1L << i;
+            }
+        }
+        return result & mask;
+    }
+}
@@ -27,8 +27,10 @@ import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.PairCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
 import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
 
 /**
@@ -64,12 +66,28 @@ public interface BroadPhase
 {
     int NULL_PROXY = -1;
 
+    /**
+     * The layer of proxies that may pair with proxies of every layer.
+     */
+    int ANY_LAYER = -1;
+
     /**
      * Create a proxy with an initial AABB. Pairs are not reported until
      * updatePairs is called.
      */
     int createProxy(AABB aabb, Object userData);
 
+    /**
+     * Create a proxy on a collision layer. Broad-phases that do not partition
+     * by layer ignore it.
+     *
+     * @param layer The collision layer or {@link #ANY_LAYER}.
+     */
+    default int createProxy(AABB aabb, Object userData, int layer)
+    {
+        return createProxy(aabb, userData);
+    }
+
     /**
      * Destroy a proxy. It is up to the client to remove any pairs.
      */
@@ -126,6 +144,25 @@ public interface BroadPhase
      */
     void raycast(TreeRayCastCallback callback, RayCastInput input);
 
+    /**
+     * Ray-cast a packet of rays against the proxies in the tree. Each node is
+     * visited once for all rays of the packet that may hit it.
+     *
+     * <p>
+     * The default casts the rays one after another with
+     * {@link #raycast(TreeRayCastCallback, RayCastInput)}.
+     * </p>
+     *
+     * @param callback Called for each proxy and ray that may hit it.
+     * @param packet The rays. Their max fractions are updated as the callback
+     *     clips them.
+     */
+    default void raycast(TreeRayCastPacketCallback callback,
+            RayCastPacket packet)
+    {
+        PacketForwarder.raycast(this, callback, packet);
+    }
+
     /**
      * Get the height of the embedded tree.
      *
@@ -26,8 +26,10 @@ package de.pirckheimer_gymnasium.jbox2d.collision.broadphase;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
 import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
 
 /**
@@ -60,6 +62,10 @@ public interface BroadPhaseStrategy
 
     Object getUserData(int proxyId);
 
+    /**
+     * Get the fat AABB of a proxy. The returned object may be reused by the
+     * next call, so it should not be held on to.
+     */
     AABB getFatAABB(int proxyId);
 
     /**
@@ -84,6 +90,25 @@ public interface BroadPhaseStrategy
      */
     void raycast(TreeRayCastCallback callback, RayCastInput input);
 
+    /**
+     * Ray-cast a packet of rays against the proxies in the tree. Each node is
+     * visited once for all rays of the packet that may hit it.
+     *
+     * <p>
+     * The default casts the rays one after another with
+     * {@link #raycast(TreeRayCastCallback, RayCastInput)}.
+     * </p>
+     *
+     * @param callback Called for each proxy and ray that may hit it.
+     * @param packet The rays. Their max fractions are updated as the callback
+     *     clips them.
+     */
+    default void raycast(TreeRayCastPacketCallback callback,
+            RayCastPacket packet)
+    {
+        PacketForwarder.raycast(this, callback, packet);
+    }
+
     /**
      * Compute the height of the tree.
      */
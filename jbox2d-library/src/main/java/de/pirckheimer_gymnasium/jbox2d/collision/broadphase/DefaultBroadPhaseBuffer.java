@@ -29,8 +29,10 @@ import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.PairCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
 import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
 
 /**
@@ -129,15 +131,19 @@ public class DefaultBroadPhaseBuffer implements TreeCallback, BroadPhase
     {
         // return AABB.testOverlap(proxyA.aabb, proxyB.aabb);
         // return tree.overlap(proxyIdA, proxyIdB);
+        // Read A before fetching B, the strategy may reuse the returned AABB.
         final AABB a = tree.getFatAABB(proxyIdA);
+        final float aLowerX = a.lowerBound.x;
+        final float aLowerY = a.lowerBound.y;
+        final float aUpperX = a.upperBound.x;
+        final float aUpperY = a.upperBound.y;
         final AABB b = tree.getFatAABB(proxyIdB);
-        if (b.lowerBound.x - a.upperBound.x > 0.0f
-                || b.lowerBound.y - a.upperBound.y > 0.0f)
+        if (b.lowerBound.x - aUpperX > 0.0f || b.lowerBound.y - aUpperY > 0.0f)
         {
             return false;
         }
-        return !(a.lowerBound.x - b.upperBound.x > 0.0f)
-                && !(a.lowerBound.y - b.upperBound.y > 0.0f);
+        return !(aLowerX - b.upperBound.x > 0.0f)
+                && !(aLowerY - b.upperBound.y > 0.0f);
     }
 
     @Override
@@ -213,6 +219,13 @@ public class DefaultBroadPhaseBuffer implements TreeCallback, BroadPhase
         tree.raycast(callback, input);
     }
 
+    @Override
+    public final void raycast(final TreeRayCastPacketCallback callback,
+            final RayCastPacket packet)
+    {
+        tree.raycast(callback, packet);
+    }
+
     @Override
     public final int getTreeHeight()
     {
@@ -26,12 +26,15 @@ package de.pirckheimer_gymnasium.jbox2d.collision.broadphase;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
 import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
 import de.pirckheimer_gymnasium.jbox2d.common.Color3f;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 
 /**
  * A dynamic tree arranges data in a binary tree to accelerate queries such as
@@ -60,12 +63,20 @@ public class DynamicTree implements BroadPhaseStrategy
 
     private final Vec2[] drawVecs = new Vec2[4];
 
-    private DynamicTreeNode[] nodeStack = new DynamicTreeNode[20];
-
-    private int nodeStackIndex = 0;
+    private final WorldSettings settings;
 
     public DynamicTree()
     {
+        this(new WorldSettings());
+    }
+
+    /**
+     * Create a tree that fattens its proxies with the AABB extension and
+     * multiplier of the given settings.
+     */
+    public DynamicTree(WorldSettings settings)
+    {
+        this.settings = settings;
         root = null;
         nodeCount = 0;
         nodeCapacity = 16;
@@ -92,10 +103,10 @@ public class DynamicTree implements BroadPhaseStrategy
         int proxyId = node.id;
         // Fatten the aabb
         final AABB nodeAABB = node.aabb;
-        nodeAABB.lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
-        nodeAABB.lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
-        nodeAABB.upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
-        nodeAABB.upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+        nodeAABB.lowerBound.x = aabb.lowerBound.x - settings.aabbExtension;
+        nodeAABB.lowerBound.y = aabb.lowerBound.y - settings.aabbExtension;
+        nodeAABB.upperBound.x = aabb.upperBound.x + settings.aabbExtension;
+        nodeAABB.upperBound.y = aabb.upperBound.y + settings.aabbExtension;
         node.userData = userData;
         insertLeaf(proxyId);
         return proxyId;
@@ -132,13 +143,13 @@ public class DynamicTree implements BroadPhaseStrategy
         // Extend AABB
         final Vec2 lowerBound = nodeAABB.lowerBound;
         final Vec2 upperBound = nodeAABB.upperBound;
-        lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
-        lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
-        upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
-        upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+        lowerBound.x = aabb.lowerBound.x - settings.aabbExtension;
+        lowerBound.y = aabb.lowerBound.y - settings.aabbExtension;
+        upperBound.x = aabb.upperBound.x + settings.aabbExtension;
+        upperBound.y = aabb.upperBound.y + settings.aabbExtension;
         // Predict AABB displacement.
-        final float dx = displacement.x * Settings.aabbMultiplier;
-        final float dy = displacement.y * Settings.aabbMultiplier;
+        final float dx = displacement.x * settings.aabbMultiplier;
+        final float dy = displacement.y * settings.aabbMultiplier;
         if (dx < 0.0f)
         {
             lowerBound.x += dx;
@@ -177,51 +188,49 @@ public class DynamicTree implements BroadPhaseStrategy
     public final void query(TreeCallback callback, AABB aabb)
     {
         assert (aabb.isValid());
-        nodeStackIndex = 0;
-        nodeStack[nodeStackIndex++] = root;
-        while (nodeStackIndex > 0)
+        if (root == null)
         {
-            DynamicTreeNode node = nodeStack[--nodeStackIndex];
-            if (node == null)
-            {
-                continue;
-            }
-            if (AABB.testOverlap(node.aabb, aabb))
+            return;
+        }
+        final TreeStack stack = TreeStack.get();
+        final int base = stack.top;
+        stack.push(root.id);
+        try
+        {
+            while (stack.top > base)
             {
-                if (node.child1 == null)
+                DynamicTreeNode node = nodes[stack.nodes[--stack.top]];
+                if (AABB.testOverlap(node.aabb, aabb))
                 {
-                    boolean proceed = callback.treeCallback(node.id);
-                    if (!proceed)
+                    if (node.child1 == null)
                     {
-                        return;
+                        boolean proceed = callback.treeCallback(node.id);
+                        if (!proceed)
+                        {
+                            return;
+                        }
                     }
-                }
-                else
-                {
-                    if (nodeStack.length - nodeStackIndex - 2 <= 0)
+                    else
                     {
-                        DynamicTreeNode[] newBuffer = new DynamicTreeNode[nodeStack.length
-                                * 2];
-                        System.arraycopy(nodeStack, 0, newBuffer, 0,
-                                nodeStack.length);
-                        nodeStack = newBuffer;
+                        stack.push(node.child1.id);
+                        stack.push(node.child2.id);
                     }
-                    nodeStack[nodeStackIndex++] = node.child1;
-                    nodeStack[nodeStackIndex++] = node.child2;
                 }
             }
         }
+        finally
+        {
+            stack.top = base;
+        }
     }
 
-    private final Vec2 r = new Vec2();
-
-    private final AABB aabb = new AABB();
-
-    private final RayCastInput subInput = new RayCastInput();
-
     @Override
     public void raycast(TreeRayCastCallback callback, RayCastInput input)
     {
+        if (root == null)
+        {
+            return;
+        }
         final Vec2 p1 = input.p1;
         final Vec2 p2 = input.p2;
         float p1x = p1.x, p2x = p2.x, p1y = p1.y, p2y = p2.y;
@@ -231,12 +240,16 @@ public class DynamicTree implements BroadPhaseStrategy
         float cx, cy;
         float hx, hy;
         float tempX, tempY;
-        r.x = p2x - p1x;
-        r.y = p2y - p1y;
-        assert ((r.x * r.x + r.y * r.y) > 0f);
-        r.normalize();
-        rx = r.x;
-        ry = r.y;
+        rx = p2x - p1x;
+        ry = p2y - p1y;
+        assert ((rx * rx + ry * ry) > 0f);
+        float length = MathUtils.sqrt(rx * rx + ry * ry);
+        if (length >= Settings.EPSILON)
+        {
+            float invLength = 1.0f / length;
+            rx *= invLength;
+            ry *= invLength;
+        }
         // v is perpendicular to the segment.
         vx = -1f * ry;
         vy = rx;
@@ -245,8 +258,12 @@ public class DynamicTree implements BroadPhaseStrategy
         // Separating axis for segment (Gino, p80).
         // |dot(v, p1 - c)| > dot(|v|, h)
         float maxFraction = input.maxFraction;
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final int base = stack.top;
         // Build a bounding box for the segment.
-        final AABB segAABB = aabb;
+        final AABB segAABB = frame.aabb;
+        final RayCastInput subInput = frame.input;
         // Vec2 t = p1 + maxFraction * (p2 - p1);
         // before inline
         // temp.set(p2).subLocal(p1).mulLocal(maxFraction).addLocal(p1);
@@ -259,78 +276,138 @@ public class DynamicTree implements BroadPhaseStrategy
         segAABB.upperBound.x = Math.max(p1x, tempX);
         segAABB.upperBound.y = Math.max(p1y, tempY);
         // end inline
-        nodeStackIndex = 0;
-        nodeStack[nodeStackIndex++] = root;
-        while (nodeStackIndex > 0)
+        stack.push(root.id);
+        try
         {
-            final DynamicTreeNode node = nodeStack[--nodeStackIndex];
-            if (node == null)
-            {
-                continue;
-            }
-            final AABB nodeAABB = node.aabb;
-            if (!AABB.testOverlap(nodeAABB, segAABB))
-            {
-                continue;
-            }
-            // Separating axis for segment (Gino, p80).
-            // |dot(v, p1 - c)| > dot(|v|, h)
-            // node.aabb.getCenterToOut(c);
-            // node.aabb.getExtentsToOut(h);
-            cx = (nodeAABB.lowerBound.x + nodeAABB.upperBound.x) * .5f;
-            cy = (nodeAABB.lowerBound.y + nodeAABB.upperBound.y) * .5f;
-            hx = (nodeAABB.upperBound.x - nodeAABB.lowerBound.x) * .5f;
-            hy = (nodeAABB.upperBound.y - nodeAABB.lowerBound.y) * .5f;
-            tempX = p1x - cx;
-            tempY = p1y - cy;
-            float separation = MathUtils.abs(vx * tempX + vy * tempY)
-                    - (absVx * hx + absVy * hy);
-            if (separation > 0.0f)
-            {
-                continue;
-            }
-            if (node.child1 == null)
+            while (stack.top > base)
             {
-                subInput.p1.x = p1x;
-                subInput.p1.y = p1y;
-                subInput.p2.x = p2x;
-                subInput.p2.y = p2y;
-                subInput.maxFraction = maxFraction;
-                float value = callback.raycastCallback(subInput, node.id);
-                if (value == 0.0f)
+                final DynamicTreeNode node = nodes[stack.nodes[--stack.top]];
+                final AABB nodeAABB = node.aabb;
+                if (!AABB.testOverlap(nodeAABB, segAABB))
                 {
-                    // The client has terminated the ray cast.
-                    return;
+                    continue;
                 }
-                if (value > 0.0f)
+                // Separating axis for segment (Gino, p80).
+                // |dot(v, p1 - c)| > dot(|v|, h)
+                // node.aabb.getCenterToOut(c);
+                // node.aabb.getExtentsToOut(h);
+                cx = (nodeAABB.lowerBound.x + nodeAABB.upperBound.x) * .5f;
+                cy = (nodeAABB.lowerBound.y + nodeAABB.upperBound.y) * .5f;
+                hx = (nodeAABB.upperBound.x - nodeAABB.lowerBound.x) * .5f;
+                hy = (nodeAABB.upperBound.y - nodeAABB.lowerBound.y) * .5f;
+                tempX = p1x - cx;
+                tempY = p1y - cy;
+                float separation = MathUtils.abs(vx * tempX + vy * tempY)
+                        - (absVx * hx + absVy * hy);
+                if (separation > 0.0f)
                 {
-                    // Update segment bounding box.
-                    maxFraction = value;
-                    // temp.set(p2).subLocal(p1).mulLocal(maxFraction).addLocal(p1);
-                    // Vec2.minToOut(p1, temp, segAABB.lowerBound);
-                    // Vec2.maxToOut(p1, temp, segAABB.upperBound);
-                    tempX = (p2x - p1x) * maxFraction + p1x;
-                    tempY = (p2y - p1y) * maxFraction + p1y;
-                    segAABB.lowerBound.x = Math.min(p1x, tempX);
-                    segAABB.lowerBound.y = Math.min(p1y, tempY);
-                    segAABB.upperBound.x = Math.max(p1x, tempX);
-                    segAABB.upperBound.y = Math.max(p1y, tempY);
+                    continue;
+                }
+                if (node.child1 == null)
+                {
+                    subInput.p1.x = p1x;
+                    subInput.p1.y = p1y;
+                    subInput.p2.x = p2x;
+                    subInput.p2.y = p2y;
+                    subInput.maxFraction = maxFraction;
+                    float value = callback.raycastCallback(subInput, node.id);
+                    if (value == 0.0f)
+                    {
+                        // The client has terminated the ray cast.
+                        return;
+                    }
+                    if (value > 0.0f)
+                    {
+                        // Update segment bounding box.
+                        maxFraction = value;
+                        tempX = (p2x - p1x) * maxFraction + p1x;
+                        tempY = (p2y - p1y) * maxFraction + p1y;
+                        segAABB.lowerBound.x = Math.min(p1x, tempX);
+                        segAABB.lowerBound.y = Math.min(p1y, tempY);
+                        segAABB.upperBound.x = Math.max(p1x, tempX);
+                        segAABB.upperBound.y = Math.max(p1y, tempY);
+                    }
+                }
+                else
+                {
+                    stack.push(node.child1.id);
+                    stack.push(node.child2.id);
                 }
             }
-            else
+        }
+        finally
+        {
+            stack.top = base;
+            stack.exit();
+        }
+    }
+
+    @Override
+    public void raycast(TreeRayCastPacketCallback callback,
+            RayCastPacket packet)
+    {
+        if (root == null)
+        {
+            return;
+        }
+        // The rays that were not terminated by the callback.
+        long active = packet.getMask();
+        final TreeStack stack = TreeStack.get();
+        final RayCastInput subInput = stack.enter().input;
+        final int base = stack.top;
+        stack.push(root.id, active);
+        try
+        {
+            while (stack.top > base)
             {
-                if (nodeStack.length - nodeStackIndex - 2 <= 0)
+                --stack.top;
+                final DynamicTreeNode node = nodes[stack.nodes[stack.top]];
+                long mask = stack.masks[stack.top] & active;
+                if (mask == 0)
+                {
+                    continue;
+                }
+                mask = packet.test(node.aabb, mask);
+                if (mask == 0)
                 {
-                    DynamicTreeNode[] newBuffer = new DynamicTreeNode[nodeStack.length
-                            * 2];
-                    System.arraycopy(nodeStack, 0, newBuffer, 0,
-                            nodeStack.length);
-                    nodeStack = newBuffer;
+                    continue;
+                }
+                if (node.child1 == null)
+                {
+                    while (mask != 0)
+                    {
+                        int ray = Long.numberOfTrailingZeros(mask);
+                        mask &= mask - 1;
+                        packet.getInput(ray, subInput);
+                        float value = callback.raycastCallback(subInput,
+                                node.id, ray);
+                        if (value == 0.0f)
+                        {
+                            // The client has terminated this ray.
+                            active &= ~(1L << ray);
+                        }
+                        else if (value > 0.0f)
+                        {
+                            packet.setMaxFraction(ray, value);
+                        }
+                    }
+                    if (active == 0)
+                    {
+                        return;
+                    }
+                }
+                else
+                {
+                    stack.push(node.child1.id, mask);
+                    stack.push(node.child2.id, mask);
                 }
-                nodeStack[nodeStackIndex++] = node.child1;
-                nodeStack[nodeStackIndex++] = node.child2;
             }
         }
+        finally
+        {
+            stack.top = base;
+            stack.exit();
+        }
     }
 
     @Override
@@ -26,13 +26,16 @@ package de.pirckheimer_gymnasium.jbox2d.collision.broadphase;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
 import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
 import de.pirckheimer_gymnasium.jbox2d.common.BufferUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Color3f;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 
 /**
  * @author Daniel Murphy
@@ -67,8 +70,20 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy
 
     private final Vec2[] drawVecs = new Vec2[4];
 
+    private final WorldSettings settings;
+
     public DynamicTreeFlatNodes()
     {
+        this(new WorldSettings());
+    }
+
+    /**
+     * Create a tree that fattens its proxies with the AABB extension and
+     * multiplier of the given settings.
+     */
+    public DynamicTreeFlatNodes(WorldSettings settings)
+    {
+        this.settings = settings;
         root = NULL_NODE;
         nodeCount = 0;
         nodeCapacity = 16;
@@ -107,10 +122,10 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy
         final int node = allocateNode();
         // Fatten the aabb
         final AABB nodeAABB = memberAabb[node];
-        nodeAABB.lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
-        nodeAABB.lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
-        nodeAABB.upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
-        nodeAABB.upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+        nodeAABB.lowerBound.x = aabb.lowerBound.x - settings.aabbExtension;
+        nodeAABB.lowerBound.y = aabb.lowerBound.y - settings.aabbExtension;
+        nodeAABB.upperBound.x = aabb.upperBound.x + settings.aabbExtension;
+        nodeAABB.upperBound.y = aabb.upperBound.y + settings.aabbExtension;
         this.userData[node] = userData;
         insertLeaf(node);
         return node;
@@ -144,13 +159,13 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy
         // Extend AABB
         final Vec2 lowerBound = nodeAABB.lowerBound;
         final Vec2 upperBound = nodeAABB.upperBound;
-        lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
-        lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
-        upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
-        upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+        lowerBound.x = aabb.lowerBound.x - settings.aabbExtension;
+        lowerBound.y = aabb.lowerBound.y - settings.aabbExtension;
+        upperBound.x = aabb.upperBound.x + settings.aabbExtension;
+        upperBound.y = aabb.upperBound.y + settings.aabbExtension;
         // Predict AABB displacement.
-        final float dx = displacement.x * Settings.aabbMultiplier;
-        final float dy = displacement.y * Settings.aabbMultiplier;
+        final float dx = displacement.x * settings.aabbMultiplier;
+        final float dy = displacement.y * settings.aabbMultiplier;
         if (dx < 0.0f)
         {
             lowerBound.x += dx;
@@ -174,67 +189,64 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy
     @Override
     public final Object getUserData(int proxyId)
     {
-        assert (0 <= proxyId && proxyId < nodeCount);
+        assert (0 <= proxyId && proxyId < nodeCapacity);
         return userData[proxyId];
     }
 
     @Override
     public final AABB getFatAABB(int proxyId)
     {
-        assert (0 <= proxyId && proxyId < nodeCount);
+        assert (0 <= proxyId && proxyId < nodeCapacity);
         return memberAabb[proxyId];
     }
 
-    private int[] nodeStack = new int[20];
-
-    private int nodeStackIndex;
-
     @Override
     public final void query(TreeCallback callback, AABB aabb)
     {
-        nodeStackIndex = 0;
-        nodeStack[nodeStackIndex++] = root;
-        while (nodeStackIndex > 0)
+        if (root == NULL_NODE)
         {
-            int node = nodeStack[--nodeStackIndex];
-            if (node == NULL_NODE)
-            {
-                continue;
-            }
-            if (AABB.testOverlap(memberAabb[node], aabb))
+            return;
+        }
+        final TreeStack stack = TreeStack.get();
+        final int base = stack.top;
+        stack.push(root);
+        try
+        {
+            while (stack.top > base)
             {
-                int child1 = this.child1[node];
-                if (child1 == NULL_NODE)
+                int node = stack.nodes[--stack.top];
+                if (AABB.testOverlap(memberAabb[node], aabb))
                 {
-                    boolean proceed = callback.treeCallback(node);
-                    if (!proceed)
+                    int child1 = this.child1[node];
+                    if (child1 == NULL_NODE)
                     {
-                        return;
+                        boolean proceed = callback.treeCallback(node);
+                        if (!proceed)
+                        {
+                            return;
+                        }
                     }
-                }
-                else
-                {
-                    if (nodeStack.length - nodeStackIndex - 2 <= 0)
+                    else
                     {
-                        nodeStack = BufferUtils.reallocateBuffer(nodeStack,
-                                nodeStack.length, nodeStack.length * 2);
+                        stack.push(child1);
+                        stack.push(child2[node]);
                     }
-                    nodeStack[nodeStackIndex++] = child1;
-                    nodeStack[nodeStackIndex++] = child2[node];
                 }
             }
         }
+        finally
+        {
+            stack.top = base;
+        }
     }
 
-    private final Vec2 r = new Vec2();
-
-    private final AABB aabb = new AABB();
-
-    private final RayCastInput subInput = new RayCastInput();
-
     @Override
     public void raycast(TreeRayCastCallback callback, RayCastInput input)
     {
+        if (root == NULL_NODE)
+        {
+            return;
+        }
         final Vec2 p1 = input.p1;
         final Vec2 p2 = input.p2;
         float p1x = p1.x, p2x = p2.x, p1y = p1.y, p2y = p2.y;
@@ -244,12 +256,16 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy
         float cx, cy;
         float hx, hy;
         float tempX, tempY;
-        r.x = p2x - p1x;
-        r.y = p2y - p1y;
-        assert ((r.x * r.x + r.y * r.y) > 0f);
-        r.normalize();
-        rx = r.x;
-        ry = r.y;
+        rx = p2x - p1x;
+        ry = p2y - p1y;
+        assert ((rx * rx + ry * ry) > 0f);
+        float length = MathUtils.sqrt(rx * rx + ry * ry);
+        if (length >= Settings.EPSILON)
+        {
+            float invLength = 1.0f / length;
+            rx *= invLength;
+            ry *= invLength;
+        }
         // v is perpendicular to the segment.
         vx = -1f * ry;
         vy = rx;
@@ -258,8 +274,12 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy
         // Separating axis for segment (Gino, p80).
         // |dot(v, p1 - c)| > dot(|v|, h)
         float maxFraction = input.maxFraction;
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final int base = stack.top;
         // Build a bounding box for the segment.
-        final AABB segAABB = aabb;
+        final AABB segAABB = frame.aabb;
+        final RayCastInput subInput = frame.input;
         // Vec2 t = p1 + maxFraction * (p2 - p1);
         // before inline
         // temp.set(p2).subLocal(p1).mulLocal(maxFraction).addLocal(p1);
@@ -272,71 +292,140 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy
         segAABB.upperBound.x = Math.max(p1x, tempX);
         segAABB.upperBound.y = Math.max(p1y, tempY);
         // end inline
-        nodeStackIndex = 0;
-        nodeStack[nodeStackIndex++] = root;
-        while (nodeStackIndex > 0)
+        stack.push(root);
+        try
         {
-            int node = nodeStack[--nodeStackIndex] = root;
-            if (node == NULL_NODE)
-            {
-                continue;
-            }
-            final AABB nodeAABB = memberAabb[node];
-            if (!AABB.testOverlap(nodeAABB, segAABB))
-            {
-                continue;
-            }
-            // Separating axis for segment (Gino, p80).
-            // |dot(v, p1 - c)| > dot(|v|, h)
-            // node.aabb.getCenterToOut(c);
-            // node.aabb.getExtentsToOut(h);
-            cx = (nodeAABB.lowerBound.x + nodeAABB.upperBound.x) * .5f;
-            cy = (nodeAABB.lowerBound.y + nodeAABB.upperBound.y) * .5f;
-            hx = (nodeAABB.upperBound.x - nodeAABB.lowerBound.x) * .5f;
-            hy = (nodeAABB.upperBound.y - nodeAABB.lowerBound.y) * .5f;
-            tempX = p1x - cx;
-            tempY = p1y - cy;
-            float separation = MathUtils.abs(vx * tempX + vy * tempY)
-                    - (absVx * hx + absVy * hy);
-            if (separation > 0.0f)
-            {
-                continue;
-            }
-            int child1 = this.child1[node];
-            if (child1 == NULL_NODE)
+            while (stack.top > base)
             {
-                subInput.p1.x = p1x;
-                subInput.p1.y = p1y;
-                subInput.p2.x = p2x;
-                subInput.p2.y = p2y;
-                subInput.maxFraction = maxFraction;
-                float value = callback.raycastCallback(subInput, node);
-                if (value == 0.0f)
+                int node = stack.nodes[--stack.top];
+                final AABB nodeAABB = memberAabb[node];
+                if (!AABB.testOverlap(nodeAABB, segAABB))
+                {
+                    continue;
+                }
+                // Separating axis for segment (Gino, p80).
+                // |dot(v, p1 - c)| > dot(|v|, h)
+                // node.aabb.getCenterToOut(c);
+                // node.aabb.getExtentsToOut(h);
+                cx = (nodeAABB.lowerBound.x + nodeAABB.upperBound.x) * .5f;
+                cy = (nodeAABB.lowerBound.y + nodeAABB.upperBound.y) * .5f;
+                hx = (nodeAABB.upperBound.x - nodeAABB.lowerBound.x) * .5f;
+                hy = (nodeAABB.upperBound.y - nodeAABB.lowerBound.y) * .5f;
+                tempX = p1x - cx;
+                tempY = p1y - cy;
+                float separation = MathUtils.abs(vx * tempX + vy * tempY)
+                        - (absVx * hx + absVy * hy);
+                if (separation > 0.0f)
                 {
-                    // The client has terminated the ray cast.
-                    return;
+                    continue;
+                }
+                int child1 = this.child1[node];
+                if (child1 == NULL_NODE)
+                {
+                    subInput.p1.x = p1x;
+                    subInput.p1.y = p1y;
+                    subInput.p2.x = p2x;
+                    subInput.p2.y = p2y;
+                    subInput.maxFraction = maxFraction;
+                    float value = callback.raycastCallback(subInput, node);
+                    if (value == 0.0f)
+                    {
+                        // The client has terminated the ray cast.
+                        return;
+                    }
+                    if (value > 0.0f)
+                    {
+                        // Update segment bounding box.
+                        maxFraction = value;
+                        tempX = (p2x - p1x) * maxFraction + p1x;
+                        tempY = (p2y - p1y) * maxFraction + p1y;
+                        segAABB.lowerBound.x = Math.min(p1x, tempX);
+                        segAABB.lowerBound.y = Math.min(p1y, tempY);
+                        segAABB.upperBound.x = Math.max(p1x, tempX);
+                        segAABB.upperBound.y = Math.max(p1y, tempY);
+                    }
                 }
-                if (value > 0.0f)
+                else
                 {
-                    // Update segment bounding box.
-                    maxFraction = value;
-                    // temp.set(p2).subLocal(p1).mulLocal(maxFraction).addLocal(p1);
-                    // Vec2.minToOut(p1, temp, segAABB.lowerBound);
-                    // Vec2.maxToOut(p1, temp, segAABB.upperBound);
-                    tempX = (p2x - p1x) * maxFraction + p1x;
-                    tempY = (p2y - p1y) * maxFraction + p1y;
-                    segAABB.lowerBound.x = Math.min(p1x, tempX);
-                    segAABB.lowerBound.y = Math.min(p1y, tempY);
-                    segAABB.upperBound.x = Math.max(p1x, tempX);
-                    segAABB.upperBound.y = Math.max(p1y, tempY);
+                    stack.push(child1);
+                    stack.push(child2[node]);
                 }
             }
-            else
+        }
+        finally
+        {
+            stack.top = base;
+            stack.exit();
+        }
+    }
+
+    @Override
+    public void raycast(TreeRayCastPacketCallback callback,
+            RayCastPacket packet)
+    {
+        if (root == NULL_NODE)
+        {
+            return;
+        }
+        // The rays that were not terminated by the callback.
+        long active = packet.getMask();
+        final TreeStack stack = TreeStack.get();
+        final RayCastInput subInput = stack.enter().input;
+        final int base = stack.top;
+        stack.push(root, active);
+        try
+        {
+            while (stack.top > base)
             {
-                nodeStack[nodeStackIndex++] = child1;
-                nodeStack[nodeStackIndex++] = child2[node];
+                --stack.top;
+                int node = stack.nodes[stack.top];
+                long mask = stack.masks[stack.top] & active;
+                if (mask == 0)
+                {
+                    continue;
+                }
+                mask = packet.test(memberAabb[node], mask);
+                if (mask == 0)
+                {
+                    continue;
+                }
+                int child1 = this.child1[node];
+                if (child1 == NULL_NODE)
+                {
+                    while (mask != 0)
+                    {
+                        int ray = Long.numberOfTrailingZeros(mask);
+                        mask &= mask - 1;
+                        packet.getInput(ray, subInput);
+                        float value = callback.raycastCallback(subInput,
+                                node, ray);
+                        if (value == 0.0f)
+                        {
+                            // The client has terminated this ray.
+                            active &= ~(1L << ray);
+                        }
+                        else if (value > 0.0f)
+                        {
+                            packet.setMaxFraction(ray, value);
+                        }
+                    }
+                    if (active == 0)
+                    {
+                        return;
+                    }
+                }
+                else
+                {
+                    stack.push(child1, mask);
+                    stack.push(child2[node], mask);
+                }
             }
         }
+        finally
+        {
+            stack.top = base;
+            stack.exit();
+        }
     }
 
     @Override
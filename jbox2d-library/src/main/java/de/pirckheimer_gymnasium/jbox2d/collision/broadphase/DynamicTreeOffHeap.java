@@ -0,0 +1,1326 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.collision.broadphase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
+import de.pirckheimer_gymnasium.jbox2d.common.BufferUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Color3f;
+import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+
+/**
+ * A dynamic tree like {@link DynamicTreeFlatNodes} that keeps its nodes
+ * outside of the Java heap. Every node is a fixed size record of
+ * {@link #NODE_SIZE} bytes in a direct {@link ByteBuffer}:
+ *
+ * <pre>
+ * offset  0: float lowerBound.x
+ * offset  4: float lowerBound.y
+ * offset  8: float upperBound.x
+ * offset 12: float upperBound.y
+ * offset 16: int   parent, or the next free node
+ * offset 20: int   child1
+ * offset 24: int   child2
+ * offset 28: int   height, -1 for free nodes
+ * </pre>
+ *
+ * <p>
+ * The footprint is {@code NODE_SIZE} bytes per node plus one reference per
+ * node for the user data, and the garbage collector neither scans nor moves
+ * the node buffer. This pays off for trees with very many proxies, e.g. the
+ * static geometry of large generated levels. Each access goes through the
+ * buffer, so for small trees {@link DynamicTree} is somewhat faster.
+ * </p>
+ *
+ * <p>
+ * {@link #getFatAABB(int)} returns a shared instance that is overwritten by
+ * the next call.
+ * </p>
+ *
+ * <p>
+ * This class is excluded from the GWT module, which has no direct buffers or
+ * memory-mapped files.
+ * </p>
+ *
+ * <p>
+ * A tree can be saved with {@link #write} and loaded again with
+ * {@link #map}, which memory-maps the file instead of rebuilding the tree.
+ * This is meant for static level geometry: every proxy is saved under an
+ * integer key, and when the level is created again in a world that uses the
+ * mapped tree, {@link #createProxy} adopts the prebuilt leaf with the same
+ * key instead of inserting a new one. For fixtures, the user data of a proxy
+ * is a {@code FixtureProxy}:
+ * </p>
+ *
+ * <pre>
+ * ToIntFunction&lt;Object&gt; keys = proxy -&gt; {
+ *     Fixture f = ((FixtureProxy) proxy).getFixture();
+ *     return f.getBody().getType() == BodyType.STATIC
+ *             ? (Integer) f.getUserData() : -1;
+ * };
+ * levelTree.write(path, keys);
+ * ...
+ * DynamicTreeOffHeap tree = DynamicTreeOffHeap.map(path, settings, keys);
+ * World world = new World(gravity, pool, tree);
+ * // create the level, then
+ * tree.releaseUnclaimed();
+ * </pre>
+ */
+public class DynamicTreeOffHeap implements BroadPhaseStrategy
+{
+    public static final int NULL_NODE = -1;
+
+    /**
+     * The size of a node record in bytes.
+     */
+    public static final int NODE_SIZE = 32;
+
+    static final int LOWER_X = 0;
+
+    static final int LOWER_Y = 4;
+
+    static final int UPPER_X = 8;
+
+    static final int UPPER_Y = 12;
+
+    static final int PARENT = 16;
+
+    static final int CHILD1 = 20;
+
+    static final int CHILD2 = 24;
+
+    static final int HEIGHT = 28;
+
+    /**
+     * The byte order of the node records.
+     */
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int MAGIC = 0x4a423254;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * The user data of prebuilt leaves that were not adopted yet.
+     */
+    private static final Object UNCLAIMED = new Object();
+
+    ByteBuffer nodes;
+
+    Object[] userData;
+
+    int root;
+
+    int nodeCount;
+
+    int nodeCapacity;
+
+    int freeList;
+
+    private final WorldSettings settings;
+
+    private final AABB fatAABB = new AABB();
+
+    private final Vec2[] drawVecs = new Vec2[4];
+
+    /**
+     * Maps the keys of a mapped tree to its unclaimed leaves.
+     */
+    private int[] prebuiltNodes;
+
+    private ToIntFunction<Object> keys;
+
+    private int unclaimedCount;
+
+    public DynamicTreeOffHeap()
+    {
+        this(new WorldSettings());
+    }
+
+    /**
+     * Create a tree that fattens its proxies with the AABB extension and
+     * multiplier of the given settings.
+     */
+    public DynamicTreeOffHeap(WorldSettings settings)
+    {
+        this(settings, 16);
+    }
+
+    /**
+     * @param initialCapacity The number of nodes to allocate up front. A tree
+     *     with {@code n} proxies uses {@code 2n - 1} nodes.
+     */
+    public DynamicTreeOffHeap(WorldSettings settings, int initialCapacity)
+    {
+        this.settings = settings;
+        root = NULL_NODE;
+        nodeCount = 0;
+        nodeCapacity = 0;
+        userData = new Object[0];
+        expandBuffers(MathUtils.max(initialCapacity, 1));
+        for (int i = 0; i < drawVecs.length; i++)
+        {
+            drawVecs[i] = new Vec2();
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated for node records.
+     */
+    public long getNodeBufferBytes()
+    {
+        return (long) nodeCapacity * NODE_SIZE;
+    }
+
+    public int getNodeCapacity()
+    {
+        return nodeCapacity;
+    }
+
+    private void expandBuffers(int newCapacity)
+    {
+        int oldCapacity = nodeCapacity;
+        ByteBuffer newNodes = ByteBuffer
+                .allocateDirect(Math.multiplyExact(newCapacity, NODE_SIZE))
+                .order(ORDER);
+        if (nodes != null)
+        {
+            ByteBuffer old = nodes.duplicate();
+            old.position(0).limit(oldCapacity * NODE_SIZE);
+            newNodes.put(old);
+            newNodes.clear();
+        }
+        nodes = newNodes;
+        userData = BufferUtils.reallocateBuffer(Object.class, userData,
+                oldCapacity, newCapacity);
+        nodeCapacity = newCapacity;
+        // Build a linked list for the free list.
+        for (int i = oldCapacity; i < newCapacity; i++)
+        {
+            setParent(i, (i == newCapacity - 1) ? NULL_NODE : i + 1);
+            setHeight(i, -1);
+            setChild1(i, NULL_NODE);
+            setChild2(i, NULL_NODE);
+        }
+        freeList = oldCapacity;
+    }
+
+    // Node record accessors.
+
+    final float lowerX(int node)
+    {
+        return nodes.getFloat(node * NODE_SIZE + LOWER_X);
+    }
+
+    final float lowerY(int node)
+    {
+        return nodes.getFloat(node * NODE_SIZE + LOWER_Y);
+    }
+
+    final float upperX(int node)
+    {
+        return nodes.getFloat(node * NODE_SIZE + UPPER_X);
+    }
+
+    final float upperY(int node)
+    {
+        return nodes.getFloat(node * NODE_SIZE + UPPER_Y);
+    }
+
+    final int parent(int node)
+    {
+        return nodes.getInt(node * NODE_SIZE + PARENT);
+    }
+
+    final int child1(int node)
+    {
+        return nodes.getInt(node * NODE_SIZE + CHILD1);
+    }
+
+    final int child2(int node)
+    {
+        return nodes.getInt(node * NODE_SIZE + CHILD2);
+    }
+
+    final int height(int node)
+    {
+        return nodes.getInt(node * NODE_SIZE + HEIGHT);
+    }
+
+    private void setParent(int node, int value)
+    {
+        nodes.putInt(node * NODE_SIZE + PARENT, value);
+    }
+
+    private void setChild1(int node, int value)
+    {
+        nodes.putInt(node * NODE_SIZE + CHILD1, value);
+    }
+
+    private void setChild2(int node, int value)
+    {
+        nodes.putInt(node * NODE_SIZE + CHILD2, value);
+    }
+
+    private void setHeight(int node, int value)
+    {
+        nodes.putInt(node * NODE_SIZE + HEIGHT, value);
+    }
+
+    private void setBounds(int node, float lowerX, float lowerY, float upperX,
+            float upperY)
+    {
+        int offset = node * NODE_SIZE;
+        nodes.putFloat(offset + LOWER_X, lowerX);
+        nodes.putFloat(offset + LOWER_Y, lowerY);
+        nodes.putFloat(offset + UPPER_X, upperX);
+        nodes.putFloat(offset + UPPER_Y, upperY);
+    }
+
+    /**
+     * Set the bounds of the node to the union of the bounds of a and b.
+     */
+    private void combine(int node, int a, int b)
+    {
+        setBounds(node, MathUtils.min(lowerX(a), lowerX(b)),
+                MathUtils.min(lowerY(a), lowerY(b)),
+                MathUtils.max(upperX(a), upperX(b)),
+                MathUtils.max(upperY(a), upperY(b)));
+    }
+
+    private float perimeter(int node)
+    {
+        return 2.0f * (upperX(node) - lowerX(node) + upperY(node)
+                - lowerY(node));
+    }
+
+    private boolean overlaps(int node, AABB aabb)
+    {
+        int offset = node * NODE_SIZE;
+        return !(aabb.lowerBound.x - nodes.getFloat(offset + UPPER_X) > 0.0f
+                || aabb.lowerBound.y - nodes.getFloat(offset + UPPER_Y) > 0.0f
+                || nodes.getFloat(offset + LOWER_X) - aabb.upperBound.x > 0.0f
+                || nodes.getFloat(offset + LOWER_Y) - aabb.upperBound.y > 0.0f);
+    }
+
+    private AABB toAABB(int node, AABB out)
+    {
+        out.lowerBound.x = lowerX(node);
+        out.lowerBound.y = lowerY(node);
+        out.upperBound.x = upperX(node);
+        out.upperBound.y = upperY(node);
+        return out;
+    }
+
+    @Override
+    public final int createProxy(final AABB aabb, Object userData)
+    {
+        if (unclaimedCount > 0)
+        {
+            int node = claim(aabb, userData);
+            if (node != NULL_NODE)
+            {
+                return node;
+            }
+        }
+        final int node = allocateNode();
+        // Fatten the aabb
+        final float extension = settings.aabbExtension;
+        setBounds(node, aabb.lowerBound.x - extension,
+                aabb.lowerBound.y - extension, aabb.upperBound.x + extension,
+                aabb.upperBound.y + extension);
+        this.userData[node] = userData;
+        insertLeaf(node);
+        return node;
+    }
+
+    @Override
+    public final void destroyProxy(int proxyId)
+    {
+        assert (0 <= proxyId && proxyId < nodeCapacity);
+        assert (child1(proxyId) == NULL_NODE);
+        removeLeaf(proxyId);
+        freeNode(proxyId);
+    }
+
+    @Override
+    public final boolean moveProxy(int proxyId, final AABB aabb,
+            Vec2 displacement)
+    {
+        assert (0 <= proxyId && proxyId < nodeCapacity);
+        assert (child1(proxyId) == NULL_NODE);
+        if (lowerX(proxyId) <= aabb.lowerBound.x
+                && lowerY(proxyId) <= aabb.lowerBound.y
+                && aabb.upperBound.x <= upperX(proxyId)
+                && aabb.upperBound.y <= upperY(proxyId))
+        {
+            return false;
+        }
+        removeLeaf(proxyId);
+        // Extend AABB
+        final float extension = settings.aabbExtension;
+        float lowerX = aabb.lowerBound.x - extension;
+        float lowerY = aabb.lowerBound.y - extension;
+        float upperX = aabb.upperBound.x + extension;
+        float upperY = aabb.upperBound.y + extension;
+        // Predict AABB displacement.
+        final float dx = displacement.x * settings.aabbMultiplier;
+        final float dy = displacement.y * settings.aabbMultiplier;
+        if (dx < 0.0f)
+        {
+            lowerX += dx;
+        }
+        else
+        {
+            upperX += dx;
+        }
+        if (dy < 0.0f)
+        {
+            lowerY += dy;
+        }
+        else
+        {
+            upperY += dy;
+        }
+        setBounds(proxyId, lowerX, lowerY, upperX, upperY);
+        insertLeaf(proxyId);
+        return true;
+    }
+
+    @Override
+    public final Object getUserData(int proxyId)
+    {
+        assert (0 <= proxyId && proxyId < nodeCapacity);
+        return userData[proxyId];
+    }
+
+    @Override
+    public final AABB getFatAABB(int proxyId)
+    {
+        assert (0 <= proxyId && proxyId < nodeCapacity);
+        return toAABB(proxyId, fatAABB);
+    }
+
+    /**
+     * Adopt the prebuilt leaf with the key of the user data, if there is one
+     * and its fat AABB still contains the given AABB.
+     */
+    private int claim(AABB aabb, Object userData)
+    {
+        int key = keys.applyAsInt(userData);
+        if (key < 0 || key >= prebuiltNodes.length)
+        {
+            return NULL_NODE;
+        }
+        int node = prebuiltNodes[key];
+        if (node == NULL_NODE)
+        {
+            return NULL_NODE;
+        }
+        prebuiltNodes[key] = NULL_NODE;
+        --unclaimedCount;
+        if (lowerX(node) <= aabb.lowerBound.x
+                && lowerY(node) <= aabb.lowerBound.y
+                && aabb.upperBound.x <= upperX(node)
+                && aabb.upperBound.y <= upperY(node))
+        {
+            this.userData[node] = userData;
+            return node;
+        }
+        // The geometry changed since the tree was saved.
+        removeLeaf(node);
+        freeNode(node);
+        return NULL_NODE;
+    }
+
+    /**
+     * Get the number of prebuilt leaves of a mapped tree that were not adopted
+     * by {@link #createProxy} yet.
+     */
+    public int getUnclaimedCount()
+    {
+        return unclaimedCount;
+    }
+
+    /**
+     * Remove the prebuilt leaves that were not adopted. Call this after the
+     * level was created. Until then, queries skip unclaimed leaves.
+     */
+    public void releaseUnclaimed()
+    {
+        if (unclaimedCount == 0)
+        {
+            return;
+        }
+        for (int key = 0; key < prebuiltNodes.length; key++)
+        {
+            int node = prebuiltNodes[key];
+            if (node != NULL_NODE)
+            {
+                removeLeaf(node);
+                freeNode(node);
+            }
+        }
+        prebuiltNodes = null;
+        unclaimedCount = 0;
+    }
+
+    /**
+     * Save the leaves of this tree that have a non-negative key. The leaves are
+     * inserted into a compact copy of the tree first, so free nodes and
+     * leaves without a key are not written.
+     *
+     * @param keys Gives the key of a proxy from its user data. Keys are used
+     *     as array indices when the tree is mapped, so they should be dense,
+     *     e.g. the index of a fixture within the level.
+     */
+    public void write(Path file, ToIntFunction<Object> keys) throws IOException
+    {
+        int leafCount = 0;
+        for (int i = 0; i < nodeCapacity; i++)
+        {
+            if (height(i) == 0 && userData[i] != UNCLAIMED
+                    && keys.applyAsInt(userData[i]) >= 0)
+            {
+                ++leafCount;
+            }
+        }
+        DynamicTreeOffHeap copy = new DynamicTreeOffHeap(settings,
+                MathUtils.max(2 * leafCount - 1, 1));
+        int[] nodeKeys = new int[copy.nodeCapacity];
+        Arrays.fill(nodeKeys, -1);
+        for (int i = 0; i < nodeCapacity; i++)
+        {
+            if (height(i) != 0 || userData[i] == UNCLAIMED)
+            {
+                continue;
+            }
+            int key = keys.applyAsInt(userData[i]);
+            if (key < 0)
+            {
+                continue;
+            }
+            int leaf = copy.allocateNode();
+            copy.setBounds(leaf, lowerX(i), lowerY(i), upperX(i), upperY(i));
+            copy.insertLeaf(leaf);
+            nodeKeys[leaf] = key;
+        }
+        assert (copy.nodeCapacity == nodeKeys.length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(copy.nodeCapacity)
+                .putInt(copy.nodeCount).putInt(copy.root)
+                .putInt(copy.freeList).putInt(leafCount);
+        header.clear();
+        ByteBuffer keyBuffer = ByteBuffer.allocate(4 * nodeKeys.length)
+                .order(ORDER);
+        keyBuffer.asIntBuffer().put(nodeKeys);
+        ByteBuffer nodeBuffer = copy.nodes.duplicate();
+        nodeBuffer.clear();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer[] buffers = { header, nodeBuffer, keyBuffer };
+            long remaining = HEADER_SIZE + nodeBuffer.remaining()
+                    + keyBuffer.remaining();
+            while (remaining > 0)
+            {
+                remaining -= channel.write(buffers);
+            }
+        }
+    }
+
+    /**
+     * Load a tree saved with {@link #write}. The node records are mapped
+     * copy-on-write, so the file is not modified when proxies are added,
+     * moved or removed, but it has to be writable. All saved leaves start
+     * out unclaimed.
+     *
+     * @param keys Gives the key of a proxy from its user data, like when the
+     *     tree was written.
+     */
+    public static DynamicTreeOffHeap map(Path file, WorldSettings settings,
+            ToIntFunction<Object> keys) throws IOException
+    {
+        MappedByteBuffer mapped;
+        // Private mappings need a writable channel even though the file
+        // itself is never written.
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            mapped = channel.map(FileChannel.MapMode.PRIVATE, 0,
+                    channel.size());
+        }
+        mapped.order(ORDER);
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION)
+        {
+            throw new IOException("Not a dynamic tree file: " + file);
+        }
+        int capacity = mapped.getInt(8);
+        DynamicTreeOffHeap tree = new DynamicTreeOffHeap(settings, 1);
+        tree.nodes = mapped.slice(HEADER_SIZE, capacity * NODE_SIZE)
+                .order(ORDER);
+        tree.userData = new Object[capacity];
+        tree.nodeCapacity = capacity;
+        tree.nodeCount = mapped.getInt(12);
+        tree.root = mapped.getInt(16);
+        tree.freeList = mapped.getInt(20);
+        tree.keys = keys;
+        IntBuffer nodeKeys = mapped
+                .slice(HEADER_SIZE + capacity * NODE_SIZE, 4 * capacity)
+                .order(ORDER).asIntBuffer();
+        int maxKey = -1;
+        for (int i = 0; i < capacity; i++)
+        {
+            maxKey = MathUtils.max(maxKey, nodeKeys.get(i));
+        }
+        tree.prebuiltNodes = new int[maxKey + 1];
+        Arrays.fill(tree.prebuiltNodes, NULL_NODE);
+        for (int i = 0; i < capacity; i++)
+        {
+            int key = nodeKeys.get(i);
+            if (key >= 0)
+            {
+                tree.prebuiltNodes[key] = i;
+                tree.userData[i] = UNCLAIMED;
+                ++tree.unclaimedCount;
+            }
+        }
+        return tree;
+    }
+
+    @Override
+    public final void query(TreeCallback callback, AABB aabb)
+    {
+        if (root == NULL_NODE)
+        {
+            return;
+        }
+        final TreeStack stack = TreeStack.get();
+        final int base = stack.top;
+        stack.push(root);
+        try
+        {
+            while (stack.top > base)
+            {
+                int node = stack.nodes[--stack.top];
+                if (!overlaps(node, aabb))
+                {
+                    continue;
+                }
+                int child1 = child1(node);
+                if (child1 == NULL_NODE)
+                {
+                    if (userData[node] != UNCLAIMED
+                            && !callback.treeCallback(node))
+                    {
+                        return;
+                    }
+                }
+                else
+                {
+                    stack.push(child1);
+                    stack.push(child2(node));
+                }
+            }
+        }
+        finally
+        {
+            stack.top = base;
+        }
+    }
+
+    @Override
+    public void raycast(TreeRayCastCallback callback, RayCastInput input)
+    {
+        if (root == NULL_NODE)
+        {
+            return;
+        }
+        final float p1x = input.p1.x, p1y = input.p1.y;
+        final float p2x = input.p2.x, p2y = input.p2.y;
+        float rx = p2x - p1x;
+        float ry = p2y - p1y;
+        float length = MathUtils.sqrt(rx * rx + ry * ry);
+        assert (length > 0.0f);
+        rx /= length;
+        ry /= length;
+        // v is perpendicular to the segment.
+        final float vx = -ry;
+        final float vy = rx;
+        final float absVx = MathUtils.abs(vx);
+        final float absVy = MathUtils.abs(vy);
+        float maxFraction = input.maxFraction;
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final int base = stack.top;
+        final AABB segAABB = frame.aabb;
+        final RayCastInput subInput = frame.input;
+        // Build a bounding box for the segment.
+        float tempX = (p2x - p1x) * maxFraction + p1x;
+        float tempY = (p2y - p1y) * maxFraction + p1y;
+        segAABB.lowerBound.x = MathUtils.min(p1x, tempX);
+        segAABB.lowerBound.y = MathUtils.min(p1y, tempY);
+        segAABB.upperBound.x = MathUtils.max(p1x, tempX);
+        segAABB.upperBound.y = MathUtils.max(p1y, tempY);
+        stack.push(root);
+        try
+        {
+            while (stack.top > base)
+            {
+                int node = stack.nodes[--stack.top];
+                if (!overlaps(node, segAABB))
+                {
+                    continue;
+                }
+                // Separating axis for segment (Gino, p80).
+                // |dot(v, p1 - c)| > dot(|v|, h)
+                float lowerX = lowerX(node), lowerY = lowerY(node);
+                float upperX = upperX(node), upperY = upperY(node);
+                float cx = (lowerX + upperX) * .5f;
+                float cy = (lowerY + upperY) * .5f;
+                float hx = (upperX - lowerX) * .5f;
+                float hy = (upperY - lowerY) * .5f;
+                float separation = MathUtils.abs(vx * (p1x - cx) + vy * (p1y - cy))
+                        - (absVx * hx + absVy * hy);
+                if (separation > 0.0f)
+                {
+                    continue;
+                }
+                int child1 = child1(node);
+                if (child1 == NULL_NODE)
+                {
+                    if (userData[node] == UNCLAIMED)
+                    {
+                        continue;
+                    }
+                    subInput.p1.x = p1x;
+                    subInput.p1.y = p1y;
+                    subInput.p2.x = p2x;
+                    subInput.p2.y = p2y;
+                    subInput.maxFraction = maxFraction;
+                    float value = callback.raycastCallback(subInput, node);
+                    if (value == 0.0f)
+                    {
+                        // The client has terminated the ray cast.
+                        return;
+                    }
+                    if (value > 0.0f)
+                    {
+                        // Update segment bounding box.
+                        maxFraction = value;
+                        tempX = (p2x - p1x) * maxFraction + p1x;
+                        tempY = (p2y - p1y) * maxFraction + p1y;
+                        segAABB.lowerBound.x = MathUtils.min(p1x, tempX);
+                        segAABB.lowerBound.y = MathUtils.min(p1y, tempY);
+                        segAABB.upperBound.x = MathUtils.max(p1x, tempX);
+                        segAABB.upperBound.y = MathUtils.max(p1y, tempY);
+                    }
+                }
+                else
+                {
+                    stack.push(child1);
+                    stack.push(child2(node));
+                }
+            }
+        }
+        finally
+        {
+            stack.top = base;
+            stack.exit();
+        }
+    }
+
+    @Override
+    public void raycast(TreeRayCastPacketCallback callback,
+            RayCastPacket packet)
+    {
+        if (root == NULL_NODE)
+        {
+            return;
+        }
+        // The rays that were not terminated by the callback.
+        long active = packet.getMask();
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final int base = stack.top;
+        final AABB nodeAABB = frame.aabb;
+        final RayCastInput subInput = frame.input;
+        stack.push(root, active);
+        try
+        {
+            while (stack.top > base)
+            {
+                --stack.top;
+                int node = stack.nodes[stack.top];
+                long mask = stack.masks[stack.top] & active;
+                if (mask == 0)
+                {
+                    continue;
+                }
+                mask = packet.test(toAABB(node, nodeAABB), mask);
+                if (mask == 0)
+                {
+                    continue;
+                }
+                int child1 = child1(node);
+                if (child1 == NULL_NODE)
+                {
+                    if (userData[node] == UNCLAIMED)
+                    {
+                        continue;
+                    }
+                    while (mask != 0)
+                    {
+                        int ray = Long.numberOfTrailingZeros(mask);
+                        mask &= mask - 1;
+                        packet.getInput(ray, subInput);
+                        float value = callback.raycastCallback(subInput, node,
+                                ray);
+                        if (value == 0.0f)
+                        {
+                            // The client has terminated this ray.
+                            active &= ~(1L << ray);
+                        }
+                        else if (value > 0.0f)
+                        {
+                            packet.setMaxFraction(ray, value);
+                        }
+                    }
+                    if (active == 0)
+                    {
+                        return;
+                    }
+                }
+                else
+                {
+                    stack.push(child1, mask);
+                    stack.push(child2(node), mask);
+                }
+            }
+        }
+        finally
+        {
+            stack.top = base;
+            stack.exit();
+        }
+    }
+
+    @Override
+    public final int computeHeight()
+    {
+        return root == NULL_NODE ? 0 : computeHeight(root);
+    }
+
+    private int computeHeight(int node)
+    {
+        assert (0 <= node && node < nodeCapacity);
+        if (child1(node) == NULL_NODE)
+        {
+            return 0;
+        }
+        int height1 = computeHeight(child1(node));
+        int height2 = computeHeight(child2(node));
+        return 1 + MathUtils.max(height1, height2);
+    }
+
+    /**
+     * Validate this tree. For testing.
+     */
+    public void validate()
+    {
+        validateStructure(root);
+        validateMetrics(root);
+        int freeCount = 0;
+        int freeNode = freeList;
+        while (freeNode != NULL_NODE)
+        {
+            assert (0 <= freeNode && freeNode < nodeCapacity);
+            freeNode = parent(freeNode);
+            ++freeCount;
+        }
+        assert (getHeight() == computeHeight());
+        assert (nodeCount + freeCount == nodeCapacity);
+    }
+
+    @Override
+    public int getHeight()
+    {
+        if (root == NULL_NODE)
+        {
+            return 0;
+        }
+        return height(root);
+    }
+
+    @Override
+    public int getMaxBalance()
+    {
+        int maxBalance = 0;
+        for (int i = 0; i < nodeCapacity; ++i)
+        {
+            if (height(i) <= 1)
+            {
+                continue;
+            }
+            assert (child1(i) != NULL_NODE);
+            int balance = MathUtils.abs(height(child2(i)) - height(child1(i)));
+            maxBalance = MathUtils.max(maxBalance, balance);
+        }
+        return maxBalance;
+    }
+
+    @Override
+    public float getAreaRatio()
+    {
+        if (root == NULL_NODE)
+        {
+            return 0.0f;
+        }
+        float rootArea = perimeter(root);
+        float totalArea = 0.0f;
+        for (int i = 0; i < nodeCapacity; ++i)
+        {
+            if (height(i) < 0)
+            {
+                // Free node in pool
+                continue;
+            }
+            totalArea += perimeter(i);
+        }
+        return totalArea / rootArea;
+    }
+
+    private int allocateNode()
+    {
+        if (freeList == NULL_NODE)
+        {
+            assert (nodeCount == nodeCapacity);
+            expandBuffers(nodeCapacity * 2);
+        }
+        assert (freeList != NULL_NODE);
+        int node = freeList;
+        freeList = parent(node);
+        setParent(node, NULL_NODE);
+        setChild1(node, NULL_NODE);
+        setChild2(node, NULL_NODE);
+        setHeight(node, 0);
+        ++nodeCount;
+        return node;
+    }
+
+    /**
+     * returns a node to the pool
+     */
+    private void freeNode(int node)
+    {
+        assert (node != NULL_NODE);
+        assert (0 < nodeCount);
+        setParent(node, freeList);
+        setHeight(node, -1);
+        userData[node] = null;
+        freeList = node;
+        nodeCount--;
+    }
+
+    private void insertLeaf(int leaf)
+    {
+        if (root == NULL_NODE)
+        {
+            root = leaf;
+            setParent(root, NULL_NODE);
+            return;
+        }
+        // find the best sibling
+        final float leafLowerX = lowerX(leaf), leafLowerY = lowerY(leaf);
+        final float leafUpperX = upperX(leaf), leafUpperY = upperY(leaf);
+        int index = root;
+        while (child1(index) != NULL_NODE)
+        {
+            final int node = index;
+            int child1 = child1(node);
+            int child2 = child2(node);
+            float area = perimeter(node);
+            float combinedArea = 2.0f
+                    * (MathUtils.max(upperX(node), leafUpperX)
+                            - MathUtils.min(lowerX(node), leafLowerX)
+                            + MathUtils.max(upperY(node), leafUpperY)
+                            - MathUtils.min(lowerY(node), leafLowerY));
+            // Cost of creating a new parent for this node and the new leaf
+            float cost = 2.0f * combinedArea;
+            // Minimum cost of pushing the leaf further down the tree
+            float inheritanceCost = 2.0f * (combinedArea - area);
+            // Cost of descending into child1
+            float cost1 = 2.0f
+                    * (MathUtils.max(upperX(child1), leafUpperX)
+                            - MathUtils.min(lowerX(child1), leafLowerX)
+                            + MathUtils.max(upperY(child1), leafUpperY)
+                            - MathUtils.min(lowerY(child1), leafLowerY))
+                    + inheritanceCost;
+            if (child1(child1) != NULL_NODE)
+            {
+                cost1 -= perimeter(child1);
+            }
+            // Cost of descending into child2
+            float cost2 = 2.0f
+                    * (MathUtils.max(upperX(child2), leafUpperX)
+                            - MathUtils.min(lowerX(child2), leafLowerX)
+                            + MathUtils.max(upperY(child2), leafUpperY)
+                            - MathUtils.min(lowerY(child2), leafLowerY))
+                    + inheritanceCost;
+            if (child1(child2) != NULL_NODE)
+            {
+                cost2 -= perimeter(child2);
+            }
+            // Descend according to the minimum cost.
+            if (cost < cost1 && cost < cost2)
+            {
+                break;
+            }
+            // Descend
+            if (cost1 < cost2)
+            {
+                index = child1;
+            }
+            else
+            {
+                index = child2;
+            }
+        }
+        int sibling = index;
+        int oldParent = parent(sibling);
+        final int newParent = allocateNode();
+        setParent(newParent, oldParent);
+        userData[newParent] = null;
+        combine(newParent, leaf, sibling);
+        setHeight(newParent, height(sibling) + 1);
+        if (oldParent != NULL_NODE)
+        {
+            // The sibling was not the root.
+            if (child1(oldParent) == sibling)
+            {
+                setChild1(oldParent, newParent);
+            }
+            else
+            {
+                setChild2(oldParent, newParent);
+            }
+        }
+        else
+        {
+            // The sibling was the root.
+            root = newParent;
+        }
+        setChild1(newParent, sibling);
+        setChild2(newParent, leaf);
+        setParent(sibling, newParent);
+        setParent(leaf, newParent);
+        // Walk back up the tree fixing heights and AABBs
+        index = parent(leaf);
+        while (index != NULL_NODE)
+        {
+            index = balance(index);
+            int child1 = child1(index);
+            int child2 = child2(index);
+            assert (child1 != NULL_NODE);
+            assert (child2 != NULL_NODE);
+            setHeight(index, 1 + MathUtils.max(height(child1), height(child2)));
+            combine(index, child1, child2);
+            index = parent(index);
+        }
+    }
+
+    private void removeLeaf(int leaf)
+    {
+        if (leaf == root)
+        {
+            root = NULL_NODE;
+            return;
+        }
+        int parent = parent(leaf);
+        int grandParent = parent(parent);
+        int sibling = child1(parent) == leaf ? child2(parent) : child1(parent);
+        if (grandParent != NULL_NODE)
+        {
+            // Destroy parent and connect sibling to grandParent.
+            if (child1(grandParent) == parent)
+            {
+                setChild1(grandParent, sibling);
+            }
+            else
+            {
+                setChild2(grandParent, sibling);
+            }
+            setParent(sibling, grandParent);
+            freeNode(parent);
+            // Adjust ancestor bounds.
+            int index = grandParent;
+            while (index != NULL_NODE)
+            {
+                index = balance(index);
+                int child1 = child1(index);
+                int child2 = child2(index);
+                combine(index, child1, child2);
+                setHeight(index,
+                        1 + MathUtils.max(height(child1), height(child2)));
+                index = parent(index);
+            }
+        }
+        else
+        {
+            root = sibling;
+            setParent(sibling, NULL_NODE);
+            freeNode(parent);
+        }
+    }
+
+    // Perform a left or right rotation if node A is imbalanced.
+    // Returns the new root index.
+    private int balance(int iA)
+    {
+        assert (iA != NULL_NODE);
+        if (child1(iA) == NULL_NODE || height(iA) < 2)
+        {
+            return iA;
+        }
+        int iB = child1(iA);
+        int iC = child2(iA);
+        assert (0 <= iB && iB < nodeCapacity);
+        assert (0 <= iC && iC < nodeCapacity);
+        int balance = height(iC) - height(iB);
+        // Rotate C up
+        if (balance > 1)
+        {
+            int iF = child1(iC);
+            int iG = child2(iC);
+            assert (0 <= iF && iF < nodeCapacity);
+            assert (0 <= iG && iG < nodeCapacity);
+            // Swap A and C
+            setChild1(iC, iA);
+            int cParent = parent(iA);
+            setParent(iC, cParent);
+            setParent(iA, iC);
+            // A's old parent should point to C
+            if (cParent != NULL_NODE)
+            {
+                if (child1(cParent) == iA)
+                {
+                    setChild1(cParent, iC);
+                }
+                else
+                {
+                    assert (child2(cParent) == iA);
+                    setChild2(cParent, iC);
+                }
+            }
+            else
+            {
+                root = iC;
+            }
+            // Rotate
+            if (height(iF) > height(iG))
+            {
+                setChild2(iC, iF);
+                setChild2(iA, iG);
+                setParent(iG, iA);
+                combine(iA, iB, iG);
+                combine(iC, iA, iF);
+                setHeight(iA, 1 + MathUtils.max(height(iB), height(iG)));
+                setHeight(iC, 1 + MathUtils.max(height(iA), height(iF)));
+            }
+            else
+            {
+                setChild2(iC, iG);
+                setChild2(iA, iF);
+                setParent(iF, iA);
+                combine(iA, iB, iF);
+                combine(iC, iA, iG);
+                setHeight(iA, 1 + MathUtils.max(height(iB), height(iF)));
+                setHeight(iC, 1 + MathUtils.max(height(iA), height(iG)));
+            }
+            return iC;
+        }
+        // Rotate B up
+        if (balance < -1)
+        {
+            int iD = child1(iB);
+            int iE = child2(iB);
+            assert (0 <= iD && iD < nodeCapacity);
+            assert (0 <= iE && iE < nodeCapacity);
+            // Swap A and B
+            setChild1(iB, iA);
+            int bParent = parent(iA);
+            setParent(iB, bParent);
+            setParent(iA, iB);
+            // A's old parent should point to B
+            if (bParent != NULL_NODE)
+            {
+                if (child1(bParent) == iA)
+                {
+                    setChild1(bParent, iB);
+                }
+                else
+                {
+                    assert (child2(bParent) == iA);
+                    setChild2(bParent, iB);
+                }
+            }
+            else
+            {
+                root = iB;
+            }
+            // Rotate
+            if (height(iD) > height(iE))
+            {
+                setChild2(iB, iD);
+                setChild1(iA, iE);
+                setParent(iE, iA);
+                combine(iA, iC, iE);
+                combine(iB, iA, iD);
+                setHeight(iA, 1 + MathUtils.max(height(iC), height(iE)));
+                setHeight(iB, 1 + MathUtils.max(height(iA), height(iD)));
+            }
+            else
+            {
+                setChild2(iB, iE);
+                setChild1(iA, iD);
+                setParent(iD, iA);
+                combine(iA, iC, iD);
+                combine(iB, iA, iE);
+                setHeight(iA, 1 + MathUtils.max(height(iC), height(iD)));
+                setHeight(iB, 1 + MathUtils.max(height(iA), height(iE)));
+            }
+            return iB;
+        }
+        return iA;
+    }
+
+    private void validateStructure(int node)
+    {
+        if (node == NULL_NODE)
+        {
+            return;
+        }
+        assert node != root || (parent(node) == NULL_NODE);
+        int child1 = child1(node);
+        int child2 = child2(node);
+        if (child1 == NULL_NODE)
+        {
+            assert (child2 == NULL_NODE);
+            assert (height(node) == 0);
+            return;
+        }
+        assert 0 <= child1 && child1 < nodeCapacity;
+        assert (0 <= child2 && child2 < nodeCapacity);
+        assert (parent(child1) == node);
+        assert (parent(child2) == node);
+        validateStructure(child1);
+        validateStructure(child2);
+    }
+
+    private void validateMetrics(int node)
+    {
+        if (node == NULL_NODE)
+        {
+            return;
+        }
+        int child1 = child1(node);
+        int child2 = child2(node);
+        if (child1 == NULL_NODE)
+        {
+            assert (child2 == NULL_NODE);
+            assert (height(node) == 0);
+            return;
+        }
+        assert 0 <= child1 && child1 < nodeCapacity;
+        assert (child2 != child1 && 0 <= child2 && child2 < nodeCapacity);
+        assert (height(node) == 1
+                + MathUtils.max(height(child1), height(child2)));
+        assert (lowerX(node) == MathUtils.min(lowerX(child1), lowerX(child2)));
+        assert (lowerY(node) == MathUtils.min(lowerY(child1), lowerY(child2)));
+        assert (upperX(node) == MathUtils.max(upperX(child1), upperX(child2)));
+        assert (upperY(node) == MathUtils.max(upperY(child1), upperY(child2)));
+        validateMetrics(child1);
+        validateMetrics(child2);
+    }
+
+    @Override
+    public void drawTree(DebugDraw argDraw)
+    {
+        if (root == NULL_NODE)
+        {
+            return;
+        }
+        int height = computeHeight();
+        drawTree(argDraw, root, 0, height);
+    }
+
+    private final Color3f color = new Color3f();
+
+    private final Vec2 textVec = new Vec2();
+
+    private final AABB drawAABB = new AABB();
+
+    public void drawTree(DebugDraw argDraw, int node, int spot, int height)
+    {
+        AABB a = toAABB(node, drawAABB);
+        a.getVertices(drawVecs);
+        color.set(1, (height - spot) * 1f / height,
+                (height - spot) * 1f / height);
+        argDraw.drawPolygon(drawVecs, 4, color);
+        argDraw.getViewportTransform().getWorldToScreen(a.upperBound, textVec);
+        argDraw.drawString(textVec.x, textVec.y,
+                node + "-" + (spot + 1) + "/" + height, color);
+        int c1 = child1(node);
+        int c2 = child2(node);
+        if (c1 != NULL_NODE)
+        {
+            drawTree(argDraw, c1, spot + 1, height);
+        }
+        if (c2 != NULL_NODE)
+        {
+            drawTree(argDraw, c2, spot + 1, height);
+        }
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.collision.broadphase;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.PairCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+
+/**
+ * A broad-phase with one tree per collision layer. A moved proxy only
+ * queries the trees of the layers its own layer collides with, so pairs of
+ * layers that never collide are not even found. Proxies created without a
+ * layer, or with {@link BroadPhase#ANY_LAYER}, pair with every layer.
+ *
+ * Proxy ids combine the id in the tree with the layer.
+ */
+public class LayeredBroadPhase implements BroadPhase, TreeCallback
+{
+    /**
+     * The number of collision layers.
+     */
+    public static final int LAYER_COUNT = 32;
+
+    /**
+     * The tree of the proxies that pair with every layer.
+     */
+    private static final int ANY = LAYER_COUNT;
+
+    private static final int LAYER_BITS = 6;
+
+    private static final int LAYER_MASK = (1 << LAYER_BITS) - 1;
+
+    private final Supplier<BroadPhaseStrategy> factory;
+
+    /**
+     * The trees by layer, created with the first proxy of a layer.
+     */
+    private final BroadPhaseStrategy[] trees = new BroadPhaseStrategy[LAYER_COUNT
+            + 1];
+
+    /**
+     * The layers each layer collides with, one bit per layer.
+     */
+    private final int[] layerMasks = new int[LAYER_COUNT];
+
+    private int proxyCount;
+
+    private int[] moveBuffer = new int[16];
+
+    private int moveCount;
+
+    private long[] pairBuffer = new long[16];
+
+    private int pairCount;
+
+    private int queryProxyId = NULL_PROXY;
+
+    private int queryLayer;
+
+    private final AABB queryAABB = new AABB();
+
+    /**
+     * Uses a {@link DynamicTree} per layer.
+     */
+    public LayeredBroadPhase(WorldSettings settings)
+    {
+        this(() -> new DynamicTree(settings));
+    }
+
+    /**
+     * @param factory Creates the tree of a layer.
+     */
+    public LayeredBroadPhase(Supplier<BroadPhaseStrategy> factory)
+    {
+        this.factory = factory;
+        Arrays.fill(layerMasks, -1);
+    }
+
+    /**
+     * Set whether two layers collide. Pairs that are already reported are
+     * not affected, the client has to filter them.
+     */
+    public void setLayerCollision(int layerA, int layerB, boolean collide)
+    {
+        if (collide)
+        {
+            layerMasks[layerA] |= 1 << layerB;
+            layerMasks[layerB] |= 1 << layerA;
+        }
+        else
+        {
+            layerMasks[layerA] &= ~(1 << layerB);
+            layerMasks[layerB] &= ~(1 << layerA);
+        }
+    }
+
+    public boolean getLayerCollision(int layerA, int layerB)
+    {
+        return (layerMasks[layerA] & 1 << layerB) != 0;
+    }
+
+    private boolean collide(int layerA, int layerB)
+    {
+        return layerA == ANY || layerB == ANY
+                || (layerMasks[layerA] & 1 << layerB) != 0;
+    }
+
+    private BroadPhaseStrategy tree(int proxyId)
+    {
+        return trees[proxyId & LAYER_MASK];
+    }
+
+    @Override
+    public int createProxy(AABB aabb, Object userData)
+    {
+        return createProxy(aabb, userData, ANY_LAYER);
+    }
+
+    @Override
+    public int createProxy(AABB aabb, Object userData, int layer)
+    {
+        assert (layer == ANY_LAYER || 0 <= layer && layer < LAYER_COUNT);
+        int index = layer == ANY_LAYER ? ANY : layer;
+        if (trees[index] == null)
+        {
+            trees[index] = factory.get();
+        }
+        int proxyId = trees[index].createProxy(aabb,
+                userData) << LAYER_BITS | index;
+        ++proxyCount;
+        bufferMove(proxyId);
+        return proxyId;
+    }
+
+    @Override
+    public void destroyProxy(int proxyId)
+    {
+        unbufferMove(proxyId);
+        --proxyCount;
+        tree(proxyId).destroyProxy(proxyId >>> LAYER_BITS);
+    }
+
+    @Override
+    public void moveProxy(int proxyId, AABB aabb, Vec2 displacement)
+    {
+        if (tree(proxyId).moveProxy(proxyId >>> LAYER_BITS, aabb,
+                displacement))
+        {
+            bufferMove(proxyId);
+        }
+    }
+
+    @Override
+    public void touchProxy(int proxyId)
+    {
+        bufferMove(proxyId);
+    }
+
+    @Override
+    public Object getUserData(int proxyId)
+    {
+        return tree(proxyId).getUserData(proxyId >>> LAYER_BITS);
+    }
+
+    @Override
+    public AABB getFatAABB(int proxyId)
+    {
+        return tree(proxyId).getFatAABB(proxyId >>> LAYER_BITS);
+    }
+
+    @Override
+    public boolean testOverlap(int proxyIdA, int proxyIdB)
+    {
+        // Read A before fetching B, the strategy may reuse the returned AABB.
+        final AABB a = getFatAABB(proxyIdA);
+        final float aLowerX = a.lowerBound.x;
+        final float aLowerY = a.lowerBound.y;
+        final float aUpperX = a.upperBound.x;
+        final float aUpperY = a.upperBound.y;
+        final AABB b = getFatAABB(proxyIdB);
+        if (b.lowerBound.x - aUpperX > 0.0f || b.lowerBound.y - aUpperY > 0.0f)
+        {
+            return false;
+        }
+        return !(aLowerX - b.upperBound.x > 0.0f)
+                && !(aLowerY - b.upperBound.y > 0.0f);
+    }
+
+    @Override
+    public int getProxyCount()
+    {
+        return proxyCount;
+    }
+
+    @Override
+    public void drawTree(DebugDraw draw)
+    {
+        for (BroadPhaseStrategy tree : trees)
+        {
+            if (tree != null)
+            {
+                tree.drawTree(draw);
+            }
+        }
+    }
+
+    @Override
+    public void updatePairs(PairCallback callback)
+    {
+        pairCount = 0;
+        for (int i = 0; i < moveCount; ++i)
+        {
+            queryProxyId = moveBuffer[i];
+            if (queryProxyId == NULL_PROXY)
+            {
+                continue;
+            }
+            int layer = queryProxyId & LAYER_MASK;
+            queryAABB.set(getFatAABB(queryProxyId));
+            for (int j = 0; j < trees.length; ++j)
+            {
+                if (trees[j] != null && collide(layer, j))
+                {
+                    queryLayer = j;
+                    trees[j].query(this, queryAABB);
+                }
+            }
+        }
+        moveCount = 0;
+        queryProxyId = NULL_PROXY;
+        // Sort the pair buffer to expose duplicates.
+        Arrays.sort(pairBuffer, 0, pairCount);
+        int i = 0;
+        while (i < pairCount)
+        {
+            long primaryPair = pairBuffer[i];
+            callback.addPair(getUserData((int) (primaryPair >> 32)),
+                    getUserData((int) primaryPair));
+            ++i;
+            // Skip any duplicate pairs.
+            while (i < pairCount && pairBuffer[i] == primaryPair)
+            {
+                ++i;
+            }
+        }
+    }
+
+    /**
+     * Called by the tree queries of {@link #updatePairs}.
+     */
+    @Override
+    public boolean treeCallback(int nodeId)
+    {
+        int proxyId = nodeId << LAYER_BITS | queryLayer;
+        // A proxy cannot form a pair with itself.
+        if (proxyId == queryProxyId)
+        {
+            return true;
+        }
+        if (pairCount == pairBuffer.length)
+        {
+            pairBuffer = Arrays.copyOf(pairBuffer, 2 * pairCount);
+        }
+        if (proxyId < queryProxyId)
+        {
+            pairBuffer[pairCount] = (long) proxyId << 32 | queryProxyId;
+        }
+        else
+        {
+            pairBuffer[pairCount] = (long) queryProxyId << 32 | proxyId;
+        }
+        ++pairCount;
+        return true;
+    }
+
+    @Override
+    public void query(TreeCallback callback, AABB aabb)
+    {
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final Forwarder forwarder = forwarder(frame);
+        forwarder.queryCallback = callback;
+        forwarder.terminated = false;
+        try
+        {
+            for (int j = 0; j < trees.length && !forwarder.terminated; ++j)
+            {
+                if (trees[j] != null)
+                {
+                    forwarder.layer = j;
+                    frame.aabb.set(aabb);
+                    trees[j].query(forwarder, frame.aabb);
+                }
+            }
+        }
+        finally
+        {
+            forwarder.queryCallback = null;
+            stack.exit();
+        }
+    }
+
+    @Override
+    public void raycast(TreeRayCastCallback callback, RayCastInput input)
+    {
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final Forwarder forwarder = forwarder(frame);
+        forwarder.rayCallback = callback;
+        forwarder.rayInput = frame.input;
+        forwarder.terminated = false;
+        frame.input.set(input);
+        try
+        {
+            for (int j = 0; j < trees.length && !forwarder.terminated; ++j)
+            {
+                if (trees[j] != null)
+                {
+                    forwarder.layer = j;
+                    trees[j].raycast(forwarder, frame.input);
+                }
+            }
+        }
+        finally
+        {
+            forwarder.rayCallback = null;
+            stack.exit();
+        }
+    }
+
+    @Override
+    public void raycast(TreeRayCastPacketCallback callback,
+            RayCastPacket packet)
+    {
+        // The packet keeps the clipped fractions of its rays.
+        final TreeStack stack = TreeStack.get();
+        final Forwarder forwarder = forwarder(stack.enter());
+        forwarder.packetCallback = callback;
+        try
+        {
+            for (int j = 0; j < trees.length; ++j)
+            {
+                if (trees[j] != null)
+                {
+                    forwarder.layer = j;
+                    trees[j].raycast(forwarder, packet);
+                }
+            }
+        }
+        finally
+        {
+            forwarder.packetCallback = null;
+            stack.exit();
+        }
+    }
+
+    private static Forwarder forwarder(TreeStack.Frame frame)
+    {
+        if (frame.forwarder == null)
+        {
+            frame.forwarder = new Forwarder();
+        }
+        return frame.forwarder;
+    }
+
+    @Override
+    public int getTreeHeight()
+    {
+        int height = 0;
+        for (BroadPhaseStrategy tree : trees)
+        {
+            if (tree != null)
+            {
+                height = Math.max(height, tree.getHeight());
+            }
+        }
+        return height;
+    }
+
+    @Override
+    public int getTreeBalance()
+    {
+        int balance = 0;
+        for (BroadPhaseStrategy tree : trees)
+        {
+            if (tree != null)
+            {
+                balance = Math.max(balance, tree.getMaxBalance());
+            }
+        }
+        return balance;
+    }
+
+    @Override
+    public float getTreeQuality()
+    {
+        float quality = 0.0f;
+        for (BroadPhaseStrategy tree : trees)
+        {
+            if (tree != null)
+            {
+                quality = Math.max(quality, tree.getAreaRatio());
+            }
+        }
+        return quality;
+    }
+
+    private void bufferMove(int proxyId)
+    {
+        if (moveCount == moveBuffer.length)
+        {
+            moveBuffer = Arrays.copyOf(moveBuffer, 2 * moveCount);
+        }
+        moveBuffer[moveCount++] = proxyId;
+    }
+
+    private void unbufferMove(int proxyId)
+    {
+        for (int i = 0; i < moveCount; ++i)
+        {
+            if (moveBuffer[i] == proxyId)
+            {
+                moveBuffer[i] = NULL_PROXY;
+            }
+        }
+    }
+
+    /**
+     * Hands the nodes of a layer tree to a callback with their proxy ids.
+     * Each traversal takes its own forwarder from the {@link TreeStack}, so
+     * queries can be nested and run on several threads at once.
+     */
+    static final class Forwarder implements TreeCallback, TreeRayCastCallback,
+            TreeRayCastPacketCallback
+    {
+        TreeCallback queryCallback;
+
+        TreeRayCastCallback rayCallback;
+
+        TreeRayCastPacketCallback packetCallback;
+
+        int layer;
+
+        /**
+         * Whether the callback terminated the query or ray-cast.
+         */
+        boolean terminated;
+
+        /**
+         * The ray, clipped for the remaining layers.
+         */
+        RayCastInput rayInput;
+
+        @Override
+        public boolean treeCallback(int nodeId)
+        {
+            boolean proceed = queryCallback
+                    .treeCallback(nodeId << LAYER_BITS | layer);
+            terminated = !proceed;
+            return proceed;
+        }
+
+        @Override
+        public float raycastCallback(RayCastInput input, int nodeId)
+        {
+            float value = rayCallback.raycastCallback(input,
+                    nodeId << LAYER_BITS | layer);
+            if (value == 0.0f)
+            {
+                terminated = true;
+            }
+            else if (value > 0.0f)
+            {
+                rayInput.maxFraction = value;
+            }
+            return value;
+        }
+
+        @Override
+        public float raycastCallback(RayCastInput input, int nodeId, int ray)
+        {
+            return packetCallback.raycastCallback(input,
+                    nodeId << LAYER_BITS | layer, ray);
+        }
+    }
+}
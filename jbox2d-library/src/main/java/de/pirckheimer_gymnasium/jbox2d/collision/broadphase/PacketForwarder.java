@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.collision.broadphase;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
+
+/**
+ * Casts the rays of a packet one after another, for broad-phases and trees
+ * without a packet traversal. Each frame of the {@link TreeStack} keeps its
+ * own forwarder, so nothing is allocated per call and the callbacks may
+ * ray-cast again.
+ */
+final class PacketForwarder implements TreeRayCastCallback
+{
+    private BroadPhase broadPhase;
+
+    private BroadPhaseStrategy tree;
+
+    private TreeRayCastPacketCallback callback;
+
+    private RayCastPacket packet;
+
+    private int ray;
+
+    /**
+     * @see BroadPhase#raycast(TreeRayCastPacketCallback, RayCastPacket)
+     */
+    static void raycast(BroadPhase broadPhase,
+            TreeRayCastPacketCallback callback, RayCastPacket packet)
+    {
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final PacketForwarder forwarder = forwarder(frame);
+        forwarder.broadPhase = broadPhase;
+        try
+        {
+            forwarder.raycast(frame.input, callback, packet);
+        }
+        finally
+        {
+            stack.exit();
+        }
+    }
+
+    /**
+     * @see BroadPhaseStrategy#raycast(TreeRayCastPacketCallback,
+     *     RayCastPacket)
+     */
+    static void raycast(BroadPhaseStrategy tree,
+            TreeRayCastPacketCallback callback, RayCastPacket packet)
+    {
+        final TreeStack stack = TreeStack.get();
+        final TreeStack.Frame frame = stack.enter();
+        final PacketForwarder forwarder = forwarder(frame);
+        forwarder.tree = tree;
+        try
+        {
+            forwarder.raycast(frame.input, callback, packet);
+        }
+        finally
+        {
+            stack.exit();
+        }
+    }
+
+    private static PacketForwarder forwarder(TreeStack.Frame frame)
+    {
+        if (frame.packetForwarder == null)
+        {
+            frame.packetForwarder = new PacketForwarder();
+        }
+        return frame.packetForwarder;
+    }
+
+    private void raycast(RayCastInput input,
+            TreeRayCastPacketCallback callback, RayCastPacket packet)
+    {
+        this.callback = callback;
+        this.packet = packet;
+        try
+        {
+            for (ray = 0; ray < packet.getCount(); ++ray)
+            {
+                packet.getInput(ray, input);
+                if (tree != null)
+                {
+                    tree.raycast(this, input);
+                }
+                else
+                {
+                    broadPhase.raycast(this, input);
+                }
+            }
+        }
+        finally
+        {
+            broadPhase = null;
+            tree = null;
+            this.callback = null;
+            this.packet = null;
+        }
+    }
+
+    @Override
+    public float raycastCallback(RayCastInput input, int nodeId)
+    {
+        float value = callback.raycastCallback(input, nodeId, ray);
+        if (value > 0.0f)
+        {
+            packet.setMaxFraction(ray, value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.collision.broadphase;
+
+import java.util.Arrays;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+
+/**
+ * The traversal state of the trees on the calling thread.
+ *
+ * <p>
+ * A traversal pushes its nodes above the nodes of the traversals it is nested
+ * in and takes its scratch objects from the next frame. Trees can therefore be
+ * queried from several threads at once and from within their own callbacks,
+ * as long as nothing modifies them in the meantime.
+ * </p>
+ */
+final class TreeStack
+{
+    private static final ThreadLocal<TreeStack> STACKS = ThreadLocal
+            .withInitial(TreeStack::new);
+
+    /**
+     * The scratch objects of one traversal.
+     */
+    static final class Frame
+    {
+        final RayCastInput input = new RayCastInput();
+
+        final AABB aabb = new AABB();
+
+        /**
+         * Forwards the callbacks of a {@link LayeredBroadPhase}, created on
+         * first use.
+         */
+        LayeredBroadPhase.Forwarder forwarder;
+
+        /**
+         * Casts the rays of a packet one by one, created on first use.
+         */
+        PacketForwarder packetForwarder;
+    }
+
+    int[] nodes = new int[64];
+
+    /**
+     * The ray masks of the nodes of packet ray-casts.
+     */
+    long[] masks = new long[64];
+
+    int top;
+
+    private Frame[] frames = new Frame[4];
+
+    private int depth;
+
+    private TreeStack()
+    {
+    }
+
+    static TreeStack get()
+    {
+        return STACKS.get();
+    }
+
+    void push(int node)
+    {
+        if (top == nodes.length)
+        {
+            grow();
+        }
+        nodes[top++] = node;
+    }
+
+    void push(int node, long mask)
+    {
+        if (top == nodes.length)
+        {
+            grow();
+        }
+        masks[top] = mask;
+        nodes[top++] = node;
+    }
+
+    /**
+     * Enter a nested traversal. Must be paired with {@link #exit}.
+     */
+    Frame enter()
+    {
+        if (depth == frames.length)
+        {
+            frames = Arrays.copyOf(frames, 2 * depth);
+        }
+        Frame frame = frames[depth];
+        if (frame == null)
+        {
+            frame = frames[depth] = new Frame();
+        }
+        ++depth;
+        return frame;
+    }
+
+    void exit()
+    {
+        --depth;
+    }
+
+    private void grow()
+    {
+        nodes = Arrays.copyOf(nodes, 2 * top);
+        masks = Arrays.copyOf(masks, 2 * top);
+    }
+}
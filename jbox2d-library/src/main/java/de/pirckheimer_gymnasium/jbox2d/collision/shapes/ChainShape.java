@@ -53,8 +53,6 @@ public class ChainShape extends Shape
 
     public boolean hasPrevVertex = false, hasNextVertex = false;
 
-    private final EdgeShape pool0 = new EdgeShape();
-
     public ChainShape()
     {
         super(ShapeType.CHAIN);
@@ -120,9 +118,11 @@ public class ChainShape extends Shape
     public float computeDistanceToOut(Transform xf, Vec2 p, int childIndex,
             Vec2 normalOut)
     {
-        final EdgeShape edge = pool0;
-        getChildEdge(edge, childIndex);
-        return edge.computeDistanceToOut(xf, p, 0, normalOut);
+        assert (0 <= childIndex && childIndex < count - 1);
+        final Vec2 v1 = vertices[childIndex];
+        final Vec2 v2 = vertices[childIndex + 1];
+        return EdgeShape.computeDistanceToOut(xf, v1.x, v1.y, v2.x, v2.y, p,
+                normalOut);
     }
 
     @Override
@@ -136,19 +136,15 @@ public class ChainShape extends Shape
             Transform xf, int childIndex)
     {
         assert (childIndex < count);
-        final EdgeShape edgeShape = pool0;
         int i2 = childIndex + 1;
         if (i2 == count)
         {
             i2 = 0;
         }
-        Vec2 v = vertices[childIndex];
-        edgeShape.vertex1.x = v.x;
-        edgeShape.vertex1.y = v.y;
-        Vec2 v1 = vertices[i2];
-        edgeShape.vertex2.x = v1.x;
-        edgeShape.vertex2.y = v1.y;
-        return edgeShape.raycast(output, input, xf, 0);
+        // Read the segment in place instead of copying it into an edge.
+        final Vec2 v1 = vertices[childIndex];
+        final Vec2 v2 = vertices[i2];
+        return EdgeShape.raycast(output, input, xf, v1.x, v1.y, v2.x, v2.y);
     }
 
     @Override
@@ -90,21 +90,29 @@ public class EdgeShape extends Shape
         return false;
     }
 
-    // for pooling
-    private final Vec2 normal = new Vec2();
-
     @Override
     public float computeDistanceToOut(Transform xf, Vec2 p, int childIndex,
             Vec2 normalOut)
+    {
+        return computeDistanceToOut(xf, vertex1.x, vertex1.y, vertex2.x,
+                vertex2.y, p, normalOut);
+    }
+
+    /**
+     * Compute the distance from the segment between two vertices. Chains and
+     * heightfields use this to read their segments in place.
+     */
+    static float computeDistanceToOut(Transform xf, float x1, float y1,
+            float x2, float y2, Vec2 p, Vec2 normalOut)
     {
         float xfqc = xf.q.c;
         float xfqs = xf.q.s;
         float xfpx = xf.p.x;
         float xfpy = xf.p.y;
-        float v1x = (xfqc * vertex1.x - xfqs * vertex1.y) + xfpx;
-        float v1y = (xfqs * vertex1.x + xfqc * vertex1.y) + xfpy;
-        float v2x = (xfqc * vertex2.x - xfqs * vertex2.y) + xfpx;
-        float v2y = (xfqs * vertex2.x + xfqc * vertex2.y) + xfpy;
+        float v1x = (xfqc * x1 - xfqs * y1) + xfpx;
+        float v1y = (xfqs * x1 + xfqc * y1) + xfpy;
+        float v2x = (xfqc * x2 - xfqs * y2) + xfpx;
+        float v2y = (xfqs * x2 + xfqc * y2) + xfpy;
         float dx = p.x - v1x;
         float dy = p.y - v1y;
         float sx = v2x - v1x;
@@ -145,10 +153,20 @@ public class EdgeShape extends Shape
     @Override
     public boolean raycast(RayCastOutput output, RayCastInput input,
             Transform xf, int childIndex)
+    {
+        return raycast(output, input, xf, vertex1.x, vertex1.y, vertex2.x,
+                vertex2.y);
+    }
+
+    /**
+     * Ray-cast the segment between two vertices. Chains and heightfields use
+     * this to read their segments in place.
+     */
+    static boolean raycast(RayCastOutput output, RayCastInput input,
+            Transform xf, final float v1x, final float v1y, final float v2x,
+            final float v2y)
     {
         float tempx, tempy;
-        final Vec2 v1 = vertex1;
-        final Vec2 v2 = vertex2;
         final Rot xfq = xf.q;
         final Vec2 xfp = xf.p;
         // Put the ray into the edge's frame of reference.
@@ -166,16 +184,22 @@ public class EdgeShape extends Shape
         final float dy = p2y - p1y;
         // final Vec2 normal = pool2.set(v2).subLocal(v1);
         // normal.set(normal.y, -normal.x);
-        normal.x = v2.y - v1.y;
-        normal.y = v1.x - v2.x;
-        normal.normalize();
-        final float normalx = normal.x;
-        final float normaly = normal.y;
+        float nx = v2y - v1y;
+        float ny = v1x - v2x;
+        final float length = MathUtils.sqrt(nx * nx + ny * ny);
+        if (length >= Settings.EPSILON)
+        {
+            final float invLength = 1.0f / length;
+            nx *= invLength;
+            ny *= invLength;
+        }
+        final float normalx = nx;
+        final float normaly = ny;
         // q = p1 + t * d
         // dot(normal, q - v1) = 0
         // dot(normal, p1 - v1) + t * dot(normal, d) = 0
-        tempx = v1.x - p1x;
-        tempy = v1.y - p1y;
+        tempx = v1x - p1x;
+        tempy = v1y - p1y;
         float numerator = normalx * tempx + normaly * tempy;
         float denominator = normalx * dx + normaly * dy;
         if (denominator == 0.0f)
@@ -193,15 +217,15 @@ public class EdgeShape extends Shape
         // q = v1 + s * r
         // s = dot(q - v1, r) / dot(r, r)
         // Vec2 r = v2 - v1;
-        final float rx = v2.x - v1.x;
-        final float ry = v2.y - v1.y;
+        final float rx = v2x - v1x;
+        final float ry = v2y - v1y;
         final float rr = rx * rx + ry * ry;
         if (rr == 0.0f)
         {
             return false;
         }
-        tempx = qx - v1.x;
-        tempy = qy - v1.y;
+        tempx = qx - v1x;
+        tempy = qy - v1y;
         // float s = Vec2.dot(pool5, r) / rr;
         float s = (tempx * rx + tempy * ry) / rr;
         if (s < 0.0f || 1.0f < s)
@@ -212,14 +236,14 @@ public class EdgeShape extends Shape
         if (numerator > 0.0f)
         {
             // output.normal = -b2Mul(xf.q, normal);
-            output.normal.x = -xfq.c * normal.x + xfq.s * normal.y;
-            output.normal.y = -xfq.s * normal.x - xfq.c * normal.y;
+            output.normal.x = -xfq.c * normalx + xfq.s * normaly;
+            output.normal.y = -xfq.s * normalx - xfq.c * normaly;
         }
         else
         {
             // output->normal = b2Mul(xf.q, normal);
-            output.normal.x = xfq.c * normal.x - xfq.s * normal.y;
-            output.normal.y = xfq.s * normal.x + xfq.c * normal.y;
+            output.normal.x = xfq.c * normalx - xfq.s * normaly;
+            output.normal.y = xfq.s * normalx + xfq.c * normaly;
         }
         return true;
     }
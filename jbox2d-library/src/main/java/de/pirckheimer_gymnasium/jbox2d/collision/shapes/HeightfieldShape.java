@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.collision.shapes;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastOutput;
+import de.pirckheimer_gymnasium.jbox2d.common.Rot;
+import de.pirckheimer_gymnasium.jbox2d.common.Settings;
+import de.pirckheimer_gymnasium.jbox2d.common.Transform;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+
+/**
+ * A heightfield is a terrain of line segments over columns of a fixed width.
+ * Column {@code i} has the height {@code heights[i]} at
+ * {@code x = i * spacing} in body coordinates. Like a chain, every segment is
+ * a child of the shape and collides two-sided, but the column under a point
+ * is found by index arithmetic instead of a search.
+ *
+ * Heights may be changed in place with {@link #setHeight}, call
+ * {@link de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture#updateShape}
+ * afterwards.
+ */
+public class HeightfieldShape extends Shape
+{
+    public float[] heights;
+
+    public int count;
+
+    public float spacing;
+
+    /**
+     * The lowest and highest height. Edits only ever widen the range, so they
+     * may be larger than the actual heights.
+     */
+    public float minHeight, maxHeight;
+
+    public HeightfieldShape()
+    {
+        super(ShapeType.HEIGHTFIELD);
+        radius = Settings.polygonRadius;
+    }
+
+    /**
+     * Set the heights of the columns.
+     *
+     * @param heights The heights, these are copied.
+     * @param count The number of columns, at least two.
+     * @param spacing The width of a column.
+     */
+    public void set(final float[] heights, int count, float spacing)
+    {
+        assert (count >= 2);
+        assert (spacing > Settings.linearSlop);
+        this.heights = new float[count];
+        System.arraycopy(heights, 0, this.heights, 0, count);
+        this.count = count;
+        this.spacing = spacing;
+        minHeight = Float.MAX_VALUE;
+        maxHeight = -Float.MAX_VALUE;
+        for (int i = 0; i < count; ++i)
+        {
+            minHeight = Math.min(minHeight, heights[i]);
+            maxHeight = Math.max(maxHeight, heights[i]);
+        }
+    }
+
+    public float getHeight(int index)
+    {
+        return heights[index];
+    }
+
+    /**
+     * Change the height of a column in place. A world recorder writes the
+     * changed heights when {@link
+     * de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture#updateShape} is called.
+     */
+    public void setHeight(int index, float height)
+    {
+        heights[index] = height;
+        minHeight = Math.min(minHeight, height);
+        maxHeight = Math.max(maxHeight, height);
+    }
+
+    /**
+     * Get the segment that spans a coordinate in body coordinates, clamped to
+     * the first and last segment.
+     */
+    public int getColumn(float x)
+    {
+        int index = (int) Math.floor(x / spacing);
+        if (index < 0)
+        {
+            return 0;
+        }
+        return Math.min(index, count - 2);
+    }
+
+    /**
+     * Get the height of the terrain at a coordinate in body coordinates.
+     */
+    public float getHeightAt(float x)
+    {
+        int index = getColumn(x);
+        float t = x / spacing - index;
+        return heights[index] + t * (heights[index + 1] - heights[index]);
+    }
+
+    @Override
+    public int getChildCount()
+    {
+        return count - 1;
+    }
+
+    /**
+     * Get a child edge. The neighbouring segments are used as ghost vertices.
+     */
+    public void getChildEdge(EdgeShape edge, int index)
+    {
+        assert (0 <= index && index < count - 1);
+        edge.radius = radius;
+        edge.vertex1.x = index * spacing;
+        edge.vertex1.y = heights[index];
+        edge.vertex2.x = (index + 1) * spacing;
+        edge.vertex2.y = heights[index + 1];
+        edge.hasVertex0 = index > 0;
+        if (edge.hasVertex0)
+        {
+            edge.vertex0.x = (index - 1) * spacing;
+            edge.vertex0.y = heights[index - 1];
+        }
+        edge.hasVertex3 = index < count - 2;
+        if (edge.hasVertex3)
+        {
+            edge.vertex3.x = (index + 2) * spacing;
+            edge.vertex3.y = heights[index + 2];
+        }
+    }
+
+    /**
+     * Compute the bounds of a segment in body coordinates.
+     *
+     * @param extension Added on all sides.
+     */
+    public void computeLocalAABB(AABB aabb, int childIndex, float extension)
+    {
+        final float h1 = heights[childIndex];
+        final float h2 = heights[childIndex + 1];
+        aabb.lowerBound.x = childIndex * spacing - extension;
+        aabb.upperBound.x = (childIndex + 1) * spacing + extension;
+        aabb.lowerBound.y = Math.min(h1, h2) - extension;
+        aabb.upperBound.y = Math.max(h1, h2) + extension;
+    }
+
+    /**
+     * Compute the bounds of all segments in body coordinates.
+     */
+    public void computeLocalAABB(AABB aabb)
+    {
+        aabb.lowerBound.x = 0.0f;
+        aabb.upperBound.x = (count - 1) * spacing;
+        aabb.lowerBound.y = minHeight;
+        aabb.upperBound.y = maxHeight;
+    }
+
+    @Override
+    public float computeDistanceToOut(Transform xf, Vec2 p, int childIndex,
+            Vec2 normalOut)
+    {
+        assert (0 <= childIndex && childIndex < count - 1);
+        return EdgeShape.computeDistanceToOut(xf, childIndex * spacing,
+                heights[childIndex], (childIndex + 1) * spacing,
+                heights[childIndex + 1], p, normalOut);
+    }
+
+    @Override
+    public boolean testPoint(Transform xf, Vec2 p)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean raycast(RayCastOutput output, RayCastInput input,
+            Transform xf, int childIndex)
+    {
+        assert (0 <= childIndex && childIndex < count - 1);
+        return EdgeShape.raycast(output, input, xf, childIndex * spacing,
+                heights[childIndex], (childIndex + 1) * spacing,
+                heights[childIndex + 1]);
+    }
+
+    @Override
+    public void computeAABB(AABB aabb, Transform xf, int childIndex)
+    {
+        assert (0 <= childIndex && childIndex < count - 1);
+        final Rot xfq = xf.q;
+        final Vec2 xfp = xf.p;
+        final float x1 = childIndex * spacing;
+        final float y1 = heights[childIndex];
+        final float x2 = x1 + spacing;
+        final float y2 = heights[childIndex + 1];
+        float v1x = (xfq.c * x1 - xfq.s * y1) + xfp.x;
+        float v1y = (xfq.s * x1 + xfq.c * y1) + xfp.y;
+        float v2x = (xfq.c * x2 - xfq.s * y2) + xfp.x;
+        float v2y = (xfq.s * x2 + xfq.c * y2) + xfp.y;
+        aabb.lowerBound.x = Math.min(v1x, v2x);
+        aabb.lowerBound.y = Math.min(v1y, v2y);
+        aabb.upperBound.x = Math.max(v1x, v2x);
+        aabb.upperBound.y = Math.max(v1y, v2y);
+    }
+
+    @Override
+    public void computeMass(MassData massData, float density)
+    {
+        massData.mass = 0.0f;
+        massData.center.setZero();
+        massData.I = 0.0f;
+    }
+
+    @Override
+    public Shape clone()
+    {
+        HeightfieldShape clone = new HeightfieldShape();
+        clone.set(heights, count, spacing);
+        return clone;
+    }
+}
@@ -142,6 +142,13 @@ public class Settings
      * Maximum number of sub-steps per contact in continuous physics simulation.
      */
     public static int maxSubSteps = 8;
+
+    /**
+     * The distance beyond touching within which speculative contacts always
+     * create contact points, added to the distance the bodies can close in a
+     * step.
+     */
+    public static float speculativeDistance = 4.0f * linearSlop;
     // Dynamics
 
     /**
@@ -30,20 +30,56 @@ package de.pirckheimer_gymnasium.jbox2d.common;
  */
 public class Timer
 {
+    private Clock clock;
+
     private long resetNanos;
 
     public Timer()
     {
+        this(Clock.SYSTEM);
+    }
+
+    public Timer(Clock clock)
+    {
+        this.clock = clock;
         reset();
     }
 
+    public void setClock(Clock clock)
+    {
+        this.clock = clock;
+        reset();
+    }
+
+    public Clock getClock()
+    {
+        return clock;
+    }
+
     public void reset()
     {
-        resetNanos = System.nanoTime();
+        resetNanos = clock.nanoTime();
+    }
+
+    public long getNanoseconds()
+    {
+        return clock.nanoTime() - resetNanos;
     }
 
     public float getMilliseconds()
     {
-        return (float) (System.nanoTime() - resetNanos) / 1000 / 1000;
+        return (float) (clock.nanoTime() - resetNanos) / 1000 / 1000;
+    }
+
+    /**
+     * Get the milliseconds since the last reset and reset the timer with the
+     * same clock read, so that consecutive phases can be timed back to back.
+     */
+    public float lap()
+    {
+        long now = clock.nanoTime();
+        float milliseconds = (float) (now - resetNanos) / 1000 / 1000;
+        resetNanos = now;
+        return milliseconds;
     }
 }
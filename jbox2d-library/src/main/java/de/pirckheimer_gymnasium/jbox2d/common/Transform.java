@@ -176,14 +176,12 @@ public class Transform implements Serializable
         out.p.addLocal(A.p);
     }
 
-    private static final Vec2 pool = new Vec2();
-
     public static Transform mulTrans(final Transform A, final Transform B)
     {
         Transform C = new Transform();
         Rot.mulTransUnsafe(A.q, B.q, C.q);
-        pool.set(B.p).subLocal(A.p);
-        Rot.mulTransUnsafe(A.q, pool, C.p);
+        C.p.set(B.p).subLocal(A.p);
+        Rot.mulTrans(A.q, C.p, C.p);
         return C;
     }
 
@@ -191,9 +189,12 @@ public class Transform implements Serializable
             final Transform out)
     {
         assert (out != A);
+        // No static temporary here, worlds may use this from several threads.
+        float px = B.p.x - A.p.x;
+        float py = B.p.y - A.p.y;
         Rot.mulTrans(A.q, B.q, out.q);
-        pool.set(B.p).subLocal(A.p);
-        Rot.mulTrans(A.q, pool, out.p);
+        out.p.x = A.q.c * px + A.q.s * py;
+        out.p.y = -A.q.s * px + A.q.c * py;
     }
 
     public static void mulTransToOutUnsafe(final Transform A, final Transform B,
@@ -202,8 +203,8 @@ public class Transform implements Serializable
         assert (out != A);
         assert (out != B);
         Rot.mulTransUnsafe(A.q, B.q, out.q);
-        pool.set(B.p).subLocal(A.p);
-        Rot.mulTransUnsafe(A.q, pool, out.p);
+        out.p.set(B.p).subLocal(A.p);
+        Rot.mulTrans(A.q, out.p, out.p);
     }
 
     @Override
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.common;
+
+/**
+ * The tuning constants of a single world. A new instance copies the current
+ * values of the static fields in {@link Settings}, so these remain the
+ * defaults, but each world can be tuned independently afterwards.
+ *
+ * <p>
+ * Only the solver and broad-phase tolerances live here. Constants that shape
+ * geometry depends on, such as {@link Settings#polygonRadius} or
+ * {@link Settings#maxPolygonVertices}, stay global because shapes are not
+ * owned by a world.
+ * </p>
+ *
+ * <p>
+ * The math flags stay global as well: {@link Settings#SINCOS_LUT_ENABLED},
+ * {@link Settings#SINCOS_LUT_LERP} and the {@code FAST_*} flags are read by
+ * the static functions of {@link MathUtils}, which are called by shapes,
+ * joints and client code that have no world at hand. Changing them affects
+ * every world at once, including worlds that are being stepped on other
+ * threads, so they should only be changed before any world is created.
+ * </p>
+ *
+ * <p>
+ * A world reads its settings only while it is stepped or while proxies are
+ * moved, so changes should be made from the thread that steps the world.
+ * </p>
+ */
+public class WorldSettings
+{
+    /**
+     * @see Settings#aabbExtension
+     */
+    public float aabbExtension;
+
+    /**
+     * @see Settings#aabbMultiplier
+     */
+    public float aabbMultiplier;
+
+    /**
+     * @see Settings#linearSlop
+     */
+    public float linearSlop;
+
+    /**
+     * @see Settings#angularSlop
+     */
+    public float angularSlop;
+
+    /**
+     * @see Settings#maxSubSteps
+     */
+    public int maxSubSteps;
+
+    /**
+     * @see Settings#speculativeDistance
+     */
+    public float speculativeDistance;
+
+    /**
+     * @see Settings#maxTOIContacts
+     */
+    public int maxTOIContacts;
+
+    /**
+     * @see Settings#velocityThreshold
+     */
+    public float velocityThreshold;
+
+    /**
+     * @see Settings#maxLinearCorrection
+     */
+    public float maxLinearCorrection;
+
+    /**
+     * @see Settings#maxAngularCorrection
+     */
+    public float maxAngularCorrection;
+
+    /**
+     * @see Settings#maxTranslation
+     */
+    public float maxTranslation;
+
+    /**
+     * @see Settings#maxRotation
+     */
+    public float maxRotation;
+
+    /**
+     * @see Settings#baumgarte
+     */
+    public float baumgarte;
+
+    /**
+     * @see Settings#toiBaugarte
+     */
+    public float toiBaugarte;
+
+    /**
+     * @see Settings#timeToSleep
+     */
+    public float timeToSleep;
+
+    /**
+     * @see Settings#linearSleepTolerance
+     */
+    public float linearSleepTolerance;
+
+    /**
+     * @see Settings#angularSleepTolerance
+     */
+    public float angularSleepTolerance;
+
+    /**
+     * Create settings with the current defaults from {@link Settings}.
+     */
+    public WorldSettings()
+    {
+        aabbExtension = Settings.aabbExtension;
+        aabbMultiplier = Settings.aabbMultiplier;
+        linearSlop = Settings.linearSlop;
+        angularSlop = Settings.angularSlop;
+        maxSubSteps = Settings.maxSubSteps;
+        speculativeDistance = Settings.speculativeDistance;
+        maxTOIContacts = Settings.maxTOIContacts;
+        velocityThreshold = Settings.velocityThreshold;
+        maxLinearCorrection = Settings.maxLinearCorrection;
+        maxAngularCorrection = Settings.maxAngularCorrection;
+        maxTranslation = Settings.maxTranslation;
+        maxRotation = Settings.maxRotation;
+        baumgarte = Settings.baumgarte;
+        toiBaugarte = Settings.toiBaugarte;
+        timeToSleep = Settings.timeToSleep;
+        linearSleepTolerance = Settings.linearSleepTolerance;
+        angularSleepTolerance = Settings.angularSleepTolerance;
+    }
+
+    public WorldSettings(WorldSettings other)
+    {
+        set(other);
+    }
+
+    public WorldSettings set(WorldSettings other)
+    {
+        aabbExtension = other.aabbExtension;
+        aabbMultiplier = other.aabbMultiplier;
+        linearSlop = other.linearSlop;
+        angularSlop = other.angularSlop;
+        maxSubSteps = other.maxSubSteps;
+        speculativeDistance = other.speculativeDistance;
+        maxTOIContacts = other.maxTOIContacts;
+        velocityThreshold = other.velocityThreshold;
+        maxLinearCorrection = other.maxLinearCorrection;
+        maxAngularCorrection = other.maxAngularCorrection;
+        maxTranslation = other.maxTranslation;
+        maxRotation = other.maxRotation;
+        baumgarte = other.baumgarte;
+        toiBaugarte = other.toiBaugarte;
+        timeToSleep = other.timeToSleep;
+        linearSleepTolerance = other.linearSleepTolerance;
+        angularSleepTolerance = other.angularSleepTolerance;
+        return this;
+    }
+}
@@ -116,8 +116,20 @@ public class Body
 
     public int fixtureCount;
 
+    /**
+     * The shared broad-phase proxy of the fixtures, null unless the body is
+     * compound.
+     */
+    public CompoundProxy compound;
+
     public JointEdge jointList;
 
+    /**
+     * The bodies connected by joints that disable collision, null until the
+     * first such joint is created.
+     */
+    JointedBodies jointedBodies;
+
     public ContactEdge contactList;
 
     /**
@@ -228,6 +240,10 @@ public class Body
             flags |= activeFlag;
         }
         this.world = world;
+        if (bd.compound)
+        {
+            compound = new CompoundProxy(this, world.getSettings());
+        }
         xf.p.set(bd.position);
         xf.q.set(bd.angle);
         sweep.localCenter.setZero();
@@ -297,10 +313,18 @@ public class Body
         fixtureList = fixture;
         ++fixtureCount;
         fixture.body = this;
+        if (fixture.isSensor && world.getSensorOverlaps() != null)
+        {
+            world.getSensorOverlaps().add(fixture);
+        }
+        if (world.recorder != null)
+        {
+            world.recorder.createFixture(fixture, def);
+        }
         // Adjust mass properties if needed.
         if (fixture.density > 0.0f)
         {
-            resetMassData();
+            updateMassData();
         }
         // Let the world know we have a new fixture. This will cause new
         // contacts
@@ -351,6 +375,10 @@ public class Body
         {
             return;
         }
+        if (world.recorder != null)
+        {
+            world.recorder.destroyFixture(fixture);
+        }
         assert (fixture.body == this);
         // Remove the fixture from this body's singly linked list.
         assert (fixtureCount > 0);
@@ -399,13 +427,17 @@ public class Body
             BroadPhase broadPhase = world.contactManager.broadPhase;
             fixture.destroyProxies(broadPhase);
         }
+        if (fixture.sensorIndex >= 0)
+        {
+            world.getSensorOverlaps().remove(fixture);
+        }
         fixture.destroy();
         fixture.body = null;
         fixture.next = null;
         fixture = null;
         --fixtureCount;
         // Reset the mass data.
-        resetMassData();
+        updateMassData();
     }
 
     /**
@@ -426,6 +458,10 @@ public class Body
         {
             return;
         }
+        if (world.recorder != null)
+        {
+            world.recorder.setTransform(this, position, angle);
+        }
         xf.q.set(angle);
         xf.p.set(position);
         // sweep.c0 = sweep.c = Mul(xf, sweep.localCenter);
@@ -433,11 +469,7 @@ public class Body
         sweep.a = angle;
         sweep.c0.set(sweep.c);
         sweep.a0 = sweep.a;
-        BroadPhase broadPhase = world.contactManager.broadPhase;
-        for (Fixture f = fixtureList; f != null; f = f.next)
-        {
-            f.synchronize(broadPhase, xf, xf);
-        }
+        synchronizeProxies(xf, xf);
     }
 
     /**
@@ -493,6 +525,10 @@ public class Body
      */
     public final void setLinearVelocity(Vec2 v)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setLinearVelocity(this, v);
+        }
         if (type == BodyType.STATIC)
         {
             return;
@@ -522,6 +558,10 @@ public class Body
      */
     public final void setAngularVelocity(float w)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setAngularVelocity(this, w);
+        }
         if (type == BodyType.STATIC)
         {
             return;
@@ -561,6 +601,10 @@ public class Body
      */
     public void setGravityScale(float gravityScale)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setGravityScale(this, gravityScale);
+        }
         this.gravityScale = gravityScale;
     }
 
@@ -576,6 +620,10 @@ public class Body
      */
     public final void applyForce(Vec2 force, Vec2 point)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.applyForce(this, force, point);
+        }
         if (type != BodyType.DYNAMIC)
         {
             return;
@@ -603,6 +651,10 @@ public class Body
      */
     public final void applyForceToCenter(Vec2 force)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.applyForceToCenter(this, force);
+        }
         if (type != BodyType.DYNAMIC)
         {
             return;
@@ -625,6 +677,10 @@ public class Body
      */
     public final void applyTorque(float torque)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.applyTorque(this, torque);
+        }
         if (type != BodyType.DYNAMIC)
         {
             return;
@@ -650,6 +706,10 @@ public class Body
      */
     public final void applyLinearImpulse(Vec2 impulse, Vec2 point, boolean wake)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.applyLinearImpulse(this, impulse, point, wake);
+        }
         if (type != BodyType.DYNAMIC)
         {
             return;
@@ -680,6 +740,10 @@ public class Body
      */
     public void applyAngularImpulse(float impulse)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.applyAngularImpulse(this, impulse);
+        }
         if (type != BodyType.DYNAMIC)
         {
             return;
@@ -748,6 +812,10 @@ public class Body
         {
             return;
         }
+        if (world.recorder != null)
+        {
+            world.recorder.setMassData(this, massData);
+        }
         if (type != BodyType.DYNAMIC)
         {
             return;
@@ -793,6 +861,15 @@ public class Body
      * @repolink https://github.com/erincatto/box2d/blob/411acc32eb6d4f2e96fc70ddbdf01fe5f9b16230/src/dynamics/b2_body.cpp#L290-L354
      */
     public final void resetMassData()
+    {
+        if (world.recorder != null)
+        {
+            world.recorder.resetMassData(this);
+        }
+        updateMassData();
+    }
+
+    private void updateMassData()
     {
         // Compute mass data from shapes. Each shape has its own density.
         mass = 0.0f;
@@ -1011,6 +1088,10 @@ public class Body
      */
     public final void setLinearDamping(float linearDamping)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setLinearDamping(this, linearDamping);
+        }
         this.linearDamping = linearDamping;
     }
 
@@ -1027,6 +1108,10 @@ public class Body
      */
     public final void setAngularDamping(float angularDamping)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setAngularDamping(this, angularDamping);
+        }
         this.angularDamping = angularDamping;
     }
 
@@ -1045,12 +1130,16 @@ public class Body
         {
             return;
         }
+        if (world.recorder != null)
+        {
+            world.recorder.setType(this, type);
+        }
         if (this.type == type)
         {
             return;
         }
         this.type = type;
-        resetMassData();
+        updateMassData();
         if (this.type == BodyType.STATIC)
         {
             linearVelocity.setZero();
@@ -1074,16 +1163,27 @@ public class Body
         // Touch the proxies so that new contacts will be created (when
         // appropriate)
         BroadPhase broadPhase = world.contactManager.broadPhase;
+        if (compound != null)
+        {
+            compound.touch(broadPhase);
+            return;
+        }
         for (Fixture f = fixtureList; f != null; f = f.next)
         {
-            int proxyCount = f.proxyCount;
-            for (int i = 0; i < proxyCount; ++i)
-            {
-                broadPhase.touchProxy(f.proxies[i].proxyId);
-            }
+            f.touchProxies(broadPhase);
         }
     }
 
+    /**
+     * Does this body have a single broad-phase proxy for all of its fixtures?
+     *
+     * @see BodyDef#compound
+     */
+    public boolean isCompound()
+    {
+        return compound != null;
+    }
+
     /**
      * Is this body treated like a bullet for continuous collision detection?
      *
@@ -1102,6 +1202,10 @@ public class Body
      */
     public final void setBullet(boolean flag)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setBullet(this, flag);
+        }
         if (flag)
         {
             flags |= bulletFlag;
@@ -1120,6 +1224,10 @@ public class Body
      */
     public void setSleepingAllowed(boolean flag)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setSleepingAllowed(this, flag);
+        }
         if (flag)
         {
             flags |= autoSleepFlag;
@@ -1151,6 +1259,13 @@ public class Body
      */
     public void setAwake(boolean flag)
     {
+        // The solver wakes and sleeps bodies on its own while stepping, only
+        // explicit changes between steps belong in the recording.
+        if (world.recorder != null && flag != isAwake() && !world.isLocked())
+        {
+            world.recorder.setAwake(this, flag);
+        }
+        boolean wasAwake = isAwake();
         if (flag)
         {
             if ((flags & awakeFlag) == 0)
@@ -1168,6 +1283,14 @@ public class Body
             force.setZero();
             torque = 0.0f;
         }
+        ContactManager contactManager = world.contactManager;
+        if (flag != wasAwake && contactManager.contacts != null)
+        {
+            for (ContactEdge ce = contactList; ce != null; ce = ce.next)
+            {
+                contactManager.updatePartition(ce.contact);
+            }
+        }
     }
 
     /**
@@ -1203,6 +1326,10 @@ public class Body
         {
             return;
         }
+        if (world.recorder != null)
+        {
+            world.recorder.setActive(this, flag);
+        }
         if (flag)
         {
             flags |= activeFlag;
@@ -1252,6 +1379,10 @@ public class Body
      */
     public void setFixedRotation(boolean flag)
     {
+        if (world.recorder != null)
+        {
+            world.recorder.setFixedRotation(this, flag);
+        }
         if (flag)
         {
             flags |= fixedRotationFlag;
@@ -1260,7 +1391,7 @@ public class Body
         {
             flags &= ~fixedRotationFlag;
         }
-        resetMassData();
+        updateMassData();
     }
 
     /**
@@ -1364,9 +1495,20 @@ public class Body
         xf1.p.y = sweep.c0.y - xf1.q.s * sweep.localCenter.x
                 - xf1.q.c * sweep.localCenter.y;
         // end inline
+        synchronizeProxies(xf1, xf);
+    }
+
+    private void synchronizeProxies(Transform xf1, Transform xf2)
+    {
+        BroadPhase broadPhase = world.contactManager.broadPhase;
+        if (compound != null)
+        {
+            compound.synchronize(broadPhase, xf1, xf2);
+            return;
+        }
         for (Fixture f = fixtureList; f != null; f = f.next)
         {
-            f.synchronize(world.contactManager.broadPhase, xf1, xf);
+            f.synchronize(broadPhase, xf1, xf2);
         }
     }
 
@@ -1403,17 +1545,7 @@ public class Body
             return false;
         }
         // Does a joint prevent collision?
-        for (JointEdge jn = jointList; jn != null; jn = jn.next)
-        {
-            if (jn.other == other)
-            {
-                if (!jn.joint.getCollideConnected())
-                {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return jointedBodies == null || !jointedBodies.contains(other);
     }
 
     protected final void advance(float t)
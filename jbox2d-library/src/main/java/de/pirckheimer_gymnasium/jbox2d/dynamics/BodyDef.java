@@ -137,6 +137,14 @@ public class BodyDef
      */
     public boolean active;
 
+    /**
+     * Should the fixtures of this body share a single broad-phase proxy? The
+     * fixtures are then found in a tree in body coordinates. This makes moving
+     * bodies with many fixtures cheaper, e.g. destructible walls or terrain
+     * chunks, at the cost of an extra search for each broad-phase pair.
+     */
+    public boolean compound;
+
     /**
      * Use this to store application specific body data.
      *
@@ -166,6 +174,7 @@ public class BodyDef
         bullet = false;
         type = BodyType.STATIC;
         active = true;
+        compound = false;
         gravityScale = 1.0f;
     }
 
@@ -403,6 +412,22 @@ public class BodyDef
         this.active = active;
     }
 
+    /**
+     * Should the fixtures of this body share a single broad-phase proxy?
+     */
+    public boolean isCompound()
+    {
+        return compound;
+    }
+
+    /**
+     * Should the fixtures of this body share a single broad-phase proxy?
+     */
+    public void setCompound(boolean compound)
+    {
+        this.compound = compound;
+    }
+
     /**
      * Experimental: scales the inertia tensor.
      */
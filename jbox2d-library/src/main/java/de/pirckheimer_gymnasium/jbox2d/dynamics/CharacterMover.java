@@ -0,0 +1,713 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import java.util.Arrays;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactFilter;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.Distance;
+import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Settings;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+
+/**
+ * Moves kinematic characters with collide and slide. Each character is a
+ * kinematic body whose first fixture is swept along its velocity. The
+ * character slides along the fixtures it hits, steps up on small ledges,
+ * sticks to the ground when walking down slopes and keeps track of the
+ * ground it stands on.
+ *
+ * <p>
+ * {@link #update} moves all characters at once. The broad-phase is queried
+ * once for the swept bounds of all characters, in batches of characters
+ * close to each other, and each character then only sweeps against its own
+ * candidates. The moves are applied as the velocities of the kinematic
+ * bodies, so the next {@link World#step} moves the bodies and pushes the
+ * dynamic bodies in their way.
+ * </p>
+ *
+ * <p>
+ * The velocity of a character is clipped against the fixtures it hits, so
+ * it can be carried over to the next update. The mover does not apply
+ * gravity, add it to the velocity of characters that are not grounded.
+ * </p>
+ */
+public class CharacterMover
+{
+    private final World world;
+
+    private Body[] bodies = new Body[16];
+
+    private Vec2[] velocities = new Vec2[16];
+
+    private boolean[] grounded = new boolean[16];
+
+    private Vec2[] groundNormals = new Vec2[16];
+
+    private Fixture[] groundFixtures = new Fixture[16];
+
+    private int count;
+
+    private float maxSlopeCos = 0.70710677f;
+
+    private float stepHeight = 0.25f;
+
+    private int maxIterations = 4;
+
+    private boolean blockedByDynamicBodies;
+
+    /**
+     * The characters ordered along a Morton curve, with their indices in the
+     * low bits.
+     */
+    private long[] order = new long[16];
+
+    private AABB[] boxes = new AABB[16];
+
+    private Fixture[] found = new Fixture[64];
+
+    private int[] foundChildren = new int[64];
+
+    private int[] foundBoxes = new int[64];
+
+    /**
+     * The candidates of character i are at candidateStart[i] up to
+     * candidateStart[i + 1].
+     */
+    private int[] candidateStart = new int[17];
+
+    private Fixture[] candidates = new Fixture[64];
+
+    private int[] candidateChildren = new int[64];
+
+    /**
+     * The candidates a character overlaps at the start of its move.
+     */
+    private int[] overlaps = new int[8];
+
+    private Fixture[] overlapped = new Fixture[8];
+
+    private final ShapeSweep sweep = new ShapeSweep();
+
+    private Fixture hitFixture;
+
+    private final Vec2 hitNormal = new Vec2();
+
+    private final Vec2 up = new Vec2();
+
+    private final Vec2 position = new Vec2();
+
+    private final Vec2 translation = new Vec2();
+
+    private final Vec2 plane = new Vec2();
+
+    private final Vec2 stepStart = new Vec2();
+
+    private final Vec2 wallNormal = new Vec2();
+
+    private final Vec2 stepMove = new Vec2();
+
+    private final Vec2 velocity = new Vec2();
+
+    public CharacterMover(World world)
+    {
+        this.world = world;
+    }
+
+    /**
+     * Add a character.
+     *
+     * @param body A kinematic body. Its first fixture is swept.
+     *
+     * @return The index of the character.
+     */
+    public int add(Body body)
+    {
+        assert (body.getType() == BodyType.KINEMATIC);
+        assert (body.getFixtureList() != null);
+        if (count == bodies.length)
+        {
+            int capacity = 2 * count;
+            bodies = Arrays.copyOf(bodies, capacity);
+            velocities = Arrays.copyOf(velocities, capacity);
+            grounded = Arrays.copyOf(grounded, capacity);
+            groundNormals = Arrays.copyOf(groundNormals, capacity);
+            groundFixtures = Arrays.copyOf(groundFixtures, capacity);
+        }
+        bodies[count] = body;
+        if (velocities[count] == null)
+        {
+            velocities[count] = new Vec2();
+            groundNormals[count] = new Vec2();
+        }
+        velocities[count].set(body.getLinearVelocity());
+        grounded[count] = false;
+        groundNormals[count].setZero();
+        groundFixtures[count] = null;
+        return count++;
+    }
+
+    /**
+     * Remove a character. The last character takes its index.
+     */
+    public void remove(int index)
+    {
+        --count;
+        Vec2 velocity = velocities[index];
+        Vec2 groundNormal = groundNormals[index];
+        bodies[index] = bodies[count];
+        velocities[index] = velocities[count];
+        grounded[index] = grounded[count];
+        groundNormals[index] = groundNormals[count];
+        groundFixtures[index] = groundFixtures[count];
+        bodies[count] = null;
+        velocities[count] = velocity;
+        groundNormals[count] = groundNormal;
+        groundFixtures[count] = null;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public Body getBody(int index)
+    {
+        return bodies[index];
+    }
+
+    /**
+     * The velocity of a character. It may be changed in place.
+     */
+    public Vec2 getVelocity(int index)
+    {
+        return velocities[index];
+    }
+
+    public void setVelocity(int index, Vec2 velocity)
+    {
+        velocities[index].set(velocity);
+    }
+
+    /**
+     * Whether the character stood on walkable ground after the last update.
+     */
+    public boolean isGrounded(int index)
+    {
+        return grounded[index];
+    }
+
+    /**
+     * The surface normal of the ground, zero if the character is not
+     * grounded.
+     */
+    public Vec2 getGroundNormal(int index)
+    {
+        return groundNormals[index];
+    }
+
+    /**
+     * The fixture the character stands on, null if it is not grounded.
+     */
+    public Fixture getGroundFixture(int index)
+    {
+        return groundFixtures[index];
+    }
+
+    /**
+     * Set the steepest slope characters can stand on.
+     *
+     * @param angle The angle of the slope in radians.
+     */
+    public void setMaxSlope(float angle)
+    {
+        maxSlopeCos = MathUtils.cos(angle);
+    }
+
+    /**
+     * Set the height of the ledges characters step up on. Characters also
+     * stick to the ground when it falls away by less than this height.
+     */
+    public void setStepHeight(float stepHeight)
+    {
+        this.stepHeight = stepHeight;
+    }
+
+    public float getStepHeight()
+    {
+        return stepHeight;
+    }
+
+    /**
+     * Set the maximum number of slides per update.
+     */
+    public void setMaxIterations(int maxIterations)
+    {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Set whether dynamic bodies block characters. By default characters
+     * push them aside.
+     */
+    public void setBlockedByDynamicBodies(boolean flag)
+    {
+        blockedByDynamicBodies = flag;
+    }
+
+    /**
+     * Move all characters by their velocities over a time step and set the
+     * velocities of their bodies to reach the new positions in the next
+     * step. "Up" is against the gravity of the world.
+     *
+     * @warning This function is locked during callbacks.
+     */
+    public void update(float dt)
+    {
+        assert (!world.isLocked());
+        if (count == 0 || dt <= 0.0f)
+        {
+            return;
+        }
+        Vec2 gravity = world.getGravity();
+        float length = gravity.length();
+        if (length > Settings.EPSILON)
+        {
+            up.set(-gravity.x / length, -gravity.y / length);
+        }
+        else
+        {
+            up.set(0.0f, 1.0f);
+        }
+        gatherCandidates(dt);
+        Distance distance = world.getPool().getDistance();
+        for (int i = 0; i < count; ++i)
+        {
+            move(i, dt, distance);
+        }
+    }
+
+    /**
+     * Query the broad-phase for the swept bounds of all characters.
+     */
+    private void gatherCandidates(float dt)
+    {
+        if (boxes.length < count)
+        {
+            boxes = Arrays.copyOf(boxes, bodies.length);
+            order = new long[bodies.length];
+            candidateStart = new int[bodies.length + 1];
+        }
+        // Order the characters along a Morton curve, so that the boxes of a
+        // batch query are close to each other.
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; ++i)
+        {
+            Vec2 p = bodies[i].xf.p;
+            minX = MathUtils.min(minX, p.x);
+            minY = MathUtils.min(minY, p.y);
+            maxX = MathUtils.max(maxX, p.x);
+            maxY = MathUtils.max(maxY, p.y);
+        }
+        float scaleX = 0xFFFF / MathUtils.max(maxX - minX, Settings.EPSILON);
+        float scaleY = 0xFFFF / MathUtils.max(maxY - minY, Settings.EPSILON);
+        for (int i = 0; i < count; ++i)
+        {
+            Vec2 p = bodies[i].xf.p;
+            long key = spread((int) ((p.x - minX) * scaleX))
+                    | spread((int) ((p.y - minY) * scaleY)) << 1;
+            order[i] = key << 32 | i;
+        }
+        Arrays.sort(order, 0, count);
+        float margin = stepHeight + 2.0f * Settings.linearSlop;
+        for (int k = 0; k < count; ++k)
+        {
+            Body body = bodies[(int) order[k]];
+            Fixture fixture = body.getFixtureList();
+            if (boxes[k] == null)
+            {
+                boxes[k] = new AABB();
+            }
+            AABB box = boxes[k];
+            fixture.shape.computeAABB(box, body.xf, 0);
+            Vec2 v = velocities[(int) order[k]];
+            float dx = v.x * dt;
+            float dy = v.y * dt;
+            box.lowerBound.x += MathUtils.min(dx, 0.0f) - margin;
+            box.lowerBound.y += MathUtils.min(dy, 0.0f) - margin;
+            box.upperBound.x += MathUtils.max(dx, 0.0f) + margin;
+            box.upperBound.y += MathUtils.max(dy, 0.0f) + margin;
+        }
+        int foundCount;
+        while ((foundCount = world.queryAABBs(boxes, count, -1, found,
+                foundChildren, foundBoxes)) > found.length)
+        {
+            int capacity = MathUtils.max(foundCount, 2 * found.length);
+            found = new Fixture[capacity];
+            foundChildren = new int[capacity];
+            foundBoxes = new int[capacity];
+        }
+        // Bucket the candidates by character.
+        Arrays.fill(candidateStart, 0, count + 1, 0);
+        for (int j = 0; j < foundCount; ++j)
+        {
+            int i = (int) order[foundBoxes[j]];
+            if (blocks(bodies[i], found[j]))
+            {
+                ++candidateStart[i + 1];
+            }
+            else
+            {
+                found[j] = null;
+            }
+        }
+        for (int i = 0; i < count; ++i)
+        {
+            candidateStart[i + 1] += candidateStart[i];
+        }
+        if (candidates.length < candidateStart[count])
+        {
+            candidates = new Fixture[found.length];
+            candidateChildren = new int[found.length];
+        }
+        for (int j = 0; j < foundCount; ++j)
+        {
+            if (found[j] != null)
+            {
+                int i = (int) order[foundBoxes[j]];
+                int slot = candidateStart[i]++;
+                candidates[slot] = found[j];
+                candidateChildren[slot] = foundChildren[j];
+                found[j] = null;
+            }
+        }
+        // Restore the starts, they were advanced by one bucket.
+        for (int i = count; i > 0; --i)
+        {
+            candidateStart[i] = candidateStart[i - 1];
+        }
+        candidateStart[0] = 0;
+    }
+
+    /**
+     * Spread the low 16 bits of a value to the even bits.
+     */
+    private static long spread(int value)
+    {
+        long x = value & 0xFFFF;
+        x = (x | x << 8) & 0x00FF00FFL;
+        x = (x | x << 4) & 0x0F0F0F0FL;
+        x = (x | x << 2) & 0x33333333L;
+        x = (x | x << 1) & 0x55555555L;
+        return x;
+    }
+
+    /**
+     * Whether a fixture blocks a character.
+     */
+    private boolean blocks(Body body, Fixture fixture)
+    {
+        Body other = fixture.body;
+        if (other == body || fixture.isSensor
+                || other.getType() == BodyType.DYNAMIC
+                        && !blockedByDynamicBodies)
+        {
+            return false;
+        }
+        Fixture character = body.getFixtureList();
+        ContactManager contactManager = world.contactManager;
+        ContactFilter filter = contactManager.contactFilter;
+        return contactManager.layersCollide(character, fixture)
+                && (filter == null || filter.shouldCollide(character, fixture));
+    }
+
+    private void move(int i, float dt, Distance distance)
+    {
+        Body body = bodies[i];
+        Vec2 v = velocities[i];
+        boolean wasGrounded = grounded[i];
+        grounded[i] = false;
+        groundNormals[i].setZero();
+        groundFixtures[i] = null;
+        sweep.setShape(body.getFixtureList().shape, 0, body.xf.q);
+        position.set(body.xf.p);
+        depenetrate(i, distance);
+        translation.set(v).mulLocal(dt);
+        boolean stepped = false;
+        int planeCount = 0;
+        for (int iteration = 0; iteration < maxIterations; ++iteration)
+        {
+            if (translation.lengthSquared() < Settings.EPSILON
+                    * Settings.EPSILON)
+            {
+                break;
+            }
+            float fraction = cast(i, position, translation, distance);
+            if (fraction < 0.0f)
+            {
+                position.addLocal(translation);
+                break;
+            }
+            position.x += fraction * translation.x;
+            position.y += fraction * translation.y;
+            translation.mulLocal(1.0f - fraction);
+            if (Vec2.dot(hitNormal, up) >= maxSlopeCos)
+            {
+                setGround(i, hitFixture, hitNormal);
+            }
+            else if (!stepped && (wasGrounded || grounded[i])
+                    && stepHeight > 0.0f)
+            {
+                // Only try to step up once per update.
+                stepped = true;
+                if (stepUp(i, distance))
+                {
+                    break;
+                }
+            }
+            clip(translation, hitNormal);
+            float rise = Vec2.dot(v, up);
+            clip(v, hitNormal);
+            if (grounded[i] && rise <= 0.0f && Vec2.dot(v, up) > 0.0f)
+            {
+                // Sliding up the ground must not launch the character.
+                rise = Vec2.dot(v, up);
+                v.x -= rise * up.x;
+                v.y -= rise * up.y;
+            }
+            if (planeCount == 1 && Vec2.dot(translation, plane) < 0.0f)
+            {
+                // Wedged between two planes, slide along the crease.
+                float cx = -hitNormal.y;
+                float cy = hitNormal.x;
+                float along = translation.x * cx + translation.y * cy;
+                translation.set(along * cx, along * cy);
+                if (Vec2.dot(translation, plane) < 0.0f)
+                {
+                    translation.setZero();
+                }
+            }
+            plane.set(hitNormal);
+            planeCount = 1;
+        }
+        if (!grounded[i] && wasGrounded && stepHeight > 0.0f
+                && Vec2.dot(v, up) <= 0.0f)
+        {
+            // Stick to the ground when it falls away.
+            translation.set(up).mulLocal(-stepHeight);
+            float fraction = cast(i, position, translation, distance);
+            if (fraction >= 0.0f && Vec2.dot(hitNormal, up) >= maxSlopeCos)
+            {
+                position.x += fraction * translation.x;
+                position.y += fraction * translation.y;
+                setGround(i, hitFixture, hitNormal);
+            }
+        }
+        if (grounded[i])
+        {
+            clip(v, groundNormals[i]);
+        }
+        velocity.set(position).subLocal(body.xf.p).mulLocal(1.0f / dt);
+        body.setLinearVelocity(velocity);
+    }
+
+    /**
+     * Push the character out of the fixtures it overlaps. The push is swept
+     * against the other fixtures, so it cannot push the character through a
+     * wall.
+     */
+    private void depenetrate(int i, Distance distance)
+    {
+        float pushX = 0.0f;
+        float pushY = 0.0f;
+        int overlapCount = 0;
+        for (int j = candidateStart[i]; j < candidateStart[i + 1]; ++j)
+        {
+            Fixture fixture = candidates[j];
+            if (fixture == null)
+            {
+                continue;
+            }
+            sweep.setTarget(fixture.shape, candidateChildren[j],
+                    fixture.body.xf);
+            float d = sweep.distance(distance, position.x, position.y);
+            float target = sweep.getTarget();
+            if (d <= Settings.EPSILON)
+            {
+                // The cores touch and there is no direction to push out,
+                // push up by the target. Deeper overlaps get out over a few
+                // updates.
+                sweep.normal.set(up);
+                d = 0.0f;
+            }
+            if (d < target - ShapeSweep.TOLERANCE)
+            {
+                pushX += (target - d) * sweep.normal.x;
+                pushY += (target - d) * sweep.normal.y;
+                if (Vec2.dot(sweep.normal, up) >= maxSlopeCos)
+                {
+                    setGround(i, fixture, sweep.normal);
+                }
+                if (overlapCount == overlaps.length)
+                {
+                    overlaps = Arrays.copyOf(overlaps, 2 * overlapCount);
+                    overlapped = new Fixture[2 * overlapCount];
+                }
+                overlaps[overlapCount++] = j;
+            }
+        }
+        if (overlapCount == 0)
+        {
+            return;
+        }
+        // The fixtures pushing do not block the push.
+        for (int k = 0; k < overlapCount; ++k)
+        {
+            int j = overlaps[k];
+            overlapped[k] = candidates[j];
+            candidates[j] = null;
+        }
+        translation.set(pushX, pushY);
+        float fraction = cast(i, position, translation, distance);
+        if (fraction < 0.0f)
+        {
+            fraction = 1.0f;
+        }
+        position.x += fraction * pushX;
+        position.y += fraction * pushY;
+        for (int k = 0; k < overlapCount; ++k)
+        {
+            candidates[overlaps[k]] = overlapped[k];
+            overlapped[k] = null;
+        }
+    }
+
+    /**
+     * Sweep the character against its candidates.
+     *
+     * @return The fraction of the closest hit, -1 for a miss.
+     */
+    private float cast(int i, Vec2 start, Vec2 translation,
+            Distance distance)
+    {
+        float closest = 1.0f;
+        hitFixture = null;
+        for (int j = candidateStart[i]; j < candidateStart[i + 1]; ++j)
+        {
+            Fixture fixture = candidates[j];
+            if (fixture == null)
+            {
+                continue;
+            }
+            sweep.setTarget(fixture.shape, candidateChildren[j],
+                    fixture.body.xf);
+            float fraction = sweep.advance(distance, start, translation,
+                    closest);
+            if (fraction >= 0.0f
+                    && (hitFixture == null || fraction < closest))
+            {
+                closest = fraction;
+                hitFixture = fixture;
+                hitNormal.set(sweep.normal);
+            }
+        }
+        return hitFixture == null ? -1.0f : closest;
+    }
+
+    /**
+     * Try to continue the remaining translation on top of a ledge: up by the
+     * step height, forward and down onto walkable ground.
+     */
+    private boolean stepUp(int i, Distance distance)
+    {
+        stepStart.set(position);
+        wallNormal.set(hitNormal);
+        Fixture wall = hitFixture;
+        // Forward is the remaining translation across the up direction.
+        float along = Vec2.dot(translation, up);
+        float forwardX = translation.x - along * up.x;
+        float forwardY = translation.y - along * up.y;
+        if (forwardX * forwardX + forwardY * forwardY < Settings.EPSILON
+                * Settings.EPSILON)
+        {
+            return false;
+        }
+        stepMove.set(up).mulLocal(stepHeight);
+        float fraction = cast(i, position, stepMove, distance);
+        float lift = fraction < 0.0f ? stepHeight : fraction * stepHeight;
+        position.addLocal(up.x * lift, up.y * lift);
+        stepMove.set(forwardX, forwardY);
+        fraction = cast(i, position, stepMove, distance);
+        if (fraction == 0.0f)
+        {
+            return cancelStep(wall);
+        }
+        if (fraction < 0.0f)
+        {
+            fraction = 1.0f;
+        }
+        position.x += fraction * forwardX;
+        position.y += fraction * forwardY;
+        stepMove.set(up).mulLocal(-(lift + Settings.linearSlop));
+        fraction = cast(i, position, stepMove, distance);
+        if (fraction < 0.0f || Vec2.dot(hitNormal, up) < maxSlopeCos)
+        {
+            return cancelStep(wall);
+        }
+        position.x += fraction * stepMove.x;
+        position.y += fraction * stepMove.y;
+        setGround(i, hitFixture, hitNormal);
+        return true;
+    }
+
+    private boolean cancelStep(Fixture wall)
+    {
+        position.set(stepStart);
+        hitNormal.set(wallNormal);
+        hitFixture = wall;
+        return false;
+    }
+
+    private void setGround(int i, Fixture fixture, Vec2 normal)
+    {
+        grounded[i] = true;
+        groundNormals[i].set(normal);
+        groundFixtures[i] = fixture;
+    }
+
+    /**
+     * Remove the part of a vector that points into a plane.
+     */
+    private static void clip(Vec2 v, Vec2 normal)
+    {
+        float into = Vec2.dot(v, normal);
+        if (into < 0.0f)
+        {
+            v.x -= into * normal.x;
+            v.y -= into * normal.y;
+        }
+    }
+}
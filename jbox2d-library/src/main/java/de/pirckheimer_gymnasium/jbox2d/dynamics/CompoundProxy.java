@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DynamicTree;
+import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Transform;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+
+/**
+ * A single broad-phase proxy for many fixture children, either all fixtures of
+ * a compound body or the segments of a chain. The children are kept in a
+ * static tree in body coordinates, which is only searched when the
+ * broad-phase reports a pair for the proxy or a query reaches it. Moving the
+ * body updates one proxy instead of one per fixture child.
+ *
+ * The {@link FixtureProxy#aabb} and {@link FixtureProxy#proxyId} of these
+ * children refer to the body tree, not to the broad-phase.
+ *
+ * @see BodyDef#compound
+ * @see Fixture#compound
+ */
+public class CompoundProxy
+{
+    final Body body;
+
+    /**
+     * The fixture children in body coordinates.
+     */
+    final DynamicTree tree;
+
+    /**
+     * The id of the body in the broad-phase.
+     */
+    int proxyId = BroadPhase.NULL_PROXY;
+
+    /**
+     * The collision layer of the proxy in the broad-phase. Body compounds
+     * mix the layers of their fixtures and pair with every layer.
+     */
+    int layer = BroadPhase.ANY_LAYER;
+
+    private int childCount;
+
+    final float aabbExtension;
+
+    /**
+     * The union of the fixture children in body coordinates.
+     */
+    final AABB localAABB = new AABB();
+
+    boolean boundsDirty;
+
+    /**
+     * The distance of the farthest point of the local bounds from the body
+     * origin.
+     */
+    private float radius;
+
+    /**
+     * The transform of the body when the broad-phase last reported its pairs.
+     * Fixture pairs are only found for children that overlapped back then, so
+     * the pairs have to be reported again once the body has moved further
+     * than the AABB extension.
+     */
+    private final Transform pairTransform = new Transform();
+
+    /**
+     * Set when a fixture pair of the body stopped overlapping, the pairs are
+     * then reported again on the next move.
+     */
+    boolean requery;
+
+    final Transform identity = new Transform();
+
+    private final AABB aabb = new AABB();
+
+    private final AABB aabb1 = new AABB();
+
+    private final Vec2 displacement = new Vec2();
+
+    CompoundProxy(Body body, WorldSettings settings)
+    {
+        this(body, settings, new DynamicTree(settings));
+    }
+
+    /**
+     * @param tree The body tree, may be null for subclasses that find their
+     *     children without one.
+     */
+    CompoundProxy(Body body, WorldSettings settings, DynamicTree tree)
+    {
+        this.body = body;
+        this.tree = tree;
+        aabbExtension = settings.aabbExtension;
+    }
+
+    /**
+     * Get the body of this proxy.
+     */
+    public Body getBody()
+    {
+        return body;
+    }
+
+    /**
+     * Get the fixture child of a node of the body tree.
+     */
+    public FixtureProxy getFixtureProxy(int nodeId)
+    {
+        return (FixtureProxy) tree.getUserData(nodeId);
+    }
+
+    /**
+     * Add a fixture child. Call {@link #update} once the children are added.
+     */
+    void add(FixtureProxy proxy)
+    {
+        proxy.fixture.shape.computeAABB(proxy.aabb, identity,
+                proxy.childIndex);
+        proxy.proxyId = insert(proxy);
+        if (childCount++ == 0)
+        {
+            localAABB.set(proxy.aabb);
+        }
+        else
+        {
+            localAABB.combine(proxy.aabb);
+        }
+    }
+
+    /**
+     * Remove a fixture child. Call {@link #update} once the children are
+     * removed.
+     */
+    void remove(FixtureProxy proxy)
+    {
+        delete(proxy);
+        proxy.proxyId = BroadPhase.NULL_PROXY;
+        // The bounds are only ever too large, so they can be shrunk lazily.
+        boundsDirty = true;
+        --childCount;
+    }
+
+    /**
+     * Bring the broad-phase proxy in line with the children after adding or
+     * removing some. The proxy is created with the first child and destroyed
+     * with the last one.
+     */
+    void update(BroadPhase broadPhase)
+    {
+        if (childCount == 0)
+        {
+            if (proxyId != BroadPhase.NULL_PROXY)
+            {
+                broadPhase.destroyProxy(proxyId);
+                proxyId = BroadPhase.NULL_PROXY;
+            }
+            return;
+        }
+        if (boundsDirty)
+        {
+            updateBounds();
+        }
+        updateRadius();
+        computeAABB(aabb, body.xf, localAABB);
+        if (proxyId == BroadPhase.NULL_PROXY)
+        {
+            proxyId = broadPhase.createProxy(aabb, this, layer);
+            pairTransform.set(body.xf);
+        }
+        else
+        {
+            displacement.setZero();
+            broadPhase.moveProxy(proxyId, aabb, displacement);
+            // New children have not been paired yet.
+            broadPhase.touchProxy(proxyId);
+        }
+    }
+
+    /**
+     * Recompute the bounds after the shapes of the children changed in place
+     * and report the pairs again.
+     */
+    void refresh(BroadPhase broadPhase)
+    {
+        boundsDirty = true;
+        requery = true;
+        synchronize(broadPhase, body.xf, body.xf);
+    }
+
+    /**
+     * Insert a child into the body tree.
+     *
+     * @return The node of the child.
+     */
+    int insert(FixtureProxy proxy)
+    {
+        return tree.createProxy(proxy.aabb, proxy);
+    }
+
+    /**
+     * Remove a child from the body tree.
+     */
+    void delete(FixtureProxy proxy)
+    {
+        tree.destroyProxy(proxy.proxyId);
+    }
+
+    /**
+     * Touch the broad-phase proxy so that new pairs are created.
+     */
+    void touch(BroadPhase broadPhase)
+    {
+        if (proxyId != BroadPhase.NULL_PROXY)
+        {
+            broadPhase.touchProxy(proxyId);
+        }
+    }
+
+    /**
+     * Move the broad-phase proxy so that it covers the body at both
+     * transforms.
+     */
+    void synchronize(BroadPhase broadPhase, Transform transform1,
+            Transform transform2)
+    {
+        if (proxyId == BroadPhase.NULL_PROXY)
+        {
+            return;
+        }
+        if (boundsDirty)
+        {
+            updateBounds();
+            updateRadius();
+        }
+        computeAABB(aabb1, transform1, localAABB);
+        computeAABB(aabb, transform2, localAABB);
+        aabb.combine(aabb1);
+        displacement.x = transform2.p.x - transform1.p.x;
+        displacement.y = transform2.p.y - transform1.p.y;
+        // The broad-phase reports the pairs again if the proxy is reinserted.
+        boolean reinserted = !broadPhase.getFatAABB(proxyId).contains(aabb);
+        broadPhase.moveProxy(proxyId, aabb, displacement);
+        if (reinserted)
+        {
+            pairTransform.set(transform2);
+            requery = false;
+        }
+        else if (requery || drift(transform2) > aabbExtension)
+        {
+            broadPhase.touchProxy(proxyId);
+            pairTransform.set(transform2);
+            requery = false;
+        }
+    }
+
+    /**
+     * Compute the fat AABB of a fixture child in world coordinates.
+     */
+    void getFatAABB(FixtureProxy proxy, AABB out)
+    {
+        computeAABB(out, body.xf, tree.getFatAABB(proxy.proxyId));
+    }
+
+    /**
+     * Compute the AABB of a fixture child in world coordinates.
+     */
+    void getAABB(FixtureProxy proxy, AABB out)
+    {
+        computeAABB(out, body.xf, proxy.aabb);
+    }
+
+    /**
+     * Query the body tree for the fixture children that potentially overlap
+     * an AABB in world coordinates. The callback gets nodes of the body tree,
+     * see {@link #getFixtureProxy}.
+     */
+    public void query(TreeCallback callback, AABB aabb)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        try
+        {
+            toLocal(aabb, frame.aabb);
+            tree.query(callback, frame.aabb);
+        }
+        finally
+        {
+            frame.exit();
+        }
+    }
+
+    /**
+     * Compute a box in body coordinates that covers an AABB in world
+     * coordinates.
+     */
+    void toLocal(AABB aabb, AABB out)
+    {
+        final Transform xf = body.xf;
+        final float c = xf.q.c;
+        final float s = xf.q.s;
+        float cx = (aabb.lowerBound.x + aabb.upperBound.x) * .5f - xf.p.x;
+        float cy = (aabb.lowerBound.y + aabb.upperBound.y) * .5f - xf.p.y;
+        float ex = (aabb.upperBound.x - aabb.lowerBound.x) * .5f;
+        float ey = (aabb.upperBound.y - aabb.lowerBound.y) * .5f;
+        float lx = c * cx + s * cy;
+        float ly = -s * cx + c * cy;
+        float rx = MathUtils.abs(c) * ex + MathUtils.abs(s) * ey;
+        float ry = MathUtils.abs(s) * ex + MathUtils.abs(c) * ey;
+        out.lowerBound.set(lx - rx, ly - ry);
+        out.upperBound.set(lx + rx, ly + ry);
+    }
+
+    /**
+     * Ray-cast the body tree with a ray in world coordinates. The callback
+     * gets the input in world coordinates and nodes of the body tree, see
+     * {@link #getFixtureProxy}.
+     *
+     * @return 0 if the callback terminated the ray-cast, the clipped fraction
+     *     of the ray if it clipped it, -1 otherwise.
+     */
+    public float raycast(TreeRayCastCallback callback, RayCastInput input)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final RayCastForwarder forwarder = frame.compoundForwarder;
+        try
+        {
+            final Transform xf = body.xf;
+            final RayCastInput localInput = forwarder.localInput;
+            Transform.mulTransToOutUnsafe(xf, input.p1, localInput.p1);
+            Transform.mulTransToOutUnsafe(xf, input.p2, localInput.p2);
+            localInput.maxFraction = input.maxFraction;
+            forwarder.worldInput.set(input);
+            forwarder.callback = callback;
+            forwarder.result = -1.0f;
+            tree.raycast(forwarder, localInput);
+            return forwarder.result;
+        }
+        finally
+        {
+            forwarder.callback = null;
+            frame.exit();
+        }
+    }
+
+    /**
+     * Compute the AABB of a box in body coordinates in world coordinates.
+     */
+    static void computeAABB(AABB out, Transform xf, AABB local)
+    {
+        final float c = xf.q.c;
+        final float s = xf.q.s;
+        float cx = (local.lowerBound.x + local.upperBound.x) * .5f;
+        float cy = (local.lowerBound.y + local.upperBound.y) * .5f;
+        float ex = (local.upperBound.x - local.lowerBound.x) * .5f;
+        float ey = (local.upperBound.y - local.lowerBound.y) * .5f;
+        float wx = c * cx - s * cy + xf.p.x;
+        float wy = s * cx + c * cy + xf.p.y;
+        float rx = MathUtils.abs(c) * ex + MathUtils.abs(s) * ey;
+        float ry = MathUtils.abs(s) * ex + MathUtils.abs(c) * ey;
+        out.lowerBound.set(wx - rx, wy - ry);
+        out.upperBound.set(wx + rx, wy + ry);
+    }
+
+    /**
+     * How far a point of the body may have moved since the pairs were last
+     * reported.
+     */
+    private float drift(Transform xf)
+    {
+        float dx = xf.p.x - pairTransform.p.x;
+        float dy = xf.p.y - pairTransform.p.y;
+        final float c0 = pairTransform.q.c;
+        final float s0 = pairTransform.q.s;
+        float angle = MathUtils.atan2(c0 * xf.q.s - s0 * xf.q.c,
+                c0 * xf.q.c + s0 * xf.q.s);
+        return MathUtils.sqrt(dx * dx + dy * dy)
+                + MathUtils.abs(angle) * radius;
+    }
+
+    void updateBounds()
+    {
+        boolean first = true;
+        for (Fixture f = body.fixtureList; f != null; f = f.next)
+        {
+            if (f.compound != this)
+            {
+                continue;
+            }
+            for (int i = 0; i < f.proxyCount; ++i)
+            {
+                FixtureProxy proxy = f.proxies[i];
+                if (proxy.proxyId == BroadPhase.NULL_PROXY)
+                {
+                    continue;
+                }
+                if (first)
+                {
+                    localAABB.set(proxy.aabb);
+                    first = false;
+                }
+                else
+                {
+                    localAABB.combine(proxy.aabb);
+                }
+            }
+        }
+        boundsDirty = false;
+    }
+
+    private void updateRadius()
+    {
+        float x = Math.max(MathUtils.abs(localAABB.lowerBound.x),
+                MathUtils.abs(localAABB.upperBound.x));
+        float y = Math.max(MathUtils.abs(localAABB.lowerBound.y),
+                MathUtils.abs(localAABB.upperBound.y));
+        radius = MathUtils.sqrt(x * x + y * y);
+    }
+
+    /**
+     * Hands the nodes of a ray-cast of the body tree to a callback together
+     * with the ray in world coordinates. Rigid transforms keep the fractions
+     * the same in both spaces. Each ray-cast takes its own forwarder from the
+     * {@link QueryContext}.
+     */
+    static final class RayCastForwarder implements TreeRayCastCallback
+    {
+        final RayCastInput localInput = new RayCastInput();
+
+        final RayCastInput worldInput = new RayCastInput();
+
+        TreeRayCastCallback callback;
+
+        float result;
+
+        public float raycastCallback(RayCastInput input, int nodeId)
+        {
+            worldInput.maxFraction = input.maxFraction;
+            float value = callback.raycastCallback(worldInput, nodeId);
+            if (value >= 0.0f)
+            {
+                result = value;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactListener;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ShapeType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ChainAndCircleContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ChainAndPolygonContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.CircleContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.EdgeAndCircleContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.EdgeAndPolygonContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.HeightfieldAndCircleContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.HeightfieldAndPolygonContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.PolygonAndCircleContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.PolygonContact;
+
+/**
+ * Keeps the contacts in one array per contact class and runs the
+ * narrow-phase bucket by bucket. Every loop calls a single evaluate method,
+ * so the virtual call can be inlined.
+ *
+ * @see World#setBatchedNarrowPhase
+ */
+class ContactBatch
+{
+    private static final int TYPE_COUNT = ShapeType.values().length;
+
+    private static final int OTHER = 0;
+
+    private static final int CIRCLE = 1;
+
+    private static final int POLYGON_AND_CIRCLE = 2;
+
+    private static final int POLYGON = 3;
+
+    private static final int EDGE_AND_CIRCLE = 4;
+
+    private static final int EDGE_AND_POLYGON = 5;
+
+    private static final int CHAIN_AND_CIRCLE = 6;
+
+    private static final int CHAIN_AND_POLYGON = 7;
+
+    private static final int HEIGHTFIELD_AND_CIRCLE = 8;
+
+    private static final int HEIGHTFIELD_AND_POLYGON = 9;
+
+    private static final int BUCKET_COUNT = 10;
+
+    /**
+     * The bucket by the shape types of fixture A and B.
+     */
+    private static final int[] bucketByTypes = new int[TYPE_COUNT
+            * TYPE_COUNT];
+
+    /**
+     * The contact class of each bucket. Contacts of other classes, e.g. from
+     * a custom pool, go to the {@link #OTHER} bucket.
+     */
+    private static final Class<?>[] classes = new Class<?>[BUCKET_COUNT];
+    static
+    {
+        register(CIRCLE, CircleContact.class, ShapeType.CIRCLE,
+                ShapeType.CIRCLE);
+        register(POLYGON_AND_CIRCLE, PolygonAndCircleContact.class,
+                ShapeType.POLYGON, ShapeType.CIRCLE);
+        register(POLYGON, PolygonContact.class, ShapeType.POLYGON,
+                ShapeType.POLYGON);
+        register(EDGE_AND_CIRCLE, EdgeAndCircleContact.class, ShapeType.EDGE,
+                ShapeType.CIRCLE);
+        register(EDGE_AND_POLYGON, EdgeAndPolygonContact.class,
+                ShapeType.EDGE, ShapeType.POLYGON);
+        register(CHAIN_AND_CIRCLE, ChainAndCircleContact.class,
+                ShapeType.CHAIN, ShapeType.CIRCLE);
+        register(CHAIN_AND_POLYGON, ChainAndPolygonContact.class,
+                ShapeType.CHAIN, ShapeType.POLYGON);
+        register(HEIGHTFIELD_AND_CIRCLE, HeightfieldAndCircleContact.class,
+                ShapeType.HEIGHTFIELD, ShapeType.CIRCLE);
+        register(HEIGHTFIELD_AND_POLYGON, HeightfieldAndPolygonContact.class,
+                ShapeType.HEIGHTFIELD, ShapeType.POLYGON);
+    }
+
+    private static void register(int bucket, Class<?> type, ShapeType typeA,
+            ShapeType typeB)
+    {
+        bucketByTypes[typeA.ordinal() * TYPE_COUNT + typeB.ordinal()] = bucket;
+        classes[bucket] = type;
+    }
+
+    private final Contact[][] buckets = new Contact[BUCKET_COUNT][];
+
+    private final int[] counts = new int[BUCKET_COUNT];
+
+    ContactBatch()
+    {
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+        {
+            buckets[i] = new Contact[16];
+        }
+    }
+
+    void add(Contact c)
+    {
+        int bucket = bucketByTypes[c.fixtureA.getType().ordinal()
+                * TYPE_COUNT + c.fixtureB.getType().ordinal()];
+        if (c.getClass() != classes[bucket])
+        {
+            bucket = OTHER;
+        }
+        Contact[] contacts = buckets[bucket];
+        if (counts[bucket] == contacts.length)
+        {
+            Contact[] grown = new Contact[contacts.length * 2];
+            System.arraycopy(contacts, 0, grown, 0, contacts.length);
+            contacts = buckets[bucket] = grown;
+        }
+        c.batchBucket = bucket;
+        c.batchIndex = counts[bucket];
+        contacts[counts[bucket]++] = c;
+    }
+
+    /**
+     * Remove a contact, the last contact of its bucket takes its place.
+     */
+    void remove(Contact c)
+    {
+        Contact[] contacts = buckets[c.batchBucket];
+        int last = --counts[c.batchBucket];
+        Contact moved = contacts[last];
+        contacts[c.batchIndex] = moved;
+        moved.batchIndex = c.batchIndex;
+        contacts[last] = null;
+        c.batchBucket = -1;
+        c.batchIndex = -1;
+    }
+
+    /**
+     * Remove all contacts.
+     */
+    void clear()
+    {
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket)
+        {
+            Contact[] contacts = buckets[bucket];
+            for (int i = 0; i < counts[bucket]; ++i)
+            {
+                contacts[i].batchBucket = -1;
+                contacts[i].batchIndex = -1;
+                contacts[i] = null;
+            }
+            counts[bucket] = 0;
+        }
+    }
+
+    /**
+     * Filter and update all contacts. A contact destroyed in place is
+     * replaced by the last one of its bucket.
+     */
+    void collide(ContactManager manager, ContactListener listener)
+    {
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket)
+        {
+            collide(bucket, manager, listener);
+        }
+    }
+
+    /**
+     * One loop per contact class. The casts let the compiler bind each call
+     * to a single evaluate method.
+     */
+    private void collide(int bucket, ContactManager manager,
+            ContactListener listener)
+    {
+        Contact[] contacts = buckets[bucket];
+        int i = 0;
+        switch (bucket)
+        {
+        case CIRCLE:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((CircleContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case POLYGON_AND_CIRCLE:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((PolygonAndCircleContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case POLYGON:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((PolygonContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case EDGE_AND_CIRCLE:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((EdgeAndCircleContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case EDGE_AND_POLYGON:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((EdgeAndPolygonContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case CHAIN_AND_CIRCLE:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((ChainAndCircleContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case CHAIN_AND_POLYGON:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((ChainAndPolygonContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case HEIGHTFIELD_AND_CIRCLE:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((HeightfieldAndCircleContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        case HEIGHTFIELD_AND_POLYGON:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    if (c.beginUpdate())
+                    {
+                        ((HeightfieldAndPolygonContact) c).evaluateManifold();
+                    }
+                    c.endUpdate(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+
+        default:
+            while (i < counts[bucket])
+            {
+                Contact c = contacts[i];
+                if (manager.persists(c))
+                {
+                    c.update(listener);
+                }
+                if (contacts[i] == c)
+                {
+                    ++i;
+                }
+            }
+            break;
+        }
+    }
+}
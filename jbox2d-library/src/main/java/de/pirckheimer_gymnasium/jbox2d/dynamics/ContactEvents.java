@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import java.util.Arrays;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.WorldManifold;
+import de.pirckheimer_gymnasium.jbox2d.common.Settings;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ContactVelocityConstraint;
+
+/**
+ * The contact events of a time step, see {@link World#setContactEvents}.
+ * Begin and end events are recorded instead of calling the contact
+ * listener, hit events when a contact is solved with an approach speed of
+ * at least {@link #getHitThreshold()}. The buffer is cleared at the start of
+ * every step, so the events are read between steps. The arrays grow as
+ * needed and are reused.
+ */
+public class ContactEvents
+{
+    private static final int MAX_POINTS = Settings.maxManifoldPoints;
+
+    private float hitThreshold = 1.0f;
+
+    private int beginCount;
+
+    private Fixture[] beginFixturesA = new Fixture[16];
+
+    private Fixture[] beginFixturesB = new Fixture[16];
+
+    /**
+     * The child indices of fixture A and B, two per event.
+     */
+    private int[] beginChildren = new int[32];
+
+    private int endCount;
+
+    private Fixture[] endFixturesA = new Fixture[16];
+
+    private Fixture[] endFixturesB = new Fixture[16];
+
+    private int[] endChildren = new int[32];
+
+    private int hitCount;
+
+    private Fixture[] hitFixturesA = new Fixture[16];
+
+    private Fixture[] hitFixturesB = new Fixture[16];
+
+    private float[] hitSpeeds = new float[16];
+
+    private int[] hitPointCounts = new int[16];
+
+    /**
+     * The normal of each hit, x and y.
+     */
+    private float[] hitNormals = new float[32];
+
+    /**
+     * The world points of each hit, x and y per point.
+     */
+    private float[] hitPoints = new float[32 * MAX_POINTS];
+
+    private float[] hitNormalImpulses = new float[16 * MAX_POINTS];
+
+    private float[] hitTangentImpulses = new float[16 * MAX_POINTS];
+
+    private final WorldManifold worldManifold = new WorldManifold();
+
+    /**
+     * Set the approach speed a contact needs for a hit event, 1 m/s by
+     * default.
+     */
+    public void setHitThreshold(float hitThreshold)
+    {
+        this.hitThreshold = hitThreshold;
+    }
+
+    public float getHitThreshold()
+    {
+        return hitThreshold;
+    }
+
+    /**
+     * Remove all events, called at the start of a step.
+     */
+    public void clear()
+    {
+        Arrays.fill(beginFixturesA, 0, beginCount, null);
+        Arrays.fill(beginFixturesB, 0, beginCount, null);
+        Arrays.fill(endFixturesA, 0, endCount, null);
+        Arrays.fill(endFixturesB, 0, endCount, null);
+        Arrays.fill(hitFixturesA, 0, hitCount, null);
+        Arrays.fill(hitFixturesB, 0, hitCount, null);
+        beginCount = 0;
+        endCount = 0;
+        hitCount = 0;
+    }
+
+    /**
+     * Record that two fixtures began to touch.
+     */
+    public void addBegin(Contact c)
+    {
+        if (beginCount == beginFixturesA.length)
+        {
+            int capacity = 2 * beginCount;
+            beginFixturesA = copyOf(beginFixturesA, capacity);
+            beginFixturesB = copyOf(beginFixturesB, capacity);
+            beginChildren = copyOf(beginChildren, 2 * capacity);
+        }
+        beginFixturesA[beginCount] = c.getFixtureA();
+        beginFixturesB[beginCount] = c.getFixtureB();
+        beginChildren[2 * beginCount] = c.getChildIndexA();
+        beginChildren[2 * beginCount + 1] = c.getChildIndexB();
+        ++beginCount;
+    }
+
+    /**
+     * Record that two fixtures stopped touching.
+     */
+    public void addEnd(Contact c)
+    {
+        if (endCount == endFixturesA.length)
+        {
+            int capacity = 2 * endCount;
+            endFixturesA = copyOf(endFixturesA, capacity);
+            endFixturesB = copyOf(endFixturesB, capacity);
+            endChildren = copyOf(endChildren, 2 * capacity);
+        }
+        endFixturesA[endCount] = c.getFixtureA();
+        endFixturesB[endCount] = c.getFixtureB();
+        endChildren[2 * endCount] = c.getChildIndexA();
+        endChildren[2 * endCount + 1] = c.getChildIndexB();
+        ++endCount;
+    }
+
+    /**
+     * Record a hit if the contact approached fast enough.
+     *
+     * @param vc The solved velocity constraint of the contact.
+     */
+    public void addHit(Contact c, ContactVelocityConstraint vc)
+    {
+        float speed = 0.0f;
+        for (int j = 0; j < vc.pointCount; ++j)
+        {
+            speed = Math.max(speed, -vc.points[j].relativeVelocity);
+        }
+        if (speed < hitThreshold || vc.pointCount == 0)
+        {
+            return;
+        }
+        if (hitCount == hitFixturesA.length)
+        {
+            int capacity = 2 * hitCount;
+            hitFixturesA = copyOf(hitFixturesA, capacity);
+            hitFixturesB = copyOf(hitFixturesB, capacity);
+            hitSpeeds = copyOf(hitSpeeds, capacity);
+            hitPointCounts = copyOf(hitPointCounts, capacity);
+            hitNormals = copyOf(hitNormals, 2 * capacity);
+            hitPoints = copyOf(hitPoints, 2 * MAX_POINTS * capacity);
+            hitNormalImpulses = copyOf(hitNormalImpulses,
+                    MAX_POINTS * capacity);
+            hitTangentImpulses = copyOf(hitTangentImpulses,
+                    MAX_POINTS * capacity);
+        }
+        int i = hitCount++;
+        c.getWorldManifold(worldManifold);
+        hitFixturesA[i] = c.getFixtureA();
+        hitFixturesB[i] = c.getFixtureB();
+        hitSpeeds[i] = speed;
+        hitPointCounts[i] = vc.pointCount;
+        hitNormals[2 * i] = worldManifold.normal.x;
+        hitNormals[2 * i + 1] = worldManifold.normal.y;
+        for (int j = 0; j < vc.pointCount; ++j)
+        {
+            int k = MAX_POINTS * i + j;
+            hitPoints[2 * k] = worldManifold.points[j].x;
+            hitPoints[2 * k + 1] = worldManifold.points[j].y;
+            hitNormalImpulses[k] = vc.points[j].normalImpulse;
+            hitTangentImpulses[k] = vc.points[j].tangentImpulse;
+        }
+    }
+
+    private static Fixture[] copyOf(Fixture[] array, int length)
+    {
+        Fixture[] copy = new Fixture[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    private static int[] copyOf(int[] array, int length)
+    {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    private static float[] copyOf(float[] array, int length)
+    {
+        float[] copy = new float[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    public int getBeginCount()
+    {
+        return beginCount;
+    }
+
+    public Fixture getBeginFixtureA(int i)
+    {
+        return beginFixturesA[i];
+    }
+
+    public Fixture getBeginFixtureB(int i)
+    {
+        return beginFixturesB[i];
+    }
+
+    public int getBeginChildIndexA(int i)
+    {
+        return beginChildren[2 * i];
+    }
+
+    public int getBeginChildIndexB(int i)
+    {
+        return beginChildren[2 * i + 1];
+    }
+
+    public int getEndCount()
+    {
+        return endCount;
+    }
+
+    public Fixture getEndFixtureA(int i)
+    {
+        return endFixturesA[i];
+    }
+
+    public Fixture getEndFixtureB(int i)
+    {
+        return endFixturesB[i];
+    }
+
+    public int getEndChildIndexA(int i)
+    {
+        return endChildren[2 * i];
+    }
+
+    public int getEndChildIndexB(int i)
+    {
+        return endChildren[2 * i + 1];
+    }
+
+    public int getHitCount()
+    {
+        return hitCount;
+    }
+
+    public Fixture getHitFixtureA(int i)
+    {
+        return hitFixturesA[i];
+    }
+
+    public Fixture getHitFixtureB(int i)
+    {
+        return hitFixturesB[i];
+    }
+
+    /**
+     * The largest approach speed of the hit points before the contact was
+     * solved.
+     */
+    public float getHitSpeed(int i)
+    {
+        return hitSpeeds[i];
+    }
+
+    public int getHitPointCount(int i)
+    {
+        return hitPointCounts[i];
+    }
+
+    /**
+     * The world normal of a hit, pointing from fixture A to fixture B.
+     */
+    public float getHitNormalX(int i)
+    {
+        return hitNormals[2 * i];
+    }
+
+    public float getHitNormalY(int i)
+    {
+        return hitNormals[2 * i + 1];
+    }
+
+    /**
+     * A world point of a hit.
+     *
+     * @param point The point, less than {@link #getHitPointCount(int)}.
+     */
+    public float getHitPointX(int i, int point)
+    {
+        return hitPoints[2 * (MAX_POINTS * i + point)];
+    }
+
+    public float getHitPointY(int i, int point)
+    {
+        return hitPoints[2 * (MAX_POINTS * i + point) + 1];
+    }
+
+    public float getHitNormalImpulse(int i, int point)
+    {
+        return hitNormalImpulses[MAX_POINTS * i + point];
+    }
+
+    public float getHitTangentImpulse(int i, int point)
+    {
+        return hitTangentImpulses[MAX_POINTS * i + point];
+    }
+}
@@ -23,9 +23,13 @@
  */
 package de.pirckheimer_gymnasium.jbox2d.dynamics;
 
+import java.util.Arrays;
+
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactFilter;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactListener;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.PairCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
 import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ContactEdge;
@@ -49,6 +53,57 @@ public class ContactManager implements PairCallback
 
     private final World pool;
 
+    private long contactStamp;
+
+    private final AABB aabbA = new AABB();
+
+    private final AABB aabbB = new AABB();
+
+    private final CompoundPairs compoundPairs = new CompoundPairs();
+
+    private final CompoundPairs nestedCompoundPairs = new CompoundPairs();
+
+    /**
+     * The contacts in dense arrays, null unless enabled with
+     * {@link World#setContactArrays}. The contacts of awake bodies come first,
+     * followed by the sleeping ones. {@link Contact#index} is the position of
+     * a contact in this array.
+     */
+    Contact[] contacts;
+
+    /**
+     * The number of contacts in the awake partition.
+     */
+    int awakeCount;
+
+    /**
+     * Whether a contact of the sleeping partition was flagged for filtering
+     * since the last step.
+     */
+    private boolean filterSleeping;
+
+    /**
+     * The contacts by their {@link Contact#handle}, null for free handles.
+     */
+    private Contact[] handles;
+
+    private int[] freeHandles;
+
+    private int freeHandleCount;
+
+    private int handleCount;
+
+    /**
+     * The contacts by their class, null unless enabled with
+     * {@link World#setBatchedNarrowPhase}.
+     */
+    ContactBatch batch;
+
+    /**
+     * The layers each collision layer collides with, one bit per layer.
+     */
+    final int[] layerMasks = new int[32];
+
     public ContactManager(World argPool, BroadPhase broadPhase)
     {
         contactList = null;
@@ -57,6 +112,16 @@ public class ContactManager implements PairCallback
         contactListener = null;
         this.broadPhase = broadPhase;
         pool = argPool;
+        Arrays.fill(layerMasks, -1);
+    }
+
+    /**
+     * Whether the layer matrix lets the fixtures collide.
+     */
+    boolean layersCollide(Fixture fixtureA, Fixture fixtureB)
+    {
+        return (layerMasks[fixtureA.filter.layer]
+                & 1 << fixtureB.filter.layer) != 0;
     }
 
     /**
@@ -64,8 +129,63 @@ public class ContactManager implements PairCallback
      */
     public void addPair(Object proxyUserDataA, Object proxyUserDataB)
     {
-        FixtureProxy proxyA = (FixtureProxy) proxyUserDataA;
-        FixtureProxy proxyB = (FixtureProxy) proxyUserDataB;
+        if (proxyUserDataA instanceof CompoundProxy)
+        {
+            addCompoundPairs((CompoundProxy) proxyUserDataA, proxyUserDataB);
+        }
+        else if (proxyUserDataB instanceof CompoundProxy)
+        {
+            addCompoundPairs((CompoundProxy) proxyUserDataB, proxyUserDataA);
+        }
+        else
+        {
+            addFixturePair((FixtureProxy) proxyUserDataA,
+                    (FixtureProxy) proxyUserDataB);
+        }
+    }
+
+    /**
+     * Search the body tree of a compound body for the fixture children that
+     * overlap the other proxy of a broad-phase pair.
+     */
+    private void addCompoundPairs(CompoundProxy compound, Object other)
+    {
+        Body body = compound.body;
+        CompoundProxy otherCompound = null;
+        Body otherBody;
+        int otherProxyId;
+        if (other instanceof CompoundProxy)
+        {
+            otherCompound = (CompoundProxy) other;
+            otherBody = otherCompound.body;
+            otherProxyId = otherCompound.proxyId;
+        }
+        else
+        {
+            FixtureProxy proxy = (FixtureProxy) other;
+            otherBody = proxy.fixture.getBody();
+            otherProxyId = proxy.proxyId;
+        }
+        // Is at least one body dynamic, and does no joint prevent
+        // collision?
+        if (body == otherBody || !otherBody.shouldCollide(body))
+        {
+            return;
+        }
+        // Copy, the broad-phase may reuse its fat AABB.
+        aabbB.set(broadPhase.getFatAABB(otherProxyId));
+        compoundPairs.compound = compound;
+        compoundPairs.otherCompound = otherCompound;
+        compoundPairs.other = otherCompound == null ? (FixtureProxy) other
+                : null;
+        compound.query(compoundPairs, aabbB);
+        compoundPairs.compound = null;
+        compoundPairs.otherCompound = null;
+        compoundPairs.other = null;
+    }
+
+    private void addFixturePair(FixtureProxy proxyA, FixtureProxy proxyB)
+    {
         Fixture fixtureA = proxyA.fixture;
         Fixture fixtureB = proxyB.fixture;
         int indexA = proxyA.childIndex;
@@ -77,6 +197,25 @@ public class ContactManager implements PairCallback
         {
             return;
         }
+        // Do the layers of the fixtures collide?
+        if (!layersCollide(fixtureA, fixtureB))
+        {
+            return;
+        }
+        // Sensors may track their overlaps without contacts.
+        SensorOverlaps sensors = pool.getSensorOverlaps();
+        if (sensors != null && (fixtureA.isSensor || fixtureB.isSensor))
+        {
+            if (fixtureA.isSensor)
+            {
+                sensors.addPair(proxyA, proxyB);
+            }
+            if (fixtureB.isSensor)
+            {
+                sensors.addPair(proxyB, proxyA);
+            }
+            return;
+        }
         // TODO_ERIN use a hash table to remove a potential bottleneck when both
         // bodies have a lot of contacts.
         // Does a contact already exist?
@@ -129,6 +268,7 @@ public class ContactManager implements PairCallback
         bodyA = fixtureA.getBody();
         bodyB = fixtureB.getBody();
         // Insert into the world.
+        c.stamp = ++contactStamp;
         c.prev = null;
         c.next = contactList;
         if (contactList != null)
@@ -157,13 +297,40 @@ public class ContactManager implements PairCallback
             bodyB.contactList.prev = c.nodeB;
         }
         bodyB.contactList = c.nodeB;
+        if (contacts != null)
+        {
+            store(c);
+        }
+        if (batch != null)
+        {
+            batch.add(c);
+        }
         // wake up the bodies
         if (!fixtureA.isSensor() && !fixtureB.isSensor())
         {
             bodyA.setAwake(true);
             bodyB.setAwake(true);
         }
+        if (contacts != null)
+        {
+            updatePartition(c);
+        }
         ++contactCount;
+        ++pool.getProfile().contactsCreated;
+    }
+
+    /**
+     * Flag a contact for filtering at the next step. Unlike
+     * {@link Contact#flagForFiltering()} this also filters a sleeping contact
+     * when the contact arrays are enabled, which only visit the awake ones.
+     */
+    void flagForFiltering(Contact c)
+    {
+        c.flagForFiltering();
+        if (contacts != null && c.index >= awakeCount)
+        {
+            filterSleeping = true;
+        }
     }
 
     public void findNewContacts()
@@ -177,9 +344,20 @@ public class ContactManager implements PairCallback
         Fixture fixtureB = c.getFixtureB();
         Body bodyA = fixtureA.getBody();
         Body bodyB = fixtureB.getBody();
-        if (contactListener != null && c.isTouching())
+        if (c.isTouching())
         {
-            contactListener.endContact(c);
+            ContactEvents events = pool.getContactEvents();
+            if (events != null)
+            {
+                if (pool.isLocked())
+                {
+                    events.addEnd(c);
+                }
+            }
+            else if (contactListener != null)
+            {
+                contactListener.endContact(c);
+            }
         }
         // Remove from the world.
         if (c.prev != null)
@@ -220,9 +398,18 @@ public class ContactManager implements PairCallback
         {
             bodyB.contactList = c.nodeB.next;
         }
+        if (contacts != null)
+        {
+            unstore(c);
+        }
+        if (batch != null)
+        {
+            batch.remove(c);
+        }
         // Call the factory.
         pool.pushContact(c);
         --contactCount;
+        ++pool.getProfile().contactsDestroyed;
     }
 
     /**
@@ -231,63 +418,413 @@ public class ContactManager implements PairCallback
      */
     public void collide()
     {
+        if (batch != null)
+        {
+            batch.collide(this, contactListener);
+            return;
+        }
+        if (contacts != null)
+        {
+            collideArrays();
+            return;
+        }
         // Update awake contacts.
         Contact c = contactList;
         while (c != null)
         {
-            Fixture fixtureA = c.getFixtureA();
-            Fixture fixtureB = c.getFixtureB();
-            int indexA = c.getChildIndexA();
-            int indexB = c.getChildIndexB();
-            Body bodyA = fixtureA.getBody();
-            Body bodyB = fixtureB.getBody();
-            // is this contact flagged for filtering?
-            if ((c.flags & Contact.FILTER_FLAG) == Contact.FILTER_FLAG)
+            Contact next = c.getNext();
+            collide(c);
+            c = next;
+        }
+    }
+
+    /**
+     * Only the awake partition is visited, apart from sleeping contacts that
+     * were flagged for filtering. A contact destroyed in place is replaced by
+     * another awake one, and contacts woken on the way are appended to the
+     * partition.
+     */
+    private void collideArrays()
+    {
+        if (filterSleeping)
+        {
+            filterSleeping = false;
+            // Filter them first like the contact list does, destroying a
+            // contact wakes its bodies and so moves their contacts into the
+            // awake partition.
+            Contact c = contactList;
+            while (c != null)
             {
-                // Should these bodies collide?
-                if (!bodyB.shouldCollide(bodyA))
-                {
-                    Contact cNuke = c;
-                    c = cNuke.getNext();
-                    destroy(cNuke);
-                    continue;
-                }
-                // Check user filtering.
-                if (contactFilter != null
-                        && !contactFilter.shouldCollide(fixtureA, fixtureB))
+                Contact next = c.getNext();
+                if ((c.flags & Contact.FILTER_FLAG) == Contact.FILTER_FLAG
+                        && c.index >= awakeCount)
                 {
-                    Contact cNuke = c;
-                    c = cNuke.getNext();
-                    destroy(cNuke);
-                    continue;
+                    filter(c);
                 }
-                // Clear the filtering flag.
-                c.flags &= ~Contact.FILTER_FLAG;
+                c = next;
             }
-            boolean activeA = bodyA.isAwake() && bodyA.type != BodyType.STATIC;
-            boolean activeB = bodyB.isAwake() && bodyB.type != BodyType.STATIC;
-            // At least one body must be awake, and it must be dynamic or
-            // kinematic.
-            if (!activeA && !activeB)
-            {
-                c = c.getNext();
-                continue;
-            }
-            int proxyIdA = fixtureA.proxies[indexA].proxyId;
-            int proxyIdB = fixtureB.proxies[indexB].proxyId;
-            boolean overlap = broadPhase.testOverlap(proxyIdA, proxyIdB);
-            // Here we destroy contacts that cease to overlap in the
-            // broad-phase.
-            if (!overlap)
+        }
+        int i = 0;
+        while (i < awakeCount)
+        {
+            Contact c = contacts[i];
+            collide(c);
+            if (contacts[i] == c)
             {
-                Contact cNuke = c;
-                c = cNuke.getNext();
-                destroy(cNuke);
-                continue;
+                ++i;
             }
+        }
+    }
+
+    /**
+     * Update a contact and destroy it if its fixtures no longer overlap or
+     * should not collide anymore.
+     */
+    private void collide(Contact c)
+    {
+        if (persists(c))
+        {
             // The contact persists.
             c.update(contactListener);
-            c = c.getNext();
+        }
+    }
+
+    /**
+     * Filter a contact and destroy it if its fixtures no longer overlap.
+     *
+     * @return Whether the contact still exists and has to be updated.
+     */
+    boolean persists(Contact c)
+    {
+        Fixture fixtureA = c.getFixtureA();
+        Fixture fixtureB = c.getFixtureB();
+        int indexA = c.getChildIndexA();
+        int indexB = c.getChildIndexB();
+        // is this contact flagged for filtering?
+        if ((c.flags & Contact.FILTER_FLAG) == Contact.FILTER_FLAG
+                && !filter(c))
+        {
+            return false;
+        }
+        // At least one body must be awake, and it must be dynamic or
+        // kinematic.
+        if (!isActive(c))
+        {
+            return false;
+        }
+        boolean overlap = testOverlap(fixtureA.proxies[indexA],
+                fixtureB.proxies[indexB]);
+        // Here we destroy contacts that cease to overlap in the
+        // broad-phase.
+        if (!overlap)
+        {
+            destroy(c);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Destroy a contact that was flagged for filtering if its fixtures should
+     * not collide anymore, otherwise clear the flag.
+     *
+     * @return Whether the contact still exists.
+     */
+    private boolean filter(Contact c)
+    {
+        Fixture fixtureA = c.getFixtureA();
+        Fixture fixtureB = c.getFixtureB();
+        Body bodyA = fixtureA.getBody();
+        Body bodyB = fixtureB.getBody();
+        // Should these bodies collide?
+        if (!bodyB.shouldCollide(bodyA)
+                || !layersCollide(fixtureA, fixtureB))
+        {
+            destroy(c);
+            return false;
+        }
+        // Check user filtering.
+        if (contactFilter != null
+                && !contactFilter.shouldCollide(fixtureA, fixtureB))
+        {
+            destroy(c);
+            return false;
+        }
+        if ((fixtureA.isSensor || fixtureB.isSensor)
+                && pool.getSensorOverlaps() != null)
+        {
+            destroy(c);
+            return false;
+        }
+        // Clear the filtering flag.
+        c.flags &= ~Contact.FILTER_FLAG;
+        return true;
+    }
+
+    /**
+     * Whether a contact is updated by {@link #collide}, that is at least one
+     * of its bodies is awake and not static.
+     */
+    static boolean isActive(Contact c)
+    {
+        Body bodyA = c.fixtureA.getBody();
+        Body bodyB = c.fixtureB.getBody();
+        return bodyA.isAwake() && bodyA.type != BodyType.STATIC
+                || bodyB.isAwake() && bodyB.type != BodyType.STATIC;
+    }
+
+    /**
+     * Enable or disable the contact arrays, see
+     * {@link World#setContactArrays}.
+     */
+    void setArrays(boolean flag)
+    {
+        if (flag == (contacts != null))
+        {
+            return;
+        }
+        if (!flag)
+        {
+            for (Contact c = contactList; c != null; c = c.next)
+            {
+                c.index = -1;
+                c.handle = -1;
+            }
+            contacts = null;
+            handles = null;
+            freeHandles = null;
+            awakeCount = 0;
+            return;
+        }
+        int capacity = Math.max(16, contactCount);
+        contacts = new Contact[capacity];
+        handles = new Contact[capacity];
+        freeHandles = new int[capacity];
+        freeHandleCount = 0;
+        handleCount = 0;
+        awakeCount = 0;
+        // Store the contacts in list order, oldest last.
+        int count = contactCount;
+        contactCount = 0;
+        for (Contact c = contactList; c != null; c = c.next)
+        {
+            store(c);
+            updatePartition(c);
+            ++contactCount;
+        }
+        assert (contactCount == count);
+    }
+
+    /**
+     * Enable or disable the contact buckets, see
+     * {@link World#setBatchedNarrowPhase}.
+     */
+    void setBatched(boolean flag)
+    {
+        if (flag == (batch != null))
+        {
+            return;
+        }
+        if (!flag)
+        {
+            batch.clear();
+            batch = null;
+            return;
+        }
+        batch = new ContactBatch();
+        for (Contact c = contactList; c != null; c = c.next)
+        {
+            batch.add(c);
+        }
+    }
+
+    /**
+     * Get a contact by its handle.
+     *
+     * @return The contact, or null if the handle is free.
+     */
+    public Contact getContact(int handle)
+    {
+        if (handles == null || handle < 0 || handle >= handleCount)
+        {
+            return null;
+        }
+        return handles[handle];
+    }
+
+    /**
+     * Append a contact to the sleeping partition and give it a handle.
+     */
+    private void store(Contact c)
+    {
+        if (contactCount == contacts.length)
+        {
+            Contact[] old = contacts;
+            contacts = new Contact[old.length * 2];
+            System.arraycopy(old, 0, contacts, 0, old.length);
+        }
+        contacts[contactCount] = c;
+        c.index = contactCount;
+        if (freeHandleCount > 0)
+        {
+            c.handle = freeHandles[--freeHandleCount];
+        }
+        else
+        {
+            if (handleCount == handles.length)
+            {
+                Contact[] old = handles;
+                handles = new Contact[old.length * 2];
+                System.arraycopy(old, 0, handles, 0, old.length);
+                int[] oldFree = freeHandles;
+                freeHandles = new int[handles.length];
+                System.arraycopy(oldFree, 0, freeHandles, 0, oldFree.length);
+            }
+            c.handle = handleCount++;
+        }
+        handles[c.handle] = c;
+    }
+
+    /**
+     * Swap-remove a contact from its partition and free its handle.
+     */
+    private void unstore(Contact c)
+    {
+        int last = contactCount - 1;
+        int i = c.index;
+        if (i < awakeCount)
+        {
+            int lastAwake = --awakeCount;
+            move(contacts[lastAwake], i);
+            if (last != lastAwake)
+            {
+                move(contacts[last], lastAwake);
+            }
+        }
+        else
+        {
+            move(contacts[last], i);
+        }
+        contacts[last] = null;
+        c.index = -1;
+        handles[c.handle] = null;
+        freeHandles[freeHandleCount++] = c.handle;
+        c.handle = -1;
+    }
+
+    /**
+     * Move a contact into the partition that matches the state of its bodies.
+     */
+    void updatePartition(Contact c)
+    {
+        boolean active = isActive(c);
+        int i = c.index;
+        if (active && i >= awakeCount)
+        {
+            swap(i, awakeCount++);
+        }
+        else if (!active && i < awakeCount)
+        {
+            swap(i, --awakeCount);
+            // The solvers only reset the flags of the awake partition.
+            c.flags &= ~(Contact.ISLAND_FLAG | Contact.TOI_FLAG);
+            c.toiCount = 0;
+            c.toi = 1.0f;
+        }
+    }
+
+    private void move(Contact c, int index)
+    {
+        contacts[index] = c;
+        c.index = index;
+    }
+
+    private void swap(int i, int j)
+    {
+        Contact a = contacts[i];
+        move(contacts[j], i);
+        move(a, j);
+    }
+
+    boolean testOverlap(FixtureProxy proxyA, FixtureProxy proxyB)
+    {
+        CompoundProxy compoundA = proxyA.fixture.compound;
+        CompoundProxy compoundB = proxyB.fixture.compound;
+        if (compoundA == null && compoundB == null)
+        {
+            return broadPhase.testOverlap(proxyA.proxyId, proxyB.proxyId);
+        }
+        int proxyIdA = compoundA != null ? compoundA.proxyId : proxyA.proxyId;
+        int proxyIdB = compoundB != null ? compoundB.proxyId : proxyB.proxyId;
+        if (!broadPhase.testOverlap(proxyIdA, proxyIdB))
+        {
+            return false;
+        }
+        // The bodies still overlap, test the fixture children themselves.
+        if (compoundA != null)
+        {
+            compoundA.getFatAABB(proxyA, aabbA);
+        }
+        else
+        {
+            aabbA.set(broadPhase.getFatAABB(proxyIdA));
+        }
+        if (compoundB != null)
+        {
+            compoundB.getFatAABB(proxyB, aabbB);
+        }
+        else
+        {
+            aabbB.set(broadPhase.getFatAABB(proxyIdB));
+        }
+        if (AABB.testOverlap(aabbA, aabbB))
+        {
+            return true;
+        }
+        // The pair may overlap again before the compound body has moved far
+        // enough to report its pairs again.
+        if (compoundA != null)
+        {
+            compoundA.requery = true;
+        }
+        if (compoundB != null)
+        {
+            compoundB.requery = true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the pairs of the fixture children of a compound body that a query
+     * of its body tree finds. If the other proxy is a compound body too, its
+     * body tree is searched for each child.
+     */
+    private class CompoundPairs implements TreeCallback
+    {
+        CompoundProxy compound;
+
+        CompoundProxy otherCompound;
+
+        FixtureProxy other;
+
+        private final AABB childAABB = new AABB();
+
+        public boolean treeCallback(int nodeId)
+        {
+            FixtureProxy child = compound.getFixtureProxy(nodeId);
+            if (otherCompound == null)
+            {
+                addFixturePair(child, other);
+                return true;
+            }
+            final CompoundPairs nested = nestedCompoundPairs;
+            compound.getFatAABB(child, childAABB);
+            nested.compound = otherCompound;
+            nested.other = child;
+            otherCompound.query(nested, childAABB);
+            nested.compound = null;
+            nested.other = null;
+            return true;
         }
     }
 }
@@ -48,11 +48,18 @@ public class Filter
      */
     public int groupIndex;
 
+    /**
+     * The collision layer from 0 to 31. Whether two layers collide is set in
+     * the layer matrix of the world, see {@link World#setLayerCollision}.
+     */
+    public int layer;
+
     public Filter()
     {
         categoryBits = 0x0001;
         maskBits = 0xFFFF;
         groupIndex = 0;
+        layer = 0;
     }
 
     public void set(Filter argOther)
@@ -60,5 +67,6 @@ public class Filter
         categoryBits = argOther.categoryBits;
         maskBits = argOther.maskBits;
         groupIndex = argOther.groupIndex;
+        layer = argOther.layer;
     }
 }
@@ -27,6 +27,7 @@ import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastOutput;
 import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.LayeredBroadPhase;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.MassData;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ShapeType;
@@ -94,6 +95,24 @@ public class Fixture
 
     public int proxyCount;
 
+    /**
+     * Holds the children of this fixture in a local tree behind a single
+     * broad-phase proxy. This is the proxy of the body for compound bodies and
+     * an own one for chains, null otherwise.
+     */
+    public CompoundProxy compound;
+
+    /**
+     * The index of this sensor in the {@link SensorOverlaps} of the world,
+     * -1 if it has none.
+     */
+    int sensorIndex = -1;
+
+    /**
+     * Marks this fixture as found by a sensor query.
+     */
+    long sensorMark;
+
     public Fixture()
     {
         userData = null;
@@ -141,10 +160,28 @@ public class Fixture
      */
     public void setSensor(boolean sensor)
     {
+        if (body != null && body.world.recorder != null)
+        {
+            body.world.recorder.setSensor(this, sensor);
+        }
         if (sensor != isSensor)
         {
             body.setAwake(true);
             isSensor = sensor;
+            SensorOverlaps sensors = body.world.getSensorOverlaps();
+            if (sensors != null)
+            {
+                if (sensor)
+                {
+                    sensors.add(this);
+                }
+                else
+                {
+                    sensors.remove(this);
+                }
+                // Sensors have no contacts with overlap tracking.
+                refilter();
+            }
         }
     }
 
@@ -156,10 +193,46 @@ public class Fixture
      */
     public void setFilterData(final Filter filter)
     {
+        if (body != null && body.world.recorder != null)
+        {
+            body.world.recorder.setFilterData(this, filter);
+        }
+        int oldLayer = this.filter.layer;
         this.filter.set(filter);
+        if (oldLayer != filter.layer)
+        {
+            setLayer();
+        }
         refilter();
     }
 
+    /**
+     * Move the proxies to the tree of the new layer if the broad-phase
+     * partitions by layer.
+     */
+    private void setLayer()
+    {
+        if (body == null || body.compound != null)
+        {
+            return;
+        }
+        BroadPhase broadPhase = body.world.contactManager.broadPhase;
+        boolean layered = broadPhase instanceof LayeredBroadPhase
+                && proxyCount > 0;
+        if (layered)
+        {
+            destroyProxies(broadPhase);
+        }
+        if (compound != null)
+        {
+            compound.layer = filter.layer;
+        }
+        if (layered)
+        {
+            createProxies(broadPhase, body.xf);
+        }
+    }
+
     /**
      * Get the contact filtering data.
      */
@@ -178,6 +251,11 @@ public class Fixture
         {
             return;
         }
+        World world = body.getWorld();
+        if (world == null)
+        {
+            return;
+        }
         // Flag associated contacts for filtering.
         ContactEdge edge = body.getContactList();
         while (edge != null)
@@ -187,17 +265,72 @@ public class Fixture
             Fixture fixtureB = contact.getFixtureB();
             if (fixtureA == this || fixtureB == this)
             {
-                contact.flagForFiltering();
+                world.contactManager.flagForFiltering(contact);
             }
             edge = edge.next;
         }
+        // Touch each proxy so that new pairs may be created
+        BroadPhase broadPhase = world.contactManager.broadPhase;
+        touchProxies(broadPhase);
+    }
+
+    /**
+     * Call this after changing the shape of this fixture in place, for
+     * example the heights of a
+     * {@link de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape}.
+     * This updates the broad-phase and wakes the bodies touching this
+     * fixture. The mass is not updated, see {@link Body#resetMassData}.
+     */
+    public void updateShape()
+    {
         World world = body.getWorld();
-        if (world == null)
+        assert (!world.isLocked());
+        if (world.isLocked())
         {
             return;
         }
-        // Touch each proxy so that new pairs may be created
+        if (world.recorder != null)
+        {
+            world.recorder.updateShape(this);
+        }
         BroadPhase broadPhase = world.contactManager.broadPhase;
+        if (proxyCount > 0)
+        {
+            if (compound == null)
+            {
+                synchronize(broadPhase, body.xf, body.xf);
+                touchProxies(broadPhase);
+            }
+            else if (compound != body.compound)
+            {
+                compound.refresh(broadPhase);
+            }
+            else
+            {
+                // The children are stored in the body tree.
+                destroyProxies(broadPhase);
+                createProxies(broadPhase, body.xf);
+            }
+        }
+        for (ContactEdge edge = body.getContactList(); edge != null;
+                edge = edge.next)
+        {
+            Contact contact = edge.contact;
+            if (contact.getFixtureA() == this || contact.getFixtureB() == this)
+            {
+                contact.resetManifoldCache();
+                edge.other.setAwake(true);
+            }
+        }
+    }
+
+    void touchProxies(BroadPhase broadPhase)
+    {
+        if (compound != null)
+        {
+            compound.touch(broadPhase);
+            return;
+        }
         for (int i = 0; i < proxyCount; ++i)
         {
             broadPhase.touchProxy(proxies[i].proxyId);
@@ -228,6 +361,10 @@ public class Fixture
     public void setDensity(float density)
     {
         assert (density >= 0f);
+        if (body != null && body.world.recorder != null)
+        {
+            body.world.recorder.setDensity(this, density);
+        }
         this.density = density;
     }
 
@@ -299,6 +436,10 @@ public class Fixture
      */
     public void setFriction(float friction)
     {
+        if (body != null && body.world.recorder != null)
+        {
+            body.world.recorder.setFriction(this, friction);
+        }
         this.friction = friction;
     }
 
@@ -316,17 +457,28 @@ public class Fixture
      */
     public void setRestitution(float restitution)
     {
+        if (body != null && body.world.recorder != null)
+        {
+            body.world.recorder.setRestitution(this, restitution);
+        }
         this.restitution = restitution;
     }
 
     /**
      * Get the fixture's AABB. This AABB may be enlarge and/or stale. If you
      * need a more accurate AABB, compute it using the shape and the body
-     * transform.
+     * transform. For fixtures with a local tree (chains and fixtures of
+     * compound bodies) it is computed from the current body transform and
+     * only valid until the next call.
      */
     public AABB getAABB(int childIndex)
     {
         assert (childIndex >= 0 && childIndex < proxyCount);
+        if (compound != null)
+        {
+            compound.getAABB(proxies[childIndex], pool1);
+            return pool1;
+        }
         return proxies[childIndex].aabb;
     }
 
@@ -357,6 +509,30 @@ public class Fixture
         filter.set(def.filter);
         isSensor = def.isSensor;
         shape = def.shape.clone();
+        if (body.compound != null)
+        {
+            compound = body.compound;
+        }
+        else if (shape.getType() == ShapeType.CHAIN
+                && body.getWorld().isChainProxies())
+        {
+            // Long chains would otherwise put every segment into the
+            // broad-phase.
+            compound = new CompoundProxy(body, body.getWorld().getSettings());
+        }
+        else if (shape.getType() == ShapeType.HEIGHTFIELD)
+        {
+            compound = new HeightfieldProxy(this,
+                    body.getWorld().getSettings());
+        }
+        else
+        {
+            compound = null;
+        }
+        if (compound != null && compound != body.compound)
+        {
+            compound.layer = filter.layer;
+        }
         // Reserve proxy space
         int childCount = shape.getChildCount();
         if (proxies == null)
@@ -395,6 +571,7 @@ public class Fixture
         assert (proxyCount == 0);
         // Free the child shape.
         shape = null;
+        compound = null;
         proxies = null;
         next = null;
         // TODO pool shapes
@@ -410,10 +587,22 @@ public class Fixture
         for (int i = 0; i < proxyCount; ++i)
         {
             FixtureProxy proxy = proxies[i];
-            shape.computeAABB(proxy.aabb, xf, i);
-            proxy.proxyId = broadPhase.createProxy(proxy.aabb, proxy);
+            // Set before the proxy is created, the broad-phase may need to
+            // identify it.
             proxy.fixture = this;
             proxy.childIndex = i;
+            if (compound != null)
+            {
+                compound.add(proxy);
+                continue;
+            }
+            shape.computeAABB(proxy.aabb, xf, i);
+            proxy.proxyId = broadPhase.createProxy(proxy.aabb, proxy,
+                    filter.layer);
+        }
+        if (compound != null)
+        {
+            compound.update(broadPhase);
         }
     }
 
@@ -426,9 +615,18 @@ public class Fixture
         for (int i = 0; i < proxyCount; ++i)
         {
             FixtureProxy proxy = proxies[i];
+            if (compound != null)
+            {
+                compound.remove(proxy);
+                continue;
+            }
             broadPhase.destroyProxy(proxy.proxyId);
             proxy.proxyId = BroadPhase.NULL_PROXY;
         }
+        if (compound != null)
+        {
+            compound.update(broadPhase);
+        }
         proxyCount = 0;
     }
 
@@ -439,7 +637,8 @@ public class Fixture
     private final Vec2 displacement = new Vec2();
 
     /**
-     * Internal method
+     * Internal method. Fixtures of compound bodies are moved with the body, see
+     * {@link CompoundProxy#synchronize}.
      */
     protected void synchronize(BroadPhase broadPhase,
             final Transform transform1, final Transform transform2)
@@ -448,6 +647,14 @@ public class Fixture
         {
             return;
         }
+        if (compound != null)
+        {
+            if (compound != body.compound)
+            {
+                compound.synchronize(broadPhase, transform1, transform2);
+            }
+            return;
+        }
         for (int i = 0; i < proxyCount; ++i)
         {
             FixtureProxy proxy = proxies[i];
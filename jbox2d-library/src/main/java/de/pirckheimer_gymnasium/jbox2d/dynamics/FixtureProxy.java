@@ -39,4 +39,23 @@ public class FixtureProxy
     int childIndex;
 
     int proxyId;
+
+    /**
+     * Get the fixture of this proxy. The broad-phase stores proxies as user
+     * data, this identifies them e.g. when a tree is persisted.
+     */
+    public Fixture getFixture()
+    {
+        return fixture;
+    }
+
+    public int getChildIndex()
+    {
+        return childIndex;
+    }
+
+    public int getProxyId()
+    {
+        return proxyId;
+    }
 }
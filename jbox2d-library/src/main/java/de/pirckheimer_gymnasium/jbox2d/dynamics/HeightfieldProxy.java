@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Settings;
+import de.pirckheimer_gymnasium.jbox2d.common.Transform;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+
+/**
+ * The broad-phase proxy of a heightfield fixture. The segments are found by
+ * index arithmetic on the columns, so there is no body tree to build or to
+ * update when heights change. The nodes handed to callbacks are the child
+ * indices of the segments.
+ */
+class HeightfieldProxy extends CompoundProxy
+{
+    private final Fixture fixture;
+
+    private final HeightfieldShape shape;
+
+    HeightfieldProxy(Fixture fixture, WorldSettings settings)
+    {
+        super(fixture.body, settings, null);
+        this.fixture = fixture;
+        shape = (HeightfieldShape) fixture.shape;
+    }
+
+    @Override
+    public FixtureProxy getFixtureProxy(int nodeId)
+    {
+        return fixture.proxies[nodeId];
+    }
+
+    @Override
+    int insert(FixtureProxy proxy)
+    {
+        return proxy.childIndex;
+    }
+
+    @Override
+    void delete(FixtureProxy proxy)
+    {
+    }
+
+    @Override
+    void getFatAABB(FixtureProxy proxy, AABB out)
+    {
+        shape.computeLocalAABB(out, proxy.childIndex, aabbExtension);
+        computeAABB(out, body.xf, out);
+    }
+
+    @Override
+    void getAABB(FixtureProxy proxy, AABB out)
+    {
+        shape.computeAABB(out, body.xf, proxy.childIndex);
+    }
+
+    @Override
+    void updateBounds()
+    {
+        shape.computeLocalAABB(localAABB);
+        boundsDirty = false;
+    }
+
+    @Override
+    public void query(TreeCallback callback, AABB aabb)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        try
+        {
+            final AABB localQuery = frame.aabb;
+            final AABB child = frame.childAABB;
+            toLocal(aabb, localQuery);
+            int first = shape
+                    .getColumn(localQuery.lowerBound.x - aabbExtension);
+            int last = shape
+                    .getColumn(localQuery.upperBound.x + aabbExtension);
+            for (int i = first; i <= last; ++i)
+            {
+                shape.computeLocalAABB(child, i, aabbExtension);
+                if (AABB.testOverlap(child, localQuery)
+                        && !callback.treeCallback(i))
+                {
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            frame.exit();
+        }
+    }
+
+    /**
+     * Walk the columns along the ray front to back and stop at the first one
+     * past the clipped fraction.
+     */
+    @Override
+    public float raycast(TreeRayCastCallback callback, RayCastInput input)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final RayCastForwarder forwarder = frame.compoundForwarder;
+        try
+        {
+            final Transform xf = body.xf;
+            final Vec2 p1 = forwarder.localInput.p1;
+            final Vec2 p2 = forwarder.localInput.p2;
+            final RayCastInput worldInput = forwarder.worldInput;
+            Transform.mulTransToOutUnsafe(xf, input.p1, p1);
+            Transform.mulTransToOutUnsafe(xf, input.p2, p2);
+            worldInput.set(input);
+            final float[] heights = shape.heights;
+            final float spacing = shape.spacing;
+            final float width = (shape.count - 1) * spacing;
+            final float dx = p2.x - p1.x;
+            final float dy = p2.y - p1.y;
+            float maxFraction = input.maxFraction;
+            float result = -1.0f;
+            // Clip the start of the ray to the columns.
+            float t = 0.0f;
+            if (p1.x < 0.0f)
+            {
+                if (dx <= 0.0f)
+                {
+                    return result;
+                }
+                t = -p1.x / dx;
+            }
+            else if (p1.x > width)
+            {
+                if (dx >= 0.0f)
+                {
+                    return result;
+                }
+                t = (width - p1.x) / dx;
+            }
+            int index = shape.getColumn(p1.x + t * dx);
+            while (t <= maxFraction)
+            {
+                float exit;
+                if (dx > 0.0f)
+                {
+                    exit = ((index + 1) * spacing - p1.x) / dx;
+                }
+                else if (dx < 0.0f)
+                {
+                    exit = (index * spacing - p1.x) / dx;
+                }
+                else
+                {
+                    exit = Float.MAX_VALUE;
+                }
+                // Skip the segment if the ray passes above or below it.
+                float end = Math.min(exit, maxFraction);
+                float y1 = p1.y + t * dy;
+                float y2 = p1.y + end * dy;
+                float h1 = heights[index];
+                float h2 = heights[index + 1];
+                if (Math.min(y1, y2) <= Math.max(h1, h2) + Settings.linearSlop
+                        && Math.max(y1, y2) >= Math.min(h1, h2)
+                                - Settings.linearSlop)
+                {
+                    worldInput.maxFraction = maxFraction;
+                    float value = callback.raycastCallback(worldInput, index);
+                    if (value == 0.0f)
+                    {
+                        return 0.0f;
+                    }
+                    if (value > 0.0f)
+                    {
+                        result = value;
+                        maxFraction = value;
+                    }
+                }
+                index += dx > 0.0f ? 1 : -1;
+                if (dx == 0.0f || index < 0 || index > shape.count - 2)
+                {
+                    break;
+                }
+                t = exit;
+            }
+            return result;
+        }
+        finally
+        {
+            frame.exit();
+        }
+    }
+}
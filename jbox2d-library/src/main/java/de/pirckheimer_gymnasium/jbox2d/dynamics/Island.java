@@ -25,11 +25,12 @@ package de.pirckheimer_gymnasium.jbox2d.dynamics;
 
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactImpulse;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactListener;
+import de.pirckheimer_gymnasium.jbox2d.common.Clock;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Sweep;
 import de.pirckheimer_gymnasium.jbox2d.common.Timer;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ContactSolver;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ContactSolver.ContactSolverDef;
@@ -162,6 +163,11 @@ public class Island
 {
     public ContactListener listener;
 
+    /**
+     * Records hit events if not null.
+     */
+    public ContactEvents events;
+
     public Body[] bodies;
 
     public Contact[] contacts;
@@ -252,6 +258,17 @@ public class Island
 
     private final ContactSolverDef solverDef = new ContactSolverDef();
 
+    public void setClock(Clock clock)
+    {
+        timer.setClock(clock);
+    }
+
+    /**
+     * @param profile Receives the timings of the solver phases, or null to
+     *     solve without reading the clock. The phases are timed back to back
+     *     with four clock reads per island, solvePosition including the
+     *     integration of the positions.
+     */
     public void solve(Profile profile, TimeStep step, Vec2 gravity,
             boolean allowSleep)
     {
@@ -297,7 +314,10 @@ public class Island
             velocities[i].v.y = v.y;
             velocities[i].w = w;
         }
-        timer.reset();
+        if (profile != null)
+        {
+            timer.reset();
+        }
         // Solver data
         solverData.step = step;
         solverData.positions = positions;
@@ -320,9 +340,10 @@ public class Island
         {
             joints[i].initVelocityConstraints(solverData);
         }
-        profile.solveInit.accum(timer.getMilliseconds());
-        // Solve velocity constraints
-        timer.reset();
+        if (profile != null)
+        {
+            profile.solveInit.accum(timer.lap());
+        }
         // System.out.println("island solving velocities");
         for (int i = 0; i < step.velocityIterations; ++i)
         {
@@ -334,8 +355,16 @@ public class Island
         }
         // Store impulses for warm starting
         contactSolver.storeImpulses();
-        profile.solveVelocity.accum(timer.getMilliseconds());
+        if (profile != null)
+        {
+            profile.solveVelocity.accum(timer.lap());
+        }
         // Integrate positions
+        final WorldSettings settings = step.settings;
+        final float maxTranslationSquared = settings.maxTranslation
+                * settings.maxTranslation;
+        final float maxRotationSquared = settings.maxRotation
+                * settings.maxRotation;
         for (int i = 0; i < bodyCount; ++i)
         {
             final Vec2 c = positions[i].c;
@@ -346,18 +375,18 @@ public class Island
             float translationx = v.x * h;
             float translationy = v.y * h;
             if (translationx * translationx + translationy
-                    * translationy > Settings.maxTranslationSquared)
+                    * translationy > maxTranslationSquared)
             {
-                float ratio = Settings.maxTranslation
+                float ratio = settings.maxTranslation
                         / MathUtils.sqrt(translationx * translationx
                                 + translationy * translationy);
                 v.x *= ratio;
                 v.y *= ratio;
             }
             float rotation = h * w;
-            if (rotation * rotation > Settings.maxRotationSquared)
+            if (rotation * rotation > maxRotationSquared)
             {
-                float ratio = Settings.maxRotation / MathUtils.abs(rotation);
+                float ratio = settings.maxRotation / MathUtils.abs(rotation);
                 w *= ratio;
             }
             // Integrate
@@ -368,7 +397,6 @@ public class Island
             velocities[i].w = w;
         }
         // Solve position constraints
-        timer.reset();
         boolean positionSolved = false;
         for (int i = 0; i < step.positionIterations; ++i)
         {
@@ -399,15 +427,18 @@ public class Island
             body.angularVelocity = velocities[i].w;
             body.synchronizeTransform();
         }
-        profile.solvePosition.accum(timer.getMilliseconds());
+        if (profile != null)
+        {
+            profile.solvePosition.accum(timer.getMilliseconds());
+        }
         report(contactSolver.velocityConstraints);
         if (allowSleep)
         {
             float minSleepTime = Float.MAX_VALUE;
-            final float linTolSqr = Settings.linearSleepTolerance
-                    * Settings.linearSleepTolerance;
-            final float angTolSqr = Settings.angularSleepTolerance
-                    * Settings.angularSleepTolerance;
+            final float linTolSqr = settings.linearSleepTolerance
+                    * settings.linearSleepTolerance;
+            final float angTolSqr = settings.angularSleepTolerance
+                    * settings.angularSleepTolerance;
             for (int i = 0; i < bodyCount; ++i)
             {
                 Body b = bodies[i];
@@ -429,7 +460,7 @@ public class Island
                     minSleepTime = MathUtils.min(minSleepTime, b.sleepTime);
                 }
             }
-            if (minSleepTime >= Settings.timeToSleep && positionSolved)
+            if (minSleepTime >= settings.timeToSleep && positionSolved)
             {
                 for (int i = 0; i < bodyCount; ++i)
                 {
@@ -524,6 +555,11 @@ public class Island
         // because they can be quite large.
         float h = subStep.dt;
         // Integrate positions
+        final WorldSettings settings = subStep.settings;
+        final float maxTranslationSquared = settings.maxTranslation
+                * settings.maxTranslation;
+        final float maxRotationSquared = settings.maxRotation
+                * settings.maxRotation;
         for (int i = 0; i < bodyCount; ++i)
         {
             Vec2 c = positions[i].c;
@@ -534,17 +570,17 @@ public class Island
             float translationx = v.x * h;
             float translationy = v.y * h;
             if (translationx * translationx + translationy
-                    * translationy > Settings.maxTranslationSquared)
+                    * translationy > maxTranslationSquared)
             {
-                float ratio = Settings.maxTranslation
+                float ratio = settings.maxTranslation
                         / MathUtils.sqrt(translationx * translationx
                                 + translationy * translationy);
                 v.mulLocal(ratio);
             }
             float rotation = h * w;
-            if (rotation * rotation > Settings.maxRotationSquared)
+            if (rotation * rotation > maxRotationSquared)
             {
-                float ratio = Settings.maxRotation / MathUtils.abs(rotation);
+                float ratio = settings.maxRotation / MathUtils.abs(rotation);
                 w *= ratio;
             }
             // Integrate
@@ -594,7 +630,7 @@ public class Island
 
     public void report(ContactVelocityConstraint[] constraints)
     {
-        if (listener == null)
+        if (listener == null && events == null)
         {
             return;
         }
@@ -602,6 +638,14 @@ public class Island
         {
             Contact c = contacts[i];
             ContactVelocityConstraint vc = constraints[i];
+            if (events != null)
+            {
+                events.addHit(c, vc);
+            }
+            if (listener == null)
+            {
+                continue;
+            }
             impulse.count = vc.pointCount;
             for (int j = 0; j < vc.pointCount; ++j)
             {
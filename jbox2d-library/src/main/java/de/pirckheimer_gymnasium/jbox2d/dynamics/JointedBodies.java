@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+/**
+ * The bodies a body is connected to by joints that disable collision. A body
+ * may be connected to another one by several joints, so each entry counts
+ * its joints. The set is an open addressing hash table on the identity of
+ * the bodies, which keeps {@link Body#shouldCollide} constant in the number
+ * of joints.
+ */
+class JointedBodies
+{
+    private Body[] bodies = new Body[8];
+
+    private int[] counts = new int[8];
+
+    private int size;
+
+    private static int hash(Body body, int mask)
+    {
+        int h = System.identityHashCode(body);
+        return (h ^ h >>> 16) * 0x9E3779B9 >>> 8 & mask;
+    }
+
+    private int find(Body body)
+    {
+        int mask = bodies.length - 1;
+        int i = hash(body, mask);
+        while (bodies[i] != null && bodies[i] != body)
+        {
+            i = i + 1 & mask;
+        }
+        return i;
+    }
+
+    boolean contains(Body body)
+    {
+        return bodies[find(body)] == body;
+    }
+
+    void add(Body body)
+    {
+        int i = find(body);
+        if (bodies[i] == body)
+        {
+            ++counts[i];
+            return;
+        }
+        bodies[i] = body;
+        counts[i] = 1;
+        // Keep the load below one half.
+        if (++size * 2 > bodies.length)
+        {
+            rehash(bodies.length * 2);
+        }
+    }
+
+    void remove(Body body)
+    {
+        int i = find(body);
+        if (bodies[i] != body || --counts[i] > 0)
+        {
+            return;
+        }
+        bodies[i] = null;
+        --size;
+        // Reinsert the rest of the cluster.
+        int mask = bodies.length - 1;
+        for (int j = i + 1 & mask; bodies[j] != null; j = j + 1 & mask)
+        {
+            Body moved = bodies[j];
+            int count = counts[j];
+            bodies[j] = null;
+            int k = find(moved);
+            bodies[k] = moved;
+            counts[k] = count;
+        }
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    private void rehash(int capacity)
+    {
+        Body[] oldBodies = bodies;
+        int[] oldCounts = counts;
+        bodies = new Body[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldBodies.length; ++i)
+        {
+            if (oldBodies[i] != null)
+            {
+                int k = find(oldBodies[i]);
+                bodies[k] = oldBodies[i];
+                counts[k] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -52,6 +52,14 @@ public class Profile
 
         float accum;
 
+        float last;
+
+        int accumCount;
+
+        int count;
+
+        long totalCount;
+
         public ProfileEntry()
         {
             min = Float.MAX_VALUE;
@@ -60,6 +68,9 @@ public class Profile
 
         public void record(float value)
         {
+            last = value;
+            count = 1;
+            ++totalCount;
             longAvg = longAvg * (1 - LONG_FRACTION) + value * LONG_FRACTION;
             shortAvg = shortAvg * (1 - SHORT_FRACTION) + value * SHORT_FRACTION;
             min = MathUtils.min(value, min);
@@ -69,16 +80,65 @@ public class Profile
         public void startAccum()
         {
             accum = 0;
+            accumCount = 0;
         }
 
         public void accum(float value)
         {
             accum += value;
+            ++accumCount;
         }
 
         public void endAccum()
         {
             record(accum);
+            count = accumCount;
+        }
+
+        /**
+         * Get the value recorded for the most recent step in milliseconds, or
+         * a negative value if the phase did not run in that step.
+         */
+        public float getLast()
+        {
+            return last;
+        }
+
+        /**
+         * Get the number of timings that were summed up into the value of the
+         * most recent step, e.g. the number of islands for the solver phases.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Get the number of steps in which this entry was recorded.
+         */
+        public long getTotalCount()
+        {
+            return totalCount;
+        }
+
+        public float getShortAvg()
+        {
+            return shortAvg;
+        }
+
+        public float getLongAvg()
+        {
+            return longAvg;
+        }
+
+        public float getMin()
+        {
+            return min;
+        }
+
+        public float getMax()
+        {
+            return max;
         }
 
         @Override
@@ -109,6 +169,64 @@ public class Profile
 
     public final ProfileEntry solveTOI = new ProfileEntry();
 
+    // Counters of the most recent step, reset when a step begins.
+
+    /**
+     * Contacts created by the broad-phase.
+     */
+    public int contactsCreated;
+
+    /**
+     * Contacts destroyed, either because their AABBs ceased to overlap or
+     * because they were filtered out.
+     */
+    public int contactsDestroyed;
+
+    /**
+     * Islands solved by the discrete solver.
+     */
+    public int islandCount;
+
+    /**
+     * Time of impact computations in the continuous solver.
+     */
+    public int toiComputationCount;
+
+    /**
+     * TOI events that were resolved with a sub-step.
+     */
+    public int toiSubStepCount;
+
+    /**
+     * Narrow-phase evaluations skipped because a contact reused its manifold,
+     * see {@link World#setManifoldCaching}.
+     */
+    public int manifoldsReused;
+
+    /**
+     * Called by the world when a step begins. Resets the counters and marks
+     * all entries as not yet recorded for this step.
+     */
+    public void beginStep()
+    {
+        step.last = -1;
+        stepInit.last = -1;
+        collide.last = -1;
+        solveParticleSystem.last = -1;
+        solve.last = -1;
+        solveInit.last = -1;
+        solveVelocity.last = -1;
+        solvePosition.last = -1;
+        broadphase.last = -1;
+        solveTOI.last = -1;
+        contactsCreated = 0;
+        contactsDestroyed = 0;
+        islandCount = 0;
+        toiComputationCount = 0;
+        toiSubStepCount = 0;
+        manifoldsReused = 0;
+    }
+
     public void toDebugStrings(List<String> strings)
     {
         strings.add("Profile:");
@@ -122,5 +240,8 @@ public class Profile
         strings.add("   solvePosition: " + solvePosition);
         strings.add("   broadphase: " + broadphase);
         strings.add("  solveTOI: " + solveTOI);
+        strings.add(" contacts +" + contactsCreated + " -" + contactsDestroyed
+                + ", islands " + islandCount + ", toi " + toiComputationCount
+                + "/" + toiSubStepCount + ", reused " + manifoldsReused);
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+/**
+ * How much of a step the world times into its {@link Profile}.
+ *
+ * @see World#setProfileMode(ProfileMode)
+ */
+public enum ProfileMode
+{
+    /**
+     * No timer is read at all. The step counters of the profile are still
+     * maintained.
+     */
+    OFF,
+    /**
+     * Only the top level phases of every step are timed. The island solver
+     * phases (solveInit, solveVelocity, solvePosition) are not, so the number
+     * of clock reads per step does not grow with the number of islands.
+     */
+    STEP,
+    /**
+     * Every phase of every step is timed, including each island. This is the
+     * default. The island solver phases are accumulated over all islands, so
+     * the clock is read four times per island. With the system clock the cost
+     * of timing grows with the number of islands; for worlds with many small
+     * islands use a coarse clock, see {@link World#setProfileClock}, or
+     * {@link #STEP}.
+     */
+    FULL,
+    /**
+     * Every phase is timed on every n-th step only, see
+     * {@link World#setProfileSampleInterval(int)}. The other steps are not
+     * timed at all.
+     */
+    SAMPLED
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import java.util.Arrays;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
+import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
+import de.pirckheimer_gymnasium.jbox2d.pooling.normal.DefaultWorldPool;
+
+/**
+ * The scratch objects of the world queries on the calling thread.
+ *
+ * <p>
+ * Every query takes the next frame and leaves it when it returns, so queries
+ * can run on several threads at once and can be nested in the callbacks of
+ * other queries. The pool is shared by the frames of a thread, the queries
+ * only use it in between callbacks.
+ * </p>
+ */
+final class QueryContext
+{
+    private static final ThreadLocal<QueryContext> CONTEXTS = ThreadLocal
+            .withInitial(QueryContext::new);
+
+    /**
+     * The scratch objects of one query.
+     */
+    static final class Frame
+    {
+        final QueryContext context;
+
+        final WorldPool pool;
+
+        final WorldQueryWrapper queryWrapper = new WorldQueryWrapper();
+
+        final WorldQueryCollector collector = new WorldQueryCollector();
+
+        final WorldShapeCastWrapper shapeCastWrapper = new WorldShapeCastWrapper();
+
+        final WorldRayCastWrapper rayCastWrapper = new WorldRayCastWrapper();
+
+        final WorldRayCastPacketWrapper packetWrapper = new WorldRayCastPacketWrapper();
+
+        final RayCastPacket packet = new RayCastPacket();
+
+        final int[] packetRays = new int[RayCastPacket.MAX_RAYS];
+
+        final AABB aabb = new AABB();
+
+        final AABB childAABB = new AABB();
+
+        final RayCastInput input = new RayCastInput();
+
+        final CompoundProxy.RayCastForwarder compoundForwarder = new CompoundProxy.RayCastForwarder();
+
+        Frame(QueryContext context)
+        {
+            this.context = context;
+            pool = context.pool;
+        }
+
+        /**
+         * Leave the frame, must be called in the reverse order of
+         * {@link QueryContext#enter}.
+         */
+        void exit()
+        {
+            --context.depth;
+        }
+    }
+
+    private final WorldPool pool = new DefaultWorldPool(World.WORLD_POOL_SIZE,
+            World.WORLD_POOL_CONTAINER_SIZE);
+
+    private Frame[] frames = new Frame[4];
+
+    private int depth;
+
+    private QueryContext()
+    {
+    }
+
+    /**
+     * Enter the next frame of the calling thread.
+     */
+    static Frame enter()
+    {
+        return CONTEXTS.get().push();
+    }
+
+    private Frame push()
+    {
+        if (depth == frames.length)
+        {
+            frames = Arrays.copyOf(frames, 2 * depth);
+        }
+        Frame frame = frames[depth];
+        if (frame == null)
+        {
+            frame = frames[depth] = new Frame(this);
+        }
+        ++depth;
+        return frame;
+    }
+}
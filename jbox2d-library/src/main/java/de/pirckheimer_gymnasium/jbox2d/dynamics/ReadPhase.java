@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tasks of one {@link World#read} call. The calling thread takes
+ * tasks as well and only waits for tasks another thread has already started,
+ * so a busy executor cannot stall it.
+ */
+class ReadPhase implements Runnable
+{
+    private final Runnable[] tasks;
+
+    private final AtomicInteger nextTask = new AtomicInteger();
+
+    private final AtomicInteger doneTasks = new AtomicInteger();
+
+    private volatile Throwable error;
+
+    ReadPhase(Runnable[] tasks)
+    {
+        this.tasks = tasks;
+    }
+
+    /**
+     * Run the tasks with up to the given number of threads, including the
+     * calling one, and wait for them.
+     */
+    void run(Executor executor, int parallelism)
+    {
+        int helpers = executor != null
+                ? Math.min(parallelism, tasks.length) - 1
+                : 0;
+        for (int i = 0; i < helpers; ++i)
+        {
+            executor.execute(this);
+        }
+        run();
+        while (doneTasks.get() < tasks.length)
+        {
+            Thread.onSpinWait();
+        }
+        Throwable t = error;
+        if (t instanceof RuntimeException)
+        {
+            throw (RuntimeException) t;
+        }
+        if (t != null)
+        {
+            throw (Error) t;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        int i;
+        while ((i = nextTask.getAndIncrement()) < tasks.length)
+        {
+            try
+            {
+                tasks[i].run();
+            }
+            catch (RuntimeException | Error t)
+            {
+                error = t;
+            }
+            doneTasks.incrementAndGet();
+        }
+    }
+}
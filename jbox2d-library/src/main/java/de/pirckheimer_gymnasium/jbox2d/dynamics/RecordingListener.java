@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.MassData;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.joints.Joint;
+
+/**
+ * Receives every mutating call on a world, its bodies and its fixtures, see
+ * {@link World#setRecorder(RecordingListener)}. Calls made by callbacks during
+ * a step arrive between {@link #step} and {@link #endStep()}.
+ *
+ * <p>
+ * {@code de.pirckheimer_gymnasium.jbox2d.recording.WorldRecorder} implements
+ * this to write a log that can be replayed. The interface keeps the stream
+ * classes the recorder needs out of this package.
+ * </p>
+ */
+public interface RecordingListener
+{
+    /**
+     * The world starts a step. The calls that follow, up to
+     * {@link #beginSolve()}, are made by callbacks before the solver runs.
+     */
+    void step(float dt, int velocityIterations, int positionIterations);
+
+    /**
+     * The solver of the current step starts. The calls that follow, up to
+     * {@link #endStep()}, are made by callbacks during or after the solver.
+     */
+    void beginSolve();
+
+    /**
+     * The current step has ended.
+     */
+    void endStep();
+
+    void setGravity(Vec2 gravity);
+
+    void createBody(Body body, BodyDef def);
+
+    void destroyBody(Body body);
+
+    void createFixture(Fixture fixture, FixtureDef def);
+
+    void destroyFixture(Fixture fixture);
+
+    /**
+     * The shape of a fixture was changed in place, see
+     * {@link Fixture#updateShape()}.
+     */
+    void updateShape(Fixture fixture);
+
+    void setTransform(Body body, Vec2 position, float angle);
+
+    void setLinearVelocity(Body body, Vec2 v);
+
+    void setAngularVelocity(Body body, float w);
+
+    void applyForce(Body body, Vec2 force, Vec2 point);
+
+    void applyForceToCenter(Body body, Vec2 force);
+
+    void applyTorque(Body body, float torque);
+
+    void applyLinearImpulse(Body body, Vec2 impulse, Vec2 point, boolean wake);
+
+    void applyAngularImpulse(Body body, float impulse);
+
+    void setType(Body body, BodyType type);
+
+    void setAwake(Body body, boolean flag);
+
+    void setActive(Body body, boolean flag);
+
+    void setBullet(Body body, boolean flag);
+
+    void setMassData(Body body, MassData massData);
+
+    void resetMassData(Body body);
+
+    void setFixedRotation(Body body, boolean flag);
+
+    void setSleepingAllowed(Body body, boolean flag);
+
+    void setLinearDamping(Body body, float linearDamping);
+
+    void setAngularDamping(Body body, float angularDamping);
+
+    void setGravityScale(Body body, float gravityScale);
+
+    void setFilterData(Fixture fixture, Filter filter);
+
+    void setSensor(Fixture fixture, boolean sensor);
+
+    void setDensity(Fixture fixture, float density);
+
+    void setFriction(Fixture fixture, float friction);
+
+    void setRestitution(Fixture fixture, float restitution);
+
+    void setAllowSleep(boolean flag);
+
+    void setSleepingAllowed(boolean flag);
+
+    void setWarmStarting(boolean flag);
+
+    void setContinuousPhysics(boolean flag);
+
+    void setSubStepping(boolean flag);
+
+    void setAutoClearForces(boolean flag);
+
+    void setSpeculativeContacts(boolean flag);
+
+    void setTOIBatching(boolean flag);
+
+    void setContactArrays(boolean flag);
+
+    void setBatchedNarrowPhase(boolean flag);
+
+    void setManifoldCaching(boolean flag);
+
+    void setChainProxies(boolean flag);
+
+    void setContactEvents(boolean flag);
+
+    void setSensorOverlaps(boolean flag);
+
+    void setManifoldCacheTolerance(float linear, float angular);
+
+    void setLayerCollision(int layerA, int layerB, boolean collide);
+
+    void clearForces();
+
+    void createJoint(Joint joint);
+}
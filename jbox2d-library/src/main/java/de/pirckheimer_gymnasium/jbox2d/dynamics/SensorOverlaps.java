@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import java.util.Arrays;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactFilter;
+import de.pirckheimer_gymnasium.jbox2d.collision.Collision;
+
+/**
+ * Computes the overlaps of sensor fixtures at the end of each step without
+ * contacts, see {@link World#setSensorOverlaps}. The broad-phase pairs of a
+ * sensor are kept as candidates until their fat AABBs stop overlapping.
+ * Every sensor keeps the fixtures it overlaps, and the changes of a step are
+ * available as begin and end events until the next step.
+ *
+ * Fixtures of static bodies and other sensors are not detected. A pair of a
+ * sensor and a fixture whose bodies both sleep is not tested, it keeps its
+ * state until one of them wakes up. Fixtures destroyed while overlapping a
+ * sensor are reported as ended with the next step, and so are the overlaps
+ * of a sensor that is destroyed or stops being a sensor.
+ */
+public class SensorOverlaps
+{
+    private final World world;
+
+    private Fixture[] sensors = new Fixture[16];
+
+    private int sensorCount;
+
+    /**
+     * The candidate pairs of each sensor, the proxy of the sensor child and
+     * the proxy of the other fixture, by the index of the sensor.
+     */
+    private FixtureProxy[][] candidateSensors = new FixtureProxy[16][];
+
+    private FixtureProxy[][] candidateVisitors = new FixtureProxy[16][];
+
+    private int[] candidateCounts = new int[16];
+
+    /**
+     * The fixtures each sensor overlaps, by the index of the sensor.
+     */
+    private Fixture[][] overlaps = new Fixture[16][];
+
+    private int[] overlapCounts = new int[16];
+
+    /**
+     * The overlaps found by the current update, swapped with those of the
+     * sensor afterwards.
+     */
+    private Fixture[] found = new Fixture[16];
+
+    private int foundCount;
+
+    /**
+     * Marks the fixtures found for the current sensor, see
+     * {@link Fixture#sensorMark}. Advances by two per sensor, the second
+     * value marks the fixtures that overlapped before as well.
+     */
+    private long mark = 1;
+
+    private int beginCount;
+
+    private Fixture[] beginSensors = new Fixture[16];
+
+    private Fixture[] beginVisitors = new Fixture[16];
+
+    private int endCount;
+
+    private Fixture[] endSensors = new Fixture[16];
+
+    private Fixture[] endVisitors = new Fixture[16];
+
+    /**
+     * The overlaps of removed sensors, reported as ended with the next
+     * update.
+     */
+    private int removedCount;
+
+    private Fixture[] removedSensors = new Fixture[16];
+
+    private Fixture[] removedVisitors = new Fixture[16];
+
+    private Fixture sensor;
+
+    private boolean sensorAwake;
+
+    SensorOverlaps(World world)
+    {
+        this.world = world;
+    }
+
+    void add(Fixture fixture)
+    {
+        assert (fixture.sensorIndex == -1);
+        if (sensorCount == sensors.length)
+        {
+            int capacity = 2 * sensorCount;
+            sensors = Arrays.copyOf(sensors, capacity);
+            candidateSensors = Arrays.copyOf(candidateSensors, capacity);
+            candidateVisitors = Arrays.copyOf(candidateVisitors, capacity);
+            candidateCounts = Arrays.copyOf(candidateCounts, capacity);
+            overlaps = Arrays.copyOf(overlaps, capacity);
+            overlapCounts = Arrays.copyOf(overlapCounts, capacity);
+        }
+        fixture.sensorIndex = sensorCount;
+        sensors[sensorCount] = fixture;
+        ++sensorCount;
+    }
+
+    /**
+     * Remove a sensor. Its overlaps are reported as ended with the next step.
+     */
+    void remove(Fixture fixture)
+    {
+        int i = fixture.sensorIndex;
+        assert (sensors[i] == fixture);
+        int last = --sensorCount;
+        FixtureProxy[] removedProxies = candidateSensors[i];
+        FixtureProxy[] removedVisitorProxies = candidateVisitors[i];
+        Fixture[] removed = overlaps[i];
+        if (removed != null)
+        {
+            for (int j = 0; j < overlapCounts[i]; ++j)
+            {
+                addRemoved(fixture, removed[j]);
+            }
+            Arrays.fill(removedProxies, 0, candidateCounts[i], null);
+            Arrays.fill(removedVisitorProxies, 0, candidateCounts[i], null);
+            Arrays.fill(removed, 0, overlapCounts[i], null);
+        }
+        sensors[i] = sensors[last];
+        sensors[i].sensorIndex = i;
+        candidateSensors[i] = candidateSensors[last];
+        candidateVisitors[i] = candidateVisitors[last];
+        candidateCounts[i] = candidateCounts[last];
+        overlaps[i] = overlaps[last];
+        overlapCounts[i] = overlapCounts[last];
+        sensors[last] = null;
+        candidateSensors[last] = removedProxies;
+        candidateVisitors[last] = removedVisitorProxies;
+        candidateCounts[last] = 0;
+        overlaps[last] = removed;
+        overlapCounts[last] = 0;
+        fixture.sensorIndex = -1;
+    }
+
+    /**
+     * Add a broad-phase pair of a sensor child and a fixture child, called by
+     * the contact manager instead of creating a contact.
+     */
+    void addPair(FixtureProxy sensorProxy, FixtureProxy visitorProxy)
+    {
+        Fixture visitor = visitorProxy.fixture;
+        int i = sensorProxy.fixture.sensorIndex;
+        if (i < 0 || visitor.isSensor
+                || visitor.body.type == BodyType.STATIC)
+        {
+            return;
+        }
+        FixtureProxy[] sensorProxies = candidateSensors[i];
+        FixtureProxy[] visitorProxies = candidateVisitors[i];
+        int count = candidateCounts[i];
+        if (sensorProxies == null)
+        {
+            sensorProxies = candidateSensors[i] = new FixtureProxy[4];
+            visitorProxies = candidateVisitors[i] = new FixtureProxy[4];
+            overlaps[i] = new Fixture[4];
+        }
+        // The broad-phase reports a pair again when a proxy moves.
+        for (int j = 0; j < count; ++j)
+        {
+            if (sensorProxies[j] == sensorProxy
+                    && visitorProxies[j] == visitorProxy)
+            {
+                return;
+            }
+        }
+        if (count == sensorProxies.length)
+        {
+            sensorProxies = candidateSensors[i] = Arrays
+                    .copyOf(sensorProxies, 2 * count);
+            visitorProxies = candidateVisitors[i] = Arrays
+                    .copyOf(visitorProxies, 2 * count);
+        }
+        sensorProxies[count] = sensorProxy;
+        visitorProxies[count] = visitorProxy;
+        candidateCounts[i] = count + 1;
+    }
+
+    /**
+     * Update the overlaps of all sensors, called at the end of a step.
+     */
+    void update()
+    {
+        Arrays.fill(beginSensors, 0, beginCount, null);
+        Arrays.fill(beginVisitors, 0, beginCount, null);
+        Arrays.fill(endSensors, 0, endCount, null);
+        Arrays.fill(endVisitors, 0, endCount, null);
+        beginCount = 0;
+        endCount = 0;
+        for (int i = 0; i < removedCount; ++i)
+        {
+            addEnd(removedSensors[i], removedVisitors[i]);
+            removedSensors[i] = null;
+            removedVisitors[i] = null;
+        }
+        removedCount = 0;
+        for (int i = 0; i < sensorCount; ++i)
+        {
+            if (candidateCounts[i] > 0 || overlapCounts[i] > 0)
+            {
+                update(i);
+            }
+        }
+    }
+
+    private void update(int index)
+    {
+        sensor = sensors[index];
+        Body body = sensor.body;
+        sensorAwake = body.isAwake() && body.type != BodyType.STATIC;
+        foundCount = 0;
+        FixtureProxy[] sensorProxies = candidateSensors[index];
+        FixtureProxy[] visitorProxies = candidateVisitors[index];
+        int count = candidateCounts[index];
+        int i = 0;
+        while (i < count)
+        {
+            if (!test(sensorProxies[i], visitorProxies[i]))
+            {
+                // Remove the candidate.
+                --count;
+                sensorProxies[i] = sensorProxies[count];
+                visitorProxies[i] = visitorProxies[count];
+                sensorProxies[count] = null;
+                visitorProxies[count] = null;
+                continue;
+            }
+            ++i;
+        }
+        candidateCounts[index] = count;
+        Fixture[] old = overlaps[index];
+        int oldCount = overlapCounts[index];
+        long both = mark + 1;
+        for (i = 0; i < oldCount; ++i)
+        {
+            Fixture visitor = old[i];
+            old[i] = null;
+            if (visitor.sensorMark == mark)
+            {
+                visitor.sensorMark = both;
+            }
+            else if (visitor.shape != null && !sensorAwake
+                    && !visitor.body.isAwake())
+            {
+                // The pair sleeps and was not tested.
+                visitor.sensorMark = both;
+                addFound(visitor);
+            }
+            else
+            {
+                addEnd(sensor, visitor);
+            }
+        }
+        for (i = 0; i < foundCount; ++i)
+        {
+            if (found[i].sensorMark != both)
+            {
+                addBegin(sensor, found[i]);
+            }
+        }
+        overlaps[index] = found;
+        overlapCounts[index] = foundCount;
+        found = old;
+        mark += 2;
+        sensor = null;
+    }
+
+    /**
+     * Test a candidate pair and add the fixture to the found ones if it
+     * overlaps the sensor.
+     *
+     * @return Whether the pair is still a candidate.
+     */
+    private boolean test(FixtureProxy sensorProxy, FixtureProxy visitorProxy)
+    {
+        Fixture visitor = visitorProxy.fixture;
+        if (visitor.shape == null || visitor.proxyCount == 0
+                || sensor.proxyCount == 0)
+        {
+            return false;
+        }
+        Body body = visitor.body;
+        if (!sensorAwake && !body.isAwake())
+        {
+            // Nothing moved.
+            return true;
+        }
+        if (!world.contactManager.testOverlap(sensorProxy, visitorProxy))
+        {
+            return false;
+        }
+        if (visitor.sensorMark == mark || visitor.isSensor
+                || body.type == BodyType.STATIC)
+        {
+            return true;
+        }
+        ContactFilter filter = world.contactManager.contactFilter;
+        if (!world.contactManager.layersCollide(sensor, visitor)
+                || filter != null && !filter.shouldCollide(sensor, visitor))
+        {
+            return true;
+        }
+        Collision collision = world.getPool().getCollision();
+        if (collision.testOverlap(sensor.shape, sensorProxy.childIndex,
+                visitor.shape, visitorProxy.childIndex,
+                sensor.body.getTransform(), body.getTransform()))
+        {
+            visitor.sensorMark = mark;
+            addFound(visitor);
+        }
+        return true;
+    }
+
+    private void addFound(Fixture visitor)
+    {
+        if (foundCount == found.length)
+        {
+            found = Arrays.copyOf(found, 2 * foundCount);
+        }
+        found[foundCount++] = visitor;
+    }
+
+    private void addRemoved(Fixture sensor, Fixture visitor)
+    {
+        if (removedCount == removedSensors.length)
+        {
+            removedSensors = Arrays.copyOf(removedSensors, 2 * removedCount);
+            removedVisitors = Arrays.copyOf(removedVisitors,
+                    2 * removedCount);
+        }
+        removedSensors[removedCount] = sensor;
+        removedVisitors[removedCount] = visitor;
+        ++removedCount;
+    }
+
+    private void addBegin(Fixture sensor, Fixture visitor)
+    {
+        if (beginCount == beginSensors.length)
+        {
+            beginSensors = Arrays.copyOf(beginSensors, 2 * beginCount);
+            beginVisitors = Arrays.copyOf(beginVisitors, 2 * beginCount);
+        }
+        beginSensors[beginCount] = sensor;
+        beginVisitors[beginCount] = visitor;
+        ++beginCount;
+    }
+
+    private void addEnd(Fixture sensor, Fixture visitor)
+    {
+        if (endCount == endSensors.length)
+        {
+            endSensors = Arrays.copyOf(endSensors, 2 * endCount);
+            endVisitors = Arrays.copyOf(endVisitors, 2 * endCount);
+        }
+        endSensors[endCount] = sensor;
+        endVisitors[endCount] = visitor;
+        ++endCount;
+    }
+
+    public int getSensorCount()
+    {
+        return sensorCount;
+    }
+
+    /**
+     * Get the number of fixtures a sensor overlaps.
+     */
+    public int getOverlapCount(Fixture sensor)
+    {
+        return sensor.sensorIndex >= 0 ? overlapCounts[sensor.sensorIndex]
+                : 0;
+    }
+
+    public Fixture getOverlap(Fixture sensor, int i)
+    {
+        assert (i < getOverlapCount(sensor));
+        return overlaps[sensor.sensorIndex][i];
+    }
+
+    /**
+     * The number of fixtures that began to overlap a sensor in the last
+     * step.
+     */
+    public int getBeginCount()
+    {
+        return beginCount;
+    }
+
+    public Fixture getBeginSensor(int i)
+    {
+        return beginSensors[i];
+    }
+
+    public Fixture getBeginVisitor(int i)
+    {
+        return beginVisitors[i];
+    }
+
+    /**
+     * The number of fixtures that stopped overlapping a sensor in the last
+     * step.
+     */
+    public int getEndCount()
+    {
+        return endCount;
+    }
+
+    public Fixture getEndSensor(int i)
+    {
+        return endSensors[i];
+    }
+
+    public Fixture getEndVisitor(int i)
+    {
+        return endVisitors[i];
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.Distance;
+import de.pirckheimer_gymnasium.jbox2d.collision.Distance.SimplexCache;
+import de.pirckheimer_gymnasium.jbox2d.collision.DistanceInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.DistanceOutput;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
+import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Rot;
+import de.pirckheimer_gymnasium.jbox2d.common.Settings;
+import de.pirckheimer_gymnasium.jbox2d.common.Transform;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+
+/**
+ * Sweeps a shape along a translation against a fixture child by
+ * conservative advancement with {@link Distance}. The shape does not rotate.
+ * The shape stops when the distance of the core shapes is the sum of their
+ * radii less {@link Settings#linearSlop}.
+ */
+class ShapeSweep
+{
+    private static final int MAX_ITERATIONS = 20;
+
+    /**
+     * Core distances within this tolerance of the target count as touching,
+     * closer ones as overlapping.
+     */
+    static final float TOLERANCE = 0.5f * Settings.linearSlop;
+
+    private final DistanceInput input = new DistanceInput();
+
+    private final SimplexCache cache = new SimplexCache();
+
+    private final DistanceOutput output = new DistanceOutput();
+
+    /**
+     * The point of impact on the fixture.
+     */
+    final Vec2 point = new Vec2();
+
+    /**
+     * The surface normal of the fixture at the point of impact, pointing
+     * towards the swept shape.
+     */
+    final Vec2 normal = new Vec2();
+
+    ShapeSweep()
+    {
+        input.useRadii = false;
+    }
+
+    /**
+     * Set the swept shape and its rotation.
+     */
+    void setShape(Shape shape, int childIndex, Rot q)
+    {
+        input.proxyA.set(shape, childIndex);
+        input.transformA.q.set(q);
+    }
+
+    /**
+     * Set the fixture child to sweep against.
+     */
+    void setTarget(Shape shape, int childIndex, Transform xf)
+    {
+        input.proxyB.set(shape, childIndex);
+        input.transformB.set(xf);
+    }
+
+    /**
+     * The distance the core shapes should keep.
+     */
+    float getTarget()
+    {
+        return MathUtils.max(Settings.linearSlop,
+                input.proxyA.radius + input.proxyB.radius
+                        - Settings.linearSlop);
+    }
+
+    /**
+     * Compute the distance of the core shapes with the swept shape at a
+     * position, and the point and normal of the closest features.
+     */
+    float distance(Distance distance, float x, float y)
+    {
+        input.transformA.p.x = x;
+        input.transformA.p.y = y;
+        cache.count = 0;
+        distance.distance(output, cache, input);
+        float d = output.distance;
+        Vec2 pA = output.pointA;
+        Vec2 pB = output.pointB;
+        if (d > Settings.EPSILON)
+        {
+            normal.x = (pA.x - pB.x) / d;
+            normal.y = (pA.y - pB.y) / d;
+        }
+        else
+        {
+            normal.setZero();
+        }
+        float radiusB = input.proxyB.radius;
+        point.x = pB.x + radiusB * normal.x;
+        point.y = pB.y + radiusB * normal.y;
+        return d;
+    }
+
+    /**
+     * The distance between two convex shapes cannot shrink faster than the
+     * translation along the separating axis, so the shape is advanced by the
+     * distance left over that speed until it touches.
+     *
+     * @return The fraction of the translation at the time of impact, or -1
+     *     if the shape misses the fixture up to the max fraction or
+     *     overlaps it without approaching it.
+     */
+    float advance(Distance distance, Vec2 start, Vec2 translation,
+            float maxFraction)
+    {
+        float target = getTarget();
+        float tolerance = TOLERANCE;
+        float t = 0.0f;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration)
+        {
+            float d = distance(distance, start.x + t * translation.x,
+                    start.y + t * translation.y);
+            if (d <= Settings.EPSILON)
+            {
+                // Overlapping, push back along the translation.
+                normal.set(translation).negateLocal();
+                normal.normalize();
+                return t;
+            }
+            // The closing speed along the separating axis.
+            float speed = -(normal.x * translation.x
+                    + normal.y * translation.y);
+            if (d < target - tolerance)
+            {
+                // Overlapping at the start. Moving along or away from the
+                // fixture never gets closer, so it does not block.
+                return speed > 0.0f ? t : -1.0f;
+            }
+            if (d - speed * (maxFraction - t) > target - tolerance)
+            {
+                // The distance of convex shapes is convex in t, so it never
+                // drops below this linear bound. A shape that does not
+                // approach now never will.
+                return -1.0f;
+            }
+            if (d < target + tolerance)
+            {
+                // Touching while approaching.
+                return t;
+            }
+            t += (d - target) / speed;
+            if (t > maxFraction)
+            {
+                return -1.0f;
+            }
+        }
+        return -1.0f;
+    }
+}
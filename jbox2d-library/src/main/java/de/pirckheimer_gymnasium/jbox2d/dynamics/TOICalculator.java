@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.TimeOfImpact;
+import de.pirckheimer_gymnasium.jbox2d.collision.TimeOfImpact.TOIInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.TimeOfImpact.TOIOutput;
+import de.pirckheimer_gymnasium.jbox2d.collision.TimeOfImpact.TOIOutputState;
+import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Sweep;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
+import de.pirckheimer_gymnasium.jbox2d.pooling.normal.DefaultWorldPool;
+
+/**
+ * Computes the time of impact of a batch of contacts, optionally spread over
+ * the threads of an executor.
+ *
+ * <p>
+ * The sweeps are passed as copies that are already on the same time interval.
+ * The computation only reads them and the shapes, so contacts that share
+ * bodies can be computed concurrently.
+ * </p>
+ *
+ * <p>
+ * Work is handed out in chunks. The calling thread takes chunks as well and
+ * only waits for chunks another thread has already started, so a busy or even
+ * single threaded executor cannot stall a step.
+ * </p>
+ */
+class TOICalculator
+{
+    private static final int CHUNK_SIZE = 16;
+
+    /**
+     * The state of one thread, the first one belongs to the stepping thread.
+     */
+    private static class Context
+    {
+        final TimeOfImpact timeOfImpact;
+
+        final TOIInput input = new TOIInput();
+
+        final TOIOutput output = new TOIOutput();
+
+        final AtomicBoolean busy = new AtomicBoolean();
+
+        Context(TimeOfImpact timeOfImpact)
+        {
+            this.timeOfImpact = timeOfImpact;
+        }
+    }
+
+    /**
+     * The contacts of one call. Each call gets its own batch, so a task that
+     * starts late cannot mix up the counters of two calls.
+     */
+    private static class Batch
+    {
+        final Contact[] contacts;
+
+        final Sweep[] sweepsA;
+
+        final Sweep[] sweepsB;
+
+        final float[] alphas;
+
+        final int count;
+
+        final int chunkCount;
+
+        final AtomicInteger nextChunk = new AtomicInteger();
+
+        final AtomicInteger doneChunks = new AtomicInteger();
+
+        volatile Throwable error;
+
+        Batch(Contact[] contacts, Sweep[] sweepsA, Sweep[] sweepsB,
+                float[] alphas, int count)
+        {
+            this.contacts = contacts;
+            this.sweepsA = sweepsA;
+            this.sweepsB = sweepsB;
+            this.alphas = alphas;
+            this.count = count;
+            chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        }
+    }
+
+    private final Context[] contexts;
+
+    private final Runnable[] tasks;
+
+    private final Executor executor;
+
+    private volatile Batch batch;
+
+    /**
+     * @param timeOfImpact Used on the calling thread.
+     * @param executor Runs the other threads, or null to compute serially.
+     * @param parallelism The number of threads, including the calling one.
+     */
+    TOICalculator(TimeOfImpact timeOfImpact, Executor executor,
+            int parallelism)
+    {
+        this.executor = executor;
+        int n = executor != null ? Math.max(parallelism, 1) : 1;
+        contexts = new Context[n];
+        tasks = new Runnable[n];
+        contexts[0] = new Context(timeOfImpact);
+        for (int i = 1; i < n; ++i)
+        {
+            final Context context = new Context(new TimeOfImpact(
+                    new DefaultWorldPool(World.WORLD_POOL_SIZE,
+                            World.WORLD_POOL_CONTAINER_SIZE)));
+            contexts[i] = context;
+            tasks[i] = () -> work(batch, context);
+        }
+    }
+
+    Executor getExecutor()
+    {
+        return executor;
+    }
+
+    int getParallelism()
+    {
+        return contexts.length;
+    }
+
+    /**
+     * Compute the TOI of each contact as a fraction of the step.
+     *
+     * @param sweepsA The sweeps of the first bodies, on the same time interval
+     *     as the ones of the second bodies.
+     */
+    void compute(Contact[] contacts, Sweep[] sweepsA, Sweep[] sweepsB,
+            float[] alphas, int count)
+    {
+        if (contexts.length == 1 || count < 2 * CHUNK_SIZE)
+        {
+            Context context = contexts[0];
+            for (int i = 0; i < count; ++i)
+            {
+                alphas[i] = computeAlpha(context, contacts[i], sweepsA[i],
+                        sweepsB[i]);
+            }
+            return;
+        }
+        final Batch b = new Batch(contacts, sweepsA, sweepsB, alphas, count);
+        batch = b;
+        int helpers = Math.min(contexts.length, b.chunkCount) - 1;
+        for (int i = 1; i <= helpers; ++i)
+        {
+            executor.execute(tasks[i]);
+        }
+        work(b, contexts[0]);
+        while (b.doneChunks.get() < b.chunkCount)
+        {
+            Thread.onSpinWait();
+        }
+        batch = null;
+        Throwable t = b.error;
+        if (t instanceof RuntimeException)
+        {
+            throw (RuntimeException) t;
+        }
+        if (t != null)
+        {
+            throw (Error) t;
+        }
+    }
+
+    private static void work(Batch b, Context context)
+    {
+        // A task that starts late may find its context taken by the task of
+        // a later call, or no batch at all. It has nothing to do then.
+        if (b == null || !context.busy.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            int chunk;
+            while ((chunk = b.nextChunk.getAndIncrement()) < b.chunkCount)
+            {
+                int end = Math.min((chunk + 1) * CHUNK_SIZE, b.count);
+                try
+                {
+                    for (int i = chunk * CHUNK_SIZE; i < end; ++i)
+                    {
+                        b.alphas[i] = computeAlpha(context, b.contacts[i],
+                                b.sweepsA[i], b.sweepsB[i]);
+                    }
+                }
+                catch (RuntimeException | Error t)
+                {
+                    b.error = t;
+                }
+                b.doneChunks.incrementAndGet();
+            }
+        }
+        finally
+        {
+            context.busy.set(false);
+        }
+    }
+
+    private static float computeAlpha(Context context, Contact c,
+            Sweep sweepA, Sweep sweepB)
+    {
+        float alpha0 = sweepA.alpha0;
+        // Compute the time of impact in interval [0, minTOI]
+        final TOIInput input = context.input;
+        input.proxyA.set(c.getFixtureA().getShape(), c.getChildIndexA());
+        input.proxyB.set(c.getFixtureB().getShape(), c.getChildIndexB());
+        input.sweepA.set(sweepA);
+        input.sweepB.set(sweepB);
+        input.tMax = 1.0f;
+        final TOIOutput output = context.output;
+        context.timeOfImpact.timeOfImpact(output, input);
+        // Beta is the fraction of the remaining portion of the .
+        if (output.state == TOIOutputState.TOUCHING)
+        {
+            return MathUtils.min(alpha0 + (1.0f - alpha0) * output.t, 1.0f);
+        }
+        return 1.0f;
+    }
+}
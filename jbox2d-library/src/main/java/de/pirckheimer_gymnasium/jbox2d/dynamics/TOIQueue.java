@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
+
+/**
+ * A binary min-heap of contacts keyed by {@link Contact#toi}. The heap position
+ * is stored in {@link Contact#toiIndex}, so a contact can be removed when its
+ * TOI is invalidated.
+ *
+ * <p>
+ * Ties are common, e.g. all contacts of a body that already touch at the start
+ * of its sweep. They are broken by the position in the contact list, the same
+ * contact that a scan of the list would pick comes first.
+ * </p>
+ */
+class TOIQueue
+{
+    private Contact[] heap = new Contact[16];
+
+    private int size;
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void add(Contact c)
+    {
+        assert (c.toiIndex == -1);
+        if (size == heap.length)
+        {
+            Contact[] newHeap = new Contact[size * 2];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+        siftUp(size++, c);
+    }
+
+    /**
+     * Get the contact with the smallest TOI without removing it.
+     */
+    public Contact peek()
+    {
+        return size > 0 ? heap[0] : null;
+    }
+
+    public Contact poll()
+    {
+        if (size == 0)
+        {
+            return null;
+        }
+        Contact min = heap[0];
+        removeAt(0);
+        return min;
+    }
+
+    /**
+     * Remove a contact if it is queued.
+     */
+    public void remove(Contact c)
+    {
+        if (c.toiIndex >= 0)
+        {
+            assert (heap[c.toiIndex] == c);
+            removeAt(c.toiIndex);
+        }
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < size; ++i)
+        {
+            heap[i].toiIndex = -1;
+            heap[i] = null;
+        }
+        size = 0;
+    }
+
+    private void removeAt(int index)
+    {
+        heap[index].toiIndex = -1;
+        Contact last = heap[--size];
+        heap[size] = null;
+        if (index == size)
+        {
+            return;
+        }
+        siftDown(index, last);
+        if (heap[index] == last)
+        {
+            siftUp(index, last);
+        }
+    }
+
+    private void siftUp(int index, Contact c)
+    {
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            Contact p = heap[parent];
+            if (!before(c, p))
+            {
+                break;
+            }
+            heap[index] = p;
+            p.toiIndex = index;
+            index = parent;
+        }
+        heap[index] = c;
+        c.toiIndex = index;
+    }
+
+    private void siftDown(int index, Contact c)
+    {
+        int half = size >>> 1;
+        while (index < half)
+        {
+            int child = 2 * index + 1;
+            Contact smallest = heap[child];
+            int right = child + 1;
+            if (right < size && before(heap[right], smallest))
+            {
+                child = right;
+                smallest = heap[child];
+            }
+            if (!before(smallest, c))
+            {
+                break;
+            }
+            heap[index] = smallest;
+            smallest.toiIndex = index;
+            index = child;
+        }
+        heap[index] = c;
+        c.toiIndex = index;
+    }
+
+    private static boolean before(Contact a, Contact b)
+    {
+        return a.toi < b.toi || (a.toi == b.toi && a.stamp > b.stamp);
+    }
+}
@@ -23,6 +23,8 @@
  */
 package de.pirckheimer_gymnasium.jbox2d.dynamics;
 
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+
 /**
  * This is an internal structure.
  *
@@ -50,4 +52,15 @@ public class TimeStep
     public int positionIterations;
 
     public boolean warmStarting;
+
+    /**
+     * Whether contacts may carry speculative points with a positive
+     * separation.
+     */
+    public boolean speculative;
+
+    /**
+     * The settings of the world that is stepped.
+     */
+    public WorldSettings settings;
 }
@@ -23,6 +23,8 @@
  */
 package de.pirckheimer_gymnasium.jbox2d.dynamics;
 
+import java.util.concurrent.Executor;
+
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactFilter;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactListener;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
@@ -32,24 +34,24 @@ import de.pirckheimer_gymnasium.jbox2d.callbacks.ParticleQueryCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ParticleRaycastCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.QueryCallback;
 import de.pirckheimer_gymnasium.jbox2d.callbacks.RayCastCallback;
-import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
-import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.ShapeCastCallback;
 import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.Collision;
 import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
-import de.pirckheimer_gymnasium.jbox2d.collision.RayCastOutput;
-import de.pirckheimer_gymnasium.jbox2d.collision.TimeOfImpact.TOIInput;
-import de.pirckheimer_gymnasium.jbox2d.collision.TimeOfImpact.TOIOutput;
-import de.pirckheimer_gymnasium.jbox2d.collision.TimeOfImpact.TOIOutputState;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
 import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
 import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhaseStrategy;
 import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DefaultBroadPhaseBuffer;
 import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DynamicTree;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.LayeredBroadPhase;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ChainShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.EdgeShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ShapeType;
+import de.pirckheimer_gymnasium.jbox2d.common.Clock;
 import de.pirckheimer_gymnasium.jbox2d.common.Color3f;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Settings;
@@ -57,6 +59,7 @@ import de.pirckheimer_gymnasium.jbox2d.common.Sweep;
 import de.pirckheimer_gymnasium.jbox2d.common.Timer;
 import de.pirckheimer_gymnasium.jbox2d.common.Transform;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ContactEdge;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.ContactRegister;
@@ -81,6 +84,28 @@ import de.pirckheimer_gymnasium.jbox2d.pooling.normal.DefaultWorldPool;
  * asynchronous queries. The world also contains efficient memory management
  * facilities.
  *
+ * <p>
+ * A world is not thread-safe, but independent worlds do not share mutable
+ * state: every world has its own pool, broad-phase and {@link WorldSettings},
+ * so separate worlds can be stepped on separate threads at the same time. The
+ * static fields of {@link Settings}, including the lookup table flags used by
+ * {@link MathUtils}, are read by shapes, the narrow-phase and new worlds, so
+ * they should be configured before any world is built. The statistics
+ * counters of {@code Distance} and {@code TimeOfImpact} are shared and only
+ * approximate when several worlds are stepped concurrently.
+ * </p>
+ *
+ * <p>
+ * Between steps the world can be read from several threads in a read phase,
+ * see {@link #beginReadPhase()} and {@link #read}. The queries of the world
+ * ({@code queryAABB}, {@code queryPoint}, {@code queryShape},
+ * {@code queryAABBs}, {@code raycast}, {@code raycastClosest} and
+ * {@code shapeCast}) keep their scratch objects per thread and may also be
+ * nested in each other's callbacks. The particle queries are not covered, and
+ * getters that return a shared instance, such as {@link Fixture#getAABB} of a
+ * chain or a compound body, may only be used by one thread.
+ * </p>
+ *
  * @author Daniel Murphy
  *
  * @repolink https://github.com/erincatto/box2d/blob/411acc32eb6d4f2e96fc70ddbdf01fe5f9b16230/include/box2d/b2_world.h#L43-L346
@@ -104,6 +129,8 @@ public class World
 
     protected int flags;
 
+    private boolean readPhase;
+
     protected ContactManager contactManager;
 
     private Body bodyList;
@@ -130,6 +157,8 @@ public class World
      */
     private final WorldPool pool;
 
+    private final WorldSettings settings;
+
     /**
      * This is used to compute the time step ratio to support a variable time
      * step.
@@ -141,14 +170,43 @@ public class World
 
     private boolean continuousPhysics;
 
+    private boolean speculativeContacts;
+
+    private boolean manifoldCaching;
+
+    private boolean chainProxies;
+
+    private float manifoldLinearTolerance = 0.1f * Settings.linearSlop;
+
+    private float manifoldAngularTolerance = 0.001f;
+
     private boolean subStepping;
 
     private boolean stepComplete;
 
+    /**
+     * Solve TOI events whose islands do not touch without looking for new
+     * contacts in between.
+     */
+    private boolean toiBatching;
+
+    private TOICalculator toiCalculator;
+
     private final Profile profile;
 
     private final ParticleSystem particleSystem;
 
+    /**
+     * Receives every mutating call if the world is being recorded, null
+     * otherwise.
+     */
+    RecordingListener recorder;
+
+    /**
+     * Collects histograms of the profile after every step if set.
+     */
+    private ProfileListener profiler;
+
     private final ContactRegister[][] contactStacks = new ContactRegister[ShapeType
             .values().length][ShapeType.values().length];
 
@@ -174,7 +232,35 @@ public class World
      */
     public World(Vec2 gravity, WorldPool pool)
     {
-        this(gravity, pool, new DynamicTree());
+        this(gravity, pool, new WorldSettings());
+    }
+
+    /**
+     * Construct a world object with its own tuning constants.
+     *
+     * @param gravity The world gravity vector.
+     * @param settings The settings of this world. The object is used
+     *     directly, so later changes to it affect the world.
+     */
+    public World(Vec2 gravity, WorldSettings settings)
+    {
+        this(gravity, new DefaultWorldPool(WORLD_POOL_SIZE,
+                WORLD_POOL_CONTAINER_SIZE), settings);
+    }
+
+    /**
+     * Construct a world object with its own tuning constants.
+     *
+     * @param gravity The world gravity vector.
+     * @param pool The world pool that provides pooling for all objects used in
+     *     the engine.
+     * @param settings The settings of this world. The object is used
+     *     directly, so later changes to it affect the world.
+     */
+    public World(Vec2 gravity, WorldPool pool, WorldSettings settings)
+    {
+        this(gravity, pool, settings,
+                new DefaultBroadPhaseBuffer(new DynamicTree(settings)));
     }
 
     /**
@@ -197,8 +283,25 @@ public class World
      * @param gravity The world gravity vector.
      */
     public World(Vec2 gravity, WorldPool pool, BroadPhase broadPhase)
+    {
+        this(gravity, pool, new WorldSettings(), broadPhase);
+    }
+
+    /**
+     * Construct a world object.
+     *
+     * @param gravity The world gravity vector.
+     * @param pool The world pool that provides pooling for all objects used in
+     *     the engine.
+     * @param settings The settings of this world. The broad-phase is expected
+     *     to be built with the same settings.
+     * @param broadPhase The broad-phase.
+     */
+    public World(Vec2 gravity, WorldPool pool, WorldSettings settings,
+            BroadPhase broadPhase)
     {
         this.pool = pool;
+        this.settings = settings;
         destructionListener = null;
         debugDraw = null;
         bodyList = null;
@@ -216,11 +319,16 @@ public class World
         contactManager = new ContactManager(this, broadPhase);
         profile = new Profile();
         particleSystem = new ParticleSystem(this);
+        toiCalculator = new TOICalculator(pool.getTimeOfImpact(), null, 1);
         initializeRegisters();
     }
 
     public void setAllowSleep(boolean flag)
     {
+        if (recorder != null)
+        {
+            recorder.setAllowSleep(flag);
+        }
         if (flag == allowSleep)
         {
             return;
@@ -237,6 +345,10 @@ public class World
 
     public void setSubStepping(boolean subStepping)
     {
+        if (recorder != null)
+        {
+            recorder.setSubStepping(subStepping);
+        }
         this.subStepping = subStepping;
     }
 
@@ -245,6 +357,281 @@ public class World
         return subStepping;
     }
 
+    /**
+     * Compute the times of impact of the continuous solver on several threads.
+     * Worth it with many bullets or fast bodies. The executor may be shared
+     * and busy, the stepping thread always takes part in the work and never
+     * waits for tasks that have not started.
+     *
+     * @param executor Runs the helper tasks, null to compute on the stepping
+     *     thread only.
+     * @param parallelism The number of threads to use, including the stepping
+     *     thread.
+     */
+    public void setTOIExecutor(Executor executor, int parallelism)
+    {
+        toiCalculator = new TOICalculator(pool.getTimeOfImpact(), executor,
+                parallelism);
+    }
+
+    public Executor getTOIExecutor()
+    {
+        return toiCalculator.getExecutor();
+    }
+
+    public int getTOIParallelism()
+    {
+        return toiCalculator.getParallelism();
+    }
+
+    /**
+     * Solve the TOI events of bodies that do not touch each other in one
+     * sub-step, looking for new contacts once per batch instead of once per
+     * event. This is much faster with many bullets, but a contact between
+     * two bodies of the same batch that only appears after their sub-steps is
+     * handled with the next step. Ignored while sub-stepping.
+     */
+    public void setTOIBatching(boolean toiBatching)
+    {
+        if (recorder != null)
+        {
+            recorder.setTOIBatching(toiBatching);
+        }
+        this.toiBatching = toiBatching;
+    }
+
+    public boolean isTOIBatching()
+    {
+        return toiBatching;
+    }
+
+    /**
+     * Keep the contacts in dense arrays in addition to the contact list, with
+     * the contacts of awake bodies in front of the sleeping ones. The
+     * narrow-phase and the solvers then only visit the awake contacts, so
+     * sleeping piles cost nothing per step. Sleeping contacts are still
+     * filtered at the next step after {@link Fixture#setFilterData}, a joint
+     * or a layer change, but a contact flagged directly with
+     * {@link Contact#flagForFiltering()} is only filtered once its bodies
+     * wake up.
+     */
+    public void setContactArrays(boolean flag)
+    {
+        if (recorder != null)
+        {
+            recorder.setContactArrays(flag);
+        }
+        contactManager.setArrays(flag);
+    }
+
+    public boolean isContactArrays()
+    {
+        return contactManager.contacts != null;
+    }
+
+    /**
+     * Keep the contacts in one array per contact class and run the
+     * narrow-phase class by class, with a loop per class instead of a
+     * virtual evaluate call per contact. The contact listener sees the
+     * contacts in this order. The narrow-phase then visits the sleeping
+     * contacts as well, even with contact arrays.
+     */
+    public void setBatchedNarrowPhase(boolean flag)
+    {
+        if (recorder != null)
+        {
+            recorder.setBatchedNarrowPhase(flag);
+        }
+        contactManager.setBatched(flag);
+    }
+
+    public boolean isBatchedNarrowPhase()
+    {
+        return contactManager.batch != null;
+    }
+
+    /**
+     * Set whether fixtures on two collision layers collide, see
+     * {@link Filter#layer}. All layers collide by default. Existing contacts
+     * are filtered at the next step. When a pair of layers is enabled, the
+     * contacts of the fixtures that overlap already are created right away
+     * and their bodies are woken. With a {@link LayeredBroadPhase} pairs of
+     * layers that do not collide are not even found by the broad-phase.
+     *
+     * @warning This function is locked during callbacks.
+     */
+    public void setLayerCollision(int layerA, int layerB, boolean collide)
+    {
+        assert (!isLocked());
+        if (isLocked() || getLayerCollision(layerA, layerB) == collide)
+        {
+            return;
+        }
+        if (recorder != null)
+        {
+            recorder.setLayerCollision(layerA, layerB, collide);
+        }
+        int[] layerMasks = contactManager.layerMasks;
+        if (collide)
+        {
+            layerMasks[layerA] |= 1 << layerB;
+            layerMasks[layerB] |= 1 << layerA;
+        }
+        else
+        {
+            layerMasks[layerA] &= ~(1 << layerB);
+            layerMasks[layerB] &= ~(1 << layerA);
+        }
+        BroadPhase broadPhase = contactManager.broadPhase;
+        if (broadPhase instanceof LayeredBroadPhase)
+        {
+            ((LayeredBroadPhase) broadPhase).setLayerCollision(layerA, layerB,
+                    collide);
+        }
+        for (Contact c = contactManager.contactList; c != null; c = c
+                .getNext())
+        {
+            contactManager.flagForFiltering(c);
+        }
+        if (!collide)
+        {
+            return;
+        }
+        // Report the pairs that overlap already. Their proxies do not move,
+        // so they are not reported by the broad-phase on its own.
+        for (Body b = bodyList; b != null; b = b.getNext())
+        {
+            for (Fixture f = b.getFixtureList(); f != null; f = f.getNext())
+            {
+                if (f.filter.layer == layerA || f.filter.layer == layerB)
+                {
+                    f.touchProxies(broadPhase);
+                }
+            }
+        }
+        contactManager.findNewContacts();
+        // Contacts between sleeping bodies are not updated, so wake the bodies
+        // of the new pairs, e.g. a body resting on static geometry.
+        for (Contact c = contactManager.contactList; c != null; c = c
+                .getNext())
+        {
+            int la = c.getFixtureA().filter.layer;
+            int lb = c.getFixtureB().filter.layer;
+            if (la == layerA && lb == layerB || la == layerB && lb == layerA)
+            {
+                c.getFixtureA().getBody().setAwake(true);
+                c.getFixtureB().getBody().setAwake(true);
+            }
+        }
+    }
+
+    public boolean getLayerCollision(int layerA, int layerB)
+    {
+        return (contactManager.layerMasks[layerA] & 1 << layerB) != 0;
+    }
+
+    private ContactEvents contactEvents;
+
+    /**
+     * Record the begin, end and hit events of each step in a
+     * {@link ContactEvents} buffer instead of calling beginContact and
+     * endContact of the contact listener during the step. PreSolve and
+     * postSolve are still called if there is a listener, since preSolve may
+     * change the contact. Contacts destroyed outside of a step, e.g. with a
+     * fixture, are not reported.
+     */
+    public void setContactEvents(boolean flag)
+    {
+        if (recorder != null)
+        {
+            recorder.setContactEvents(flag);
+        }
+        if (flag != (contactEvents != null))
+        {
+            contactEvents = flag ? new ContactEvents() : null;
+        }
+    }
+
+    /**
+     * Get the events of the last step.
+     *
+     * @return The event buffer, or null if events are not recorded.
+     */
+    public ContactEvents getContactEvents()
+    {
+        return contactEvents;
+    }
+
+    private SensorOverlaps sensorOverlaps;
+
+    /**
+     * Track the overlaps of sensor fixtures at the end of each step instead
+     * of creating contacts for them. The contact listener is then not called
+     * for sensors, the overlaps and their changes are read from
+     * {@link #getSensorOverlaps()}.
+     */
+    public void setSensorOverlaps(boolean flag)
+    {
+        assert (!isLocked());
+        if (flag == (sensorOverlaps != null))
+        {
+            return;
+        }
+        if (recorder != null)
+        {
+            recorder.setSensorOverlaps(flag);
+        }
+        if (flag)
+        {
+            sensorOverlaps = new SensorOverlaps(this);
+        }
+        for (Body b = bodyList; b != null; b = b.next)
+        {
+            for (Fixture f = b.fixtureList; f != null; f = f.next)
+            {
+                if (!f.isSensor)
+                {
+                    continue;
+                }
+                if (flag)
+                {
+                    sensorOverlaps.add(f);
+                }
+                else
+                {
+                    f.sensorIndex = -1;
+                }
+                // Destroy or create the contacts of the sensor.
+                f.refilter();
+            }
+        }
+        if (!flag)
+        {
+            sensorOverlaps = null;
+        }
+    }
+
+    /**
+     * Get the sensor overlaps.
+     *
+     * @return The sensor overlaps, or null if sensors use contacts.
+     */
+    public SensorOverlaps getSensorOverlaps()
+    {
+        return sensorOverlaps;
+    }
+
+    /**
+     * Get a contact by its {@link Contact#handle}, only available with
+     * contact arrays.
+     *
+     * @return The contact, or null if there is none with this handle.
+     */
+    public Contact getContact(int handle)
+    {
+        return contactManager.getContact(handle);
+    }
+
     public boolean isAllowSleep()
     {
         return allowSleep;
@@ -282,6 +669,10 @@ public class World
                 ShapeType.CIRCLE);
         addType(pool.getChainPolyContactStack(), ShapeType.CHAIN,
                 ShapeType.POLYGON);
+        addType(pool.getHeightfieldCircleContactStack(),
+                ShapeType.HEIGHTFIELD, ShapeType.CIRCLE);
+        addType(pool.getHeightfieldPolyContactStack(), ShapeType.HEIGHTFIELD,
+                ShapeType.POLYGON);
     }
 
     public DestructionListener getDestructionListener()
@@ -348,6 +739,15 @@ public class World
         return pool;
     }
 
+    /**
+     * Get the tuning constants of this world. The returned object is live,
+     * changes take effect with the next step.
+     */
+    public WorldSettings getSettings()
+    {
+        return settings;
+    }
+
     /**
      * Register a destruction listener. The listener is owned by you and must
      * remain in scope.
@@ -410,6 +810,10 @@ public class World
         }
         bodyList = b;
         ++bodyCount;
+        if (recorder != null)
+        {
+            recorder.createBody(b, def);
+        }
         return b;
     }
 
@@ -428,6 +832,10 @@ public class World
         {
             return;
         }
+        if (recorder != null)
+        {
+            recorder.destroyBody(body);
+        }
         // Delete the attached joints.
         JointEdge je = body.jointList;
         while (je != null)
@@ -460,6 +868,10 @@ public class World
                 destructionListener.sayGoodbye(f0);
             }
             f0.destroyProxies(contactManager.broadPhase);
+            if (f0.sensorIndex >= 0)
+            {
+                sensorOverlaps.remove(f0);
+            }
             f0.destroy();
             // TODO djm recycle fixtures (here or in that destroy method)
             body.fixtureList = f;
@@ -498,6 +910,10 @@ public class World
             return null;
         }
         Joint j = Joint.create(this, def);
+        if (recorder != null)
+        {
+            recorder.createJoint(j);
+        }
         // Connect to the world list.
         j.prev = null;
         j.next = jointList;
@@ -532,6 +948,8 @@ public class World
         // filtering.
         if (!def.collideConnected)
         {
+            addJointedBodies(j.getBodyA(), j.getBodyB());
+            addJointedBodies(j.getBodyB(), j.getBodyA());
             ContactEdge edge = bodyB.getContactList();
             while (edge != null)
             {
@@ -540,7 +958,7 @@ public class World
                     // Flag the contact for filtering at the next time step
                     // (where either
                     // body is awake).
-                    edge.contact.flagForFiltering();
+                    contactManager.flagForFiltering(edge.contact);
                 }
                 edge = edge.next;
             }
@@ -549,6 +967,15 @@ public class World
         return j;
     }
 
+    private static void addJointedBodies(Body body, Body other)
+    {
+        if (body.jointedBodies == null)
+        {
+            body.jointedBodies = new JointedBodies();
+        }
+        body.jointedBodies.add(other);
+    }
+
     /**
      * destroy a joint. This may cause the connected bodies to begin colliding.
      *
@@ -618,6 +1045,8 @@ public class World
         // filtering.
         if (!collideConnected)
         {
+            bodyA.jointedBodies.remove(bodyB);
+            bodyB.jointedBodies.remove(bodyA);
             ContactEdge edge = bodyB.getContactList();
             while (edge != null)
             {
@@ -626,7 +1055,7 @@ public class World
                     // Flag the contact for filtering at the next time step
                     // (where either
                     // body is awake).
-                    edge.contact.flagForFiltering();
+                    contactManager.flagForFiltering(edge.contact);
                 }
                 edge = edge.next;
             }
@@ -640,6 +1069,22 @@ public class World
 
     private final Timer tempTimer = new Timer();
 
+    private ProfileMode profileMode = ProfileMode.FULL;
+
+    private int profileSampleInterval = 60;
+
+    private int profileStepCount;
+
+    /**
+     * Whether the phases of the current step are timed.
+     */
+    private boolean profileStep;
+
+    /**
+     * Whether the island solver phases of the current step are timed.
+     */
+    private boolean profileIslands;
+
     /**
      * Take a time step. This performs collision detection, integration, and
      * constraint solution.
@@ -653,8 +1098,28 @@ public class World
     public void step(float timeStep, int velocityIterations,
             int positionIterations)
     {
-        stepTimer.reset();
-        tempTimer.reset();
+        assert (!readPhase);
+        if (recorder != null)
+        {
+            recorder.step(timeStep, velocityIterations, positionIterations);
+        }
+        // Decide once per step what gets timed.
+        profileStep = profileMode == ProfileMode.FULL
+                || profileMode == ProfileMode.STEP
+                || profileMode == ProfileMode.SAMPLED
+                        && profileStepCount % profileSampleInterval == 0;
+        profileIslands = profileStep && profileMode != ProfileMode.STEP;
+        ++profileStepCount;
+        if (profileStep)
+        {
+            stepTimer.reset();
+            tempTimer.reset();
+        }
+        profile.beginStep();
+        if (contactEvents != null)
+        {
+            contactEvents.clear();
+        }
         // log.debug("Starting step");
         // If new fixtures were added, we need to find the new contacts.
         if ((flags & NEW_FIXTURE) == NEW_FIXTURE)
@@ -677,40 +1142,83 @@ public class World
         }
         step.dtRatio = invDt0 * timeStep;
         step.warmStarting = warmStarting;
-        profile.stepInit.record(tempTimer.getMilliseconds());
+        step.speculative = speculativeContacts;
+        step.settings = settings;
+        if (profileStep)
+        {
+            profile.stepInit.record(tempTimer.getMilliseconds());
+            tempTimer.reset();
+        }
         // Update contacts. This is where some contacts are destroyed.
-        tempTimer.reset();
         contactManager.collide();
-        profile.collide.record(tempTimer.getMilliseconds());
+        if (profileStep)
+        {
+            profile.collide.record(tempTimer.getMilliseconds());
+        }
+        if (recorder != null)
+        {
+            recorder.beginSolve();
+        }
         // Integrate velocities, solve velocity constraints, and integrate
         // positions.
         if (stepComplete && step.dt > 0.0f)
         {
-            tempTimer.reset();
+            if (profileStep)
+            {
+                tempTimer.reset();
+            }
             particleSystem.solve(step); // Particle Simulation
-            profile.solveParticleSystem.record(tempTimer.getMilliseconds());
-            tempTimer.reset();
+            if (profileStep)
+            {
+                profile.solveParticleSystem
+                        .record(tempTimer.getMilliseconds());
+                tempTimer.reset();
+            }
             solve(step);
-            profile.solve.record(tempTimer.getMilliseconds());
+            if (profileStep)
+            {
+                profile.solve.record(tempTimer.getMilliseconds());
+            }
         }
         // Handle TOI events.
-        if (continuousPhysics && step.dt > 0.0f)
+        if (continuousPhysics && !speculativeContacts && step.dt > 0.0f)
         {
-            tempTimer.reset();
+            if (profileStep)
+            {
+                tempTimer.reset();
+            }
             solveTOI(step);
-            profile.solveTOI.record(tempTimer.getMilliseconds());
+            if (profileStep)
+            {
+                profile.solveTOI.record(tempTimer.getMilliseconds());
+            }
         }
         if (step.dt > 0.0f)
         {
             invDt0 = step.inverseDt;
         }
+        if (sensorOverlaps != null)
+        {
+            sensorOverlaps.update();
+        }
         if ((flags & CLEAR_FORCES) == CLEAR_FORCES)
         {
             clearForces();
         }
         flags &= ~LOCKED;
         // log.debug("ending step");
-        profile.step.record(stepTimer.getMilliseconds());
+        if (recorder != null)
+        {
+            recorder.endStep();
+        }
+        if (profileStep)
+        {
+            profile.step.record(stepTimer.getMilliseconds());
+        }
+        if (profiler != null)
+        {
+            profiler.endStep(profile);
+        }
     }
 
     /**
@@ -725,6 +1233,11 @@ public class World
      */
     public void clearForces()
     {
+        // Forces cleared by a step are cleared by the replayed step as well.
+        if (recorder != null && !isLocked())
+        {
+            recorder.clearForces();
+        }
         for (Body body = bodyList; body != null; body = body.getNext())
         {
             body.force.setZero();
@@ -820,22 +1333,31 @@ public class World
                 {
                     continue;
                 }
-                for (Fixture f = b.getFixtureList(); f != null; f = f.getNext())
+                if (b.compound != null)
                 {
-                    for (int i = 0; i < f.proxyCount; ++i)
+                    if (b.compound.proxyId != BroadPhase.NULL_PROXY)
                     {
-                        FixtureProxy proxy = f.proxies[i];
-                        AABB aabb = contactManager.broadPhase
-                                .getFatAABB(proxy.proxyId);
-                        if (aabb != null)
+                        drawAABB(contactManager.broadPhase
+                                .getFatAABB(b.compound.proxyId));
+                    }
+                    continue;
+                }
+                for (Fixture f = b.getFixtureList(); f != null; f = f.getNext())
+                {
+                    if (f.compound != null)
+                    {
+                        if (f.proxyCount > 0)
                         {
-                            Vec2[] vs = avs.get(4);
-                            vs[0].set(aabb.lowerBound.x, aabb.lowerBound.y);
-                            vs[1].set(aabb.upperBound.x, aabb.lowerBound.y);
-                            vs[2].set(aabb.upperBound.x, aabb.upperBound.y);
-                            vs[3].set(aabb.lowerBound.x, aabb.upperBound.y);
-                            debugDraw.drawPolygon(vs, 4, color);
+                            drawAABB(contactManager.broadPhase
+                                    .getFatAABB(f.compound.proxyId));
                         }
+                        continue;
+                    }
+                    for (int i = 0; i < f.proxyCount; ++i)
+                    {
+                        FixtureProxy proxy = f.proxies[i];
+                        drawAABB(contactManager.broadPhase
+                                .getFatAABB(proxy.proxyId));
                     }
                 }
             }
@@ -856,7 +1378,18 @@ public class World
         debugDraw.flush();
     }
 
-    private final WorldQueryWrapper wqwrapper = new WorldQueryWrapper();
+    private void drawAABB(AABB aabb)
+    {
+        if (aabb != null)
+        {
+            Vec2[] vs = avs.get(4);
+            vs[0].set(aabb.lowerBound.x, aabb.lowerBound.y);
+            vs[1].set(aabb.upperBound.x, aabb.lowerBound.y);
+            vs[2].set(aabb.upperBound.x, aabb.upperBound.y);
+            vs[3].set(aabb.lowerBound.x, aabb.upperBound.y);
+            debugDraw.drawPolygon(vs, 4, color);
+        }
+    }
 
     /**
      * Query the world for all fixtures that potentially overlap the provided
@@ -867,9 +1400,21 @@ public class World
      */
     public void queryAABB(QueryCallback callback, AABB aabb)
     {
-        wqwrapper.broadPhase = contactManager.broadPhase;
-        wqwrapper.callback = callback;
-        contactManager.broadPhase.query(wqwrapper, aabb);
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldQueryWrapper wrapper = frame.queryWrapper;
+        try
+        {
+            wrapper.broadPhase = contactManager.broadPhase;
+            wrapper.callback = callback;
+            wrapper.aabb = aabb;
+            contactManager.broadPhase.query(wrapper, aabb);
+        }
+        finally
+        {
+            wrapper.callback = null;
+            wrapper.aabb = null;
+            frame.exit();
+        }
     }
 
     /**
@@ -883,9 +1428,7 @@ public class World
     public void queryAABB(QueryCallback callback,
             ParticleQueryCallback particleCallback, AABB aabb)
     {
-        wqwrapper.broadPhase = contactManager.broadPhase;
-        wqwrapper.callback = callback;
-        contactManager.broadPhase.query(wqwrapper, aabb);
+        queryAABB(callback, aabb);
         particleSystem.queryAABB(particleCallback, aabb);
     }
 
@@ -901,9 +1444,234 @@ public class World
         particleSystem.queryAABB(particleCallback, aabb);
     }
 
-    private final WorldRayCastWrapper wrcwrapper = new WorldRayCastWrapper();
+    /**
+     * Collect the fixture children whose bounding boxes overlap an AABB,
+     * without calling back per fixture.
+     *
+     * @param aabb The query box.
+     * @param maskBits Only fixtures with a category in these bits are
+     *     collected.
+     * @param fixtures Receives the fixtures. When it is full, further
+     *     fixtures are counted but not stored.
+     * @param children Receives the child indices of the fixtures, may be null.
+     *
+     * @return The number of fixtures found, which is larger than the length
+     *     of the array if it was too small.
+     */
+    public int queryAABB(AABB aabb, int maskBits, Fixture[] fixtures,
+            int[] children)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldQueryCollector collector = frame.collector;
+        try
+        {
+            collector.begin(contactManager.broadPhase,
+                    WorldQueryCollector.QUERY_AABB, maskBits, fixtures,
+                    children, null);
+            frame.aabb.set(aabb);
+            collector.aabb = frame.aabb;
+            return collector.run();
+        }
+        finally
+        {
+            collector.end();
+            frame.exit();
+        }
+    }
+
+    /**
+     * Collect the fixtures that contain a point.
+     *
+     * @param point The point in world coordinates.
+     * @param maskBits Only fixtures with a category in these bits are
+     *     collected.
+     * @param fixtures Receives the fixtures. When it is full, further
+     *     fixtures are counted but not stored.
+     *
+     * @return The number of fixtures found, which is larger than the length
+     *     of the array if it was too small.
+     */
+    public int queryPoint(Vec2 point, int maskBits, Fixture[] fixtures)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldQueryCollector collector = frame.collector;
+        try
+        {
+            collector.begin(contactManager.broadPhase,
+                    WorldQueryCollector.QUERY_POINT, maskBits, fixtures, null,
+                    null);
+            frame.aabb.lowerBound.set(point);
+            frame.aabb.upperBound.set(point);
+            collector.aabb = frame.aabb;
+            collector.point = point;
+            return collector.run();
+        }
+        finally
+        {
+            collector.end();
+            frame.exit();
+        }
+    }
+
+    /**
+     * Collect the fixture children that overlap a shape. The overlap is
+     * exact, computed with {@link Collision#testOverlap}.
+     *
+     * @param shape The query shape. Only its first child is used.
+     * @param xf The transform of the query shape.
+     * @param maskBits Only fixtures with a category in these bits are
+     *     collected.
+     * @param fixtures Receives the fixtures. When it is full, further
+     *     fixtures are counted but not stored.
+     * @param children Receives the child indices of the fixtures, may be null.
+     *
+     * @return The number of fixtures found, which is larger than the length
+     *     of the array if it was too small.
+     */
+    public int queryShape(Shape shape, Transform xf, int maskBits,
+            Fixture[] fixtures, int[] children)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldQueryCollector collector = frame.collector;
+        try
+        {
+            collector.begin(contactManager.broadPhase,
+                    WorldQueryCollector.QUERY_SHAPE, maskBits, fixtures,
+                    children, null);
+            shape.computeAABB(frame.aabb, xf, 0);
+            collector.aabb = frame.aabb;
+            collector.shape = shape;
+            collector.xf = xf;
+            collector.collision = frame.pool.getCollision();
+            return collector.run();
+        }
+        finally
+        {
+            collector.end();
+            frame.exit();
+        }
+    }
+
+    /**
+     * Collect the fixture children whose bounding boxes overlap any of a
+     * batch of AABBs. The tree is traversed once per 16 consecutive boxes
+     * with their union, so boxes close to each other should be adjacent. The
+     * results of the boxes in a batch are interleaved.
+     *
+     * @param aabbs The query boxes.
+     * @param count The number of query boxes.
+     * @param maskBits Only fixtures with a category in these bits are
+     *     collected.
+     * @param fixtures Receives the fixtures. When it is full, further
+     *     fixtures are counted but not stored.
+     * @param children Receives the child indices of the fixtures, may be null.
+     * @param boxes Receives the index of the query box of each fixture.
+     *
+     * @return The number of fixtures found, which is larger than the length
+     *     of the array if it was too small.
+     */
+    public int queryAABBs(AABB[] aabbs, int count, int maskBits,
+            Fixture[] fixtures, int[] children, int[] boxes)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldQueryCollector collector = frame.collector;
+        final AABB queryBox = frame.aabb;
+        try
+        {
+            collector.begin(contactManager.broadPhase,
+                    WorldQueryCollector.QUERY_BATCH, maskBits, fixtures,
+                    children, boxes);
+            collector.aabb = queryBox;
+            collector.batch = aabbs;
+            final int batchSize = WorldQueryCollector.BATCH_SIZE;
+            int collected = 0;
+            for (int i = 0; i < count; i += batchSize)
+            {
+                collector.batchStart = i;
+                collector.batchEnd = Math.min(count, i + batchSize);
+                queryBox.set(aabbs[i]);
+                for (int j = i + 1; j < collector.batchEnd; ++j)
+                {
+                    queryBox.combine(aabbs[j]);
+                }
+                collected = collector.run();
+            }
+            return collected;
+        }
+        finally
+        {
+            collector.end();
+            frame.exit();
+        }
+    }
+
+    /**
+     * Sweep a shape along a translation through the world and report the
+     * fixtures it hits with their times of impact. Your callback controls
+     * whether you get the closest hit, any hit, or all hits, see
+     * {@link ShapeCastCallback}. The hits are reported in no particular
+     * order. Fixtures the shape overlaps at the start are hit at fraction 0,
+     * unless the translation moves the shape along or away from them. The
+     * fixtures are not moved during the cast.
+     *
+     * @param callback A user implemented callback class.
+     * @param shape The swept shape. Only its first child is used.
+     * @param xf The transform of the shape at the start.
+     * @param translation The translation of the shape.
+     */
+    public void shapeCast(ShapeCastCallback callback, Shape shape,
+            Transform xf, Vec2 translation)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldShapeCastWrapper wrapper = frame.shapeCastWrapper;
+        try
+        {
+            wrapper.broadPhase = contactManager.broadPhase;
+            wrapper.callback = callback;
+            wrapper.cast(frame.pool, shape, xf, translation);
+        }
+        finally
+        {
+            wrapper.callback = null;
+            frame.exit();
+        }
+    }
 
-    private final RayCastInput input = new RayCastInput();
+    /**
+     * Sweep a shape along a translation through the world and find the
+     * closest fixture it hits. Sensors are ignored.
+     *
+     * @param shape The swept shape. Only its first child is used.
+     * @param xf The transform of the shape at the start.
+     * @param translation The translation of the shape.
+     * @param maskBits Only fixtures with a category in these bits are hit.
+     * @param output Receives the closest hit.
+     *
+     * @return Whether the shape hit a fixture.
+     */
+    public boolean shapeCastClosest(Shape shape, Transform xf,
+            Vec2 translation, int maskBits, ShapeCastOutput output)
+    {
+        output.fixture = null;
+        output.fraction = 1.0f;
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldShapeCastWrapper wrapper = frame.shapeCastWrapper;
+        try
+        {
+            wrapper.broadPhase = contactManager.broadPhase;
+            wrapper.callback = wrapper.closestCallback;
+            wrapper.output = output;
+            wrapper.maskBits = maskBits;
+            wrapper.cast(frame.pool, shape, xf, translation);
+        }
+        finally
+        {
+            wrapper.callback = null;
+            wrapper.output = null;
+            frame.exit();
+        }
+        return output.fixture != null;
+    }
 
     /**
      * Ray-cast the world for all fixtures in the path of the ray. Your callback
@@ -916,12 +1684,100 @@ public class World
      */
     public void raycast(RayCastCallback callback, Vec2 point1, Vec2 point2)
     {
-        wrcwrapper.broadPhase = contactManager.broadPhase;
-        wrcwrapper.callback = callback;
-        input.maxFraction = 1.0f;
-        input.p1.set(point1);
-        input.p2.set(point2);
-        contactManager.broadPhase.raycast(wrcwrapper, input);
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldRayCastWrapper wrapper = frame.rayCastWrapper;
+        final RayCastInput input = frame.input;
+        try
+        {
+            wrapper.broadPhase = contactManager.broadPhase;
+            wrapper.callback = callback;
+            input.maxFraction = 1.0f;
+            input.p1.set(point1);
+            input.p2.set(point2);
+            contactManager.broadPhase.raycast(wrapper, input);
+        }
+        finally
+        {
+            wrapper.callback = null;
+            frame.exit();
+        }
+    }
+
+    /**
+     * Ray-cast a batch of rays for the closest fixture each of them hits,
+     * without calling back per fixture. The rays are traversed in packets of
+     * {@link RayCastPacket#MAX_RAYS} consecutive rays, so rays that start close
+     * together and point in similar directions should be adjacent. Sensors are
+     * ignored, as are shapes that contain the starting point of a ray.
+     *
+     * @param points1 The ray starting points.
+     * @param points2 The ray ending points.
+     * @param count The number of rays.
+     * @param fixtures Receives the closest fixture of each ray, or null if the
+     *     ray hit nothing.
+     * @param points Receives the hit points, may be null.
+     * @param normals Receives the surface normals at the hit points, may be
+     *     null.
+     * @param fractions Receives the fractions of the hits along the rays, 1 for
+     *     a miss, may be null.
+     *
+     * @return The number of rays that hit a fixture.
+     */
+    public int raycastClosest(Vec2[] points1, Vec2[] points2, int count,
+            Fixture[] fixtures, Vec2[] points, Vec2[] normals,
+            float[] fractions)
+    {
+        final QueryContext.Frame frame = QueryContext.enter();
+        final WorldRayCastPacketWrapper wrapper = frame.packetWrapper;
+        final RayCastPacket packet = frame.packet;
+        final int[] packetRays = frame.packetRays;
+        try
+        {
+            wrapper.broadPhase = contactManager.broadPhase;
+            wrapper.rays = packetRays;
+            wrapper.fixtures = fixtures;
+            wrapper.points = points;
+            wrapper.normals = normals;
+            wrapper.fractions = fractions;
+            int hits = 0;
+            int i = 0;
+            while (i < count)
+            {
+                packet.clear();
+                while (i < count
+                        && packet.getCount() < RayCastPacket.MAX_RAYS)
+                {
+                    fixtures[i] = null;
+                    if (fractions != null)
+                    {
+                        fractions[i] = 1.0f;
+                    }
+                    if (!points1[i].equals(points2[i]))
+                    {
+                        packetRays[packet.add(points1[i], points2[i],
+                                1.0f)] = i;
+                    }
+                    ++i;
+                }
+                contactManager.broadPhase.raycast(wrapper, packet);
+                for (int ray = 0; ray < packet.getCount(); ++ray)
+                {
+                    if (fixtures[packetRays[ray]] != null)
+                    {
+                        ++hits;
+                    }
+                }
+            }
+            return hits;
+        }
+        finally
+        {
+            wrapper.fixtures = null;
+            wrapper.points = null;
+            wrapper.normals = null;
+            wrapper.fractions = null;
+            frame.exit();
+        }
     }
 
     /**
@@ -937,12 +1793,7 @@ public class World
     public void raycast(RayCastCallback callback,
             ParticleRaycastCallback particleCallback, Vec2 point1, Vec2 point2)
     {
-        wrcwrapper.broadPhase = contactManager.broadPhase;
-        wrcwrapper.callback = callback;
-        input.maxFraction = 1.0f;
-        input.p1.set(point1);
-        input.p2.set(point2);
-        contactManager.broadPhase.raycast(wrcwrapper, input);
+        raycast(callback, point1, point2);
         particleSystem.raycast(particleCallback, point1, point2);
     }
 
@@ -1007,6 +1858,10 @@ public class World
 
     public void setSleepingAllowed(boolean sleepingAllowed)
     {
+        if (recorder != null)
+        {
+            recorder.setSleepingAllowed(sleepingAllowed);
+        }
         allowSleep = sleepingAllowed;
     }
 
@@ -1015,6 +1870,10 @@ public class World
      */
     public void setWarmStarting(boolean flag)
     {
+        if (recorder != null)
+        {
+            recorder.setWarmStarting(flag);
+        }
         warmStarting = flag;
     }
 
@@ -1028,6 +1887,10 @@ public class World
      */
     public void setContinuousPhysics(boolean flag)
     {
+        if (recorder != null)
+        {
+            recorder.setContinuousPhysics(flag);
+        }
         continuousPhysics = flag;
     }
 
@@ -1036,6 +1899,125 @@ public class World
         return continuousPhysics;
     }
 
+    /**
+     * Enable/disable speculative contacts. When enabled, the narrow-phase
+     * creates contact points for shapes that are not touching yet but may
+     * close the gap within the next step, and the solver only lets them
+     * approach until they touch. This replaces the TOI sub-stepping of
+     * continuous physics with a cheaper, slightly less exact scheme: fast
+     * bodies can stop short of a surface they would have missed, and begin
+     * contact events can be reported up to a step early.
+     */
+    public void setSpeculativeContacts(boolean flag)
+    {
+        if (recorder != null)
+        {
+            recorder.setSpeculativeContacts(flag);
+        }
+        speculativeContacts = flag;
+    }
+
+    public boolean isSpeculativeContacts()
+    {
+        return speculativeContacts;
+    }
+
+    /**
+     * Reuse the manifold of a contact while the transform of its bodies
+     * relative to each other stays within a tolerance of the one the manifold
+     * was evaluated at. Manifolds are stored in body coordinates, so the
+     * solver still sees the contact points where the bodies are now. This
+     * saves the narrow-phase for resting and slowly moving bodies, at the
+     * price of contact points that may be off by the tolerance. Speculative
+     * contacts are always evaluated. The reused manifolds are counted in
+     * {@link Profile#manifoldsReused}.
+     */
+    public void setManifoldCaching(boolean flag)
+    {
+        if (recorder != null)
+        {
+            recorder.setManifoldCaching(flag);
+        }
+        manifoldCaching = flag;
+    }
+
+    public boolean isManifoldCaching()
+    {
+        return manifoldCaching;
+    }
+
+    /**
+     * Give each chain fixture created from now on a single broad-phase proxy,
+     * with a local tree over its segments for pair searches, queries and
+     * ray-casts. Long chains then no longer fill the broad-phase with one
+     * proxy per segment. The pairs are found in a different order, so the
+     * contacts and with them the simulation may differ from chains with a
+     * proxy per segment.
+     */
+    public void setChainProxies(boolean flag)
+    {
+        if (recorder != null)
+        {
+            recorder.setChainProxies(flag);
+        }
+        chainProxies = flag;
+    }
+
+    public boolean isChainProxies()
+    {
+        return chainProxies;
+    }
+
+    /**
+     * Set how far the bodies of a contact may move relative to each other
+     * before the manifold is evaluated again, see
+     * {@link #setManifoldCaching}.
+     *
+     * @param linear The distance in meters, one tenth of the linear slop by
+     *     default.
+     * @param angular The angle in radians, 0.001 by default.
+     */
+    public void setManifoldCacheTolerance(float linear, float angular)
+    {
+        if (recorder != null)
+        {
+            recorder.setManifoldCacheTolerance(linear, angular);
+        }
+        manifoldLinearTolerance = linear;
+        manifoldAngularTolerance = angular;
+    }
+
+    public float getManifoldLinearTolerance()
+    {
+        return manifoldLinearTolerance;
+    }
+
+    public float getManifoldAngularTolerance()
+    {
+        return manifoldAngularTolerance;
+    }
+
+    /**
+     * Get the distance within which speculative contact points are created
+     * between the two bodies in the current step. This is
+     * {@link WorldSettings#speculativeDistance} plus the distance the bodies
+     * can close with their relative linear velocity, or zero when speculative
+     * contacts are disabled.
+     */
+    public float getSpeculativeMargin(Body bodyA, Body bodyB)
+    {
+        if (!speculativeContacts)
+        {
+            return 0.0f;
+        }
+        final Vec2 vA = bodyA.linearVelocity;
+        final Vec2 vB = bodyB.linearVelocity;
+        float dx = vB.x - vA.x;
+        float dy = vB.y - vA.y;
+        return settings.speculativeDistance
+                + MathUtils.sqrt(dx * dx + dy * dy) * step.dt;
+    }
+
     /**
      * Get the number of broad-phase proxies.
      */
@@ -1097,6 +2079,10 @@ public class World
      */
     public void setGravity(Vec2 gravity)
     {
+        if (recorder != null)
+        {
+            recorder.setGravity(gravity);
+        }
         this.gravity.set(gravity);
     }
 
@@ -1109,18 +2095,82 @@ public class World
     }
 
     /**
-     * Is the world locked (in the middle of a time step).
+     * Is the world locked (in the middle of a time step or a read phase).
      */
     public boolean isLocked()
     {
         return (flags & LOCKED) == LOCKED;
     }
 
+    /**
+     * Begin a read phase. Until {@link #endReadPhase()} the world is locked,
+     * so it can neither be stepped nor modified, and its queries may be
+     * called from any number of threads at once. Hand the queries to the
+     * other threads after this call, for example through an executor, and
+     * wait for them before ending the phase.
+     *
+     * @see #read
+     */
+    public void beginReadPhase()
+    {
+        assert (!isLocked());
+        flags |= LOCKED;
+        readPhase = true;
+    }
+
+    /**
+     * End the read phase begun by {@link #beginReadPhase()}. All queries of
+     * the phase must have returned.
+     */
+    public void endReadPhase()
+    {
+        assert (readPhase);
+        readPhase = false;
+        flags &= ~LOCKED;
+    }
+
+    /**
+     * Whether the world is in a read phase.
+     */
+    public boolean isReadPhase()
+    {
+        return readPhase;
+    }
+
+    /**
+     * Run tasks that only read the world in a read phase, spread over the
+     * threads of an executor, and wait for them. The calling thread runs
+     * tasks as well. If a task throws, the others still run and the exception
+     * is rethrown afterwards.
+     *
+     * @param executor Runs the helper tasks, null to run the tasks on the
+     *     calling thread.
+     * @param parallelism The maximum number of threads, including the calling
+     *     one.
+     * @param tasks The tasks, typically each running a share of the queries.
+     */
+    public void read(Executor executor, int parallelism, Runnable... tasks)
+    {
+        beginReadPhase();
+        try
+        {
+            new ReadPhase(tasks).run(executor, parallelism);
+        }
+        finally
+        {
+            endReadPhase();
+        }
+    }
+
     /**
      * Set flag to control automatic clearing of forces after each time step.
      */
     public void setAutoClearForces(boolean flag)
     {
+        if (recorder != null)
+        {
+            recorder.setAutoClearForces(flag);
+        }
         if (flag)
         {
             flags |= CLEAR_FORCES;
@@ -1153,6 +2203,90 @@ public class World
         return profile;
     }
 
+    /**
+     * Attach a recorder that receives every mutating call on this world and
+     * its bodies. Use
+     * {@link de.pirckheimer_gymnasium.jbox2d.recording.WorldRecorder#start(World)}
+     * instead of calling this directly, so that the log starts with a
+     * snapshot of the world.
+     *
+     * @param recorder The recorder, or null to stop recording.
+     */
+    public void setRecorder(RecordingListener recorder)
+    {
+        this.recorder = recorder;
+    }
+
+    public RecordingListener getRecorder()
+    {
+        return recorder;
+    }
+
+    /**
+     * Choose which phases of a step are timed into the profile.
+     *
+     * @see ProfileMode
+     */
+    public void setProfileMode(ProfileMode profileMode)
+    {
+        this.profileMode = profileMode;
+    }
+
+    public ProfileMode getProfileMode()
+    {
+        return profileMode;
+    }
+
+    /**
+     * Set every how many steps a step is timed in {@link ProfileMode#SAMPLED}
+     * mode.
+     */
+    public void setProfileSampleInterval(int interval)
+    {
+        assert (interval > 0);
+        profileSampleInterval = interval;
+    }
+
+    public int getProfileSampleInterval()
+    {
+        return profileSampleInterval;
+    }
+
+    /**
+     * Replace the clock of the profiling timers, e.g. with a
+     * {@link de.pirckheimer_gymnasium.jbox2d.profiling.CoarseClock} that is
+     * cheaper to read than {@link System#nanoTime()}. The island solver phases
+     * of {@link ProfileMode#FULL} then cost a field read per island.
+     */
+    public void setProfileClock(Clock clock)
+    {
+        stepTimer.setClock(clock);
+        tempTimer.setClock(clock);
+        broadphaseTimer.setClock(clock);
+        island.setClock(clock);
+    }
+
+    public Clock getProfileClock()
+    {
+        return stepTimer.getClock();
+    }
+
+    /**
+     * Attach a profiler that is fed with the {@link Profile} of every step.
+     * Without a profiler only the moving averages of the profile are kept.
+     *
+     * @param profiler The profiler, or null to detach it.
+     */
+    public void setProfiler(ProfileListener profiler)
+    {
+        this.profiler = profiler;
+    }
+
+    public ProfileListener getProfiler()
+    {
+        return profiler;
+    }
+
     private final Island island = new Island();
 
     private Body[] stack = new Body[10]; // TODO djm find a good initial stack
@@ -1162,9 +2296,12 @@ public class World
 
     private void solve(TimeStep step)
     {
-        profile.solveInit.startAccum();
-        profile.solveVelocity.startAccum();
-        profile.solvePosition.startAccum();
+        if (profileIslands)
+        {
+            profile.solveInit.startAccum();
+            profile.solveVelocity.startAccum();
+            profile.solvePosition.startAccum();
+        }
         // update previous transforms
         for (Body b = bodyList; b != null; b = b.next)
         {
@@ -1173,14 +2310,27 @@ public class World
         // Size the island for the worst case.
         island.init(bodyCount, contactManager.contactCount, jointCount,
                 contactManager.contactListener);
+        island.events = contactEvents;
         // Clear all the island flags.
         for (Body b = bodyList; b != null; b = b.next)
         {
             b.flags &= ~Body.islandFlag;
         }
-        for (Contact c = contactManager.contactList; c != null; c = c.next)
+        if (contactManager.contacts != null)
         {
-            c.flags &= ~Contact.ISLAND_FLAG;
+            // Sleeping contacts are cleared when they fall asleep.
+            Contact[] contacts = contactManager.contacts;
+            for (int i = 0; i < contactManager.awakeCount; ++i)
+            {
+                contacts[i].flags &= ~Contact.ISLAND_FLAG;
+            }
+        }
+        else
+        {
+            for (Contact c = contactManager.contactList; c != null; c = c.next)
+            {
+                c.flags &= ~Contact.ISLAND_FLAG;
+            }
         }
         for (Joint j = jointList; j != null; j = j.next)
         {
@@ -1285,7 +2435,9 @@ public class World
                     other.flags |= Body.islandFlag;
                 }
             }
-            island.solve(profile, step, gravity, allowSleep);
+            island.solve(profileIslands ? profile : null, step, gravity,
+                    allowSleep);
+            ++profile.islandCount;
             // Post solve cleanup.
             for (int i = 0; i < island.bodyCount; ++i)
             {
@@ -1297,10 +2449,16 @@ public class World
                 }
             }
         }
-        profile.solveInit.endAccum();
-        profile.solveVelocity.endAccum();
-        profile.solvePosition.endAccum();
-        broadphaseTimer.reset();
+        if (profileIslands)
+        {
+            profile.solveInit.endAccum();
+            profile.solveVelocity.endAccum();
+            profile.solvePosition.endAccum();
+        }
+        if (profileStep)
+        {
+            broadphaseTimer.reset();
+        }
         // Synchronize fixtures, check for out of range bodies.
         for (Body b = bodyList; b != null; b = b.getNext())
         {
@@ -1318,28 +2476,54 @@ public class World
         }
         // Look for new contacts.
         contactManager.findNewContacts();
-        profile.broadphase.record(broadphaseTimer.getMilliseconds());
+        if (profileStep)
+        {
+            profile.broadphase.record(broadphaseTimer.getMilliseconds());
+        }
     }
 
-    private final Island toiIsland = new Island();
+    private final Island toiIsland = new Island();
+
+    private final TimeStep subStep = new TimeStep();
+
+    private final Body[] tempBodies = new Body[2];
+
+    private final Sweep backup1 = new Sweep();
+
+    private final Sweep backup2 = new Sweep();
+
+    /**
+     * Contacts with a cached TOI before the end of the step, earliest first.
+     */
+    private final TOIQueue toiQueue = new TOIQueue();
+
+    /**
+     * Contacts whose TOI has to be computed, and their aligned sweeps.
+     */
+    private Contact[] toiCandidates = new Contact[16];
 
-    private final TOIInput toiInput = new TOIInput();
+    private Sweep[] toiSweepsA = new Sweep[0];
 
-    private final TOIOutput toiOutput = new TOIOutput();
+    private Sweep[] toiSweepsB = new Sweep[0];
 
-    private final TimeStep subStep = new TimeStep();
+    private float[] toiAlphas = new float[16];
 
-    private final Body[] tempBodies = new Body[2];
+    private int toiCandidateCount;
 
-    private final Sweep backup1 = new Sweep();
+    /**
+     * Bodies moved by the TOI events of the current batch, flagged with
+     * {@link Body#toiFlag}.
+     */
+    private Body[] toiMovedBodies = new Body[16];
 
-    private final Sweep backup2 = new Sweep();
+    private int toiMovedCount;
 
     private void solveTOI(final TimeStep step)
     {
         final Island island = toiIsland;
-        island.init(2 * Settings.maxTOIContacts, Settings.maxTOIContacts, 0,
+        island.init(2 * settings.maxTOIContacts, settings.maxTOIContacts, 0,
                 contactManager.contactListener);
+        island.events = contactEvents;
         if (stepComplete)
         {
             for (Body b = bodyList; b != null; b = b.next)
@@ -1347,268 +2531,491 @@ public class World
                 b.flags &= ~Body.islandFlag;
                 b.sweep.alpha0 = 0.0f;
             }
+            if (contactManager.contacts != null)
+            {
+                // Sleeping contacts are invalidated when they fall asleep.
+                Contact[] contacts = contactManager.contacts;
+                for (int i = 0; i < contactManager.awakeCount; ++i)
+                {
+                    resetTOI(contacts[i]);
+                }
+            }
+            else
+            {
+                for (Contact c = contactManager.contactList; c != null;
+                        c = c.next)
+                {
+                    resetTOI(c);
+                }
+            }
+        }
+        // Queue the cached TOIs, all others have to be computed. From now on
+        // only the contacts of moved bodies and new contacts are computed
+        // again, instead of scanning all contacts after every event.
+        if (contactManager.contacts != null)
+        {
+            // Candidates are only queued for awake contacts anyway. The
+            // partition may grow while queueing, so it is read up front.
+            Contact[] contacts = contactManager.contacts;
+            int awakeCount = contactManager.awakeCount;
+            for (int i = 0; i < awakeCount; ++i)
+            {
+                queueTOI(contacts[i]);
+            }
+        }
+        else
+        {
             for (Contact c = contactManager.contactList; c != null; c = c.next)
             {
-                // Invalidate TOI
-                c.flags &= ~(Contact.TOI_FLAG | Contact.ISLAND_FLAG);
-                c.toiCount = 0;
-                c.toi = 1.0f;
+                queueTOI(c);
             }
         }
         // Find TOI events and solve them.
         for (;;)
         {
+            computeTOIs();
             // Find the first TOI.
-            Contact minContact = null;
-            float minAlpha = 1.0f;
-            for (Contact c = contactManager.contactList; c != null; c = c.next)
+            Contact minContact = peekTOI();
+            if (minContact == null)
             {
-                // Is this contact disabled?
-                if (!c.isEnabled())
-                {
-                    continue;
-                }
-                // Prevent excessive sub-stepping.
-                if (c.toiCount > Settings.maxSubSteps)
+                // No more TOI events. Done!
+                stepComplete = true;
+                break;
+            }
+            toiQueue.poll();
+            if (!solveTOIEvent(minContact, step))
+            {
+                continue;
+            }
+            if (toiBatching && !subStepping)
+            {
+                // Events that do not touch the moved bodies are not affected
+                // by their sub-steps, except for contacts that do not exist
+                // yet.
+                Contact c;
+                while ((c = peekTOI()) != null && !touchesMovedBody(c))
                 {
-                    continue;
+                    toiQueue.poll();
+                    solveTOIEvent(c, step);
                 }
-                float alpha;
-                if ((c.flags & Contact.TOI_FLAG) != 0)
+            }
+            for (int i = 0; i < toiMovedCount; ++i)
+            {
+                toiMovedBodies[i].flags &= ~Body.toiFlag;
+                toiMovedBodies[i] = null;
+            }
+            toiMovedCount = 0;
+            // Commit fixture proxy movements to the broad-phase so that new
+            // contacts are created. New contacts are added in front of the
+            // list, and no contact is destroyed while solving TOI events.
+            Contact head = contactManager.contactList;
+            contactManager.findNewContacts();
+            for (Contact c = contactManager.contactList; c != head; c = c.next)
+            {
+                addTOICandidate(c);
+            }
+            if (subStepping)
+            {
+                stepComplete = false;
+                break;
+            }
+        }
+        // Contacts may be destroyed until the next call.
+        toiQueue.clear();
+        for (int i = 0; i < toiCandidateCount; ++i)
+        {
+            toiCandidates[i].flags &= ~Contact.TOI_CANDIDATE_FLAG;
+            toiCandidates[i] = null;
+        }
+        toiCandidateCount = 0;
+    }
+
+    private static void resetTOI(Contact c)
+    {
+        c.flags &= ~(Contact.TOI_FLAG | Contact.ISLAND_FLAG);
+        c.toiCount = 0;
+        c.toi = 1.0f;
+    }
+
+    private void queueTOI(Contact c)
+    {
+        if ((c.flags & Contact.TOI_FLAG) == 0)
+        {
+            addTOICandidate(c);
+        }
+        else if (c.toi < 1.0f)
+        {
+            toiQueue.add(c);
+        }
+    }
+
+    private void addTOICandidate(Contact c)
+    {
+        if ((c.flags & Contact.TOI_CANDIDATE_FLAG) != 0)
+        {
+            return;
+        }
+        c.flags |= Contact.TOI_CANDIDATE_FLAG;
+        if (toiCandidateCount == toiCandidates.length)
+        {
+            Contact[] newCandidates = new Contact[toiCandidateCount * 2];
+            System.arraycopy(toiCandidates, 0, newCandidates, 0,
+                    toiCandidateCount);
+            toiCandidates = newCandidates;
+        }
+        toiCandidates[toiCandidateCount++] = c;
+    }
+
+    /**
+     * Drop the cached TOI of a contact whose bodies have moved.
+     */
+    private void invalidateTOI(Contact c)
+    {
+        c.flags &= ~(Contact.TOI_FLAG | Contact.ISLAND_FLAG);
+        toiQueue.remove(c);
+        addTOICandidate(c);
+    }
+
+    /**
+     * Compute the TOIs of the candidates and queue the ones before the end of
+     * the step.
+     */
+    private void computeTOIs()
+    {
+        int count = 0;
+        for (int i = 0; i < toiCandidateCount; ++i)
+        {
+            Contact c = toiCandidates[i];
+            toiCandidates[i] = null;
+            c.flags &= ~Contact.TOI_CANDIDATE_FLAG;
+            // Is this contact disabled?
+            if (!c.isEnabled())
+            {
+                continue;
+            }
+            // Prevent excessive sub-stepping.
+            if (c.toiCount > settings.maxSubSteps)
+            {
+                continue;
+            }
+            Fixture fA = c.getFixtureA();
+            Fixture fB = c.getFixtureB();
+            // Is there a sensor?
+            if (fA.isSensor() || fB.isSensor())
+            {
+                continue;
+            }
+            Body bA = fA.getBody();
+            Body bB = fB.getBody();
+            BodyType typeA = bA.type;
+            BodyType typeB = bB.type;
+            assert (typeA == BodyType.DYNAMIC || typeB == BodyType.DYNAMIC);
+            boolean activeA = bA.isAwake() && typeA != BodyType.STATIC;
+            boolean activeB = bB.isAwake() && typeB != BodyType.STATIC;
+            // Is at least one body active (awake and dynamic or kinematic)?
+            if (!activeA && !activeB)
+            {
+                continue;
+            }
+            boolean collideA = bA.isBullet() || typeA != BodyType.DYNAMIC;
+            boolean collideB = bB.isBullet() || typeB != BodyType.DYNAMIC;
+            // Are these two non-bullet dynamic bodies?
+            if (!collideA && !collideB)
+            {
+                continue;
+            }
+            // Put the sweeps onto the same time interval.
+            float alpha0 = bA.sweep.alpha0;
+            if (bA.sweep.alpha0 < bB.sweep.alpha0)
+            {
+                alpha0 = bB.sweep.alpha0;
+                bA.sweep.advance(alpha0);
+            }
+            else if (bB.sweep.alpha0 < bA.sweep.alpha0)
+            {
+                alpha0 = bA.sweep.alpha0;
+                bB.sweep.advance(alpha0);
+            }
+            assert (alpha0 < 1.0f);
+            // A later candidate may advance these bodies further, so the TOI
+            // is computed on copies of the sweeps.
+            if (count == toiSweepsA.length)
+            {
+                growTOISweeps();
+            }
+            toiSweepsA[count].set(bA.sweep);
+            toiSweepsB[count].set(bB.sweep);
+            toiCandidates[count++] = c;
+        }
+        toiCandidateCount = 0;
+        if (count == 0)
+        {
+            return;
+        }
+        if (toiAlphas.length < count)
+        {
+            toiAlphas = new float[toiSweepsA.length];
+        }
+        toiCalculator.compute(toiCandidates, toiSweepsA, toiSweepsB, toiAlphas,
+                count);
+        profile.toiComputationCount += count;
+        for (int i = 0; i < count; ++i)
+        {
+            Contact c = toiCandidates[i];
+            toiCandidates[i] = null;
+            c.toi = toiAlphas[i];
+            c.flags |= Contact.TOI_FLAG;
+            if (c.toi < 1.0f)
+            {
+                toiQueue.add(c);
+            }
+        }
+    }
+
+    private void growTOISweeps()
+    {
+        int oldLength = toiSweepsA.length;
+        int newLength = Math.max(16, oldLength * 2);
+        Sweep[] newA = new Sweep[newLength];
+        Sweep[] newB = new Sweep[newLength];
+        System.arraycopy(toiSweepsA, 0, newA, 0, oldLength);
+        System.arraycopy(toiSweepsB, 0, newB, 0, oldLength);
+        for (int i = oldLength; i < newLength; ++i)
+        {
+            newA[i] = new Sweep();
+            newB[i] = new Sweep();
+        }
+        toiSweepsA = newA;
+        toiSweepsB = newB;
+    }
+
+    /**
+     * Get the earliest queued TOI event of this step, dropping contacts that
+     * were disabled or sub-stepped too often.
+     */
+    private Contact peekTOI()
+    {
+        Contact c;
+        while ((c = toiQueue.peek()) != null)
+        {
+            if (c.isEnabled() && c.toiCount <= settings.maxSubSteps)
+            {
+                return 1.0f - 10.0f * Settings.EPSILON < c.toi ? null : c;
+            }
+            toiQueue.poll();
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the island of a TOI event could include a body that was
+     * moved by an earlier event of the current batch.
+     */
+    private boolean touchesMovedBody(Contact c)
+    {
+        tempBodies[0] = c.getFixtureA().getBody();
+        tempBodies[1] = c.getFixtureB().getBody();
+        for (int i = 0; i < 2; ++i)
+        {
+            Body body = tempBodies[i];
+            if ((body.flags & Body.toiFlag) != 0)
+            {
+                return true;
+            }
+            if (body.type != BodyType.DYNAMIC)
+            {
+                continue;
+            }
+            for (ContactEdge ce = body.contactList; ce != null; ce = ce.next)
+            {
+                if ((ce.other.flags & Body.toiFlag) != 0)
                 {
-                    // This contact has a valid cached TOI.
-                    alpha = c.toi;
+                    return true;
                 }
-                else
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advance the bodies of a contact to its TOI and solve the remaining part
+     * of the step for them and the bodies touching them.
+     *
+     * @return false if the contact turned out not to be solid.
+     */
+    private boolean solveTOIEvent(Contact minContact, final TimeStep step)
+    {
+        final Island island = toiIsland;
+        float minAlpha = minContact.toi;
+        // Advance the bodies to the TOI.
+        Fixture fA = minContact.getFixtureA();
+        Fixture fB = minContact.getFixtureB();
+        Body bA = fA.getBody();
+        Body bB = fB.getBody();
+        backup1.set(bA.sweep);
+        backup2.set(bB.sweep);
+        bA.advance(minAlpha);
+        bB.advance(minAlpha);
+        // The TOI contact likely has some new contact points.
+        minContact.update(contactManager.contactListener);
+        minContact.flags &= ~Contact.TOI_FLAG;
+        ++minContact.toiCount;
+        addTOICandidate(minContact);
+        // Is the contact solid?
+        if (!minContact.isEnabled() || !minContact.isTouching())
+        {
+            // Restore the sweeps.
+            minContact.setEnabled(false);
+            bA.sweep.set(backup1);
+            bB.sweep.set(backup2);
+            bA.synchronizeTransform();
+            bB.synchronizeTransform();
+            return false;
+        }
+        bA.setAwake(true);
+        bB.setAwake(true);
+        // Build the island
+        island.clear();
+        island.add(bA);
+        island.add(bB);
+        island.add(minContact);
+        bA.flags |= Body.islandFlag;
+        bB.flags |= Body.islandFlag;
+        minContact.flags |= Contact.ISLAND_FLAG;
+        // Get contacts on bodyA and bodyB.
+        tempBodies[0] = bA;
+        tempBodies[1] = bB;
+        for (int i = 0; i < 2; ++i)
+        {
+            Body body = tempBodies[i];
+            if (body.type == BodyType.DYNAMIC)
+            {
+                for (ContactEdge ce = body.contactList; ce != null; ce = ce.next)
                 {
-                    Fixture fA = c.getFixtureA();
-                    Fixture fB = c.getFixtureB();
-                    // Is there a sensor?
-                    if (fA.isSensor() || fB.isSensor())
+                    if (island.bodyCount == island.bodyCapacity)
+                    {
+                        break;
+                    }
+                    if (island.contactCount == island.contactCapacity)
+                    {
+                        break;
+                    }
+                    Contact contact = ce.contact;
+                    // Has this contact already been added to the island?
+                    if ((contact.flags & Contact.ISLAND_FLAG) != 0)
                     {
                         continue;
                     }
-                    Body bA = fA.getBody();
-                    Body bB = fB.getBody();
-                    BodyType typeA = bA.type;
-                    BodyType typeB = bB.type;
-                    assert (typeA == BodyType.DYNAMIC
-                            || typeB == BodyType.DYNAMIC);
-                    boolean activeA = bA.isAwake() && typeA != BodyType.STATIC;
-                    boolean activeB = bB.isAwake() && typeB != BodyType.STATIC;
-                    // Is at least one body active (awake and dynamic or
-                    // kinematic)?
-                    if (!activeA && !activeB)
+                    // Only add static, kinematic, or bullet bodies.
+                    Body other = ce.other;
+                    if (other.type == BodyType.DYNAMIC && !body.isBullet()
+                            && !other.isBullet())
                     {
                         continue;
                     }
-                    boolean collideA = bA.isBullet()
-                            || typeA != BodyType.DYNAMIC;
-                    boolean collideB = bB.isBullet()
-                            || typeB != BodyType.DYNAMIC;
-                    // Are these two non-bullet dynamic bodies?
-                    if (!collideA && !collideB)
+                    // Skip sensors.
+                    boolean sensorA = contact.fixtureA.isSensor;
+                    boolean sensorB = contact.fixtureB.isSensor;
+                    if (sensorA || sensorB)
                     {
                         continue;
                     }
-                    // Compute the TOI for this contact.
-                    // Put the sweeps onto the same time interval.
-                    float alpha0 = bA.sweep.alpha0;
-                    if (bA.sweep.alpha0 < bB.sweep.alpha0)
+                    // Tentatively advance the body to the TOI.
+                    backup1.set(other.sweep);
+                    if ((other.flags & Body.islandFlag) == 0)
                     {
-                        alpha0 = bB.sweep.alpha0;
-                        bA.sweep.advance(alpha0);
+                        other.advance(minAlpha);
                     }
-                    else if (bB.sweep.alpha0 < bA.sweep.alpha0)
+                    // Update the contact points
+                    contact.update(contactManager.contactListener);
+                    // Was the contact disabled by the user?
+                    if (!contact.isEnabled())
                     {
-                        alpha0 = bA.sweep.alpha0;
-                        bB.sweep.advance(alpha0);
+                        other.sweep.set(backup1);
+                        other.synchronizeTransform();
+                        continue;
                     }
-                    assert (alpha0 < 1.0f);
-                    int indexA = c.getChildIndexA();
-                    int indexB = c.getChildIndexB();
-                    // Compute the time of impact in interval [0, minTOI]
-                    final TOIInput input = toiInput;
-                    input.proxyA.set(fA.getShape(), indexA);
-                    input.proxyB.set(fB.getShape(), indexB);
-                    input.sweepA.set(bA.sweep);
-                    input.sweepB.set(bB.sweep);
-                    input.tMax = 1.0f;
-                    pool.getTimeOfImpact().timeOfImpact(toiOutput, input);
-                    // Beta is the fraction of the remaining portion of the .
-                    float beta = toiOutput.t;
-                    if (toiOutput.state == TOIOutputState.TOUCHING)
+                    // Are there contact points?
+                    if (!contact.isTouching())
                     {
-                        alpha = MathUtils.min(alpha0 + (1.0f - alpha0) * beta,
-                                1.0f);
+                        other.sweep.set(backup1);
+                        other.synchronizeTransform();
+                        continue;
                     }
-                    else
+                    // Add the contact to the island
+                    contact.flags |= Contact.ISLAND_FLAG;
+                    island.add(contact);
+                    // Has the other body already been added to the island?
+                    if ((other.flags & Body.islandFlag) != 0)
                     {
-                        alpha = 1.0f;
+                        continue;
                     }
-                    c.toi = alpha;
-                    c.flags |= Contact.TOI_FLAG;
-                }
-                if (alpha < minAlpha)
-                {
-                    // This is the minimum TOI found so far.
-                    minContact = c;
-                    minAlpha = alpha;
+                    // Add the other body to the island.
+                    other.flags |= Body.islandFlag;
+                    if (other.type != BodyType.STATIC)
+                    {
+                        other.setAwake(true);
+                    }
+                    island.add(other);
                 }
             }
-            if (minContact == null
-                    || 1.0f - 10.0f * Settings.EPSILON < minAlpha)
+        }
+        subStep.dt = (1.0f - minAlpha) * step.dt;
+        subStep.inverseDt = 1.0f / subStep.dt;
+        subStep.dtRatio = 1.0f;
+        subStep.positionIterations = 20;
+        subStep.velocityIterations = step.velocityIterations;
+        subStep.warmStarting = false;
+        subStep.settings = settings;
+        island.solveTOI(subStep, bA.islandIndex, bB.islandIndex);
+        ++profile.toiSubStepCount;
+        // Reset island flags and synchronize broad-phase proxies.
+        for (int i = 0; i < island.bodyCount; ++i)
+        {
+            Body body = island.bodies[i];
+            body.flags &= ~Body.islandFlag;
+            if (body.type == BodyType.STATIC)
             {
-                // No more TOI events. Done!
-                stepComplete = true;
-                break;
-            }
-            // Advance the bodies to the TOI.
-            Fixture fA = minContact.getFixtureA();
-            Fixture fB = minContact.getFixtureB();
-            Body bA = fA.getBody();
-            Body bB = fB.getBody();
-            backup1.set(bA.sweep);
-            backup2.set(bB.sweep);
-            bA.advance(minAlpha);
-            bB.advance(minAlpha);
-            // The TOI contact likely has some new contact points.
-            minContact.update(contactManager.contactListener);
-            minContact.flags &= ~Contact.TOI_FLAG;
-            ++minContact.toiCount;
-            // Is the contact solid?
-            if (!minContact.isEnabled() || !minContact.isTouching())
-            {
-                // Restore the sweeps.
-                minContact.setEnabled(false);
-                bA.sweep.set(backup1);
-                bB.sweep.set(backup2);
-                bA.synchronizeTransform();
-                bB.synchronizeTransform();
                 continue;
             }
-            bA.setAwake(true);
-            bB.setAwake(true);
-            // Build the island
-            island.clear();
-            island.add(bA);
-            island.add(bB);
-            island.add(minContact);
-            bA.flags |= Body.islandFlag;
-            bB.flags |= Body.islandFlag;
-            minContact.flags |= Contact.ISLAND_FLAG;
-            // Get contacts on bodyA and bodyB.
-            tempBodies[0] = bA;
-            tempBodies[1] = bB;
-            for (int i = 0; i < 2; ++i)
-            {
-                Body body = tempBodies[i];
-                if (body.type == BodyType.DYNAMIC)
-                {
-                    for (ContactEdge ce = body.contactList; ce != null; ce = ce.next)
-                    {
-                        if (island.bodyCount == island.bodyCapacity)
-                        {
-                            break;
-                        }
-                        if (island.contactCount == island.contactCapacity)
-                        {
-                            break;
-                        }
-                        Contact contact = ce.contact;
-                        // Has this contact already been added to the island?
-                        if ((contact.flags & Contact.ISLAND_FLAG) != 0)
-                        {
-                            continue;
-                        }
-                        // Only add static, kinematic, or bullet bodies.
-                        Body other = ce.other;
-                        if (other.type == BodyType.DYNAMIC && !body.isBullet()
-                                && !other.isBullet())
-                        {
-                            continue;
-                        }
-                        // Skip sensors.
-                        boolean sensorA = contact.fixtureA.isSensor;
-                        boolean sensorB = contact.fixtureB.isSensor;
-                        if (sensorA || sensorB)
-                        {
-                            continue;
-                        }
-                        // Tentatively advance the body to the TOI.
-                        backup1.set(other.sweep);
-                        if ((other.flags & Body.islandFlag) == 0)
-                        {
-                            other.advance(minAlpha);
-                        }
-                        // Update the contact points
-                        contact.update(contactManager.contactListener);
-                        // Was the contact disabled by the user?
-                        if (!contact.isEnabled())
-                        {
-                            other.sweep.set(backup1);
-                            other.synchronizeTransform();
-                            continue;
-                        }
-                        // Are there contact points?
-                        if (!contact.isTouching())
-                        {
-                            other.sweep.set(backup1);
-                            other.synchronizeTransform();
-                            continue;
-                        }
-                        // Add the contact to the island
-                        contact.flags |= Contact.ISLAND_FLAG;
-                        island.add(contact);
-                        // Has the other body already been added to the island?
-                        if ((other.flags & Body.islandFlag) != 0)
-                        {
-                            continue;
-                        }
-                        // Add the other body to the island.
-                        other.flags |= Body.islandFlag;
-                        if (other.type != BodyType.STATIC)
-                        {
-                            other.setAwake(true);
-                        }
-                        island.add(other);
-                    }
-                }
-            }
-            subStep.dt = (1.0f - minAlpha) * step.dt;
-            subStep.inverseDt = 1.0f / subStep.dt;
-            subStep.dtRatio = 1.0f;
-            subStep.positionIterations = 20;
-            subStep.velocityIterations = step.velocityIterations;
-            subStep.warmStarting = false;
-            island.solveTOI(subStep, bA.islandIndex, bB.islandIndex);
-            // Reset island flags and synchronize broad-phase proxies.
-            for (int i = 0; i < island.bodyCount; ++i)
+            markTOIMoved(body);
+            if (body.type != BodyType.DYNAMIC)
             {
-                Body body = island.bodies[i];
-                body.flags &= ~Body.islandFlag;
-                if (body.type != BodyType.DYNAMIC)
-                {
-                    continue;
-                }
-                body.synchronizeFixtures();
-                // Invalidate all contact TOIs on this displaced body.
+                // A woken kinematic body may make contacts eligible that
+                // were skipped so far.
                 for (ContactEdge ce = body.contactList; ce != null; ce = ce.next)
                 {
-                    ce.contact.flags &= ~(Contact.TOI_FLAG
-                            | Contact.ISLAND_FLAG);
+                    if ((ce.contact.flags & Contact.TOI_FLAG) == 0)
+                    {
+                        addTOICandidate(ce.contact);
+                    }
                 }
+                continue;
             }
-            // Commit fixture proxy movements to the broad-phase so that new
-            // contacts are created.
-            // Also, some contacts can be destroyed.
-            contactManager.findNewContacts();
-            if (subStepping)
+            body.synchronizeFixtures();
+            // Invalidate all contact TOIs on this displaced body.
+            for (ContactEdge ce = body.contactList; ce != null; ce = ce.next)
             {
-                stepComplete = false;
-                break;
+                invalidateTOI(ce.contact);
             }
         }
+        return true;
+    }
+
+    private void markTOIMoved(Body body)
+    {
+        if ((body.flags & Body.toiFlag) != 0)
+        {
+            return;
+        }
+        body.flags |= Body.toiFlag;
+        if (toiMovedCount == toiMovedBodies.length)
+        {
+            Body[] newBodies = new Body[toiMovedCount * 2];
+            System.arraycopy(toiMovedBodies, 0, newBodies, 0, toiMovedCount);
+            toiMovedBodies = newBodies;
+        }
+        toiMovedBodies[toiMovedCount++] = body;
     }
 
     private void drawJoint(Joint joint)
@@ -1769,6 +3176,23 @@ public class World
         }
             break;
 
+        case HEIGHTFIELD:
+        {
+            HeightfieldShape heightfield = (HeightfieldShape) fixture
+                    .getShape();
+            float[] heights = heightfield.heights;
+            v1.set(0.0f, heights[0]);
+            Transform.mulToOut(xf, v1, v1);
+            for (int i = 1; i < heightfield.count; ++i)
+            {
+                v2.set(i * heightfield.spacing, heights[i]);
+                Transform.mulToOut(xf, v2, v2);
+                debugDraw.drawSegment(v1, v2, color);
+                v1.set(v2);
+            }
+        }
+            break;
+
         default:
             break;
         }
@@ -2167,49 +3591,3 @@ public class World
         return particleSystem.computeParticleCollisionEnergy();
     }
 }
-
-class WorldQueryWrapper implements TreeCallback
-{
-    public boolean treeCallback(int nodeId)
-    {
-        FixtureProxy proxy = (FixtureProxy) broadPhase.getUserData(nodeId);
-        return callback.reportFixture(proxy.fixture);
-    }
-
-    BroadPhase broadPhase;
-
-    QueryCallback callback;
-}
-
-class WorldRayCastWrapper implements TreeRayCastCallback
-{
-    // djm pooling
-    private final RayCastOutput output = new RayCastOutput();
-
-    private final Vec2 temp = new Vec2();
-
-    private final Vec2 point = new Vec2();
-
-    public float raycastCallback(RayCastInput input, int nodeId)
-    {
-        Object userData = broadPhase.getUserData(nodeId);
-        FixtureProxy proxy = (FixtureProxy) userData;
-        Fixture fixture = proxy.fixture;
-        int index = proxy.childIndex;
-        boolean hit = fixture.raycast(output, input, index);
-        if (hit)
-        {
-            float fraction = output.fraction;
-            // Vec2 point = (1.0f - fraction) * input.p1 + fraction * input.p2;
-            temp.set(input.p2).mulLocal(fraction);
-            point.set(input.p1).mulLocal(1 - fraction).addLocal(temp);
-            return callback.reportFixture(fixture, point, output.normal,
-                    fraction);
-        }
-        return input.maxFraction;
-    }
-
-    BroadPhase broadPhase;
-
-    RayCastCallback callback;
-}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.Collision;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
+import de.pirckheimer_gymnasium.jbox2d.common.Transform;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+
+/**
+ * Collects the fixture children found by a query into arrays. When the arrays
+ * are full, further fixture children are counted but not stored.
+ */
+class WorldQueryCollector implements TreeCallback
+{
+    static final int QUERY_AABB = 0;
+
+    static final int QUERY_POINT = 1;
+
+    static final int QUERY_SHAPE = 2;
+
+    static final int QUERY_BATCH = 3;
+
+    /**
+     * The number of boxes of a batch query traversed together.
+     */
+    static final int BATCH_SIZE = 16;
+
+    BroadPhase broadPhase;
+
+    private int mode;
+
+    private int maskBits;
+
+    private Fixture[] fixtures;
+
+    private int[] children;
+
+    private int[] boxes;
+
+    private int count;
+
+    /**
+     * The box the tree is traversed with.
+     */
+    AABB aabb;
+
+    Vec2 point;
+
+    Shape shape;
+
+    Transform xf;
+
+    Collision collision;
+
+    AABB[] batch;
+
+    int batchStart;
+
+    int batchEnd;
+
+    private final AABB childAABB = new AABB();
+
+    private CompoundProxy compound;
+
+    private final TreeCallback compoundCallback = nodeId -> report(
+            compound.getFixtureProxy(nodeId));
+
+    void begin(BroadPhase broadPhase, int mode, int maskBits,
+            Fixture[] fixtures, int[] children, int[] boxes)
+    {
+        this.broadPhase = broadPhase;
+        this.mode = mode;
+        this.maskBits = maskBits;
+        this.fixtures = fixtures;
+        this.children = children;
+        this.boxes = boxes;
+        count = 0;
+    }
+
+    /**
+     * Drop the references to the arrays and shapes of the query.
+     */
+    void end()
+    {
+        fixtures = null;
+        children = null;
+        boxes = null;
+        point = null;
+        shape = null;
+        xf = null;
+        batch = null;
+    }
+
+    /**
+     * Traverse the tree with {@link #aabb}.
+     *
+     * @return The number of fixtures found so far.
+     */
+    int run()
+    {
+        broadPhase.query(this, aabb);
+        return count;
+    }
+
+    public boolean treeCallback(int nodeId)
+    {
+        Object userData = broadPhase.getUserData(nodeId);
+        if (userData instanceof CompoundProxy)
+        {
+            compound = (CompoundProxy) userData;
+            compound.query(compoundCallback, aabb);
+            compound = null;
+            return true;
+        }
+        return report((FixtureProxy) userData);
+    }
+
+    private boolean report(FixtureProxy proxy)
+    {
+        Fixture fixture = proxy.fixture;
+        if ((fixture.filter.categoryBits & maskBits) == 0)
+        {
+            return true;
+        }
+        int child = proxy.childIndex;
+        Transform bodyXf = fixture.body.xf;
+        switch (mode)
+        {
+        case QUERY_AABB:
+            fixture.shape.computeAABB(childAABB, bodyXf, child);
+            if (AABB.testOverlap(childAABB, aabb))
+            {
+                add(fixture, child, -1);
+            }
+            break;
+
+        case QUERY_POINT:
+            // Only shapes with a single child contain points.
+            if (child == 0 && fixture.shape.testPoint(bodyXf, point))
+            {
+                add(fixture, child, -1);
+            }
+            break;
+
+        case QUERY_SHAPE:
+            if (collision.testOverlap(shape, 0, fixture.shape, child, xf,
+                    bodyXf))
+            {
+                add(fixture, child, -1);
+            }
+            break;
+
+        default:
+            fixture.shape.computeAABB(childAABB, bodyXf, child);
+            for (int i = batchStart; i < batchEnd; ++i)
+            {
+                if (AABB.testOverlap(childAABB, batch[i]))
+                {
+                    add(fixture, child, i);
+                }
+            }
+            break;
+        }
+        return true;
+    }
+
+    private void add(Fixture fixture, int child, int box)
+    {
+        if (count >= fixtures.length)
+        {
+            ++count;
+            return;
+        }
+        fixtures[count] = fixture;
+        if (children != null)
+        {
+            children[count] = child;
+        }
+        if (boxes != null)
+        {
+            boxes[count] = box;
+        }
+        ++count;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.QueryCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+
+class WorldQueryWrapper implements TreeCallback
+{
+    public boolean treeCallback(int nodeId)
+    {
+        Object userData = broadPhase.getUserData(nodeId);
+        if (userData instanceof CompoundProxy)
+        {
+            compound = (CompoundProxy) userData;
+            proceed = true;
+            compound.query(compoundCallback, aabb);
+            compound = null;
+            return proceed;
+        }
+        FixtureProxy proxy = (FixtureProxy) userData;
+        return callback.reportFixture(proxy.fixture);
+    }
+
+    BroadPhase broadPhase;
+
+    QueryCallback callback;
+
+    AABB aabb;
+
+    private CompoundProxy compound;
+
+    private boolean proceed;
+
+    private final TreeCallback compoundCallback = nodeId -> {
+        FixtureProxy proxy = compound.getFixtureProxy(nodeId);
+        proceed = callback.reportFixture(proxy.fixture);
+        return proceed;
+    };
+}
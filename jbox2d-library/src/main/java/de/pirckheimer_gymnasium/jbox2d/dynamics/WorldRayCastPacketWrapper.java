@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastOutput;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+
+class WorldRayCastPacketWrapper implements TreeRayCastPacketCallback
+{
+    private final RayCastOutput output = new RayCastOutput();
+
+    public float raycastCallback(RayCastInput input, int nodeId, int ray)
+    {
+        Object userData = broadPhase.getUserData(nodeId);
+        if (userData instanceof CompoundProxy)
+        {
+            compound = (CompoundProxy) userData;
+            compoundRay = ray;
+            float value = compound.raycast(compoundCallback, input);
+            compound = null;
+            return value;
+        }
+        return report(input, (FixtureProxy) userData, ray);
+    }
+
+    private CompoundProxy compound;
+
+    private int compoundRay;
+
+    private final TreeRayCastCallback compoundCallback = (input,
+            nodeId) -> report(input, compound.getFixtureProxy(nodeId),
+                    compoundRay);
+
+    private float report(RayCastInput input, FixtureProxy proxy, int ray)
+    {
+        Fixture fixture = proxy.fixture;
+        if (fixture.isSensor()
+                || !fixture.raycast(output, input, proxy.childIndex))
+        {
+            return -1;
+        }
+        // The tree only reports leaves up to the current max fraction, so
+        // this is the closest hit so far.
+        float fraction = output.fraction;
+        int index = rays[ray];
+        fixtures[index] = fixture;
+        if (points != null)
+        {
+            points[index].x = (1 - fraction) * input.p1.x
+                    + fraction * input.p2.x;
+            points[index].y = (1 - fraction) * input.p1.y
+                    + fraction * input.p2.y;
+        }
+        if (normals != null)
+        {
+            normals[index].set(output.normal);
+        }
+        if (fractions != null)
+        {
+            fractions[index] = fraction;
+        }
+        return fraction;
+    }
+
+    BroadPhase broadPhase;
+
+    int[] rays;
+
+    Fixture[] fixtures;
+
+    Vec2[] points;
+
+    Vec2[] normals;
+
+    float[] fractions;
+}
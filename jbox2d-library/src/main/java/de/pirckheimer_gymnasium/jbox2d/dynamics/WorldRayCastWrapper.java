@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.RayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastOutput;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+
+class WorldRayCastWrapper implements TreeRayCastCallback
+{
+    // djm pooling
+    private final RayCastOutput output = new RayCastOutput();
+
+    private final Vec2 temp = new Vec2();
+
+    private final Vec2 point = new Vec2();
+
+    public float raycastCallback(RayCastInput input, int nodeId)
+    {
+        Object userData = broadPhase.getUserData(nodeId);
+        if (userData instanceof CompoundProxy)
+        {
+            compound = (CompoundProxy) userData;
+            float value = compound.raycast(compoundCallback, input);
+            compound = null;
+            return value;
+        }
+        return report(input, (FixtureProxy) userData);
+    }
+
+    private CompoundProxy compound;
+
+    private final TreeRayCastCallback compoundCallback = (input,
+            nodeId) -> report(input, compound.getFixtureProxy(nodeId));
+
+    private float report(RayCastInput input, FixtureProxy proxy)
+    {
+        Fixture fixture = proxy.fixture;
+        int index = proxy.childIndex;
+        boolean hit = fixture.raycast(output, input, index);
+        if (hit)
+        {
+            float fraction = output.fraction;
+            // Vec2 point = (1.0f - fraction) * input.p1 + fraction * input.p2;
+            temp.set(input.p2).mulLocal(fraction);
+            point.set(input.p1).mulLocal(1 - fraction).addLocal(temp);
+            return callback.reportFixture(fixture, point, output.normal,
+                    fraction);
+        }
+        return input.maxFraction;
+    }
+
+    BroadPhase broadPhase;
+
+    RayCastCallback callback;
+}
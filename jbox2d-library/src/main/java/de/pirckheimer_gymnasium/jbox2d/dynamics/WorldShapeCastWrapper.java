@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.dynamics;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.ShapeCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
+import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Settings;
+import de.pirckheimer_gymnasium.jbox2d.common.Transform;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
+
+/**
+ * Sweeps a shape through the broad-phase. The tree is queried with the
+ * swept bounds of the shape. The bounds of each fixture child, inflated by
+ * the extents of the shape, are ray cast with the translation to skip the
+ * children behind the closest hit, and the others are swept by conservative
+ * advancement.
+ */
+class WorldShapeCastWrapper implements TreeCallback
+{
+    BroadPhase broadPhase;
+
+    ShapeCastCallback callback;
+
+    /**
+     * The output and the mask of {@link World#shapeCastClosest}.
+     */
+    ShapeCastOutput output;
+
+    int maskBits;
+
+    /**
+     * Keeps the closest hit in {@link #output}.
+     */
+    final ShapeCastCallback closestCallback = (fixture, point, normal,
+            fraction) -> {
+        if (fixture.isSensor || (fixture.filter.categoryBits & maskBits) == 0)
+        {
+            return -1;
+        }
+        output.fixture = fixture;
+        output.point.set(point);
+        output.normal.set(normal);
+        output.fraction = fraction;
+        return fraction;
+    };
+
+    private final ShapeSweep sweep = new ShapeSweep();
+
+    private final AABB sweptAABB = new AABB();
+
+    private final AABB childAABB = new AABB();
+
+    private WorldPool pool;
+
+    private Transform xf;
+
+    private Vec2 translation;
+
+    private float centerX, centerY;
+
+    private float extentX, extentY;
+
+    private float maxFraction;
+
+    private boolean terminated;
+
+    private CompoundProxy compound;
+
+    private final TreeCallback compoundCallback = nodeId -> {
+        report(compound.getFixtureProxy(nodeId));
+        return !terminated;
+    };
+
+    void cast(WorldPool pool, Shape shape, Transform xf, Vec2 translation)
+    {
+        this.pool = pool;
+        this.xf = xf;
+        this.translation = translation;
+        shape.computeAABB(sweptAABB, xf, 0);
+        centerX = 0.5f * (sweptAABB.lowerBound.x + sweptAABB.upperBound.x);
+        centerY = 0.5f * (sweptAABB.lowerBound.y + sweptAABB.upperBound.y);
+        extentX = 0.5f * (sweptAABB.upperBound.x - sweptAABB.lowerBound.x);
+        extentY = 0.5f * (sweptAABB.upperBound.y - sweptAABB.lowerBound.y);
+        if (translation.x < 0.0f)
+        {
+            sweptAABB.lowerBound.x += translation.x;
+        }
+        else
+        {
+            sweptAABB.upperBound.x += translation.x;
+        }
+        if (translation.y < 0.0f)
+        {
+            sweptAABB.lowerBound.y += translation.y;
+        }
+        else
+        {
+            sweptAABB.upperBound.y += translation.y;
+        }
+        sweep.setShape(shape, 0, xf.q);
+        maxFraction = 1.0f;
+        terminated = false;
+        broadPhase.query(this, sweptAABB);
+        this.pool = null;
+        this.xf = null;
+        this.translation = null;
+    }
+
+    public boolean treeCallback(int nodeId)
+    {
+        Object userData = broadPhase.getUserData(nodeId);
+        if (userData instanceof CompoundProxy)
+        {
+            compound = (CompoundProxy) userData;
+            compound.query(compoundCallback, sweptAABB);
+            compound = null;
+        }
+        else
+        {
+            report((FixtureProxy) userData);
+        }
+        return !terminated;
+    }
+
+    private void report(FixtureProxy proxy)
+    {
+        Fixture fixture = proxy.fixture;
+        int child = proxy.childIndex;
+        Body body = fixture.body;
+        fixture.shape.computeAABB(childAABB, body.xf, child);
+        if (!reaches(childAABB))
+        {
+            return;
+        }
+        sweep.setTarget(fixture.shape, child, body.xf);
+        float fraction = sweep.advance(pool.getDistance(), xf.p, translation,
+                maxFraction);
+        if (fraction < 0.0f)
+        {
+            return;
+        }
+        float value = callback.reportFixture(fixture, sweep.point,
+                sweep.normal, fraction);
+        if (value == 0.0f)
+        {
+            terminated = true;
+        }
+        else if (value > 0.0f)
+        {
+            maxFraction = value;
+        }
+    }
+
+    /**
+     * Whether the center of the shape enters the bounds inflated by the
+     * extents of the shape before the closest hit.
+     */
+    private boolean reaches(AABB aabb)
+    {
+        float tMin = 0.0f;
+        float tMax = maxFraction;
+        for (int axis = 0; axis < 2; ++axis)
+        {
+            float c = axis == 0 ? centerX : centerY;
+            float d = axis == 0 ? translation.x : translation.y;
+            float e = axis == 0 ? extentX : extentY;
+            float lower = (axis == 0 ? aabb.lowerBound.x : aabb.lowerBound.y)
+                    - e;
+            float upper = (axis == 0 ? aabb.upperBound.x : aabb.upperBound.y)
+                    + e;
+            if (MathUtils.abs(d) < Settings.EPSILON)
+            {
+                if (c < lower || upper < c)
+                {
+                    return false;
+                }
+                continue;
+            }
+            float t1 = (lower - c) / d;
+            float t2 = (upper - c) / d;
+            if (t1 > t2)
+            {
+                float t = t1;
+                t1 = t2;
+                t2 = t;
+            }
+            tMin = MathUtils.max(tMin, t1);
+            tMax = MathUtils.min(tMax, t2);
+            if (tMin > tMax)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
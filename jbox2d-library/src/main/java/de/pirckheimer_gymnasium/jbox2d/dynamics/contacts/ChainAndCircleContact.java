@@ -48,6 +48,10 @@ public class ChainAndCircleContact extends Contact
         super.init(fA, indexA, fB, indexB);
         assert (fixtureA.getType() == ShapeType.CHAIN);
         assert (fixtureB.getType() == ShapeType.CIRCLE);
+        // The child of a contact never changes, so the edge is only copied
+        // out of the chain once.
+        ChainShape chain = (ChainShape) fixtureA.getShape();
+        chain.getChildEdge(edge, indexA);
     }
 
     private final EdgeShape edge = new EdgeShape();
@@ -55,8 +59,6 @@ public class ChainAndCircleContact extends Contact
     @Override
     public void evaluate(Manifold manifold, Transform xfA, Transform xfB)
     {
-        ChainShape chain = (ChainShape) fixtureA.getShape();
-        chain.getChildEdge(edge, indexA);
         pool.getCollision().collideEdgeAndCircle(manifold, edge, xfA,
                 (CircleShape) fixtureB.getShape(), xfB);
     }
@@ -48,6 +48,10 @@ public class ChainAndPolygonContact extends Contact
         super.init(fA, indexA, fB, indexB);
         assert (fixtureA.getType() == ShapeType.CHAIN);
         assert (fixtureB.getType() == ShapeType.POLYGON);
+        // The child of a contact never changes, so the edge is only copied
+        // out of the chain once.
+        ChainShape chain = (ChainShape) fixtureA.getShape();
+        chain.getChildEdge(edge, indexA);
     }
 
     private final EdgeShape edge = new EdgeShape();
@@ -55,8 +59,6 @@ public class ChainAndPolygonContact extends Contact
     @Override
     public void evaluate(Manifold manifold, Transform xfA, Transform xfB)
     {
-        ChainShape chain = (ChainShape) fixtureA.getShape();
-        chain.getChildEdge(edge, indexA);
         pool.getCollision().collideEdgeAndPolygon(manifold, edge, xfA,
                 (PolygonShape) fixtureB.getShape(), xfB);
     }
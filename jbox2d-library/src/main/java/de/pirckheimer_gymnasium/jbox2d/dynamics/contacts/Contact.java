@@ -24,15 +24,19 @@
 package de.pirckheimer_gymnasium.jbox2d.dynamics.contacts;
 
 import de.pirckheimer_gymnasium.jbox2d.callbacks.ContactListener;
+import de.pirckheimer_gymnasium.jbox2d.collision.Collision;
 import de.pirckheimer_gymnasium.jbox2d.collision.ContactID;
 import de.pirckheimer_gymnasium.jbox2d.collision.Manifold;
 import de.pirckheimer_gymnasium.jbox2d.collision.ManifoldPoint;
 import de.pirckheimer_gymnasium.jbox2d.collision.WorldManifold;
 import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
+import de.pirckheimer_gymnasium.jbox2d.common.Rot;
 import de.pirckheimer_gymnasium.jbox2d.common.Transform;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.ContactEvents;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
 
 /**
@@ -72,6 +76,12 @@ public abstract class Contact
 
     public static final int TOI_FLAG = 0x0020;
 
+    /**
+     * The TOI of this contact is waiting to be computed by the continuous
+     * solver.
+     */
+    public static final int TOI_CANDIDATE_FLAG = 0x0040;
+
     public int flags;
 
     //
@@ -103,6 +113,43 @@ public abstract class Contact
 
     public float toi;
 
+    /**
+     * The position in the TOI queue of the continuous solver, -1 if not
+     * queued.
+     */
+    public int toiIndex = -1;
+
+    /**
+     * Increases with every contact the contact manager creates. New contacts
+     * are added in front of the contact list, so this orders the list.
+     */
+    public long stamp;
+
+    /**
+     * The position in the contact arrays of the contact manager, -1 unless
+     * the world uses them.
+     */
+    public int index = -1;
+
+    /**
+     * A handle that stays the same while the contact exists and the world
+     * uses contact arrays, -1 otherwise. Handles of destroyed contacts are
+     * reused.
+     *
+     * @see de.pirckheimer_gymnasium.jbox2d.dynamics.World#getContact(int)
+     */
+    public int handle = -1;
+
+    /**
+     * The bucket and the position in it while the world runs a batched
+     * narrow-phase, -1 otherwise.
+     *
+     * @see de.pirckheimer_gymnasium.jbox2d.dynamics.World#setBatchedNarrowPhase(boolean)
+     */
+    public int batchBucket = -1;
+
+    public int batchIndex = -1;
+
     public float friction;
 
     public float restitution;
@@ -146,6 +193,7 @@ public abstract class Contact
         friction = Contact.mixFriction(fA.friction, fB.friction);
         restitution = Contact.mixRestitution(fA.restitution, fB.restitution);
         tangentSpeed = 0;
+        manifoldCached = false;
     }
 
     /**
@@ -298,57 +346,133 @@ public abstract class Contact
     private final Manifold oldManifold = new Manifold();
 
     public void update(ContactListener listener)
+    {
+        if (beginUpdate())
+        {
+            evaluateManifold();
+        }
+        endUpdate(listener);
+    }
+
+    /**
+     * The touching state before the current update.
+     */
+    private boolean wasTouching;
+
+    /**
+     * Whether a sensor contact overlaps, set by {@link #beginUpdate}.
+     */
+    private boolean sensorTouching;
+
+    /**
+     * The speculative margin of the current update.
+     */
+    private float margin;
+
+    /**
+     * The first part of {@link #update}. Sensors are tested here and cached
+     * manifolds are kept.
+     *
+     * @return Whether {@link #evaluateManifold} has to be called before
+     *     {@link #endUpdate}.
+     */
+    public boolean beginUpdate()
     {
         oldManifold.set(manifold);
         // Re-enable this contact.
         flags |= ENABLED_FLAG;
-        boolean touching;
-        boolean wasTouching = (flags & TOUCHING_FLAG) == TOUCHING_FLAG;
-        boolean sensorA = fixtureA.isSensor();
-        boolean sensorB = fixtureB.isSensor();
-        boolean sensor = sensorA || sensorB;
+        wasTouching = (flags & TOUCHING_FLAG) == TOUCHING_FLAG;
         Body bodyA = fixtureA.getBody();
         Body bodyB = fixtureB.getBody();
         Transform xfA = bodyA.getTransform();
         Transform xfB = bodyB.getTransform();
-        // log.debug("TransformA: "+xfA);
-        // log.debug("TransformB: "+xfB);
-        if (sensor)
+        if (fixtureA.isSensor() || fixtureB.isSensor())
         {
             Shape shapeA = fixtureA.getShape();
             Shape shapeB = fixtureB.getShape();
-            touching = pool.getCollision().testOverlap(shapeA, indexA, shapeB,
-                    indexB, xfA, xfB);
+            sensorTouching = pool.getCollision().testOverlap(shapeA, indexA,
+                    shapeB, indexB, xfA, xfB);
             // Sensors don't generate manifolds.
             manifold.pointCount = 0;
+            return false;
+        }
+        World world = bodyA.world;
+        margin = world.getSpeculativeMargin(bodyA, bodyB);
+        if (margin == 0.0f && world.isManifoldCaching()
+                && isManifoldCached(world, xfA, xfB))
+        {
+            // The manifold is in body coordinates and still holds the
+            // impulses for warm starting.
+            ++world.getProfile().manifoldsReused;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The second part of {@link #update}, evaluates the manifold and carries
+     * over the impulses of the old one.
+     */
+    public final void evaluateManifold()
+    {
+        Transform xfA = fixtureA.getBody().getTransform();
+        Transform xfB = fixtureB.getBody().getTransform();
+        if (margin > 0.0f)
+        {
+            // Speculative points make the contact touch before the shapes
+            // actually do.
+            Collision collision = pool.getCollision();
+            collision.setSpeculativeMargin(margin);
+            evaluate(manifold, xfA, xfB);
+            collision.setSpeculativeMargin(0.0f);
         }
         else
         {
             evaluate(manifold, xfA, xfB);
-            touching = manifold.pointCount > 0;
-            // Match old contact ids to new contact ids and copy the
-            // stored impulses to warm start the solver.
-            for (int i = 0; i < manifold.pointCount; ++i)
+        }
+        // Speculative points depend on the velocities as well.
+        manifoldCached = margin == 0.0f;
+        Transform.mulTransToOut(xfA, xfB, cachedTransform);
+        // Match old contact ids to new contact ids and copy the stored
+        // impulses to warm start the solver.
+        for (int i = 0; i < manifold.pointCount; ++i)
+        {
+            ManifoldPoint mp2 = manifold.points[i];
+            mp2.normalImpulse = 0.0f;
+            mp2.tangentImpulse = 0.0f;
+            ContactID id2 = mp2.id;
+            for (int j = 0; j < oldManifold.pointCount; ++j)
             {
-                ManifoldPoint mp2 = manifold.points[i];
-                mp2.normalImpulse = 0.0f;
-                mp2.tangentImpulse = 0.0f;
-                ContactID id2 = mp2.id;
-                for (int j = 0; j < oldManifold.pointCount; ++j)
+                ManifoldPoint mp1 = oldManifold.points[j];
+                if (mp1.id.isEqual(id2))
                 {
-                    ManifoldPoint mp1 = oldManifold.points[j];
-                    if (mp1.id.isEqual(id2))
-                    {
-                        mp2.normalImpulse = mp1.normalImpulse;
-                        mp2.tangentImpulse = mp1.tangentImpulse;
-                        break;
-                    }
+                    mp2.normalImpulse = mp1.normalImpulse;
+                    mp2.tangentImpulse = mp1.tangentImpulse;
+                    break;
                 }
             }
+        }
+    }
+
+    /**
+     * The last part of {@link #update}, sets the touching flag, wakes the
+     * bodies and calls the listener.
+     */
+    public void endUpdate(ContactListener listener)
+    {
+        boolean touching;
+        boolean sensor = fixtureA.isSensor() || fixtureB.isSensor();
+        if (sensor)
+        {
+            touching = sensorTouching;
+        }
+        else
+        {
+            touching = manifold.pointCount > 0;
             if (touching != wasTouching)
             {
-                bodyA.setAwake(true);
-                bodyB.setAwake(true);
+                fixtureA.getBody().setAwake(true);
+                fixtureB.getBody().setAwake(true);
             }
         }
         if (touching)
@@ -359,15 +483,27 @@ public abstract class Contact
         {
             flags &= ~TOUCHING_FLAG;
         }
+        ContactEvents events = fixtureA.getBody().world.getContactEvents();
+        if (events != null && touching != wasTouching)
+        {
+            if (touching)
+            {
+                events.addBegin(this);
+            }
+            else
+            {
+                events.addEnd(this);
+            }
+        }
         if (listener == null)
         {
             return;
         }
-        if (!wasTouching && touching)
+        if (events == null && !wasTouching && touching)
         {
             listener.beginContact(this);
         }
-        if (wasTouching && !touching)
+        if (events == null && wasTouching && !touching)
         {
             listener.endContact(this);
         }
@@ -377,6 +513,49 @@ public abstract class Contact
         }
     }
 
+    /**
+     * The transform of body B relative to body A when the manifold was last
+     * evaluated, valid if {@link #manifoldCached} is set.
+     */
+    private final Transform cachedTransform = new Transform();
+
+    private final Transform relativeTransform = new Transform();
+
+    private boolean manifoldCached;
+
+    /**
+     * Evaluate the manifold on the next update even if the bodies did not
+     * move, e.g. because a shape was changed in place.
+     */
+    public void resetManifoldCache()
+    {
+        manifoldCached = false;
+    }
+
+    private boolean isManifoldCached(World world, Transform xfA,
+            Transform xfB)
+    {
+        if (!manifoldCached)
+        {
+            return false;
+        }
+        Transform.mulTransToOut(xfA, xfB, relativeTransform);
+        float dx = relativeTransform.p.x - cachedTransform.p.x;
+        float dy = relativeTransform.p.y - cachedTransform.p.y;
+        float linear = world.getManifoldLinearTolerance();
+        if (dx * dx + dy * dy > linear * linear)
+        {
+            return false;
+        }
+        // The sine and cosine of the rotation since the evaluation.
+        final Rot q1 = cachedTransform.q;
+        final Rot q2 = relativeTransform.q;
+        float sin = q1.c * q2.s - q1.s * q2.c;
+        float cos = q1.c * q2.c + q1.s * q2.s;
+        return cos > 0.0f
+                && MathUtils.abs(sin) <= world.getManifoldAngularTolerance();
+    }
+
     /**
      * Friction mixing law. The idea is to allow either fixture to drive the
      * restitution to zero. For example, anything slides on ice.
@@ -30,9 +30,9 @@ import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
 import de.pirckheimer_gymnasium.jbox2d.common.Mat22;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Transform;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.TimeStep;
@@ -301,7 +301,18 @@ public class ContactSolver
                 float tempX = vB.x + -wB * vcprB.y - vA.x - (-wA * vcprA.y);
                 float tempY = vB.y + wB * vcprB.x - vA.y - (wA * vcprA.x);
                 float vRel = vcNormal.x * tempX + vcNormal.y * tempY;
-                if (vRel < -Settings.velocityThreshold)
+                vcp.relativeVelocity = vRel;
+                float separation = worldManifold.separations[j];
+                if (step.speculative && separation > 0.0f)
+                {
+                    // A speculative point only allows the approach to close
+                    // the gap within this step. It is not warm started
+                    // because its impulse from the previous step is stale.
+                    vcp.velocityBias = -separation * step.inverseDt;
+                    vcp.normalImpulse = 0.0f;
+                    vcp.tangentImpulse = 0.0f;
+                }
+                else if (vRel < -step.settings.velocityThreshold)
                 {
                     vcp.velocityBias = -vc.restitution * vRel;
                 }
@@ -778,6 +789,7 @@ public class ContactSolver
      */
     public final boolean solvePositionConstraints()
     {
+        final WorldSettings settings = step.settings;
         float minSeparation = 0.0f;
         for (int i = 0; i < count; ++i)
         {
@@ -827,8 +839,8 @@ public class ContactSolver
                 minSeparation = MathUtils.min(minSeparation, separation);
                 // Prevent large corrections and allow slop.
                 final float C = MathUtils.clamp(
-                        Settings.baumgarte * (separation + Settings.linearSlop),
-                        -Settings.maxLinearCorrection, 0.0f);
+                        settings.baumgarte * (separation + settings.linearSlop),
+                        -settings.maxLinearCorrection, 0.0f);
                 // Compute the effective mass.
                 final float rnA = rAx * normal.y - rAy * normal.x;
                 final float rnB = rBx * normal.y - rBy * normal.x;
@@ -851,12 +863,13 @@ public class ContactSolver
         }
         // We can't expect minSpeparation >= -linearSlop because we don't
         // push the separation above -linearSlop.
-        return minSeparation >= -3.0f * Settings.linearSlop;
+        return minSeparation >= -3.0f * settings.linearSlop;
     }
 
     // Sequential position solver for position constraints.
     public boolean solveTOIPositionConstraints(int toiIndexA, int toiIndexB)
     {
+        final WorldSettings settings = step.settings;
         float minSeparation = 0.0f;
         for (int i = 0; i < count; ++i)
         {
@@ -916,9 +929,9 @@ public class ContactSolver
                 minSeparation = MathUtils.min(minSeparation, separation);
                 // Prevent large corrections and allow slop.
                 float C = MathUtils.clamp(
-                        Settings.toiBaugarte
-                                * (separation + Settings.linearSlop),
-                        -Settings.maxLinearCorrection, 0.0f);
+                        settings.toiBaugarte
+                                * (separation + settings.linearSlop),
+                        -settings.maxLinearCorrection, 0.0f);
                 // Compute the effective mass.
                 float rnA = rAx * normal.y - rAy * normal.x;
                 float rnB = rBx * normal.y - rBy * normal.x;
@@ -941,7 +954,7 @@ public class ContactSolver
         }
         // We can't expect minSpeparation >= -_linearSlop because we don't
         // push the separation above -_linearSlop.
-        return minSeparation >= -1.5f * Settings.linearSlop;
+        return minSeparation >= -1.5f * settings.linearSlop;
     }
 
     public static class ContactSolverDef
@@ -81,5 +81,11 @@ public class ContactVelocityConstraint
         public float tangentMass;
 
         public float velocityBias;
+
+        /**
+         * The normal velocity of B relative to A before the contact is
+         * solved, negative if the bodies approach.
+         */
+        public float relativeVelocity;
     }
 }
@@ -26,6 +26,7 @@ package de.pirckheimer_gymnasium.jbox2d.dynamics.joints;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
@@ -154,7 +155,8 @@ public class ConstantVolumeJoint extends Joint
         return area;
     }
 
-    private boolean constrainEdges(Position[] positions)
+    private boolean constrainEdges(Position[] positions,
+            WorldSettings settings)
     {
         float perimeter = 0.0f;
         for (int i = 0; i < bodies.length; ++i)
@@ -185,13 +187,13 @@ public class ConstantVolumeJoint extends Joint
                     toExtrude * (normals[i].y + normals[next].y));
             // sumdeltax += dx;
             float normSqrd = delta.lengthSquared();
-            if (normSqrd > Settings.maxLinearCorrection
-                    * Settings.maxLinearCorrection)
+            if (normSqrd > settings.maxLinearCorrection
+                    * settings.maxLinearCorrection)
             {
-                delta.mulLocal(Settings.maxLinearCorrection
+                delta.mulLocal(settings.maxLinearCorrection
                         / MathUtils.sqrt(normSqrd));
             }
-            if (normSqrd > Settings.linearSlop * Settings.linearSlop)
+            if (normSqrd > settings.linearSlop * settings.linearSlop)
             {
                 done = false;
             }
@@ -243,7 +245,7 @@ public class ConstantVolumeJoint extends Joint
     @Override
     public boolean solvePositionConstraints(SolverData step)
     {
-        return constrainEdges(step.positions);
+        return constrainEdges(step.positions, step.step.settings);
     }
 
     @Override
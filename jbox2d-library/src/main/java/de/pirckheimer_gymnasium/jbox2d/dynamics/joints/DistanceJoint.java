@@ -25,8 +25,8 @@ package de.pirckheimer_gymnasium.jbox2d.dynamics.joints;
 
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
 
@@ -173,6 +173,7 @@ public class DistanceJoint extends Joint
     @Override
     public void initVelocityConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         indexA = bodyA.islandIndex;
         indexB = bodyB.islandIndex;
         localCenterA.set(bodyA.sweep.localCenter);
@@ -200,7 +201,7 @@ public class DistanceJoint extends Joint
         pool.pushRot(2);
         // Handle singularity.
         float length = u.length();
-        if (length > Settings.linearSlop)
+        if (length > settings.linearSlop)
         {
             u.x *= 1.0f / length;
             u.y *= 1.0f / length;
@@ -302,6 +303,7 @@ public class DistanceJoint extends Joint
     @Override
     public boolean solvePositionConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         if (frequencyHz > 0.0f)
         {
             return true;
@@ -322,8 +324,8 @@ public class DistanceJoint extends Joint
         u.set(cB).addLocal(rB).subLocal(cA).subLocal(rA);
         float length = u.normalize();
         float C = length - this.length;
-        C = MathUtils.clamp(C, -Settings.maxLinearCorrection,
-                Settings.maxLinearCorrection);
+        C = MathUtils.clamp(C, -settings.maxLinearCorrection,
+                settings.maxLinearCorrection);
         float impulse = -mass * C;
         float Px = impulse * u.x;
         float Py = impulse * u.y;
@@ -339,7 +341,7 @@ public class DistanceJoint extends Joint
         data.positions[indexB].a = aB;
         pool.pushVec2(3);
         pool.pushRot(2);
-        return MathUtils.abs(C) < Settings.linearSlop;
+        return MathUtils.abs(C) < settings.linearSlop;
     }
 
     /**
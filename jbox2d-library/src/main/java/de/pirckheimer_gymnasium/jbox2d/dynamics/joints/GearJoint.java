@@ -24,9 +24,9 @@
 package de.pirckheimer_gymnasium.jbox2d.dynamics.joints;
 
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Transform;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
@@ -404,6 +404,7 @@ public class GearJoint extends Joint
     @Override
     public boolean solvePositionConstraints(SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         Vec2 cA = data.positions[indexA].c;
         float aA = data.positions[indexA].a;
         Vec2 cB = data.positions[indexB].c;
@@ -506,6 +507,6 @@ public class GearJoint extends Joint
         // data.positions[indexD].c = cD;
         data.positions[indexD].a = aD;
         // TODO_ERIN not implemented
-        return linearError < Settings.linearSlop;
+        return linearError < settings.linearSlop;
     }
 }
@@ -27,9 +27,9 @@ import de.pirckheimer_gymnasium.jbox2d.common.Mat22;
 import de.pirckheimer_gymnasium.jbox2d.common.Mat33;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec3;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
@@ -389,6 +389,7 @@ public class PrismaticJoint extends Joint
     @Override
     public void initVelocityConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         indexA = bodyA.islandIndex;
         indexB = bodyB.islandIndex;
         localCenterA.set(bodyA.sweep.localCenter);
@@ -457,7 +458,7 @@ public class PrismaticJoint extends Joint
         {
             float jointTranslation = Vec2.dot(axis, d);
             if (MathUtils.abs(upperTranslation - lowerTranslation) < 2.0f
-                    * Settings.linearSlop)
+                    * settings.linearSlop)
             {
                 limitState = LimitState.EQUAL;
             }
@@ -642,6 +643,7 @@ public class PrismaticJoint extends Joint
     @Override
     public boolean solvePositionConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         final Rot qA = pool.popRot();
         final Rot qB = pool.popRot();
         final Vec2 rA = pool.popVec2();
@@ -682,11 +684,11 @@ public class PrismaticJoint extends Joint
         {
             float translation = Vec2.dot(axis, d);
             if (MathUtils.abs(upperTranslation - lowerTranslation) < 2.0f
-                    * Settings.linearSlop)
+                    * settings.linearSlop)
             {
                 // Prevent large angular corrections
-                C2 = MathUtils.clamp(translation, -Settings.maxLinearCorrection,
-                        Settings.maxLinearCorrection);
+                C2 = MathUtils.clamp(translation, -settings.maxLinearCorrection,
+                        settings.maxLinearCorrection);
                 linearError = MathUtils.max(linearError,
                         MathUtils.abs(translation));
                 active = true;
@@ -695,8 +697,8 @@ public class PrismaticJoint extends Joint
             {
                 // Prevent large linear corrections and allow some slop.
                 C2 = MathUtils.clamp(
-                        translation - lowerTranslation + Settings.linearSlop,
-                        -Settings.maxLinearCorrection, 0.0f);
+                        translation - lowerTranslation + settings.linearSlop,
+                        -settings.maxLinearCorrection, 0.0f);
                 linearError = MathUtils.max(linearError,
                         lowerTranslation - translation);
                 active = true;
@@ -705,8 +707,8 @@ public class PrismaticJoint extends Joint
             {
                 // Prevent large linear corrections and allow some slop.
                 C2 = MathUtils.clamp(
-                        translation - upperTranslation - Settings.linearSlop,
-                        0.0f, Settings.maxLinearCorrection);
+                        translation - upperTranslation - settings.linearSlop,
+                        0.0f, settings.maxLinearCorrection);
                 linearError = MathUtils.max(linearError,
                         translation - upperTranslation);
                 active = true;
@@ -773,7 +775,7 @@ public class PrismaticJoint extends Joint
         pool.pushVec2(7);
         pool.pushVec3(1);
         pool.pushRot(2);
-        return linearError <= Settings.linearSlop
-                && angularError <= Settings.angularSlop;
+        return linearError <= settings.linearSlop
+                && angularError <= settings.angularSlop;
     }
 }
@@ -25,8 +25,8 @@ package de.pirckheimer_gymnasium.jbox2d.dynamics.joints;
 
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
 
@@ -243,6 +243,7 @@ public class PulleyJoint extends Joint
     @Override
     public void initVelocityConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         indexA = bodyA.islandIndex;
         indexB = bodyB.islandIndex;
         localCenterA.set(bodyA.sweep.localCenter);
@@ -273,7 +274,7 @@ public class PulleyJoint extends Joint
         uB.set(cB).addLocal(rB).subLocal(groundAnchorB);
         float lengthA = uA.length();
         float lengthB = uB.length();
-        if (lengthA > 10f * Settings.linearSlop)
+        if (lengthA > 10f * settings.linearSlop)
         {
             uA.mulLocal(1.0f / lengthA);
         }
@@ -281,7 +282,7 @@ public class PulleyJoint extends Joint
         {
             uA.setZero();
         }
-        if (lengthB > 10f * Settings.linearSlop)
+        if (lengthB > 10f * settings.linearSlop)
         {
             uB.mulLocal(1.0f / lengthB);
         }
@@ -370,6 +371,7 @@ public class PulleyJoint extends Joint
     @Override
     public boolean solvePositionConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         final Rot qA = pool.popRot();
         final Rot qB = pool.popRot();
         final Vec2 rA = pool.popVec2();
@@ -393,7 +395,7 @@ public class PulleyJoint extends Joint
         uB.set(cB).addLocal(rB).subLocal(groundAnchorB);
         float lengthA = uA.length();
         float lengthB = uB.length();
-        if (lengthA > 10.0f * Settings.linearSlop)
+        if (lengthA > 10.0f * settings.linearSlop)
         {
             uA.mulLocal(1.0f / lengthA);
         }
@@ -401,7 +403,7 @@ public class PulleyJoint extends Joint
         {
             uA.setZero();
         }
-        if (lengthB > 10.0f * Settings.linearSlop)
+        if (lengthB > 10.0f * settings.linearSlop)
         {
             uB.mulLocal(1.0f / lengthB);
         }
@@ -436,6 +438,6 @@ public class PulleyJoint extends Joint
         data.positions[indexB].a = aB;
         pool.pushRot(2);
         pool.pushVec2(7);
-        return linearError < Settings.linearSlop;
+        return linearError < settings.linearSlop;
     }
 }
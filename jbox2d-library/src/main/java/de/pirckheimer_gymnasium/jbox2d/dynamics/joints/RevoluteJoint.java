@@ -27,9 +27,9 @@ import de.pirckheimer_gymnasium.jbox2d.common.Mat22;
 import de.pirckheimer_gymnasium.jbox2d.common.Mat33;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec3;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
@@ -163,6 +163,7 @@ public class RevoluteJoint extends Joint
     @Override
     public void initVelocityConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         indexA = bodyA.islandIndex;
         indexB = bodyB.islandIndex;
         localCenterA.set(bodyA.sweep.localCenter);
@@ -222,7 +223,7 @@ public class RevoluteJoint extends Joint
         {
             float jointAngle = aB - aA - referenceAngle;
             if (MathUtils.abs(upperAngle - lowerAngle) < 2.0f
-                    * Settings.angularSlop)
+                    * settings.angularSlop)
             {
                 limitState = LimitState.EQUAL;
             }
@@ -415,6 +416,7 @@ public class RevoluteJoint extends Joint
     @Override
     public boolean solvePositionConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         final Rot qA = pool.popRot();
         final Rot qB = pool.popRot();
         Vec2 cA = data.positions[indexA].c;
@@ -435,8 +437,8 @@ public class RevoluteJoint extends Joint
             {
                 // Prevent large angular corrections
                 float C = MathUtils.clamp(angle - lowerAngle,
-                        -Settings.maxAngularCorrection,
-                        Settings.maxAngularCorrection);
+                        -settings.maxAngularCorrection,
+                        settings.maxAngularCorrection);
                 limitImpulse = -motorMass * C;
                 angularError = MathUtils.abs(C);
             }
@@ -445,8 +447,8 @@ public class RevoluteJoint extends Joint
                 float C = angle - lowerAngle;
                 angularError = -C;
                 // Prevent large angular corrections and allow some slop.
-                C = MathUtils.clamp(C + Settings.angularSlop,
-                        -Settings.maxAngularCorrection, 0.0f);
+                C = MathUtils.clamp(C + settings.angularSlop,
+                        -settings.maxAngularCorrection, 0.0f);
                 limitImpulse = -motorMass * C;
             }
             else if (limitState == LimitState.AT_UPPER)
@@ -454,8 +456,8 @@ public class RevoluteJoint extends Joint
                 float C = angle - upperAngle;
                 angularError = C;
                 // Prevent large angular corrections and allow some slop.
-                C = MathUtils.clamp(C - Settings.angularSlop, 0.0f,
-                        Settings.maxAngularCorrection);
+                C = MathUtils.clamp(C - settings.angularSlop, 0.0f,
+                        settings.maxAngularCorrection);
                 limitImpulse = -motorMass * C;
             }
             aA -= invIA * limitImpulse;
@@ -498,8 +500,8 @@ public class RevoluteJoint extends Joint
         // data.positions[indexB].c.set(cB);
         data.positions[indexB].a = aB;
         pool.pushRot(2);
-        return positionError <= Settings.linearSlop
-                && angularError <= Settings.angularSlop;
+        return positionError <= settings.linearSlop
+                && angularError <= settings.angularSlop;
     }
 
     public Vec2 getLocalAnchorA()
@@ -25,8 +25,8 @@ package de.pirckheimer_gymnasium.jbox2d.dynamics.joints;
 
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
 
@@ -104,6 +104,7 @@ public class RopeJoint extends Joint
     @Override
     public void initVelocityConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         indexA = bodyA.islandIndex;
         indexB = bodyB.islandIndex;
         localCenterA.set(bodyA.sweep.localCenter);
@@ -141,7 +142,7 @@ public class RopeJoint extends Joint
         {
             state = LimitState.INACTIVE;
         }
-        if (length > Settings.linearSlop)
+        if (length > settings.linearSlop)
         {
             u.mulLocal(1.0f / length);
         }
@@ -229,6 +230,7 @@ public class RopeJoint extends Joint
     @Override
     public boolean solvePositionConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         Vec2 cA = data.positions[indexA].c;
         float aA = data.positions[indexA].a;
         Vec2 cB = data.positions[indexB].c;
@@ -249,7 +251,7 @@ public class RopeJoint extends Joint
         u.set(cB).addLocal(rB).subLocal(cA).subLocal(rA);
         float length = u.normalize();
         float C = length - maxLength;
-        C = MathUtils.clamp(C, 0.0f, Settings.maxLinearCorrection);
+        C = MathUtils.clamp(C, 0.0f, settings.maxLinearCorrection);
         float impulse = -mass * C;
         float Px = impulse * u.x;
         float Py = impulse * u.y;
@@ -265,7 +267,7 @@ public class RopeJoint extends Joint
         data.positions[indexA].a = aA;
         // data.positions[indexB].c = cB;
         data.positions[indexB].a = aB;
-        return length - maxLength < Settings.linearSlop;
+        return length - maxLength < settings.linearSlop;
     }
 
     @Override
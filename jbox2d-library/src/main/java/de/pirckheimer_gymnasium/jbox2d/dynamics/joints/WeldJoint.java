@@ -26,9 +26,9 @@ package de.pirckheimer_gymnasium.jbox2d.dynamics.joints;
 import de.pirckheimer_gymnasium.jbox2d.common.Mat33;
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec3;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
 
@@ -360,6 +360,7 @@ public class WeldJoint extends Joint
     @Override
     public boolean solvePositionConstraints(final SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         Vec2 cA = data.positions[indexA].c;
         float aA = data.positions[indexA].a;
         Vec2 cB = data.positions[indexB].c;
@@ -431,7 +432,7 @@ public class WeldJoint extends Joint
         pool.pushVec2(5);
         pool.pushRot(2);
         pool.pushMat33(1);
-        return positionError <= Settings.linearSlop
-                && angularError <= Settings.angularSlop;
+        return positionError <= settings.linearSlop
+                && angularError <= settings.angularSlop;
     }
 }
@@ -25,8 +25,8 @@ package de.pirckheimer_gymnasium.jbox2d.dynamics.joints;
 
 import de.pirckheimer_gymnasium.jbox2d.common.MathUtils;
 import de.pirckheimer_gymnasium.jbox2d.common.Rot;
-import de.pirckheimer_gymnasium.jbox2d.common.Settings;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.SolverData;
 import de.pirckheimer_gymnasium.jbox2d.pooling.WorldPool;
@@ -518,6 +518,7 @@ public class WheelJoint extends Joint
     @Override
     public boolean solvePositionConstraints(SolverData data)
     {
+        final WorldSettings settings = data.step.settings;
         Vec2 cA = data.positions[indexA].c;
         float aA = data.positions[indexA].a;
         Vec2 cB = data.positions[indexB].c;
@@ -563,6 +564,6 @@ public class WheelJoint extends Joint
         data.positions[indexA].a = aA;
         // data.positions[indexB].c = cB;
         data.positions[indexB].a = aB;
-        return MathUtils.abs(C) <= Settings.linearSlop;
+        return MathUtils.abs(C) <= settings.linearSlop;
     }
 }
@@ -25,24 +25,52 @@ package de.pirckheimer_gymnasium.jbox2d.common;
 
 public class Timer
 {
-    private double resetMillis;
+    private Clock clock;
+
+    private long resetNanos;
 
     public Timer()
     {
+        this(Clock.SYSTEM);
+    }
+
+    public Timer(Clock clock)
+    {
+        this.clock = clock;
+        reset();
+    }
+
+    public void setClock(Clock clock)
+    {
+        this.clock = clock;
         reset();
     }
 
+    public Clock getClock()
+    {
+        return clock;
+    }
+
     public void reset()
     {
-        resetMillis = now();
+        resetNanos = clock.nanoTime();
+    }
+
+    public long getNanoseconds()
+    {
+        return clock.nanoTime() - resetNanos;
     }
 
     public float getMilliseconds()
     {
-        return (float) (now() - resetMillis);
+        return (float) (clock.nanoTime() - resetNanos) / 1000 / 1000;
     }
 
-    private static native double now() /*-{
-    return Date.now();
-  }-*/;
+    public float lap()
+    {
+        long now = clock.nanoTime();
+        float milliseconds = (float) (now - resetNanos) / 1000 / 1000;
+        resetNanos = now;
+        return milliseconds;
+    }
 }
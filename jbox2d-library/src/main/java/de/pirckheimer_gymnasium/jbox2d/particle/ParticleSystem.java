@@ -2700,12 +2700,13 @@ public class ParticleSystem
                         if (fixture.raycast(output, input, childIndex))
                         {
                             final Vec2 p = tempVec;
+                            final float slop = step.settings.linearSlop;
                             p.x = (1 - output.fraction) * input.p1.x
                                     + output.fraction * input.p2.x
-                                    + Settings.linearSlop * output.normal.x;
+                                    + slop * output.normal.x;
                             p.y = (1 - output.fraction) * input.p1.y
                                     + output.fraction * input.p2.y
-                                    + Settings.linearSlop * output.normal.y;
+                                    + slop * output.normal.y;
                             final float vx = step.inverseDt * (p.x - ap.x);
                             final float vy = step.inverseDt * (p.y - ap.y);
                             av.x = vx;
@@ -33,6 +33,8 @@ import de.pirckheimer_gymnasium.jbox2d.common.Rot;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
 import de.pirckheimer_gymnasium.jbox2d.common.Vec3;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.HeightfieldAndCircleContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.HeightfieldAndPolygonContact;
 
 /**
  * World pool interface
@@ -55,6 +57,45 @@ public interface WorldPool
 
     DynamicStack<Contact> getChainPolyContactStack();
 
+    /**
+     * The default allocates a new contact for every pop and drops the pushed
+     * ones, so that pools written before heightfields keep working.
+     */
+    default DynamicStack<Contact> getHeightfieldCircleContactStack()
+    {
+        final WorldPool pool = this;
+        return new DynamicStack<Contact>()
+        {
+            public Contact pop()
+            {
+                return new HeightfieldAndCircleContact(pool);
+            }
+
+            public void push(Contact contact)
+            {
+            }
+        };
+    }
+
+    /**
+     * See {@link #getHeightfieldCircleContactStack()}.
+     */
+    default DynamicStack<Contact> getHeightfieldPolyContactStack()
+    {
+        final WorldPool pool = this;
+        return new DynamicStack<Contact>()
+        {
+            public Contact pop()
+            {
+                return new HeightfieldAndPolygonContact(pool);
+            }
+
+            public void push(Contact contact)
+            {
+            }
+        };
+    }
+
     Vec2 popVec2();
 
     Vec2[] popVec2(int num);
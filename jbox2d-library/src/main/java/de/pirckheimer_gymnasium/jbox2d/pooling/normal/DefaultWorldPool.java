@@ -41,6 +41,8 @@ import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.CircleContact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.EdgeAndCircleContact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.EdgeAndPolygonContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.HeightfieldAndCircleContact;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.HeightfieldAndPolygonContact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.PolygonAndCircleContact;
 import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.PolygonContact;
 import de.pirckheimer_gymnasium.jbox2d.pooling.DynamicStack;
@@ -173,6 +175,34 @@ public class DefaultWorldPool implements WorldPool
         }
     };
 
+    private final MutableStack<Contact> hccstack = new MutableStack<>(
+            Settings.CONTACT_STACK_INIT_SIZE)
+    {
+        protected Contact newInstance()
+        {
+            return new HeightfieldAndCircleContact(world);
+        }
+
+        protected Contact[] newArray(int size)
+        {
+            return new HeightfieldAndCircleContact[size];
+        }
+    };
+
+    private final MutableStack<Contact> hcpstack = new MutableStack<>(
+            Settings.CONTACT_STACK_INIT_SIZE)
+    {
+        protected Contact newInstance()
+        {
+            return new HeightfieldAndPolygonContact(world);
+        }
+
+        protected Contact[] newArray(int size)
+        {
+            return new HeightfieldAndPolygonContact[size];
+        }
+    };
+
     private final Collision collision;
 
     private final TimeOfImpact toi;
@@ -267,6 +297,18 @@ public class DefaultWorldPool implements WorldPool
         return chpstack;
     }
 
+    @Override
+    public DynamicStack<Contact> getHeightfieldCircleContactStack()
+    {
+        return hccstack;
+    }
+
+    @Override
+    public DynamicStack<Contact> getHeightfieldPolyContactStack()
+    {
+        return hcpstack;
+    }
+
     public final Vec2 popVec2()
     {
         return vecs.pop();
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.profiling;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import de.pirckheimer_gymnasium.jbox2d.common.Clock;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.ProfileMode;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+
+/**
+ * A clock advanced by a daemon thread every few microseconds, so reading it
+ * is a plain field read instead of a call to {@link System#nanoTime()}.
+ *
+ * <p>
+ * A single short phase, such as the solver of a small island, mostly reads
+ * the same value twice and is timed as zero, or as a whole tick if a tick
+ * happens in between. The chance of the latter is proportional to its
+ * duration, so the times the phases of all islands accumulate in a step are
+ * right on average. This makes {@link ProfileMode#FULL} affordable for worlds
+ * with thousands of small islands. The clock costs one thread that wakes up
+ * once per tick, and can be shared by any number of worlds.
+ * </p>
+ *
+ * <pre>
+ * CoarseClock clock = new CoarseClock();
+ * world.setProfileClock(clock);
+ * ...
+ * world.setProfileClock(Clock.SYSTEM);
+ * clock.close();
+ * </pre>
+ *
+ * @see World#setProfileClock(Clock)
+ */
+public class CoarseClock implements Clock, AutoCloseable
+{
+    private final long tickNanos;
+
+    private final Thread ticker;
+
+    private volatile long now = System.nanoTime();
+
+    private volatile boolean running = true;
+
+    /**
+     * Create a clock that ticks every 50 microseconds.
+     */
+    public CoarseClock()
+    {
+        this(TimeUnit.MICROSECONDS.toNanos(50));
+    }
+
+    /**
+     * @param tickNanos The time between two ticks in nanoseconds.
+     */
+    public CoarseClock(long tickNanos)
+    {
+        if (tickNanos <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "tick must be positive: " + tickNanos);
+        }
+        this.tickNanos = tickNanos;
+        ticker = new Thread(this::tick, "jbox2d-coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private void tick()
+    {
+        while (running)
+        {
+            now = System.nanoTime();
+            LockSupport.parkNanos(this, tickNanos);
+        }
+    }
+
+    public long getTickNanos()
+    {
+        return tickNanos;
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return now;
+    }
+
+    /**
+     * Stop the thread that advances the clock. The clock keeps its last
+     * value afterwards.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+}
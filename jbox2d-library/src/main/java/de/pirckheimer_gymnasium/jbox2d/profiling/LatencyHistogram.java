@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.profiling;
+
+/**
+ * A fixed size histogram of non-negative long values (usually nanoseconds)
+ * with log-linear buckets, in the style of HdrHistogram. Values below
+ * {@code 2 * 2^subBucketBits} are counted exactly, larger values fall into
+ * buckets whose width is a power of two, so that the relative error of a
+ * reported value is at most {@code 2^-subBucketBits}. Recording is allocation
+ * free and constant time.
+ */
+public class LatencyHistogram
+{
+    private final int subBucketBits;
+
+    private final int subBucketCount;
+
+    private final long highestTrackableValue;
+
+    private final long[] counts;
+
+    private long totalCount;
+
+    private long sum;
+
+    private long min;
+
+    private long max;
+
+    /**
+     * Creates a histogram that tracks values up to one minute in nanoseconds
+     * with a relative error of about 1.5%.
+     */
+    public LatencyHistogram()
+    {
+        this(60L * 1000 * 1000 * 1000, 6);
+    }
+
+    /**
+     * @param highestTrackableValue Larger values are clamped to this value.
+     * @param subBucketBits The number of bits of precision kept for each
+     *     value, in the range [1, 16].
+     */
+    public LatencyHistogram(long highestTrackableValue, int subBucketBits)
+    {
+        assert (highestTrackableValue > 0);
+        assert (1 <= subBucketBits && subBucketBits <= 16);
+        this.highestTrackableValue = highestTrackableValue;
+        this.subBucketBits = subBucketBits;
+        subBucketCount = 1 << subBucketBits;
+        counts = new long[indexOf(highestTrackableValue) + 1];
+        reset();
+    }
+
+    private int indexOf(long value)
+    {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude <= subBucketBits)
+        {
+            return (int) value;
+        }
+        int shift = magnitude - subBucketBits;
+        return subBucketCount * shift + (int) (value >>> shift);
+    }
+
+    /**
+     * The highest value that falls into the same bucket as the bucket with the
+     * given index.
+     */
+    private long highestEquivalentValue(int index)
+    {
+        if (index < 2 * subBucketCount)
+        {
+            return index;
+        }
+        int shift = index / subBucketCount - 1;
+        long top = index - (long) subBucketCount * shift;
+        return (top << shift) + (1L << shift) - 1;
+    }
+
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+        else if (value > highestTrackableValue)
+        {
+            value = highestTrackableValue;
+        }
+        ++counts[indexOf(value)];
+        ++totalCount;
+        sum += value;
+        if (value < min)
+        {
+            min = value;
+        }
+        if (value > max)
+        {
+            max = value;
+        }
+    }
+
+    /**
+     * Add all values of another histogram with the same layout.
+     */
+    public void add(LatencyHistogram other)
+    {
+        assert (other.counts.length == counts.length);
+        for (int i = 0; i < counts.length; ++i)
+        {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < counts.length; ++i)
+        {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Get the value below which the given percentage of all recorded values
+     * fall, e.g. 99 for the p99.
+     *
+     * @param percentile In the range [0, 100].
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (totalCount == 0)
+        {
+            return 0;
+        }
+        long target = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (target < 1)
+        {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i)
+        {
+            seen += counts[i];
+            if (seen >= target)
+            {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    public long getMin()
+    {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    public double getMean()
+    {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("p50 %.3f p99 %.3f p99.9 %.3f max %.3f",
+                getValueAtPercentile(50) / 1e6, getValueAtPercentile(99) / 1e6,
+                getValueAtPercentile(99.9) / 1e6, max / 1e6);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.profiling;
+
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Profile;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Profile.ProfileEntry;
+
+/**
+ * The phases of a world step as they nest in {@link Profile}.
+ */
+public enum ProfilePhase
+{
+    STEP(null, "step"), STEP_INIT(STEP, "init"), COLLIDE(STEP, "collide"),
+    SOLVE_PARTICLE_SYSTEM(STEP, "particles"), SOLVE(STEP, "solve"),
+    SOLVE_INIT(SOLVE, "solveInit"), SOLVE_VELOCITY(SOLVE, "solveVelocity"),
+    SOLVE_POSITION(SOLVE, "solvePosition"), BROADPHASE(SOLVE, "broadphase"),
+    SOLVE_TOI(STEP, "solveTOI");
+
+    public final ProfilePhase parent;
+
+    public final String label;
+
+    /**
+     * The nesting depth, zero for the whole step.
+     */
+    public final int depth;
+
+    ProfilePhase(ProfilePhase parent, String label)
+    {
+        this.parent = parent;
+        this.label = label;
+        depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * Get the entry of the profile that times this phase.
+     */
+    public ProfileEntry entry(Profile profile)
+    {
+        switch (this)
+        {
+        case STEP:
+            return profile.step;
+
+        case STEP_INIT:
+            return profile.stepInit;
+
+        case COLLIDE:
+            return profile.collide;
+
+        case SOLVE_PARTICLE_SYSTEM:
+            return profile.solveParticleSystem;
+
+        case SOLVE:
+            return profile.solve;
+
+        case SOLVE_INIT:
+            return profile.solveInit;
+
+        case SOLVE_VELOCITY:
+            return profile.solveVelocity;
+
+        case SOLVE_POSITION:
+            return profile.solvePosition;
+
+        case BROADPHASE:
+            return profile.broadphase;
+
+        default:
+            return profile.solveTOI;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.profiling;
+
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Profile;
+
+/**
+ * The per-step counters of {@link Profile}.
+ */
+public enum StepCounter
+{
+    CONTACTS_CREATED("contactsCreated"),
+    CONTACTS_DESTROYED("contactsDestroyed"), ISLANDS("islands"),
+    TOI_COMPUTATIONS("toiComputations"), TOI_SUB_STEPS("toiSubSteps"),
+    MANIFOLDS_REUSED("manifoldsReused");
+
+    public final String label;
+
+    StepCounter(String label)
+    {
+        this.label = label;
+    }
+
+    /**
+     * Get the value of this counter for the most recent step.
+     */
+    public int value(Profile profile)
+    {
+        switch (this)
+        {
+        case CONTACTS_CREATED:
+            return profile.contactsCreated;
+
+        case CONTACTS_DESTROYED:
+            return profile.contactsDestroyed;
+
+        case ISLANDS:
+            return profile.islandCount;
+
+        case TOI_COMPUTATIONS:
+            return profile.toiComputationCount;
+
+        case TOI_SUB_STEPS:
+            return profile.toiSubStepCount;
+
+        default:
+            return profile.manifoldsReused;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.profiling;
+
+import java.util.List;
+
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Profile;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.ProfileListener;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+
+/**
+ * Collects a latency histogram for every {@link ProfilePhase} and totals for
+ * every {@link StepCounter} of a world, and optionally emits them as JDK Flight
+ * Recorder events ({@code jbox2d.Step} and {@code jbox2d.Phase}) that show up
+ * in JDK Mission Control.
+ *
+ * <p>
+ * The profiler reads the {@link Profile} the world fills in anyway, so it adds
+ * no timer calls of its own. A world without a profiler only pays for a null
+ * check per step.
+ * </p>
+ *
+ * <pre>
+ * StepProfiler profiler = new StepProfiler("match-42");
+ * profiler.setEmitEvents(true);
+ * world.setProfiler(profiler);
+ * ...
+ * long p99 = profiler.getHistogram(ProfilePhase.STEP).getValueAtPercentile(99);
+ * </pre>
+ */
+public class StepProfiler implements ProfileListener
+{
+    private static final ProfilePhase[] PHASES = ProfilePhase.values();
+
+    private static final StepCounter[] COUNTERS = StepCounter.values();
+
+    private final String name;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+
+    private final long[] counterTotals = new long[COUNTERS.length];
+
+    private final int[] counterMax = new int[COUNTERS.length];
+
+    private long stepCount;
+
+    private boolean emitEvents;
+
+    public StepProfiler()
+    {
+        this("world");
+    }
+
+    /**
+     * @param name Identifies the world in flight recorder events.
+     */
+    public StepProfiler(String name)
+    {
+        this.name = name;
+        for (int i = 0; i < histograms.length; ++i)
+        {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Enable or disable the emission of flight recorder events. Events are only
+     * committed while a recording with the events enabled is running.
+     */
+    public void setEmitEvents(boolean emitEvents)
+    {
+        this.emitEvents = emitEvents;
+    }
+
+    public boolean isEmitEvents()
+    {
+        return emitEvents;
+    }
+
+    /**
+     * Called by {@link World#step} with the profile of the step that just
+     * ended.
+     */
+    @Override
+    public void endStep(Profile profile)
+    {
+        for (int i = 0; i < PHASES.length; ++i)
+        {
+            float ms = PHASES[i].entry(profile).getLast();
+            if (ms >= 0)
+            {
+                histograms[i].record((long) (ms * 1e6f));
+            }
+        }
+        for (int i = 0; i < COUNTERS.length; ++i)
+        {
+            int value = COUNTERS[i].value(profile);
+            counterTotals[i] += value;
+            if (value > counterMax[i])
+            {
+                counterMax[i] = value;
+            }
+        }
+        if (emitEvents)
+        {
+            emitEvents(profile);
+        }
+        ++stepCount;
+    }
+
+    private void emitEvents(Profile profile)
+    {
+        StepEvent stepEvent = new StepEvent();
+        if (stepEvent.shouldCommit())
+        {
+            stepEvent.world = name;
+            stepEvent.step = stepCount;
+            stepEvent.stepDuration = (long) (profile.step.getLast() * 1e6f);
+            stepEvent.contactsCreated = profile.contactsCreated;
+            stepEvent.contactsDestroyed = profile.contactsDestroyed;
+            stepEvent.islandCount = profile.islandCount;
+            stepEvent.toiComputationCount = profile.toiComputationCount;
+            stepEvent.toiSubStepCount = profile.toiSubStepCount;
+            stepEvent.manifoldsReused = profile.manifoldsReused;
+            stepEvent.commit();
+        }
+        for (int i = 1; i < PHASES.length; ++i)
+        {
+            float ms = PHASES[i].entry(profile).getLast();
+            if (ms < 0)
+            {
+                continue;
+            }
+            PhaseEvent phaseEvent = new PhaseEvent();
+            if (!phaseEvent.shouldCommit())
+            {
+                return;
+            }
+            phaseEvent.phase = PHASES[i].label;
+            phaseEvent.parent = PHASES[i].parent.label;
+            phaseEvent.step = stepCount;
+            phaseEvent.phaseDuration = (long) (ms * 1e6f);
+            phaseEvent.commit();
+        }
+    }
+
+    /**
+     * Get the histogram of a phase in nanoseconds.
+     */
+    public LatencyHistogram getHistogram(ProfilePhase phase)
+    {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * Get the sum of a counter over all profiled steps.
+     */
+    public long getCounterTotal(StepCounter counter)
+    {
+        return counterTotals[counter.ordinal()];
+    }
+
+    /**
+     * Get the largest value of a counter in a single step.
+     */
+    public int getCounterMax(StepCounter counter)
+    {
+        return counterMax[counter.ordinal()];
+    }
+
+    public long getStepCount()
+    {
+        return stepCount;
+    }
+
+    public void reset()
+    {
+        for (LatencyHistogram histogram : histograms)
+        {
+            histogram.reset();
+        }
+        for (int i = 0; i < COUNTERS.length; ++i)
+        {
+            counterTotals[i] = 0;
+            counterMax[i] = 0;
+        }
+        stepCount = 0;
+    }
+
+    public void toDebugStrings(List<String> strings)
+    {
+        strings.add("Step profiler (ms):");
+        for (ProfilePhase phase : PHASES)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i <= phase.depth; ++i)
+            {
+                sb.append(' ');
+            }
+            strings.add(sb.append(phase.label).append(": ")
+                    .append(histograms[phase.ordinal()]).toString());
+        }
+        for (StepCounter counter : COUNTERS)
+        {
+            strings.add(" " + counter.label + ": "
+                    + getCounterTotal(counter) + " [max "
+                    + getCounterMax(counter) + "]");
+        }
+    }
+}
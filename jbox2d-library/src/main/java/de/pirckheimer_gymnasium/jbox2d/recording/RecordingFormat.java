@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.recording;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ChainShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.EdgeShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ShapeType;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Filter;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.FixtureDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+
+/**
+ * Binary layout shared by {@link WorldRecorder} and {@link WorldReplayer}.
+ *
+ * <p>
+ * A log starts with {@link #MAGIC}, {@link #VERSION}, the gravity, the
+ * {@link WorldSettings} and the modes of the world (sleeping, warm starting,
+ * continuous physics, sub-stepping, auto clear forces, speculative contacts,
+ * TOI batching, contact arrays, batched narrow-phase, manifold caching,
+ * chain proxies, contact events and sensor overlaps), the manifold cache
+ * tolerances and the layer matrix. It is followed by a sequence of records, each one an opcode
+ * byte and a fixed payload. Bodies and fixtures are referenced by ids that the
+ * recorder hands out in creation order. The step number is stored in every
+ * {@link #STEP} record, which is written when the step ends. All other
+ * records belong to the step that follows them.
+ * </p>
+ */
+final class RecordingFormat
+{
+    static final int MAGIC = 0x4A423252; // "JB2R"
+
+    static final int VERSION = 3;
+
+    static final byte STEP = 1;
+
+    static final byte SET_GRAVITY = 2;
+
+    static final byte CREATE_BODY = 3;
+
+    static final byte DESTROY_BODY = 4;
+
+    static final byte CREATE_FIXTURE = 5;
+
+    static final byte DESTROY_FIXTURE = 6;
+
+    static final byte SET_TRANSFORM = 7;
+
+    static final byte SET_LINEAR_VELOCITY = 8;
+
+    static final byte SET_ANGULAR_VELOCITY = 9;
+
+    static final byte APPLY_FORCE = 10;
+
+    static final byte APPLY_FORCE_TO_CENTER = 11;
+
+    static final byte APPLY_TORQUE = 12;
+
+    static final byte APPLY_LINEAR_IMPULSE = 13;
+
+    static final byte APPLY_ANGULAR_IMPULSE = 14;
+
+    static final byte SET_TYPE = 15;
+
+    static final byte SET_AWAKE = 16;
+
+    static final byte SET_ACTIVE = 17;
+
+    static final byte SET_BULLET = 18;
+
+    static final byte SET_HEIGHT = 19;
+
+    static final byte UPDATE_SHAPE = 20;
+
+    /**
+     * A change the log cannot express, followed by a description. Replaying
+     * it fails instead of silently diverging from the recorded session.
+     */
+    static final byte UNRECORDED = 21;
+
+    static final byte SET_MASS_DATA = 22;
+
+    static final byte RESET_MASS_DATA = 23;
+
+    static final byte SET_FIXED_ROTATION = 24;
+
+    static final byte SET_SLEEPING_ALLOWED = 25;
+
+    static final byte SET_LINEAR_DAMPING = 26;
+
+    static final byte SET_ANGULAR_DAMPING = 27;
+
+    static final byte SET_GRAVITY_SCALE = 28;
+
+    static final byte SET_FILTER_DATA = 29;
+
+    static final byte SET_SENSOR = 30;
+
+    static final byte SET_DENSITY = 31;
+
+    static final byte SET_FRICTION = 32;
+
+    static final byte SET_RESTITUTION = 33;
+
+    static final byte SET_ALLOW_SLEEP = 34;
+
+    static final byte SET_WORLD_SLEEPING_ALLOWED = 35;
+
+    static final byte SET_WARM_STARTING = 36;
+
+    static final byte SET_CONTINUOUS_PHYSICS = 37;
+
+    static final byte SET_SUB_STEPPING = 38;
+
+    static final byte SET_AUTO_CLEAR_FORCES = 39;
+
+    static final byte CLEAR_FORCES = 40;
+
+    static final byte SET_LAYER_COLLISION = 41;
+
+    static final byte SET_SPECULATIVE_CONTACTS = 42;
+
+    static final byte SET_TOI_BATCHING = 43;
+
+    static final byte SET_CONTACT_ARRAYS = 44;
+
+    static final byte SET_BATCHED_NARROW_PHASE = 45;
+
+    static final byte SET_MANIFOLD_CACHING = 46;
+
+    static final byte SET_CHAIN_PROXIES = 47;
+
+    static final byte SET_CONTACT_EVENTS = 48;
+
+    static final byte SET_SENSOR_OVERLAPS = 49;
+
+    static final byte SET_MANIFOLD_CACHE_TOLERANCE = 50;
+
+    /**
+     * The number of collision layers, see
+     * {@link de.pirckheimer_gymnasium.jbox2d.dynamics.Filter#layer}.
+     */
+    static final int LAYER_COUNT = 32;
+
+    private RecordingFormat()
+    {
+    }
+
+    static void writeVec2(DataOutputStream out, Vec2 v) throws IOException
+    {
+        out.writeFloat(v.x);
+        out.writeFloat(v.y);
+    }
+
+    static void readVec2(DataInputStream in, Vec2 out) throws IOException
+    {
+        out.x = in.readFloat();
+        out.y = in.readFloat();
+    }
+
+    static void writeSettings(DataOutputStream out, WorldSettings settings)
+            throws IOException
+    {
+        out.writeFloat(settings.aabbExtension);
+        out.writeFloat(settings.aabbMultiplier);
+        out.writeFloat(settings.linearSlop);
+        out.writeFloat(settings.angularSlop);
+        out.writeInt(settings.maxSubSteps);
+        out.writeFloat(settings.speculativeDistance);
+        out.writeInt(settings.maxTOIContacts);
+        out.writeFloat(settings.velocityThreshold);
+        out.writeFloat(settings.maxLinearCorrection);
+        out.writeFloat(settings.maxAngularCorrection);
+        out.writeFloat(settings.maxTranslation);
+        out.writeFloat(settings.maxRotation);
+        out.writeFloat(settings.baumgarte);
+        out.writeFloat(settings.toiBaugarte);
+        out.writeFloat(settings.timeToSleep);
+        out.writeFloat(settings.linearSleepTolerance);
+        out.writeFloat(settings.angularSleepTolerance);
+    }
+
+    static WorldSettings readSettings(DataInputStream in) throws IOException
+    {
+        WorldSettings settings = new WorldSettings();
+        settings.aabbExtension = in.readFloat();
+        settings.aabbMultiplier = in.readFloat();
+        settings.linearSlop = in.readFloat();
+        settings.angularSlop = in.readFloat();
+        settings.maxSubSteps = in.readInt();
+        settings.speculativeDistance = in.readFloat();
+        settings.maxTOIContacts = in.readInt();
+        settings.velocityThreshold = in.readFloat();
+        settings.maxLinearCorrection = in.readFloat();
+        settings.maxAngularCorrection = in.readFloat();
+        settings.maxTranslation = in.readFloat();
+        settings.maxRotation = in.readFloat();
+        settings.baumgarte = in.readFloat();
+        settings.toiBaugarte = in.readFloat();
+        settings.timeToSleep = in.readFloat();
+        settings.linearSleepTolerance = in.readFloat();
+        settings.angularSleepTolerance = in.readFloat();
+        return settings;
+    }
+
+    /**
+     * Write the layer matrix of a world as one mask per layer.
+     */
+    static void writeLayers(DataOutputStream out, World world)
+            throws IOException
+    {
+        for (int a = 0; a < LAYER_COUNT; a++)
+        {
+            int mask = 0;
+            for (int b = 0; b < LAYER_COUNT; b++)
+            {
+                mask |= world.getLayerCollision(a, b) ? 1 << b : 0;
+            }
+            out.writeInt(mask);
+        }
+    }
+
+    /**
+     * Read a layer matrix into a world whose layers all collide.
+     */
+    static void readLayers(DataInputStream in, World world) throws IOException
+    {
+        int[] masks = new int[LAYER_COUNT];
+        for (int a = 0; a < LAYER_COUNT; a++)
+        {
+            masks[a] = in.readInt();
+        }
+        for (int a = 0; a < LAYER_COUNT; a++)
+        {
+            for (int b = a; b < LAYER_COUNT; b++)
+            {
+                if ((masks[a] & 1 << b) == 0)
+                {
+                    world.setLayerCollision(a, b, false);
+                }
+            }
+        }
+    }
+
+    static void writeBodyDef(DataOutputStream out, BodyDef def)
+            throws IOException
+    {
+        out.writeByte(def.type.ordinal());
+        writeVec2(out, def.position);
+        out.writeFloat(def.angle);
+        writeVec2(out, def.linearVelocity);
+        out.writeFloat(def.angularVelocity);
+        out.writeFloat(def.linearDamping);
+        out.writeFloat(def.angularDamping);
+        out.writeFloat(def.gravityScale);
+        int flags = 0;
+        flags |= def.allowSleep ? 0x01 : 0;
+        flags |= def.awake ? 0x02 : 0;
+        flags |= def.fixedRotation ? 0x04 : 0;
+        flags |= def.bullet ? 0x08 : 0;
+        flags |= def.active ? 0x10 : 0;
+        flags |= def.compound ? 0x20 : 0;
+        out.writeByte(flags);
+    }
+
+    static BodyDef readBodyDef(DataInputStream in) throws IOException
+    {
+        BodyDef def = new BodyDef();
+        def.type = BodyType.values()[in.readUnsignedByte()];
+        readVec2(in, def.position);
+        def.angle = in.readFloat();
+        readVec2(in, def.linearVelocity);
+        def.angularVelocity = in.readFloat();
+        def.linearDamping = in.readFloat();
+        def.angularDamping = in.readFloat();
+        def.gravityScale = in.readFloat();
+        int flags = in.readUnsignedByte();
+        def.allowSleep = (flags & 0x01) != 0;
+        def.awake = (flags & 0x02) != 0;
+        def.fixedRotation = (flags & 0x04) != 0;
+        def.bullet = (flags & 0x08) != 0;
+        def.active = (flags & 0x10) != 0;
+        def.compound = (flags & 0x20) != 0;
+        return def;
+    }
+
+    static void writeFixtureDef(DataOutputStream out, FixtureDef def)
+            throws IOException
+    {
+        writeShape(out, def.shape);
+        out.writeFloat(def.friction);
+        out.writeFloat(def.restitution);
+        out.writeFloat(def.density);
+        out.writeBoolean(def.isSensor);
+        writeFilter(out, def.filter);
+    }
+
+    static FixtureDef readFixtureDef(DataInputStream in) throws IOException
+    {
+        FixtureDef def = new FixtureDef();
+        def.shape = readShape(in);
+        def.friction = in.readFloat();
+        def.restitution = in.readFloat();
+        def.density = in.readFloat();
+        def.isSensor = in.readBoolean();
+        readFilter(in, def.filter);
+        return def;
+    }
+
+    static void writeFilter(DataOutputStream out, Filter filter)
+            throws IOException
+    {
+        out.writeInt(filter.categoryBits);
+        out.writeInt(filter.maskBits);
+        out.writeInt(filter.groupIndex);
+        out.writeInt(filter.layer);
+    }
+
+    static void readFilter(DataInputStream in, Filter out) throws IOException
+    {
+        out.categoryBits = in.readInt();
+        out.maskBits = in.readInt();
+        out.groupIndex = in.readInt();
+        out.layer = in.readInt();
+    }
+
+    /**
+     * Shapes are written field by field instead of through their factory
+     * methods, so that polygons keep their exact vertex order and the replayed
+     * world evaluates the same contacts.
+     */
+    static void writeShape(DataOutputStream out, Shape shape)
+            throws IOException
+    {
+        out.writeByte(shape.getType().ordinal());
+        out.writeFloat(shape.radius);
+        switch (shape.getType())
+        {
+        case CIRCLE:
+            writeVec2(out, ((CircleShape) shape).p);
+            break;
+
+        case POLYGON:
+        {
+            PolygonShape poly = (PolygonShape) shape;
+            out.writeByte(poly.count);
+            writeVec2(out, poly.centroid);
+            for (int i = 0; i < poly.count; i++)
+            {
+                writeVec2(out, poly.vertices[i]);
+                writeVec2(out, poly.normals[i]);
+            }
+        }
+            break;
+
+        case EDGE:
+        {
+            EdgeShape edge = (EdgeShape) shape;
+            writeVec2(out, edge.vertex0);
+            writeVec2(out, edge.vertex1);
+            writeVec2(out, edge.vertex2);
+            writeVec2(out, edge.vertex3);
+            out.writeBoolean(edge.hasVertex0);
+            out.writeBoolean(edge.hasVertex3);
+        }
+            break;
+
+        case CHAIN:
+        {
+            ChainShape chain = (ChainShape) shape;
+            out.writeInt(chain.count);
+            for (int i = 0; i < chain.count; i++)
+            {
+                writeVec2(out, chain.vertices[i]);
+            }
+            writeVec2(out, chain.prevVertex);
+            writeVec2(out, chain.nextVertex);
+            out.writeBoolean(chain.hasPrevVertex);
+            out.writeBoolean(chain.hasNextVertex);
+        }
+            break;
+
+        case HEIGHTFIELD:
+        {
+            HeightfieldShape heightfield = (HeightfieldShape) shape;
+            out.writeInt(heightfield.count);
+            out.writeFloat(heightfield.spacing);
+            out.writeFloat(heightfield.minHeight);
+            out.writeFloat(heightfield.maxHeight);
+            for (int i = 0; i < heightfield.count; i++)
+            {
+                out.writeFloat(heightfield.heights[i]);
+            }
+        }
+            break;
+        }
+    }
+
+    static Shape readShape(DataInputStream in) throws IOException
+    {
+        ShapeType type = ShapeType.values()[in.readUnsignedByte()];
+        float radius = in.readFloat();
+        Shape shape;
+        switch (type)
+        {
+        case CIRCLE:
+        {
+            CircleShape circle = new CircleShape();
+            readVec2(in, circle.p);
+            shape = circle;
+        }
+            break;
+
+        case POLYGON:
+        {
+            PolygonShape poly = new PolygonShape();
+            poly.count = in.readUnsignedByte();
+            readVec2(in, poly.centroid);
+            for (int i = 0; i < poly.count; i++)
+            {
+                readVec2(in, poly.vertices[i]);
+                readVec2(in, poly.normals[i]);
+            }
+            shape = poly;
+        }
+            break;
+
+        case EDGE:
+        {
+            EdgeShape edge = new EdgeShape();
+            readVec2(in, edge.vertex0);
+            readVec2(in, edge.vertex1);
+            readVec2(in, edge.vertex2);
+            readVec2(in, edge.vertex3);
+            edge.hasVertex0 = in.readBoolean();
+            edge.hasVertex3 = in.readBoolean();
+            shape = edge;
+        }
+            break;
+
+        case HEIGHTFIELD:
+        {
+            HeightfieldShape heightfield = new HeightfieldShape();
+            heightfield.count = in.readInt();
+            heightfield.spacing = in.readFloat();
+            heightfield.minHeight = in.readFloat();
+            heightfield.maxHeight = in.readFloat();
+            heightfield.heights = new float[heightfield.count];
+            for (int i = 0; i < heightfield.count; i++)
+            {
+                heightfield.heights[i] = in.readFloat();
+            }
+            shape = heightfield;
+        }
+            break;
+
+        default:
+        {
+            ChainShape chain = new ChainShape();
+            chain.count = in.readInt();
+            chain.vertices = new Vec2[chain.count];
+            for (int i = 0; i < chain.count; i++)
+            {
+                chain.vertices[i] = new Vec2();
+                readVec2(in, chain.vertices[i]);
+            }
+            readVec2(in, chain.prevVertex);
+            readVec2(in, chain.nextVertex);
+            chain.hasPrevVertex = in.readBoolean();
+            chain.hasNextVertex = in.readBoolean();
+            shape = chain;
+        }
+            break;
+        }
+        shape.radius = radius;
+        return shape;
+    }
+}
@@ -0,0 +1,943 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.recording;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.IdentityHashMap;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.MassData;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ShapeType;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Filter;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.FixtureDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.RecordingListener;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.joints.Joint;
+
+/**
+ * Records every mutating call on a {@link World} and its bodies into a compact
+ * binary log, so that a session can be re-executed headlessly with
+ * {@link WorldReplayer}.
+ *
+ * <p>
+ * Recording can start on a world that is already populated: {@link #start}
+ * writes the current bodies and fixtures as if they had just been created.
+ * Calls from callbacks during a step are replayed on the same side of the
+ * solver: calls from before the solver runs, such as begin contact and
+ * pre-solve, are replayed before the step, later ones after it. Forces applied
+ * after the solver started are cleared by the step, so only the wake up of
+ * their body is recorded. Velocities and impulses set from post-solve or from
+ * the callbacks of the continuous phase miss the sleep checks and the time of
+ * impact sub-steps of the replayed step, so the replay may drift from the
+ * session when they are used. Waking bodies or putting them to sleep from
+ * callbacks is not recorded.
+ * </p>
+ *
+ * <p>
+ * User data and listeners are not recorded. Joints and in-place changes of
+ * shapes other than heightfield heights are not recorded either, a replay
+ * fails when it reaches them.
+ * </p>
+ *
+ * <pre>
+ * WorldRecorder recorder = new WorldRecorder(new FileOutputStream("session.jb2r"));
+ * recorder.start(world);
+ * ...
+ * recorder.close();
+ * </pre>
+ */
+public class WorldRecorder implements Closeable, RecordingListener
+{
+    private final DataOutputStream log;
+
+    /**
+     * The log, or the deferred records while the solver runs.
+     */
+    private DataOutputStream out;
+
+    private final ByteArrayOutputStream deferredBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream deferred = new DataOutputStream(
+            deferredBytes);
+
+    private boolean solving;
+
+    private float dt;
+
+    private int velocityIterations;
+
+    private int positionIterations;
+
+    private final IdentityHashMap<Body, Integer> bodyIds = new IdentityHashMap<>();
+
+    private final IdentityHashMap<Fixture, Integer> fixtureIds = new IdentityHashMap<>();
+
+    /**
+     * The heights of the heightfield fixtures as last written, to find the
+     * columns changed in place.
+     */
+    private final IdentityHashMap<Fixture, float[]> heights = new IdentityHashMap<>();
+
+    private int nextBodyId;
+
+    private int nextFixtureId;
+
+    private int stepCount;
+
+    private World world;
+
+    private final BodyDef bodyDef = new BodyDef();
+
+    private final FixtureDef fixtureDef = new FixtureDef();
+
+    public WorldRecorder(OutputStream out)
+    {
+        log = new DataOutputStream(new BufferedOutputStream(out));
+        this.out = log;
+    }
+
+    /**
+     * Write the log header and a snapshot of the world, then attach this
+     * recorder to it.
+     */
+    public void start(World world)
+    {
+        assert (this.world == null);
+        assert (!world.isLocked());
+        this.world = world;
+        try
+        {
+            out.writeInt(RecordingFormat.MAGIC);
+            out.writeInt(RecordingFormat.VERSION);
+            RecordingFormat.writeVec2(out, world.getGravity());
+            RecordingFormat.writeSettings(out, world.getSettings());
+            out.writeBoolean(world.isSleepingAllowed());
+            out.writeBoolean(world.isWarmStarting());
+            out.writeBoolean(world.isContinuousPhysics());
+            out.writeBoolean(world.isSubStepping());
+            out.writeBoolean(world.getAutoClearForces());
+            out.writeBoolean(world.isSpeculativeContacts());
+            out.writeBoolean(world.isTOIBatching());
+            out.writeBoolean(world.isContactArrays());
+            out.writeBoolean(world.isBatchedNarrowPhase());
+            out.writeBoolean(world.isManifoldCaching());
+            out.writeBoolean(world.isChainProxies());
+            out.writeBoolean(world.getContactEvents() != null);
+            out.writeBoolean(world.getSensorOverlaps() != null);
+            out.writeFloat(world.getManifoldLinearTolerance());
+            out.writeFloat(world.getManifoldAngularTolerance());
+            RecordingFormat.writeLayers(out, world);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        // The body list is in reverse creation order, replay it oldest first.
+        Body last = world.getBodyList();
+        while (last != null && last.getNext() != null)
+        {
+            last = last.getNext();
+        }
+        for (Body b = last; b != null; b = b.prev)
+        {
+            snapshot(b);
+        }
+        if (world.getJointCount() > 0)
+        {
+            unrecorded("A joint");
+        }
+        world.setRecorder(this);
+    }
+
+    /**
+     * Detach from the world and flush the log. The underlying stream is closed
+     * as well.
+     */
+    @Override
+    public void close()
+    {
+        if (world != null)
+        {
+            world.setRecorder(null);
+            world = null;
+        }
+        try
+        {
+            log.close();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get the number of steps recorded so far.
+     */
+    public int getStepCount()
+    {
+        return stepCount;
+    }
+
+    private void snapshot(Body b)
+    {
+        bodyDef.type = b.getType();
+        bodyDef.position.set(b.getPosition());
+        bodyDef.angle = b.getAngle();
+        bodyDef.linearVelocity.set(b.getLinearVelocity());
+        bodyDef.angularVelocity = b.getAngularVelocity();
+        bodyDef.linearDamping = b.getLinearDamping();
+        bodyDef.angularDamping = b.getAngularDamping();
+        bodyDef.gravityScale = b.getGravityScale();
+        bodyDef.allowSleep = b.isSleepingAllowed();
+        bodyDef.awake = b.isAwake();
+        bodyDef.fixedRotation = b.isFixedRotation();
+        bodyDef.bullet = b.isBullet();
+        bodyDef.active = b.isActive();
+        bodyDef.compound = b.isCompound();
+        createBody(b, bodyDef);
+        // Fixtures are also stored newest first.
+        Fixture last = b.getFixtureList();
+        while (last != null && last.getNext() != null)
+        {
+            last = last.getNext();
+        }
+        for (Fixture f = last; f != null; f = previous(b, f))
+        {
+            fixtureDef.shape = f.getShape();
+            fixtureDef.friction = f.getFriction();
+            fixtureDef.restitution = f.getRestitution();
+            fixtureDef.density = f.getDensity();
+            fixtureDef.isSensor = f.isSensor();
+            fixtureDef.filter.set(f.getFilterData());
+            createFixture(f, fixtureDef);
+        }
+        fixtureDef.shape = null;
+    }
+
+    private static Fixture previous(Body b, Fixture f)
+    {
+        Fixture prev = null;
+        for (Fixture it = b.getFixtureList(); it != f; it = it.getNext())
+        {
+            prev = it;
+        }
+        return prev;
+    }
+
+    private int bodyId(Body body)
+    {
+        Integer id = bodyIds.get(body);
+        return id == null ? -1 : id;
+    }
+
+    private void header(byte op, Body body) throws IOException
+    {
+        out.writeByte(op);
+        out.writeInt(bodyId(body));
+    }
+
+    /**
+     * The world starts a step. The step record is written when it ends, so
+     * that the records from the callbacks before the solver precede it.
+     */
+    @Override
+    public void step(float dt, int velocityIterations, int positionIterations)
+    {
+        this.dt = dt;
+        this.velocityIterations = velocityIterations;
+        this.positionIterations = positionIterations;
+    }
+
+    /**
+     * The solver of the current step starts. Records up to the end of the
+     * step are deferred until after the step record.
+     */
+    @Override
+    public void beginSolve()
+    {
+        solving = true;
+        out = deferred;
+    }
+
+    @Override
+    public void endStep()
+    {
+        solving = false;
+        out = log;
+        try
+        {
+            out.writeByte(RecordingFormat.STEP);
+            out.writeInt(stepCount++);
+            out.writeFloat(dt);
+            out.writeShort(velocityIterations);
+            out.writeShort(positionIterations);
+            deferredBytes.writeTo(out);
+            deferredBytes.reset();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Forces applied after the solver started are cleared by the step, the
+     * replay only needs them to wake the body.
+     *
+     * @return Whether the force is cleared by the step.
+     */
+    private boolean clearedByStep(Body body)
+    {
+        if (!solving || !world.getAutoClearForces())
+        {
+            return false;
+        }
+        if (body.getType() == BodyType.DYNAMIC && !body.isAwake())
+        {
+            writeFlag(RecordingFormat.SET_AWAKE, body, true);
+        }
+        return true;
+    }
+
+    @Override
+    public void setGravity(Vec2 gravity)
+    {
+        try
+        {
+            out.writeByte(RecordingFormat.SET_GRAVITY);
+            RecordingFormat.writeVec2(out, gravity);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void createBody(Body body, BodyDef def)
+    {
+        int id = nextBodyId++;
+        bodyIds.put(body, id);
+        try
+        {
+            out.writeByte(RecordingFormat.CREATE_BODY);
+            out.writeInt(id);
+            RecordingFormat.writeBodyDef(out, def);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void destroyBody(Body body)
+    {
+        try
+        {
+            header(RecordingFormat.DESTROY_BODY, body);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        bodyIds.remove(body);
+        for (Fixture f = body.getFixtureList(); f != null; f = f.getNext())
+        {
+            fixtureIds.remove(f);
+            heights.remove(f);
+        }
+    }
+
+    @Override
+    public void createFixture(Fixture fixture, FixtureDef def)
+    {
+        int id = nextFixtureId++;
+        fixtureIds.put(fixture, id);
+        if (fixture.getType() == ShapeType.HEIGHTFIELD)
+        {
+            HeightfieldShape shape = (HeightfieldShape) fixture.getShape();
+            heights.put(fixture, shape.heights.clone());
+        }
+        try
+        {
+            header(RecordingFormat.CREATE_FIXTURE, fixture.getBody());
+            out.writeInt(id);
+            RecordingFormat.writeFixtureDef(out, def);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void destroyFixture(Fixture fixture)
+    {
+        Integer id = fixtureIds.remove(fixture);
+        heights.remove(fixture);
+        try
+        {
+            out.writeByte(RecordingFormat.DESTROY_FIXTURE);
+            out.writeInt(id == null ? -1 : id);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the heights of a heightfield that changed since they were last
+     * written. In-place changes of other shapes cannot be recorded.
+     */
+    @Override
+    public void updateShape(Fixture fixture)
+    {
+        float[] recorded = heights.get(fixture);
+        if (recorded == null)
+        {
+            unrecorded("An in-place change of a " + fixture.getType()
+                    + " shape");
+            return;
+        }
+        HeightfieldShape shape = (HeightfieldShape) fixture.getShape();
+        if (shape.count != recorded.length)
+        {
+            unrecorded("A heightfield resized in place");
+            return;
+        }
+        int id = fixtureIds.get(fixture);
+        try
+        {
+            for (int i = 0; i < recorded.length; i++)
+            {
+                float height = shape.heights[i];
+                if (Float.floatToIntBits(height) != Float
+                        .floatToIntBits(recorded[i]))
+                {
+                    out.writeByte(RecordingFormat.SET_HEIGHT);
+                    out.writeInt(id);
+                    out.writeInt(i);
+                    out.writeFloat(height);
+                    recorded[i] = height;
+                }
+            }
+            out.writeByte(RecordingFormat.UPDATE_SHAPE);
+            out.writeInt(id);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write a change that the log cannot express, so that a replay fails
+     * there instead of diverging.
+     */
+    private void unrecorded(String what)
+    {
+        try
+        {
+            out.writeByte(RecordingFormat.UNRECORDED);
+            out.writeUTF(what);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setTransform(Body body, Vec2 position, float angle)
+    {
+        try
+        {
+            header(RecordingFormat.SET_TRANSFORM, body);
+            RecordingFormat.writeVec2(out, position);
+            out.writeFloat(angle);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setLinearVelocity(Body body, Vec2 v)
+    {
+        try
+        {
+            header(RecordingFormat.SET_LINEAR_VELOCITY, body);
+            RecordingFormat.writeVec2(out, v);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setAngularVelocity(Body body, float w)
+    {
+        try
+        {
+            header(RecordingFormat.SET_ANGULAR_VELOCITY, body);
+            out.writeFloat(w);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void applyForce(Body body, Vec2 force, Vec2 point)
+    {
+        if (clearedByStep(body))
+        {
+            return;
+        }
+        try
+        {
+            header(RecordingFormat.APPLY_FORCE, body);
+            RecordingFormat.writeVec2(out, force);
+            RecordingFormat.writeVec2(out, point);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void applyForceToCenter(Body body, Vec2 force)
+    {
+        if (clearedByStep(body))
+        {
+            return;
+        }
+        try
+        {
+            header(RecordingFormat.APPLY_FORCE_TO_CENTER, body);
+            RecordingFormat.writeVec2(out, force);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void applyTorque(Body body, float torque)
+    {
+        if (clearedByStep(body))
+        {
+            return;
+        }
+        try
+        {
+            header(RecordingFormat.APPLY_TORQUE, body);
+            out.writeFloat(torque);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void applyLinearImpulse(Body body, Vec2 impulse, Vec2 point,
+            boolean wake)
+    {
+        try
+        {
+            header(RecordingFormat.APPLY_LINEAR_IMPULSE, body);
+            RecordingFormat.writeVec2(out, impulse);
+            RecordingFormat.writeVec2(out, point);
+            out.writeBoolean(wake);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void applyAngularImpulse(Body body, float impulse)
+    {
+        try
+        {
+            header(RecordingFormat.APPLY_ANGULAR_IMPULSE, body);
+            out.writeFloat(impulse);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setType(Body body, BodyType type)
+    {
+        try
+        {
+            header(RecordingFormat.SET_TYPE, body);
+            out.writeByte(type.ordinal());
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setAwake(Body body, boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_AWAKE, body, flag);
+    }
+
+    @Override
+    public void setActive(Body body, boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_ACTIVE, body, flag);
+    }
+
+    @Override
+    public void setBullet(Body body, boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_BULLET, body, flag);
+    }
+
+    @Override
+    public void setMassData(Body body, MassData massData)
+    {
+        try
+        {
+            header(RecordingFormat.SET_MASS_DATA, body);
+            out.writeFloat(massData.mass);
+            RecordingFormat.writeVec2(out, massData.center);
+            out.writeFloat(massData.I);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void resetMassData(Body body)
+    {
+        try
+        {
+            header(RecordingFormat.RESET_MASS_DATA, body);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setFixedRotation(Body body, boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_FIXED_ROTATION, body, flag);
+    }
+
+    @Override
+    public void setSleepingAllowed(Body body, boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_SLEEPING_ALLOWED, body, flag);
+    }
+
+    @Override
+    public void setLinearDamping(Body body, float linearDamping)
+    {
+        writeFloat(RecordingFormat.SET_LINEAR_DAMPING, body, linearDamping);
+    }
+
+    @Override
+    public void setAngularDamping(Body body, float angularDamping)
+    {
+        writeFloat(RecordingFormat.SET_ANGULAR_DAMPING, body, angularDamping);
+    }
+
+    @Override
+    public void setGravityScale(Body body, float gravityScale)
+    {
+        writeFloat(RecordingFormat.SET_GRAVITY_SCALE, body, gravityScale);
+    }
+
+    @Override
+    public void setFilterData(Fixture fixture, Filter filter)
+    {
+        try
+        {
+            fixtureHeader(RecordingFormat.SET_FILTER_DATA, fixture);
+            RecordingFormat.writeFilter(out, filter);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setSensor(Fixture fixture, boolean sensor)
+    {
+        try
+        {
+            fixtureHeader(RecordingFormat.SET_SENSOR, fixture);
+            out.writeBoolean(sensor);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setDensity(Fixture fixture, float density)
+    {
+        writeFloat(RecordingFormat.SET_DENSITY, fixture, density);
+    }
+
+    @Override
+    public void setFriction(Fixture fixture, float friction)
+    {
+        writeFloat(RecordingFormat.SET_FRICTION, fixture, friction);
+    }
+
+    @Override
+    public void setRestitution(Fixture fixture, float restitution)
+    {
+        writeFloat(RecordingFormat.SET_RESTITUTION, fixture, restitution);
+    }
+
+    @Override
+    public void setAllowSleep(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_ALLOW_SLEEP, flag);
+    }
+
+    @Override
+    public void setSleepingAllowed(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_WORLD_SLEEPING_ALLOWED, flag);
+    }
+
+    @Override
+    public void setWarmStarting(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_WARM_STARTING, flag);
+    }
+
+    @Override
+    public void setContinuousPhysics(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_CONTINUOUS_PHYSICS, flag);
+    }
+
+    @Override
+    public void setSubStepping(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_SUB_STEPPING, flag);
+    }
+
+    @Override
+    public void setAutoClearForces(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_AUTO_CLEAR_FORCES, flag);
+    }
+
+    @Override
+    public void setSpeculativeContacts(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_SPECULATIVE_CONTACTS, flag);
+    }
+
+    @Override
+    public void setTOIBatching(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_TOI_BATCHING, flag);
+    }
+
+    @Override
+    public void setContactArrays(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_CONTACT_ARRAYS, flag);
+    }
+
+    @Override
+    public void setBatchedNarrowPhase(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_BATCHED_NARROW_PHASE, flag);
+    }
+
+    @Override
+    public void setManifoldCaching(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_MANIFOLD_CACHING, flag);
+    }
+
+    @Override
+    public void setChainProxies(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_CHAIN_PROXIES, flag);
+    }
+
+    @Override
+    public void setContactEvents(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_CONTACT_EVENTS, flag);
+    }
+
+    @Override
+    public void setSensorOverlaps(boolean flag)
+    {
+        writeFlag(RecordingFormat.SET_SENSOR_OVERLAPS, flag);
+    }
+
+    @Override
+    public void setManifoldCacheTolerance(float linear, float angular)
+    {
+        try
+        {
+            out.writeByte(RecordingFormat.SET_MANIFOLD_CACHE_TOLERANCE);
+            out.writeFloat(linear);
+            out.writeFloat(angular);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setLayerCollision(int layerA, int layerB, boolean collide)
+    {
+        try
+        {
+            out.writeByte(RecordingFormat.SET_LAYER_COLLISION);
+            out.writeByte(layerA);
+            out.writeByte(layerB);
+            out.writeBoolean(collide);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void clearForces()
+    {
+        try
+        {
+            out.writeByte(RecordingFormat.CLEAR_FORCES);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void createJoint(Joint joint)
+    {
+        unrecorded("A joint");
+    }
+
+    private void fixtureHeader(byte op, Fixture fixture) throws IOException
+    {
+        Integer id = fixtureIds.get(fixture);
+        out.writeByte(op);
+        out.writeInt(id == null ? -1 : id);
+    }
+
+    private void writeFloat(byte op, Body body, float value)
+    {
+        try
+        {
+            header(op, body);
+            out.writeFloat(value);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeFloat(byte op, Fixture fixture, float value)
+    {
+        try
+        {
+            fixtureHeader(op, fixture);
+            out.writeFloat(value);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeFlag(byte op, boolean flag)
+    {
+        try
+        {
+            out.writeByte(op);
+            out.writeBoolean(flag);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeFlag(byte op, Body body, boolean flag)
+    {
+        try
+        {
+            header(op, body);
+            out.writeBoolean(flag);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.recording;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.HeightfieldShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.MassData;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Filter;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.FixtureDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+
+/**
+ * Re-executes a log written by {@link WorldRecorder} against a fresh world.
+ * Nothing is rendered and no listeners are installed, so the replay can be run
+ * under a profiler to reproduce a recorded session offline.
+ *
+ * <pre>
+ * WorldReplayer replayer = new WorldReplayer(new FileInputStream("session.jb2r"));
+ * while (replayer.replayStep())
+ * {
+ * }
+ * </pre>
+ */
+public class WorldReplayer
+{
+    private final DataInputStream in;
+
+    private final World world;
+
+    private final ArrayList<Body> bodies = new ArrayList<>();
+
+    private final ArrayList<Fixture> fixtures = new ArrayList<>();
+
+    private final IdentityHashMap<Fixture, Integer> fixtureIds = new IdentityHashMap<>();
+
+    private final Vec2 v1 = new Vec2();
+
+    private final Vec2 v2 = new Vec2();
+
+    private final MassData massData = new MassData();
+
+    private final Filter filter = new Filter();
+
+    private int stepCount;
+
+    /**
+     * Read the log header and create the world that the log is replayed on.
+     *
+     * @throws IOException If the stream is not a recording log.
+     */
+    public WorldReplayer(InputStream in) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if (this.in.readInt() != RecordingFormat.MAGIC)
+        {
+            throw new IOException("Not a world recording");
+        }
+        int version = this.in.readInt();
+        if (version != RecordingFormat.VERSION)
+        {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        RecordingFormat.readVec2(this.in, v1);
+        world = new World(v1, RecordingFormat.readSettings(this.in));
+        world.setSleepingAllowed(this.in.readBoolean());
+        world.setWarmStarting(this.in.readBoolean());
+        world.setContinuousPhysics(this.in.readBoolean());
+        world.setSubStepping(this.in.readBoolean());
+        world.setAutoClearForces(this.in.readBoolean());
+        world.setSpeculativeContacts(this.in.readBoolean());
+        world.setTOIBatching(this.in.readBoolean());
+        world.setContactArrays(this.in.readBoolean());
+        world.setBatchedNarrowPhase(this.in.readBoolean());
+        world.setManifoldCaching(this.in.readBoolean());
+        world.setChainProxies(this.in.readBoolean());
+        world.setContactEvents(this.in.readBoolean());
+        world.setSensorOverlaps(this.in.readBoolean());
+        float linearTolerance = this.in.readFloat();
+        world.setManifoldCacheTolerance(linearTolerance, this.in.readFloat());
+        RecordingFormat.readLayers(this.in, world);
+    }
+
+    /**
+     * Get the world the log is replayed on.
+     */
+    public World getWorld()
+    {
+        return world;
+    }
+
+    /**
+     * Get the number of steps replayed so far.
+     */
+    public int getStepCount()
+    {
+        return stepCount;
+    }
+
+    /**
+     * Replay all records up to and including the next step.
+     *
+     * @return false if the end of the log was reached before a step.
+     */
+    public boolean replayStep() throws IOException
+    {
+        for (;;)
+        {
+            int op;
+            try
+            {
+                op = in.readByte();
+            }
+            catch (EOFException e)
+            {
+                return false;
+            }
+            if (replay(op))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Replay the whole log.
+     *
+     * @return The number of steps replayed.
+     */
+    public int replayAll() throws IOException
+    {
+        while (replayStep())
+        {
+        }
+        return stepCount;
+    }
+
+    private Body body(int id)
+    {
+        return id >= 0 && id < bodies.size() ? bodies.get(id) : null;
+    }
+
+    private void replayWorldFlag(int op, boolean flag)
+    {
+        switch (op)
+        {
+        case RecordingFormat.SET_ALLOW_SLEEP:
+            world.setAllowSleep(flag);
+            break;
+
+        case RecordingFormat.SET_WORLD_SLEEPING_ALLOWED:
+            world.setSleepingAllowed(flag);
+            break;
+
+        case RecordingFormat.SET_WARM_STARTING:
+            world.setWarmStarting(flag);
+            break;
+
+        case RecordingFormat.SET_CONTINUOUS_PHYSICS:
+            world.setContinuousPhysics(flag);
+            break;
+
+        case RecordingFormat.SET_SUB_STEPPING:
+            world.setSubStepping(flag);
+            break;
+
+        case RecordingFormat.SET_AUTO_CLEAR_FORCES:
+            world.setAutoClearForces(flag);
+            break;
+
+        case RecordingFormat.SET_SPECULATIVE_CONTACTS:
+            world.setSpeculativeContacts(flag);
+            break;
+
+        case RecordingFormat.SET_TOI_BATCHING:
+            world.setTOIBatching(flag);
+            break;
+
+        case RecordingFormat.SET_CONTACT_ARRAYS:
+            world.setContactArrays(flag);
+            break;
+
+        case RecordingFormat.SET_BATCHED_NARROW_PHASE:
+            world.setBatchedNarrowPhase(flag);
+            break;
+
+        case RecordingFormat.SET_MANIFOLD_CACHING:
+            world.setManifoldCaching(flag);
+            break;
+
+        case RecordingFormat.SET_CHAIN_PROXIES:
+            world.setChainProxies(flag);
+            break;
+
+        case RecordingFormat.SET_CONTACT_EVENTS:
+            world.setContactEvents(flag);
+            break;
+
+        default:
+            world.setSensorOverlaps(flag);
+            break;
+        }
+    }
+
+    private void replayFixture(int op, Fixture f) throws IOException
+    {
+        switch (op)
+        {
+        case RecordingFormat.SET_FILTER_DATA:
+            RecordingFormat.readFilter(in, filter);
+            if (f != null)
+            {
+                f.setFilterData(filter);
+            }
+            break;
+
+        case RecordingFormat.SET_SENSOR:
+        {
+            boolean flag = in.readBoolean();
+            if (f != null)
+            {
+                f.setSensor(flag);
+            }
+        }
+            break;
+
+        default:
+        {
+            float value = in.readFloat();
+            if (f == null)
+            {
+                break;
+            }
+            if (op == RecordingFormat.SET_DENSITY)
+            {
+                f.setDensity(value);
+            }
+            else if (op == RecordingFormat.SET_FRICTION)
+            {
+                f.setFriction(value);
+            }
+            else
+            {
+                f.setRestitution(value);
+            }
+        }
+            break;
+        }
+    }
+
+    private Fixture fixture(int id)
+    {
+        return id >= 0 && id < fixtures.size() ? fixtures.get(id) : null;
+    }
+
+    private static <T> void put(ArrayList<T> list, int id, T value)
+    {
+        while (list.size() <= id)
+        {
+            list.add(null);
+        }
+        list.set(id, value);
+    }
+
+    /**
+     * @return true if the record was a step.
+     */
+    private boolean replay(int op) throws IOException
+    {
+        if (op == RecordingFormat.STEP)
+        {
+            int step = in.readInt();
+            assert (step == stepCount);
+            float dt = in.readFloat();
+            int velocityIterations = in.readShort();
+            int positionIterations = in.readShort();
+            world.step(dt, velocityIterations, positionIterations);
+            ++stepCount;
+            return true;
+        }
+        if (op == RecordingFormat.SET_GRAVITY)
+        {
+            RecordingFormat.readVec2(in, v1);
+            world.setGravity(v1);
+            return false;
+        }
+        if (op == RecordingFormat.DESTROY_FIXTURE)
+        {
+            int id = in.readInt();
+            Fixture f = fixture(id);
+            if (f != null)
+            {
+                fixtures.set(id, null);
+                fixtureIds.remove(f);
+                f.getBody().destroyFixture(f);
+            }
+            return false;
+        }
+        if (op == RecordingFormat.SET_HEIGHT)
+        {
+            Fixture f = fixture(in.readInt());
+            int index = in.readInt();
+            float height = in.readFloat();
+            if (f != null)
+            {
+                ((HeightfieldShape) f.getShape()).setHeight(index, height);
+            }
+            return false;
+        }
+        if (op == RecordingFormat.UPDATE_SHAPE)
+        {
+            Fixture f = fixture(in.readInt());
+            if (f != null)
+            {
+                f.updateShape();
+            }
+            return false;
+        }
+        if (op == RecordingFormat.UNRECORDED)
+        {
+            throw new IOException(in.readUTF() + " was not recorded");
+        }
+        if (op == RecordingFormat.SET_LAYER_COLLISION)
+        {
+            int layerA = in.readUnsignedByte();
+            int layerB = in.readUnsignedByte();
+            world.setLayerCollision(layerA, layerB, in.readBoolean());
+            return false;
+        }
+        if (op == RecordingFormat.SET_MANIFOLD_CACHE_TOLERANCE)
+        {
+            float linear = in.readFloat();
+            world.setManifoldCacheTolerance(linear, in.readFloat());
+            return false;
+        }
+        if (op == RecordingFormat.CLEAR_FORCES)
+        {
+            world.clearForces();
+            return false;
+        }
+        if (op >= RecordingFormat.SET_ALLOW_SLEEP
+                && op <= RecordingFormat.SET_AUTO_CLEAR_FORCES
+                || op >= RecordingFormat.SET_SPECULATIVE_CONTACTS
+                        && op <= RecordingFormat.SET_SENSOR_OVERLAPS)
+        {
+            replayWorldFlag(op, in.readBoolean());
+            return false;
+        }
+        if (op >= RecordingFormat.SET_FILTER_DATA
+                && op <= RecordingFormat.SET_RESTITUTION)
+        {
+            replayFixture(op, fixture(in.readInt()));
+            return false;
+        }
+        int id = in.readInt();
+        if (op == RecordingFormat.CREATE_BODY)
+        {
+            BodyDef def = RecordingFormat.readBodyDef(in);
+            put(bodies, id, world.createBody(def));
+            return false;
+        }
+        Body b = body(id);
+        switch (op)
+        {
+        case RecordingFormat.DESTROY_BODY:
+            if (b != null)
+            {
+                for (Fixture f = b.getFixtureList(); f != null; f = f
+                        .getNext())
+                {
+                    Integer fixtureId = fixtureIds.remove(f);
+                    if (fixtureId != null)
+                    {
+                        fixtures.set(fixtureId, null);
+                    }
+                }
+                bodies.set(id, null);
+                world.destroyBody(b);
+            }
+            break;
+
+        case RecordingFormat.CREATE_FIXTURE:
+        {
+            int fixtureId = in.readInt();
+            FixtureDef def = RecordingFormat.readFixtureDef(in);
+            if (b != null)
+            {
+                Fixture f = b.createFixture(def);
+                put(fixtures, fixtureId, f);
+                fixtureIds.put(f, fixtureId);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_TRANSFORM:
+        {
+            RecordingFormat.readVec2(in, v1);
+            float angle = in.readFloat();
+            if (b != null)
+            {
+                b.setTransform(v1, angle);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_LINEAR_VELOCITY:
+            RecordingFormat.readVec2(in, v1);
+            if (b != null)
+            {
+                b.setLinearVelocity(v1);
+            }
+            break;
+
+        case RecordingFormat.SET_ANGULAR_VELOCITY:
+        {
+            float w = in.readFloat();
+            if (b != null)
+            {
+                b.setAngularVelocity(w);
+            }
+        }
+            break;
+
+        case RecordingFormat.APPLY_FORCE:
+            RecordingFormat.readVec2(in, v1);
+            RecordingFormat.readVec2(in, v2);
+            if (b != null)
+            {
+                b.applyForce(v1, v2);
+            }
+            break;
+
+        case RecordingFormat.APPLY_FORCE_TO_CENTER:
+            RecordingFormat.readVec2(in, v1);
+            if (b != null)
+            {
+                b.applyForceToCenter(v1);
+            }
+            break;
+
+        case RecordingFormat.APPLY_TORQUE:
+        {
+            float torque = in.readFloat();
+            if (b != null)
+            {
+                b.applyTorque(torque);
+            }
+        }
+            break;
+
+        case RecordingFormat.APPLY_LINEAR_IMPULSE:
+        {
+            RecordingFormat.readVec2(in, v1);
+            RecordingFormat.readVec2(in, v2);
+            boolean wake = in.readBoolean();
+            if (b != null)
+            {
+                b.applyLinearImpulse(v1, v2, wake);
+            }
+        }
+            break;
+
+        case RecordingFormat.APPLY_ANGULAR_IMPULSE:
+        {
+            float impulse = in.readFloat();
+            if (b != null)
+            {
+                b.applyAngularImpulse(impulse);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_TYPE:
+        {
+            BodyType type = BodyType.values()[in.readUnsignedByte()];
+            if (b != null)
+            {
+                b.setType(type);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_AWAKE:
+        {
+            boolean flag = in.readBoolean();
+            if (b != null)
+            {
+                b.setAwake(flag);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_ACTIVE:
+        {
+            boolean flag = in.readBoolean();
+            if (b != null)
+            {
+                b.setActive(flag);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_BULLET:
+        {
+            boolean flag = in.readBoolean();
+            if (b != null)
+            {
+                b.setBullet(flag);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_MASS_DATA:
+            massData.mass = in.readFloat();
+            RecordingFormat.readVec2(in, massData.center);
+            massData.I = in.readFloat();
+            if (b != null)
+            {
+                b.setMassData(massData);
+            }
+            break;
+
+        case RecordingFormat.RESET_MASS_DATA:
+            if (b != null)
+            {
+                b.resetMassData();
+            }
+            break;
+
+        case RecordingFormat.SET_FIXED_ROTATION:
+        {
+            boolean flag = in.readBoolean();
+            if (b != null)
+            {
+                b.setFixedRotation(flag);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_SLEEPING_ALLOWED:
+        {
+            boolean flag = in.readBoolean();
+            if (b != null)
+            {
+                b.setSleepingAllowed(flag);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_LINEAR_DAMPING:
+        {
+            float damping = in.readFloat();
+            if (b != null)
+            {
+                b.setLinearDamping(damping);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_ANGULAR_DAMPING:
+        {
+            float damping = in.readFloat();
+            if (b != null)
+            {
+                b.setAngularDamping(damping);
+            }
+        }
+            break;
+
+        case RecordingFormat.SET_GRAVITY_SCALE:
+        {
+            float scale = in.readFloat();
+            if (b != null)
+            {
+                b.setGravityScale(scale);
+            }
+        }
+            break;
+
+        default:
+            throw new IOException("Unknown record " + op);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.scheduling;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import de.pirckheimer_gymnasium.jbox2d.profiling.LatencyHistogram;
+
+/**
+ * A world registered with a {@link WorldScheduler}. The handle controls the
+ * tick rate and priority of the world and reports how its steps performed.
+ *
+ * <p>
+ * The world is stepped by at most one thread at a time, and each step
+ * happens-after the previous one, but consecutive steps may run on different
+ * pool threads. Code that touches the world should therefore be passed to
+ * {@link #execute(Runnable)}, which runs it on the stepping thread before the
+ * next step. Such a task may spread queries over several threads with
+ * {@link World#read}.
+ * </p>
+ */
+public class ScheduledWorld
+{
+    private final WorldScheduler scheduler;
+
+    private final World world;
+
+    private volatile long periodNanos;
+
+    private volatile long idlePeriodNanos;
+
+    private volatile float timeStep;
+
+    private volatile int velocityIterations = 8;
+
+    private volatile int positionIterations = 3;
+
+    private volatile int priority;
+
+    private volatile boolean idle;
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable failure;
+
+    private volatile long stepCount;
+
+    private volatile long skippedTicks;
+
+    private volatile long lastStepNanos;
+
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final LatencyHistogram stepTimes = new LatencyHistogram();
+
+    final Runnable stepTask = this::step;
+
+    /**
+     * The next tick and the time the world was last dispatched, only accessed
+     * by the dispatcher thread.
+     */
+    long deadline;
+
+    long lastDispatch;
+
+    ScheduledWorld(WorldScheduler scheduler, World world, float tickRate,
+            int priority)
+    {
+        this.scheduler = scheduler;
+        this.world = world;
+        this.priority = priority;
+        setTickRate(tickRate);
+        idlePeriodNanos = periodNanos;
+        // Due right away.
+        deadline = System.nanoTime();
+        lastDispatch = deadline - periodNanos;
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    /**
+     * Set the number of steps per second. Each step advances the world by the
+     * reciprocal of the tick rate.
+     */
+    public void setTickRate(float tickRate)
+    {
+        assert (tickRate > 0.0f);
+        timeStep = 1.0f / tickRate;
+        periodNanos = (long) (1e9 / tickRate);
+    }
+
+    public float getTickRate()
+    {
+        return 1.0f / timeStep;
+    }
+
+    /**
+     * Set the number of ticks per second while the world is idle, i.e. while
+     * none of its dynamic or kinematic bodies is awake and no task is queued.
+     * An idle world is still stepped with the time step of the full tick rate,
+     * just less often. By default idle worlds are not throttled.
+     */
+    public void setIdleTickRate(float tickRate)
+    {
+        assert (tickRate > 0.0f);
+        idlePeriodNanos = (long) (1e9 / tickRate);
+    }
+
+    public float getIdleTickRate()
+    {
+        return (float) (1e9 / idlePeriodNanos);
+    }
+
+    public void setIterations(int velocityIterations, int positionIterations)
+    {
+        this.velocityIterations = velocityIterations;
+        this.positionIterations = positionIterations;
+    }
+
+    /**
+     * Set the priority of this world. Worlds that are due at the same time are
+     * handed to the executor in descending priority.
+     */
+    public void setPriority(int priority)
+    {
+        this.priority = priority;
+    }
+
+    public int getPriority()
+    {
+        return priority;
+    }
+
+    /**
+     * Run the given task on the stepping thread before the next step. This is
+     * the safe way to create bodies, apply forces or query the world while it
+     * is scheduled. A queued task also ends the idle throttling.
+     */
+    public void execute(Runnable task)
+    {
+        tasks.add(task);
+        if (idle)
+        {
+            idle = false;
+            scheduler.wakeUp();
+        }
+    }
+
+    /**
+     * Remove the world from its scheduler. A step that is already running
+     * completes, no further steps are started.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        scheduler.remove(this);
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Get the exception thrown by a step or a task, which also cancels the
+     * world, or null.
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Whether the world was idle after its most recent step.
+     */
+    public boolean isIdle()
+    {
+        return idle;
+    }
+
+    public long getStepCount()
+    {
+        return stepCount;
+    }
+
+    /**
+     * Get the number of ticks that were dropped, either because the previous
+     * step of this world was still running or because the scheduler fell
+     * behind. Dropped ticks are not caught up, the world simply advances less
+     * simulated time.
+     */
+    public long getSkippedTicks()
+    {
+        return skippedTicks;
+    }
+
+    /**
+     * Get the duration of the most recent step in nanoseconds, including the
+     * tasks run before it.
+     */
+    public long getLastStepNanos()
+    {
+        return lastStepNanos;
+    }
+
+    /**
+     * Copy the histogram of step durations in nanoseconds into the given
+     * histogram, which must have the default layout.
+     */
+    public void getStepTimes(LatencyHistogram out)
+    {
+        out.reset();
+        synchronized (stepTimes)
+        {
+            out.add(stepTimes);
+        }
+    }
+
+    public void resetStepTimes()
+    {
+        synchronized (stepTimes)
+        {
+            stepTimes.reset();
+        }
+    }
+
+    long getPeriodNanos()
+    {
+        return idle ? Math.max(idlePeriodNanos, periodNanos) : periodNanos;
+    }
+
+    /**
+     * Get the next tick. It is pulled in when the world stopped being idle or
+     * its tick rate was raised since the last dispatch.
+     */
+    long nextDeadline()
+    {
+        long earliest = lastDispatch + getPeriodNanos();
+        if (earliest < deadline)
+        {
+            deadline = earliest;
+        }
+        return deadline;
+    }
+
+    /**
+     * Called by the dispatcher when the deadline has passed. Returns whether
+     * a step should be started.
+     */
+    boolean dispatch(long now)
+    {
+        long period = getPeriodNanos();
+        long missed = (now - deadline) / period;
+        deadline += (missed + 1) * period;
+        lastDispatch = now;
+        if (!busy.compareAndSet(false, true))
+        {
+            skippedTicks += missed + 1;
+            return false;
+        }
+        skippedTicks += missed;
+        return true;
+    }
+
+    /**
+     * Wait until a step that was started or handed to the executor has
+     * completed.
+     */
+    void awaitStep() throws InterruptedException
+    {
+        while (busy.get())
+        {
+            Thread.sleep(1);
+        }
+    }
+
+    private void step()
+    {
+        if (cancelled)
+        {
+            busy.set(false);
+            return;
+        }
+        long start = System.nanoTime();
+        try
+        {
+            Runnable task;
+            while ((task = tasks.poll()) != null)
+            {
+                task.run();
+            }
+            world.step(timeStep, velocityIterations, positionIterations);
+            idle = tasks.isEmpty() && !hasAwakeBody();
+            ++stepCount;
+        }
+        catch (Throwable t)
+        {
+            failure = t;
+            cancel();
+        }
+        finally
+        {
+            long elapsed = System.nanoTime() - start;
+            lastStepNanos = elapsed;
+            synchronized (stepTimes)
+            {
+                stepTimes.record(elapsed);
+            }
+            busy.set(false);
+        }
+    }
+
+    private boolean hasAwakeBody()
+    {
+        for (Body b = world.getBodyList(); b != null; b = b.getNext())
+        {
+            if (b.getType() != BodyType.STATIC && b.isAwake())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.scheduling;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+
+/**
+ * Steps many independent worlds at fixed tick rates on a shared executor.
+ *
+ * <p>
+ * A single dispatcher thread keeps track of the next tick of every world and
+ * hands due worlds to the executor, higher priorities first. A world is never
+ * stepped by two threads at once: if its previous step is still running when
+ * the next tick is due, the tick is skipped and counted instead of queued, so
+ * a slow world cannot pile up work. Ticks missed because the scheduler fell
+ * behind are skipped in the same way.
+ * </p>
+ *
+ * <p>
+ * By default the worlds are stepped on a work-stealing {@link ForkJoinPool}
+ * with one thread per processor. Any other executor can be passed in, e.g. a
+ * virtual thread per task executor on runtimes that provide one.
+ * </p>
+ *
+ * <pre>
+ * WorldScheduler scheduler = new WorldScheduler();
+ * ScheduledWorld match = scheduler.schedule(world, 60);
+ * match.setIdleTickRate(5);
+ * match.execute(() -&gt; body.applyLinearImpulse(impulse, point, true));
+ * ...
+ * scheduler.close();
+ * </pre>
+ */
+public class WorldScheduler implements AutoCloseable
+{
+    /**
+     * The longest time the dispatcher sleeps without checking the worlds.
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(100);
+
+    private static final Comparator<ScheduledWorld> BY_PRIORITY = Comparator
+            .comparingInt(ScheduledWorld::getPriority).reversed();
+
+    private final ExecutorService executor;
+
+    private final boolean ownsExecutor;
+
+    private final CopyOnWriteArrayList<ScheduledWorld> worlds = new CopyOnWriteArrayList<>();
+
+    private final ArrayList<ScheduledWorld> due = new ArrayList<>();
+
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    /**
+     * Create a scheduler with its own work-stealing pool.
+     */
+    public WorldScheduler()
+    {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()),
+                true);
+    }
+
+    /**
+     * Create a scheduler that steps the worlds on the given executor. The
+     * executor is not shut down by {@link #close()}.
+     */
+    public WorldScheduler(ExecutorService executor)
+    {
+        this(executor, false);
+    }
+
+    private WorldScheduler(ExecutorService executor, boolean ownsExecutor)
+    {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        dispatcher = new Thread(this::dispatch, "jbox2d-world-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Step the world at the given tick rate with priority 0.
+     */
+    public ScheduledWorld schedule(World world, float tickRate)
+    {
+        return schedule(world, tickRate, 0);
+    }
+
+    /**
+     * Step the world at the given tick rate. The world must not be stepped
+     * elsewhere while it is scheduled.
+     *
+     * @param tickRate The number of steps per second.
+     * @param priority Worlds that are due at the same time are started in
+     *     descending priority.
+     */
+    public ScheduledWorld schedule(World world, float tickRate, int priority)
+    {
+        if (!running)
+        {
+            throw new IllegalStateException("scheduler is closed");
+        }
+        for (ScheduledWorld w : worlds)
+        {
+            if (w.getWorld() == world)
+            {
+                throw new IllegalArgumentException(
+                        "world is already scheduled");
+            }
+        }
+        ScheduledWorld scheduled = new ScheduledWorld(this, world, tickRate,
+                priority);
+        worlds.add(scheduled);
+        wakeUp();
+        return scheduled;
+    }
+
+    /**
+     * Get the number of scheduled worlds.
+     */
+    public int getWorldCount()
+    {
+        return worlds.size();
+    }
+
+    /**
+     * Get a snapshot of the scheduled worlds.
+     */
+    public ScheduledWorld[] getWorlds()
+    {
+        return worlds.toArray(new ScheduledWorld[0]);
+    }
+
+    void remove(ScheduledWorld world)
+    {
+        worlds.remove(world);
+    }
+
+    void wakeUp()
+    {
+        LockSupport.unpark(dispatcher);
+    }
+
+    private void dispatch()
+    {
+        while (running)
+        {
+            long now = System.nanoTime();
+            long next = now + MAX_PARK_NANOS;
+            for (ScheduledWorld w : worlds)
+            {
+                long deadline = w.nextDeadline();
+                if (deadline - now <= 0)
+                {
+                    if (w.dispatch(now))
+                    {
+                        due.add(w);
+                    }
+                    deadline = w.deadline;
+                }
+                if (deadline - next < 0)
+                {
+                    next = deadline;
+                }
+            }
+            if (!due.isEmpty())
+            {
+                due.sort(BY_PRIORITY);
+                for (ScheduledWorld w : due)
+                {
+                    executor.execute(w.stepTask);
+                }
+                due.clear();
+            }
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+            {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+    }
+
+    /**
+     * Stop dispatching and wait for running steps to complete. A pool created
+     * by this scheduler is shut down.
+     *
+     * <p>
+     * If the calling thread is interrupted, the worlds are still cancelled and
+     * the pool is still shut down, but running steps are not waited for. The
+     * interrupt status of the thread is restored before returning.
+     * </p>
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        wakeUp();
+        boolean interrupted = false;
+        try
+        {
+            dispatcher.join();
+            for (ScheduledWorld w : worlds)
+            {
+                w.cancel();
+                w.awaitStep();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            interrupted = true;
+            for (ScheduledWorld w : worlds)
+            {
+                w.cancel();
+            }
+        }
+        if (ownsExecutor)
+        {
+            executor.shutdown();
+            if (!interrupted)
+            {
+                try
+                {
+                    executor.awaitTermination(Long.MAX_VALUE,
+                            TimeUnit.NANOSECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.tiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ChainShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.FixtureDef;
+
+/**
+ * The collision of a grid of tiles. Instead of one box per solid tile, the
+ * solid tiles are merged into few large fixtures on a body, either boxes or
+ * chain outlines.
+ *
+ * <p>
+ * Tile {@code (x, y)} covers {@code [x, x + 1] * tileSize} by
+ * {@code [y, y + 1] * tileSize} in body coordinates, row 0 is at the bottom.
+ * A tile is solid if its value is not zero. The grid is split into square
+ * chunks that are merged separately, so changing a tile only merges its chunk
+ * again on the next {@link #update}.
+ * </p>
+ *
+ * <p>
+ * Boxes meet at the borders of the chunks, where bodies sliding over them may
+ * still catch. Outlines follow the surface across chunks and use the
+ * neighbouring chunks as ghost vertices, so they have no seams. A compound
+ * body gives the whole map a single broad-phase proxy.
+ * </p>
+ */
+public class TileMap
+{
+    public enum Mode
+    {
+        /**
+         * Merge the solid tiles of a chunk into maximal rectangles.
+         */
+        BOXES,
+        /**
+         * Trace the outlines of the solid tiles with chain shapes.
+         */
+        OUTLINES
+    }
+
+    private static final int[] DX = { 1, 0, -1, 0 };
+
+    private static final int[] DY = { 0, 1, 0, -1 };
+
+    private final Body body;
+
+    private final int width;
+
+    private final int height;
+
+    private final float tileSize;
+
+    private final Mode mode;
+
+    private final int chunkSize;
+
+    private final int chunkColumns;
+
+    private final byte[] tiles;
+
+    private final Chunk[] chunks;
+
+    private final FixtureDef fixtureDef = new FixtureDef();
+
+    private final PolygonShape box = new PolygonShape();
+
+    private final ChainShape chain = new ChainShape();
+
+    private final Vec2 center = new Vec2();
+
+    /**
+     * Marks the tiles of a chunk that are already merged, or for outlines the
+     * sides of the tiles that are already traced.
+     */
+    private final boolean[] used;
+
+    private Vec2[] vertices = new Vec2[16];
+
+    private int vertexCount;
+
+    /**
+     * Create an empty tile map with chunks of 32 by 32 tiles.
+     *
+     * @param body The body the fixtures are created on, usually a static
+     *     body.
+     */
+    public TileMap(Body body, int width, int height, float tileSize,
+            Mode mode)
+    {
+        this(body, width, height, tileSize, mode, 32);
+    }
+
+    public TileMap(Body body, int width, int height, float tileSize,
+            Mode mode, int chunkSize)
+    {
+        assert (width > 0 && height > 0 && chunkSize > 0);
+        this.body = body;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.mode = mode;
+        this.chunkSize = chunkSize;
+        chunkColumns = (width + chunkSize - 1) / chunkSize;
+        int chunkRows = (height + chunkSize - 1) / chunkSize;
+        tiles = new byte[width * height];
+        chunks = new Chunk[chunkColumns * chunkRows];
+        for (int i = 0; i < chunks.length; ++i)
+        {
+            chunks[i] = new Chunk();
+        }
+        used = new boolean[chunkSize * chunkSize * 4];
+        for (int i = 0; i < vertices.length; ++i)
+        {
+            vertices[i] = new Vec2();
+        }
+    }
+
+    public Body getBody()
+    {
+        return body;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public float getTileSize()
+    {
+        return tileSize;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * The template of the created fixtures. Changes apply to the chunks that
+     * are merged afterwards, the shape and density are ignored.
+     */
+    public FixtureDef getFixtureDef()
+    {
+        return fixtureDef;
+    }
+
+    public byte getTile(int x, int y)
+    {
+        return tiles[y * width + x];
+    }
+
+    public boolean isSolid(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < width && y < height
+                && tiles[y * width + x] != 0;
+    }
+
+    /**
+     * Change a tile. The fixtures are updated by the next {@link #update}.
+     */
+    public void setTile(int x, int y, byte value)
+    {
+        assert (0 <= x && x < width && 0 <= y && y < height);
+        byte old = tiles[y * width + x];
+        tiles[y * width + x] = value;
+        if ((old != 0) == (value != 0))
+        {
+            return;
+        }
+        if (mode == Mode.BOXES)
+        {
+            chunkAt(x, y).dirty = true;
+            return;
+        }
+        // The outlines of the neighbours and the ghost vertices of the
+        // neighbouring chunks depend on this tile as well.
+        for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, height - 1); ++j)
+        {
+            for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1,
+                    width - 1); ++i)
+            {
+                chunkAt(i, j).dirty = true;
+            }
+        }
+    }
+
+    public void setTile(int x, int y, boolean solid)
+    {
+        setTile(x, y, (byte) (solid ? 1 : 0));
+    }
+
+    /**
+     * Replace all tiles.
+     *
+     * @param tiles The tiles row by row starting at the bottom, these are
+     *     copied.
+     */
+    public void setTiles(byte[] tiles)
+    {
+        assert (tiles.length == this.tiles.length);
+        System.arraycopy(tiles, 0, this.tiles, 0, this.tiles.length);
+        for (Chunk chunk : chunks)
+        {
+            chunk.dirty = true;
+        }
+    }
+
+    /**
+     * Replace all tiles.
+     *
+     * @param tiles The solid tiles indexed by {@code [y][x]}.
+     */
+    public void setTiles(boolean[][] tiles)
+    {
+        assert (tiles.length == height);
+        for (int y = 0; y < height; ++y)
+        {
+            for (int x = 0; x < width; ++x)
+            {
+                this.tiles[y * width + x] = (byte) (tiles[y][x] ? 1 : 0);
+            }
+        }
+        for (Chunk chunk : chunks)
+        {
+            chunk.dirty = true;
+        }
+    }
+
+    /**
+     * Merge the chunks with changed tiles again. This must not be called
+     * while the world is stepping.
+     */
+    public void update()
+    {
+        for (int i = 0; i < chunks.length; ++i)
+        {
+            Chunk chunk = chunks[i];
+            if (!chunk.dirty)
+            {
+                continue;
+            }
+            for (Fixture fixture : chunk.fixtures)
+            {
+                body.destroyFixture(fixture);
+            }
+            chunk.fixtures.clear();
+            int x0 = (i % chunkColumns) * chunkSize;
+            int y0 = (i / chunkColumns) * chunkSize;
+            int x1 = Math.min(x0 + chunkSize, width);
+            int y1 = Math.min(y0 + chunkSize, height);
+            if (mode == Mode.BOXES)
+            {
+                mergeBoxes(chunk, x0, y0, x1, y1);
+            }
+            else
+            {
+                traceOutlines(chunk, x0, y0, x1, y1);
+            }
+            chunk.dirty = false;
+        }
+    }
+
+    /**
+     * Get the number of fixtures of all chunks.
+     */
+    public int getFixtureCount()
+    {
+        int count = 0;
+        for (Chunk chunk : chunks)
+        {
+            count += chunk.fixtures.size();
+        }
+        return count;
+    }
+
+    private Chunk chunkAt(int x, int y)
+    {
+        return chunks[(y / chunkSize) * chunkColumns + x / chunkSize];
+    }
+
+    private void mergeBoxes(Chunk chunk, int x0, int y0, int x1, int y1)
+    {
+        Arrays.fill(used, false);
+        for (int y = y0; y < y1; ++y)
+        {
+            for (int x = x0; x < x1; ++x)
+            {
+                if (!isSolid(x, y) || used[(y - y0) * chunkSize + x - x0])
+                {
+                    continue;
+                }
+                int w = 1;
+                while (x + w < x1 && isSolid(x + w, y)
+                        && !used[(y - y0) * chunkSize + x + w - x0])
+                {
+                    ++w;
+                }
+                int h = 1;
+                grow: while (y + h < y1)
+                {
+                    for (int i = 0; i < w; ++i)
+                    {
+                        if (!isSolid(x + i, y + h) || used[(y + h - y0)
+                                * chunkSize + x + i - x0])
+                        {
+                            break grow;
+                        }
+                    }
+                    ++h;
+                }
+                for (int j = 0; j < h; ++j)
+                {
+                    for (int i = 0; i < w; ++i)
+                    {
+                        used[(y + j - y0) * chunkSize + x + i - x0] = true;
+                    }
+                }
+                center.set((x + w * .5f) * tileSize, (y + h * .5f) * tileSize);
+                box.setAsBox(w * .5f * tileSize, h * .5f * tileSize, center,
+                        0.0f);
+                createFixture(chunk, box);
+            }
+        }
+    }
+
+    /**
+     * Trace the outline edges owned by the solid tiles of a chunk. Edges run
+     * between tile corners with the solid tile on their left, so outlines go
+     * counter-clockwise around solids and clockwise around holes.
+     */
+    private void traceOutlines(Chunk chunk, int x0, int y0, int x1, int y1)
+    {
+        Arrays.fill(used, false);
+        for (int y = y0; y < y1; ++y)
+        {
+            for (int x = x0; x < x1; ++x)
+            {
+                if (!isSolid(x, y))
+                {
+                    continue;
+                }
+                for (int dir = 0; dir < 4; ++dir)
+                {
+                    // The corner the side of the tile starts at.
+                    int sx = x + (dir == 1 || dir == 2 ? 1 : 0);
+                    int sy = y + (dir >= 2 ? 1 : 0);
+                    if (hasEdge(sx, sy, dir)
+                            && !used[sideIndex(sx, sy, dir, x0, y0)])
+                    {
+                        trace(chunk, sx, sy, dir, x0, y0, x1, y1);
+                    }
+                }
+            }
+        }
+    }
+
+    private void trace(Chunk chunk, int sx, int sy, int sdir, int x0, int y0,
+            int x1, int y1)
+    {
+        // Walk back to the first edge of the chunk on this outline.
+        int x = sx;
+        int y = sy;
+        int dir = sdir;
+        boolean loop = false;
+        while (true)
+        {
+            int e = prevDir(x, y, dir);
+            int px = x - DX[e];
+            int py = y - DY[e];
+            if (!owns(px, py, e, x0, y0, x1, y1))
+            {
+                break;
+            }
+            x = px;
+            y = py;
+            dir = e;
+            if (x == sx && y == sy && dir == sdir)
+            {
+                loop = true;
+                break;
+            }
+        }
+        if (loop)
+        {
+            // Start the loop at a corner.
+            while (prevDir(x, y, dir) == dir)
+            {
+                x -= DX[dir];
+                y -= DY[dir];
+            }
+        }
+        vertexCount = 0;
+        addVertex(x, y);
+        int cx = x;
+        int cy = y;
+        int cd = dir;
+        while (true)
+        {
+            used[sideIndex(cx, cy, cd, x0, y0)] = true;
+            cx += DX[cd];
+            cy += DY[cd];
+            int nd = nextDir(cx, cy, cd);
+            if (loop)
+            {
+                if (cx == x && cy == y && nd == dir)
+                {
+                    break;
+                }
+            }
+            else if (!owns(cx, cy, nd, x0, y0, x1, y1))
+            {
+                addVertex(cx, cy);
+                break;
+            }
+            if (nd != cd)
+            {
+                addVertex(cx, cy);
+            }
+            cd = nd;
+        }
+        chain.clear();
+        if (loop)
+        {
+            chain.createLoop(vertices, vertexCount);
+        }
+        else
+        {
+            chain.createChain(vertices, vertexCount);
+            // The outline goes on in the neighbouring chunks.
+            int e = prevDir(x, y, dir);
+            chain.setPrevVertex(new Vec2((x - DX[e]) * tileSize,
+                    (y - DY[e]) * tileSize));
+            int nd = nextDir(cx, cy, cd);
+            chain.setNextVertex(new Vec2((cx + DX[nd]) * tileSize,
+                    (cy + DY[nd]) * tileSize));
+        }
+        createFixture(chunk, chain);
+    }
+
+    /**
+     * Whether the outline has an edge from a corner in a direction, with a
+     * solid tile on its left and an empty one on its right.
+     */
+    private boolean hasEdge(int x, int y, int dir)
+    {
+        switch (dir)
+        {
+        case 0:
+            return isSolid(x, y) && !isSolid(x, y - 1);
+
+        case 1:
+            return isSolid(x - 1, y) && !isSolid(x, y);
+
+        case 2:
+            return isSolid(x - 1, y - 1) && !isSolid(x - 1, y);
+
+        default:
+            return isSolid(x, y - 1) && !isSolid(x - 1, y - 1);
+        }
+    }
+
+    /**
+     * Get the direction the outline leaves a corner in after arriving in a
+     * direction. Turning left first keeps tiles that only touch at a corner
+     * apart.
+     */
+    private int nextDir(int x, int y, int dir)
+    {
+        int left = (dir + 1) & 3;
+        if (hasEdge(x, y, left))
+        {
+            return left;
+        }
+        if (hasEdge(x, y, dir))
+        {
+            return dir;
+        }
+        return (dir + 3) & 3;
+    }
+
+    /**
+     * Get the direction the outline arrives at a corner in before leaving in a
+     * direction.
+     */
+    private int prevDir(int x, int y, int dir)
+    {
+        for (int i = 3; i <= 5; ++i)
+        {
+            int e = (dir + i) & 3;
+            if (hasEdge(x - DX[e], y - DY[e], e) && nextDir(x, y, e) == dir)
+            {
+                return e;
+            }
+        }
+        assert (false);
+        return dir;
+    }
+
+    /**
+     * Whether the solid tile of an edge lies in the chunk.
+     */
+    private boolean owns(int x, int y, int dir, int x0, int y0, int x1,
+            int y1)
+    {
+        int tx = dir == 1 || dir == 2 ? x - 1 : x;
+        int ty = dir >= 2 ? y - 1 : y;
+        return tx >= x0 && tx < x1 && ty >= y0 && ty < y1;
+    }
+
+    private int sideIndex(int x, int y, int dir, int x0, int y0)
+    {
+        int tx = dir == 1 || dir == 2 ? x - 1 : x;
+        int ty = dir >= 2 ? y - 1 : y;
+        return ((ty - y0) * chunkSize + tx - x0) * 4 + dir;
+    }
+
+    private void addVertex(int x, int y)
+    {
+        if (vertexCount == vertices.length)
+        {
+            Vec2[] old = vertices;
+            vertices = new Vec2[old.length * 2];
+            System.arraycopy(old, 0, vertices, 0, old.length);
+            for (int i = old.length; i < vertices.length; ++i)
+            {
+                vertices[i] = new Vec2();
+            }
+        }
+        vertices[vertexCount++].set(x * tileSize, y * tileSize);
+    }
+
+    private void createFixture(Chunk chunk, Shape shape)
+    {
+        fixtureDef.shape = shape;
+        fixtureDef.density = 0.0f;
+        chunk.fixtures.add(body.createFixture(fixtureDef));
+        fixtureDef.shape = null;
+    }
+
+    private static class Chunk
+    {
+        final ArrayList<Fixture> fixtures = new ArrayList<>();
+
+        boolean dirty;
+    }
+}
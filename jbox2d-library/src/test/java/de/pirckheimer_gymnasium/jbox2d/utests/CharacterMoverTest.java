@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.EdgeShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.Shape;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.CharacterMover;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import junit.framework.TestCase;
+
+public class CharacterMoverTest extends TestCase
+{
+    private static final float DT = 1 / 60f;
+
+    private static CharacterMover createMover(World world, Shape shape,
+            float x, float y)
+    {
+        BodyDef bd = new BodyDef();
+        bd.type = BodyType.KINEMATIC;
+        bd.position.set(x, y);
+        Body body = world.createBody(bd);
+        body.createFixture(shape, 0);
+        CharacterMover mover = new CharacterMover(world);
+        mover.add(body);
+        return mover;
+    }
+
+    private static void update(World world, CharacterMover mover, float vx)
+    {
+        Vec2 v = mover.getVelocity(0);
+        v.x = vx;
+        if (!mover.isGrounded(0))
+        {
+            v.y -= 10 * DT;
+        }
+        mover.update(DT);
+        world.step(DT, 8, 3);
+    }
+
+    public void testWalkUpSlope()
+    {
+        World world = new World(new Vec2(0, -10));
+        float slope = (float) Math.tan(Math.toRadians(30));
+        EdgeShape edge = new EdgeShape();
+        edge.set(new Vec2(-50, -50 * slope), new Vec2(50, 50 * slope));
+        world.createBody(new BodyDef()).createFixture(edge, 0);
+        CircleShape circle = new CircleShape();
+        circle.radius = 0.5f;
+        CharacterMover mover = createMover(world, circle, -30,
+                -30 * slope + 0.6f);
+        Body body = mover.getBody(0);
+        for (int i = 0; i < 60; i++)
+        {
+            update(world, mover, 2);
+        }
+        // The character must keep walking and not stick to the slope.
+        for (int i = 0; i < 10; i++)
+        {
+            float x = body.getPosition().x;
+            for (int j = 0; j < 30; j++)
+            {
+                update(world, mover, 2);
+            }
+            assertTrue(body.getPosition().x > x + 0.5f);
+        }
+    }
+
+    public void testCreatedFlushOnFloor()
+    {
+        World world = new World(new Vec2(0, -10));
+        PolygonShape floor = new PolygonShape();
+        floor.setAsBox(20, 1, new Vec2(0, -1), 0);
+        world.createBody(new BodyDef()).createFixture(floor, 0);
+        PolygonShape box = new PolygonShape();
+        box.setAsBox(0.25f, 0.45f);
+        CharacterMover mover = createMover(world, box, 0, 0.45f);
+        Body body = mover.getBody(0);
+        for (int i = 0; i < 120; i++)
+        {
+            update(world, mover, 0);
+        }
+        assertTrue(mover.isGrounded(0));
+        assertEquals(0.45f, body.getPosition().y, 0.05f);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DynamicTreeOffHeap;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+import junit.framework.TestCase;
+
+/**
+ * Saves a tree with {@link DynamicTreeOffHeap#write}, maps it again and
+ * adopts its leaves like a level that is created a second time.
+ */
+public class DynamicTreeOffHeapTest extends TestCase
+{
+    private static final int COUNT = 200;
+
+    private static final ToIntFunction<Object> KEYS = proxy -> ((Proxy) proxy)
+            .key;
+
+    private final WorldSettings settings = new WorldSettings();
+
+    private Path file;
+
+    /**
+     * The user data of a proxy. Static proxies have a key, dynamic ones -1.
+     */
+    private static final class Proxy
+    {
+        final int key;
+
+        final AABB aabb = new AABB();
+
+        Proxy(int key, float x, float y, float h)
+        {
+            this.key = key;
+            aabb.lowerBound.set(x - h, y - h);
+            aabb.upperBound.set(x + h, y + h);
+        }
+    }
+
+    /**
+     * Create the proxies of a level, every third one dynamic.
+     */
+    private static Proxy[] createLevel()
+    {
+        Random random = new Random(3);
+        Proxy[] proxies = new Proxy[COUNT];
+        int key = 0;
+        for (int i = 0; i < COUNT; i++)
+        {
+            proxies[i] = new Proxy(i % 3 == 0 ? -1 : key++,
+                    random.nextFloat() * 100, random.nextFloat() * 100,
+                    0.1f + random.nextFloat());
+        }
+        return proxies;
+    }
+
+    private static int[] createProxies(DynamicTreeOffHeap tree,
+            Proxy[] proxies)
+    {
+        int[] ids = new int[proxies.length];
+        for (int i = 0; i < proxies.length; i++)
+        {
+            ids[i] = tree.createProxy(proxies[i].aabb, proxies[i]);
+        }
+        return ids;
+    }
+
+    private static Set<Object> query(DynamicTreeOffHeap tree, AABB aabb)
+    {
+        Set<Object> found = new HashSet<>();
+        tree.query(id -> {
+            assertTrue(found.add(tree.getUserData(id)));
+            return true;
+        }, aabb);
+        return found;
+    }
+
+    private static AABB box(float lowerX, float lowerY, float upperX,
+            float upperY)
+    {
+        return new AABB(new Vec2(lowerX, lowerY), new Vec2(upperX, upperY));
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        file = Files.createTempFile("tree", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    private DynamicTreeOffHeap writeAndMap(Proxy[] proxies) throws IOException
+    {
+        DynamicTreeOffHeap tree = new DynamicTreeOffHeap(settings);
+        int[] ids = createProxies(tree, proxies);
+        // Holes in the nodes, which are not written.
+        for (int i = 0; i < COUNT; i += 10)
+        {
+            tree.destroyProxy(ids[i]);
+            ids[i] = tree.createProxy(proxies[i].aabb, proxies[i]);
+        }
+        tree.write(file, KEYS);
+        DynamicTreeOffHeap mapped = DynamicTreeOffHeap.map(file, settings,
+                KEYS);
+        mapped.validate();
+        return mapped;
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        Proxy[] proxies = createLevel();
+        DynamicTreeOffHeap mapped = writeAndMap(proxies);
+        int keyed = COUNT - (COUNT + 2) / 3;
+        assertEquals(keyed, mapped.getUnclaimedCount());
+        // Unclaimed leaves are skipped by queries.
+        AABB all = box(-10, -10, 110, 110);
+        assertEquals(0, query(mapped, all).size());
+        byte[] saved = Files.readAllBytes(file);
+        // Create the level again, without the last few static proxies.
+        Proxy[] level = Arrays.copyOf(proxies, COUNT - 10);
+        int[] ids = createProxies(mapped, level);
+        int claimed = 0;
+        for (int i = 0; i < level.length; i++)
+        {
+            assertSame(level[i], mapped.getUserData(ids[i]));
+            AABB fat = mapped.getFatAABB(ids[i]);
+            assertTrue(fat.contains(level[i].aabb));
+            if (level[i].key >= 0)
+            {
+                claimed++;
+            }
+        }
+        int unclaimed = keyed - claimed;
+        assertTrue(unclaimed > 0);
+        assertEquals(unclaimed, mapped.getUnclaimedCount());
+        assertEquals(level.length, query(mapped, all).size());
+        mapped.releaseUnclaimed();
+        assertEquals(0, mapped.getUnclaimedCount());
+        mapped.validate();
+        // The mapped tree answers like a tree built from scratch.
+        DynamicTreeOffHeap fresh = new DynamicTreeOffHeap(settings);
+        createProxies(fresh, level);
+        Random random = new Random(5);
+        for (int i = 0; i < 50; i++)
+        {
+            float x = random.nextFloat() * 100;
+            float y = random.nextFloat() * 100;
+            AABB aabb = box(x, y, x + 10, y + 10);
+            assertEquals(query(fresh, aabb), query(mapped, aabb));
+        }
+        // The mapping is private, the file stays as it was written.
+        assertTrue(Arrays.equals(saved, Files.readAllBytes(file)));
+    }
+
+    /**
+     * A proxy that moved out of its saved fat AABB gets a new leaf, and the
+     * saved one is removed.
+     */
+    public void testMovedProxyIsNotAdopted() throws IOException
+    {
+        Proxy[] proxies = createLevel();
+        DynamicTreeOffHeap mapped = writeAndMap(proxies);
+        int before = mapped.getUnclaimedCount();
+        Proxy moved = new Proxy(proxies[1].key, 200, 200, 0.5f);
+        int id = mapped.createProxy(moved.aabb, moved);
+        assertEquals(before - 1, mapped.getUnclaimedCount());
+        assertSame(moved, mapped.getUserData(id));
+        mapped.releaseUnclaimed();
+        mapped.validate();
+        assertEquals(new HashSet<Object>(Arrays.asList(moved)),
+                query(mapped, box(-10, -10, 300, 300)));
+    }
+
+    /**
+     * Moving and destroying adopted leaves must not touch the file.
+     */
+    public void testModifyMappedTree() throws IOException
+    {
+        Proxy[] proxies = createLevel();
+        DynamicTreeOffHeap mapped = writeAndMap(proxies);
+        byte[] saved = Files.readAllBytes(file);
+        int[] ids = createProxies(mapped, proxies);
+        mapped.releaseUnclaimed();
+        Vec2 displacement = new Vec2(30, 0);
+        for (int i = 0; i < COUNT; i += 2)
+        {
+            proxies[i].aabb.lowerBound.addLocal(displacement);
+            proxies[i].aabb.upperBound.addLocal(displacement);
+            mapped.moveProxy(ids[i], proxies[i].aabb, displacement);
+        }
+        for (int i = 1; i < COUNT; i += 4)
+        {
+            mapped.destroyProxy(ids[i]);
+        }
+        mapped.validate();
+        assertEquals(COUNT - COUNT / 4, query(mapped, box(-10, -10, 200, 200))
+                .size());
+        assertTrue(Arrays.equals(saved, Files.readAllBytes(file)));
+    }
+
+    public void testMapRejectsOtherFiles() throws IOException
+    {
+        Files.write(file, new byte[64]);
+        try
+        {
+            DynamicTreeOffHeap.map(file, settings, KEYS);
+            fail("mapped a file that is not a tree");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DefaultBroadPhaseBuffer;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DynamicTree;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.LayeredBroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.FixtureDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.contacts.Contact;
+import de.pirckheimer_gymnasium.jbox2d.pooling.normal.DefaultWorldPool;
+import junit.framework.TestCase;
+
+public class LayerCollisionTest extends TestCase
+{
+    private static final float DT = 1 / 60f;
+
+    private static Body createBox(World world, BodyType type, float x,
+            int layer)
+    {
+        BodyDef bd = new BodyDef();
+        bd.type = type;
+        bd.position.set(x, 0);
+        Body body = world.createBody(bd);
+        PolygonShape box = new PolygonShape();
+        box.setAsBox(0.5f, 0.5f);
+        FixtureDef fd = new FixtureDef();
+        fd.shape = box;
+        fd.density = 1;
+        fd.filter.layer = layer;
+        body.createFixture(fd);
+        return body;
+    }
+
+    private static int touchingContacts(World world)
+    {
+        int count = 0;
+        for (Contact c = world.getContactList(); c != null; c = c.getNext())
+        {
+            if (c.isTouching())
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Two overlapping bodies on layers that do not collide come to rest.
+     * Enabling the layer pair must create the contact although no proxy
+     * moves.
+     */
+    private static void checkEnableResting(World world, BodyType typeA)
+    {
+        world.setLayerCollision(1, 2, false);
+        Body a = createBox(world, typeA, 0, 1);
+        Body b = createBox(world, BodyType.DYNAMIC, 0.5f, 2);
+        for (int i = 0; i < 120; i++)
+        {
+            world.step(DT, 8, 3);
+        }
+        assertFalse(b.isAwake());
+        assertEquals(0, world.getContactCount());
+        world.setLayerCollision(1, 2, true);
+        world.step(DT, 8, 3);
+        assertEquals(1, world.getContactCount());
+        assertEquals(1, touchingContacts(world));
+        // The contact wakes the bodies and pushes them apart.
+        for (int i = 0; i < 60; i++)
+        {
+            world.step(DT, 8, 3);
+        }
+        assertTrue(b.getPosition().x - a.getPosition().x > 0.9f);
+    }
+
+    private static World createLayeredWorld()
+    {
+        BroadPhase broadPhase = new LayeredBroadPhase(new WorldSettings());
+        return new World(new Vec2(), new DefaultWorldPool(100, 10),
+                broadPhase);
+    }
+
+    public void testEnableRestingBodies()
+    {
+        checkEnableResting(new World(new Vec2()), BodyType.DYNAMIC);
+    }
+
+    public void testEnableRestingOnStatic()
+    {
+        checkEnableResting(new World(new Vec2()), BodyType.STATIC);
+    }
+
+    public void testEnableRestingBodiesLayered()
+    {
+        checkEnableResting(createLayeredWorld(), BodyType.DYNAMIC);
+    }
+
+    public void testEnableRestingOnStaticLayered()
+    {
+        checkEnableResting(createLayeredWorld(), BodyType.STATIC);
+    }
+}
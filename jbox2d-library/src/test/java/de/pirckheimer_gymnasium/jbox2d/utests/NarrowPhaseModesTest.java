@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ChainShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Filter;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import junit.framework.TestCase;
+
+/**
+ * Steps the same scene with different ways of keeping and visiting the
+ * contacts, which must not change the simulation.
+ */
+public class NarrowPhaseModesTest extends TestCase
+{
+    private static final float DT = 1 / 60f;
+
+    /**
+     * The step at which every body must have fallen asleep.
+     */
+    private static final int ASLEEP = 400;
+
+    private static final int STEPS = 900;
+
+    /**
+     * Sets the contact handling of a world before a step.
+     */
+    private interface Mode
+    {
+        void apply(World world, int step);
+    }
+
+    private static World createScene()
+    {
+        World world = new World(new Vec2(0, -10));
+        BodyDef bd = new BodyDef();
+        Vec2[] vertices = { new Vec2(-20, 5), new Vec2(-20, 0),
+                new Vec2(20, 0), new Vec2(20, 5) };
+        ChainShape chain = new ChainShape();
+        chain.createChain(vertices, vertices.length);
+        world.createBody(bd).createFixture(chain, 0);
+        PolygonShape box = new PolygonShape();
+        box.setAsBox(0.5f, 0.5f);
+        CircleShape circle = new CircleShape();
+        circle.setRadius(0.5f);
+        bd.type = BodyType.DYNAMIC;
+        for (int row = 0; row < 8; row++)
+        {
+            for (int i = 0; i < 8 - row; i++)
+            {
+                bd.position.set(-4 + row * 0.5f + i * 1.05f,
+                        0.5f + row * 1.05f);
+                world.createBody(bd).createFixture(box, 1);
+            }
+        }
+        for (int i = 0; i < 6; i++)
+        {
+            bd.position.set(8 + i * 1.1f, 0.5f);
+            world.createBody(bd).createFixture(circle, 1);
+        }
+        return world;
+    }
+
+    /**
+     * Run the script of the scene for one step: let the bodies fall asleep,
+     * stop a sleeping circle from colliding, then wake the pile by dropping a
+     * ball onto it and push the circles.
+     */
+    private static void step(World world, int step)
+    {
+        if (step == ASLEEP + 10)
+        {
+            // A circle, which only touches the ground.
+            Body body = world.getBodyList();
+            while (body.getPosition().x < 7)
+            {
+                body = body.getNext();
+            }
+            Filter filter = new Filter();
+            filter.maskBits = 0;
+            body.getFixtureList().setFilterData(filter);
+        }
+        if (step == ASLEEP + 20)
+        {
+            BodyDef bd = new BodyDef();
+            bd.type = BodyType.DYNAMIC;
+            bd.position.set(-1, 12);
+            CircleShape ball = new CircleShape();
+            ball.setRadius(0.8f);
+            world.createBody(bd).createFixture(ball, 5);
+        }
+        if (step == ASLEEP + 200)
+        {
+            for (Body b = world.getBodyList(); b != null; b = b.getNext())
+            {
+                if (b.getPosition().x > 7)
+                {
+                    b.applyLinearImpulse(new Vec2(-2, 1), b.getWorldCenter(),
+                            true);
+                }
+            }
+        }
+        world.step(DT, 8, 3);
+    }
+
+    private static int countAwake(World world)
+    {
+        int awake = 0;
+        for (Body b = world.getBodyList(); b != null; b = b.getNext())
+        {
+            if (b.getType() == BodyType.DYNAMIC && b.isAwake())
+            {
+                awake++;
+            }
+        }
+        return awake;
+    }
+
+    private static void assertSameState(World expected, World actual)
+    {
+        assertEquals(expected.getBodyCount(), actual.getBodyCount());
+        Body a = actual.getBodyList();
+        for (Body e = expected.getBodyList(); e != null; e = e.getNext())
+        {
+            assertEquals(e.getPosition(), a.getPosition());
+            assertEquals(e.getAngle(), a.getAngle(), 0);
+            assertEquals(e.getLinearVelocity(), a.getLinearVelocity());
+            assertEquals(e.getAngularVelocity(), a.getAngularVelocity(), 0);
+            assertEquals(e.isAwake(), a.isAwake());
+            a = a.getNext();
+        }
+    }
+
+    /**
+     * Step a scene with the default contact handling and with the given mode
+     * side by side, comparing the bodies after every step.
+     */
+    private static void checkSameSimulation(Mode mode)
+    {
+        World expected = createScene();
+        World actual = createScene();
+        int wakeUps = 0;
+        int previousAwake = countAwake(expected);
+        for (int i = 0; i < STEPS; i++)
+        {
+            step(expected, i);
+            mode.apply(actual, i);
+            step(actual, i);
+            assertSameState(expected, actual);
+            int awake = countAwake(expected);
+            if (i == ASLEEP)
+            {
+                assertEquals(0, awake);
+            }
+            if (awake > previousAwake)
+            {
+                wakeUps++;
+            }
+            previousAwake = awake;
+        }
+        // The ball and the impulse woke sleeping bodies.
+        assertTrue(wakeUps >= 2);
+        assertEquals(expected.getContactCount(), actual.getContactCount());
+    }
+
+    public void testContactArrays()
+    {
+        checkSameSimulation((world, step) -> world.setContactArrays(true));
+    }
+
+    /**
+     * Switch the arrays on while the bodies sleep and off again while they
+     * are awake.
+     */
+    public void testToggleContactArrays()
+    {
+        checkSameSimulation((world, step) -> world
+                .setContactArrays(step >= ASLEEP - 100 && step < ASLEEP + 150));
+    }
+
+    public void testBatchedNarrowPhase()
+    {
+        checkSameSimulation(
+                (world, step) -> world.setBatchedNarrowPhase(true));
+    }
+
+    public void testBatchedNarrowPhaseWithContactArrays()
+    {
+        checkSameSimulation((world, step) -> {
+            world.setContactArrays(true);
+            world.setBatchedNarrowPhase(true);
+        });
+    }
+
+    /**
+     * Switch the batches on while the bodies sleep and off again while they
+     * are awake.
+     */
+    public void testToggleBatchedNarrowPhase()
+    {
+        checkSameSimulation((world, step) -> world.setBatchedNarrowPhase(
+                step >= ASLEEP - 100 && step < ASLEEP + 150));
+    }
+}
@@ -0,0 +1,655 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import de.pirckheimer_gymnasium.jbox2d.callbacks.DebugDraw;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.PairCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.RayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastCallback;
+import de.pirckheimer_gymnasium.jbox2d.callbacks.TreeRayCastPacketCallback;
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastInput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastOutput;
+import de.pirckheimer_gymnasium.jbox2d.collision.RayCastPacket;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DefaultBroadPhaseBuffer;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DynamicTree;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DynamicTreeFlatNodes;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.DynamicTreeOffHeap;
+import de.pirckheimer_gymnasium.jbox2d.collision.broadphase.LayeredBroadPhase;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.ChainShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.FixtureDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import de.pirckheimer_gymnasium.jbox2d.pooling.normal.DefaultWorldPool;
+import junit.framework.TestCase;
+
+/**
+ * Compares packet ray-casts with casting the rays one by one, both through
+ * {@link World#raycastClosest} and directly on the trees.
+ */
+public class PacketRayCastTest extends TestCase
+{
+    private static final float SIZE = 50;
+
+    private static final int RAY_COUNT = 300;
+
+    private final DefaultWorldPool pool = new DefaultWorldPool(100, 10);
+
+    private static float random(Random random, float lo, float hi)
+    {
+        return lo + random.nextFloat() * (hi - lo);
+    }
+
+    private static void populate(World world, Random random)
+    {
+        BodyDef bd = new BodyDef();
+        FixtureDef fd = new FixtureDef();
+        fd.density = 1;
+        for (int i = 0; i < 150; i++)
+        {
+            bd.type = i % 3 == 0 ? BodyType.STATIC : BodyType.DYNAMIC;
+            bd.position.set(random(random, -SIZE, SIZE),
+                    random(random, -SIZE, SIZE));
+            bd.angle = random(random, 0, 6);
+            Body body = world.createBody(bd);
+            if (i % 2 == 0)
+            {
+                PolygonShape box = new PolygonShape();
+                box.setAsBox(random(random, 0.2f, 2), random(random, 0.2f, 2));
+                fd.shape = box;
+            }
+            else
+            {
+                CircleShape circle = new CircleShape();
+                circle.setRadius(random(random, 0.2f, 2));
+                fd.shape = circle;
+            }
+            fd.isSensor = i % 7 == 0;
+            fd.filter.layer = i % 4;
+            body.createFixture(fd);
+        }
+        // A zig-zag chain across the world for many small children.
+        Vec2[] vertices = new Vec2[40];
+        for (int i = 0; i < vertices.length; i++)
+        {
+            vertices[i] = new Vec2(-SIZE + i * 2.5f, i % 2 == 0 ? -3 : 3);
+        }
+        ChainShape chain = new ChainShape();
+        chain.createChain(vertices, vertices.length);
+        fd.shape = chain;
+        fd.isSensor = false;
+        bd.type = BodyType.STATIC;
+        bd.position.setZero();
+        bd.angle = 0;
+        world.createBody(bd).createFixture(fd);
+    }
+
+    /**
+     * Fans of rays from a few centers, as for a field of view.
+     */
+    private static void coherentRays(Vec2[] p1, Vec2[] p2, Random random)
+    {
+        for (int i = 0; i < p1.length; i++)
+        {
+            if (i % 64 == 0)
+            {
+                p1[i] = new Vec2(random(random, -SIZE, SIZE),
+                        random(random, -SIZE, SIZE));
+            }
+            else
+            {
+                p1[i] = new Vec2(p1[i - 1]);
+            }
+            float angle = (i % 64) * 0.02f;
+            p2[i] = new Vec2(p1[i].x + 40 * (float) Math.cos(angle),
+                    p1[i].y + 40 * (float) Math.sin(angle));
+        }
+    }
+
+    /**
+     * Rays between random points, so packets share little of the traversal.
+     */
+    private static void incoherentRays(Vec2[] p1, Vec2[] p2, Random random)
+    {
+        for (int i = 0; i < p1.length; i++)
+        {
+            p1[i] = new Vec2(random(random, -SIZE, SIZE),
+                    random(random, -SIZE, SIZE));
+            p2[i] = new Vec2(random(random, -SIZE, SIZE),
+                    random(random, -SIZE, SIZE));
+        }
+    }
+
+    /**
+     * Rays that end early: short rays, rays of zero length and rays that start
+     * on the chain, mixed with long rays in the same packets.
+     */
+    private static void shortRays(Vec2[] p1, Vec2[] p2, Random random)
+    {
+        for (int i = 0; i < p1.length; i++)
+        {
+            p1[i] = new Vec2(random(random, -SIZE, SIZE),
+                    random(random, -SIZE, SIZE));
+            switch (i % 4)
+            {
+                case 0:
+                    p2[i] = new Vec2(p1[i].x + random(random, -1, 1),
+                            p1[i].y + random(random, -1, 1));
+                    break;
+
+                case 1:
+                    p2[i] = new Vec2(p1[i]);
+                    break;
+
+                case 2:
+                    p1[i].y = i % 8 == 2 ? -3 : 3;
+                    p2[i] = new Vec2(p1[i].x, -p1[i].y * 10);
+                    break;
+
+                default:
+                    p2[i] = new Vec2(-p1[i].x, -p1[i].y);
+            }
+        }
+    }
+
+    private static class Closest implements RayCastCallback
+    {
+        Fixture fixture;
+
+        final Vec2 point = new Vec2();
+
+        final Vec2 normal = new Vec2();
+
+        float fraction;
+
+        @Override
+        public float reportFixture(Fixture fixture, Vec2 point, Vec2 normal,
+                float fraction)
+        {
+            if (fixture.isSensor())
+            {
+                return -1;
+            }
+            this.fixture = fixture;
+            this.point.set(point);
+            this.normal.set(normal);
+            this.fraction = fraction;
+            return fraction;
+        }
+    }
+
+    private static void checkClosest(World world, Vec2[] p1, Vec2[] p2)
+    {
+        int count = p1.length;
+        Fixture[] fixtures = new Fixture[count];
+        Vec2[] points = new Vec2[count];
+        Vec2[] normals = new Vec2[count];
+        float[] fractions = new float[count];
+        for (int i = 0; i < count; i++)
+        {
+            points[i] = new Vec2();
+            normals[i] = new Vec2();
+        }
+        int hits = world.raycastClosest(p1, p2, count, fixtures, points,
+                normals, fractions);
+        int expectedHits = 0;
+        Closest closest = new Closest();
+        for (int i = 0; i < count; i++)
+        {
+            closest.fixture = null;
+            if (!p1[i].equals(p2[i]))
+            {
+                world.raycast(closest, p1[i], p2[i]);
+            }
+            assertSame(closest.fixture, fixtures[i]);
+            if (closest.fixture != null)
+            {
+                expectedHits++;
+                assertEquals(closest.point, points[i]);
+                assertEquals(closest.normal, normals[i]);
+                assertEquals(closest.fraction, fractions[i], 0);
+            }
+            else
+            {
+                assertEquals(1, fractions[i], 0);
+            }
+        }
+        assertEquals(expectedHits, hits);
+        // Most rays of the scene hit something, some miss.
+        assertTrue(hits > 0);
+    }
+
+    private static void checkClosest(World world)
+    {
+        Random random = new Random(7);
+        populate(world, random);
+        Vec2[] p1 = new Vec2[RAY_COUNT];
+        Vec2[] p2 = new Vec2[RAY_COUNT];
+        coherentRays(p1, p2, random);
+        checkClosest(world, p1, p2);
+        incoherentRays(p1, p2, random);
+        checkClosest(world, p1, p2);
+        shortRays(p1, p2, random);
+        checkClosest(world, p1, p2);
+        // Fewer rays than a packet.
+        checkClosest(world, Arrays.copyOf(p1, 5), Arrays.copyOf(p2, 5));
+    }
+
+    public void testClosestDynamicTree()
+    {
+        checkClosest(new World(new Vec2(), pool, new DynamicTree()));
+    }
+
+    public void testClosestFlatNodes()
+    {
+        checkClosest(new World(new Vec2(), pool, new DynamicTreeFlatNodes()));
+    }
+
+    public void testClosestOffHeap()
+    {
+        checkClosest(new World(new Vec2(), pool, new DynamicTreeOffHeap()));
+    }
+
+    public void testClosestLayered()
+    {
+        checkClosest(new World(new Vec2(), pool,
+                new LayeredBroadPhase(new WorldSettings())));
+    }
+
+    public void testClosestSingleRayFallback()
+    {
+        checkClosest(new World(new Vec2(), pool,
+                new SingleRayBroadPhase(new DynamicTree())));
+    }
+
+    private static BroadPhaseStrategy populate(BroadPhaseStrategy tree)
+    {
+        Random random = new Random(11);
+        AABB aabb = new AABB();
+        int[] ids = new int[300];
+        for (int i = 0; i < ids.length; i++)
+        {
+            float x = random(random, -SIZE, SIZE);
+            float y = random(random, -SIZE, SIZE);
+            float h = random(random, 0.2f, 2);
+            aabb.lowerBound.set(x - h, y - h);
+            aabb.upperBound.set(x + h, y + h);
+            ids[i] = tree.createProxy(aabb, i);
+        }
+        // Leave holes in the nodes and reshape the tree.
+        Vec2 displacement = new Vec2();
+        for (int i = 0; i < ids.length; i += 5)
+        {
+            tree.destroyProxy(ids[i]);
+            displacement.set(random(random, -5, 5), random(random, -5, 5));
+            aabb.set(tree.getFatAABB(ids[i + 1]));
+            aabb.lowerBound.addLocal(displacement);
+            aabb.upperBound.addLocal(displacement);
+            tree.moveProxy(ids[i + 1], aabb, displacement);
+        }
+        return tree;
+    }
+
+    private static BroadPhaseStrategy[] createTrees()
+    {
+        return new BroadPhaseStrategy[] { populate(new DynamicTree()),
+                populate(new DynamicTreeFlatNodes()),
+                populate(new DynamicTreeOffHeap()) };
+    }
+
+    private static RayCastPacket createPacket(long seed, int count,
+            boolean coherent)
+    {
+        Random random = new Random(seed);
+        Vec2[] p1 = new Vec2[count];
+        Vec2[] p2 = new Vec2[count];
+        if (coherent)
+        {
+            coherentRays(p1, p2, random);
+        }
+        else
+        {
+            incoherentRays(p1, p2, random);
+        }
+        RayCastPacket packet = new RayCastPacket();
+        for (int i = 0; i < count; i++)
+        {
+            packet.add(p1[i], p2[i], 1);
+        }
+        return packet;
+    }
+
+    /**
+     * Records the leaves each ray visits. Rays in {@link #terminate} are
+     * terminated at their first leaf, the others either continue unchanged
+     * or are clipped to the closest fat AABB.
+     */
+    private class Recorder
+            implements TreeRayCastCallback, TreeRayCastPacketCallback
+    {
+        final BroadPhaseStrategy tree;
+
+        final boolean closest;
+
+        long terminate;
+
+        final BitSet[] leaves = new BitSet[RayCastPacket.MAX_RAYS];
+
+        final int[] calls = new int[RayCastPacket.MAX_RAYS];
+
+        final int[] best = new int[RayCastPacket.MAX_RAYS];
+
+        final float[] bestFraction = new float[RayCastPacket.MAX_RAYS];
+
+        private final RayCastOutput output = new RayCastOutput();
+
+        private final RayCastInput input = new RayCastInput();
+
+        private int ray;
+
+        Recorder(BroadPhaseStrategy tree, boolean closest)
+        {
+            this.tree = tree;
+            this.closest = closest;
+            for (int i = 0; i < leaves.length; i++)
+            {
+                leaves[i] = new BitSet();
+                best[i] = -1;
+                bestFraction[i] = 1;
+            }
+        }
+
+        /**
+         * Cast the rays of the packet one after another.
+         */
+        void castEach(RayCastPacket packet)
+        {
+            for (ray = 0; ray < packet.getCount(); ray++)
+            {
+                packet.getInput(ray, input);
+                tree.raycast(this, input);
+            }
+        }
+
+        @Override
+        public float raycastCallback(RayCastInput input, int nodeId)
+        {
+            return raycastCallback(input, nodeId, ray);
+        }
+
+        @Override
+        public float raycastCallback(RayCastInput input, int nodeId, int ray)
+        {
+            assertFalse(leaves[ray].get(nodeId));
+            leaves[ray].set(nodeId);
+            calls[ray]++;
+            if ((terminate >>> ray & 1) != 0)
+            {
+                return 0;
+            }
+            if (closest && tree.getFatAABB(nodeId).raycast(output, input, pool))
+            {
+                best[ray] = nodeId;
+                bestFraction[ray] = output.fraction;
+                return output.fraction;
+            }
+            return -1;
+        }
+    }
+
+    public void testTreeVisitsSameLeaves()
+    {
+        for (BroadPhaseStrategy tree : createTrees())
+        {
+            for (int count : new int[] { RayCastPacket.MAX_RAYS, 23 })
+            {
+                for (boolean coherent : new boolean[] { true, false })
+                {
+                    Recorder each = new Recorder(tree, false);
+                    each.castEach(createPacket(count, count, coherent));
+                    Recorder packet = new Recorder(tree, false);
+                    tree.raycast(packet, createPacket(count, count, coherent));
+                    int visited = 0;
+                    for (int ray = 0; ray < count; ray++)
+                    {
+                        assertEquals(each.leaves[ray], packet.leaves[ray]);
+                        visited += each.calls[ray];
+                    }
+                    assertTrue(visited > 0);
+                }
+            }
+        }
+    }
+
+    public void testTreeClosest()
+    {
+        for (BroadPhaseStrategy tree : createTrees())
+        {
+            for (boolean coherent : new boolean[] { true, false })
+            {
+                Recorder each = new Recorder(tree, true);
+                each.castEach(createPacket(3, RayCastPacket.MAX_RAYS,
+                        coherent));
+                Recorder closest = new Recorder(tree, true);
+                RayCastPacket packet = createPacket(3, RayCastPacket.MAX_RAYS,
+                        coherent);
+                tree.raycast(closest, packet);
+                for (int ray = 0; ray < RayCastPacket.MAX_RAYS; ray++)
+                {
+                    assertEquals(each.best[ray], closest.best[ray]);
+                    assertEquals(each.bestFraction[ray],
+                            closest.bestFraction[ray], 0);
+                    assertEquals(each.bestFraction[ray],
+                            packet.getMaxFraction(ray), 0);
+                }
+            }
+        }
+    }
+
+    public void testTreeTerminatedRays()
+    {
+        for (BroadPhaseStrategy tree : createTrees())
+        {
+            Recorder each = new Recorder(tree, false);
+            each.castEach(createPacket(5, RayCastPacket.MAX_RAYS, false));
+            // Terminate the even rays, the odd ones must not notice.
+            Recorder half = new Recorder(tree, false);
+            half.terminate = 0x5555555555555555L;
+            tree.raycast(half,
+                    createPacket(5, RayCastPacket.MAX_RAYS, false));
+            // Terminate every ray, which ends the traversal.
+            Recorder all = new Recorder(tree, false);
+            all.terminate = -1L;
+            tree.raycast(all, createPacket(5, RayCastPacket.MAX_RAYS, false));
+            for (int ray = 0; ray < RayCastPacket.MAX_RAYS; ray++)
+            {
+                int expected = each.calls[ray] > 0 ? 1 : 0;
+                assertEquals(expected, all.calls[ray]);
+                if (ray % 2 == 0)
+                {
+                    assertEquals(expected, half.calls[ray]);
+                }
+                else
+                {
+                    assertEquals(each.leaves[ray], half.leaves[ray]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A packet cast from within the callback of another one must not disturb
+     * the outer traversal.
+     */
+    public void testTreeNested()
+    {
+        for (final BroadPhaseStrategy tree : createTrees())
+        {
+            final Recorder expectedOuter = new Recorder(tree, true);
+            expectedOuter.castEach(createPacket(8, 40, true));
+            final Recorder expectedInner = new Recorder(tree, false);
+            expectedInner.castEach(createPacket(9, 30, false));
+            Recorder outer = new Recorder(tree, true)
+            {
+                @Override
+                public float raycastCallback(RayCastInput input, int nodeId,
+                        int ray)
+                {
+                    Recorder inner = new Recorder(tree, false);
+                    tree.raycast(inner, createPacket(9, 30, false));
+                    for (int i = 0; i < 30; i++)
+                    {
+                        assertEquals(expectedInner.leaves[i], inner.leaves[i]);
+                    }
+                    return super.raycastCallback(input, nodeId, ray);
+                }
+            };
+            tree.raycast(outer, createPacket(8, 40, true));
+            for (int ray = 0; ray < 40; ray++)
+            {
+                assertEquals(expectedOuter.best[ray], outer.best[ray]);
+                assertEquals(expectedOuter.bestFraction[ray],
+                        outer.bestFraction[ray], 0);
+            }
+        }
+    }
+
+    /**
+     * A broad-phase without a packet traversal, to exercise the default of
+     * {@link BroadPhase}.
+     */
+    private static class SingleRayBroadPhase implements BroadPhase
+    {
+        private final BroadPhase delegate;
+
+        SingleRayBroadPhase(BroadPhaseStrategy tree)
+        {
+            delegate = new DefaultBroadPhaseBuffer(tree);
+        }
+
+        @Override
+        public int createProxy(AABB aabb, Object userData)
+        {
+            return delegate.createProxy(aabb, userData);
+        }
+
+        @Override
+        public void destroyProxy(int proxyId)
+        {
+            delegate.destroyProxy(proxyId);
+        }
+
+        @Override
+        public void moveProxy(int proxyId, AABB aabb, Vec2 displacement)
+        {
+            delegate.moveProxy(proxyId, aabb, displacement);
+        }
+
+        @Override
+        public void touchProxy(int proxyId)
+        {
+            delegate.touchProxy(proxyId);
+        }
+
+        @Override
+        public Object getUserData(int proxyId)
+        {
+            return delegate.getUserData(proxyId);
+        }
+
+        @Override
+        public AABB getFatAABB(int proxyId)
+        {
+            return delegate.getFatAABB(proxyId);
+        }
+
+        @Override
+        public boolean testOverlap(int proxyIdA, int proxyIdB)
+        {
+            return delegate.testOverlap(proxyIdA, proxyIdB);
+        }
+
+        @Override
+        public int getProxyCount()
+        {
+            return delegate.getProxyCount();
+        }
+
+        @Override
+        public void drawTree(DebugDraw argDraw)
+        {
+            delegate.drawTree(argDraw);
+        }
+
+        @Override
+        public void updatePairs(PairCallback callback)
+        {
+            delegate.updatePairs(callback);
+        }
+
+        @Override
+        public void query(TreeCallback callback, AABB aabb)
+        {
+            delegate.query(callback, aabb);
+        }
+
+        @Override
+        public void raycast(TreeRayCastCallback callback, RayCastInput input)
+        {
+            delegate.raycast(callback, input);
+        }
+
+        @Override
+        public int getTreeHeight()
+        {
+            return delegate.getTreeHeight();
+        }
+
+        @Override
+        public int getTreeBalance()
+        {
+            return delegate.getTreeBalance();
+        }
+
+        @Override
+        public float getTreeQuality()
+        {
+            return delegate.getTreeQuality();
+        }
+    }
+}
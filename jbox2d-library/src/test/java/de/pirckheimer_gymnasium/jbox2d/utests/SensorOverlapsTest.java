@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.FixtureDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.SensorOverlaps;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import junit.framework.TestCase;
+
+public class SensorOverlapsTest extends TestCase
+{
+    private static final float DT = 1 / 60f;
+
+    private World world;
+
+    private Body sensorBody;
+
+    private Fixture sensor;
+
+    private Fixture visitor;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        world = new World(new Vec2());
+        world.setSensorOverlaps(true);
+        BodyDef bd = new BodyDef();
+        sensorBody = world.createBody(bd);
+        CircleShape circle = new CircleShape();
+        circle.setRadius(1);
+        FixtureDef fd = new FixtureDef();
+        fd.shape = circle;
+        fd.isSensor = true;
+        sensor = sensorBody.createFixture(fd);
+        bd.type = BodyType.DYNAMIC;
+        bd.position.set(0.5f, 0);
+        Body visitorBody = world.createBody(bd);
+        fd.isSensor = false;
+        fd.density = 1;
+        visitor = visitorBody.createFixture(fd);
+        world.step(DT, 8, 3);
+        SensorOverlaps overlaps = world.getSensorOverlaps();
+        assertEquals(1, overlaps.getBeginCount());
+        assertEquals(1, overlaps.getOverlapCount(sensor));
+    }
+
+    private void checkEnded()
+    {
+        world.step(DT, 8, 3);
+        SensorOverlaps overlaps = world.getSensorOverlaps();
+        assertEquals(0, overlaps.getSensorCount());
+        assertEquals(0, overlaps.getBeginCount());
+        assertEquals(1, overlaps.getEndCount());
+        assertSame(sensor, overlaps.getEndSensor(0));
+        assertSame(visitor, overlaps.getEndVisitor(0));
+        // The end is reported only once.
+        world.step(DT, 8, 3);
+        assertEquals(0, overlaps.getEndCount());
+    }
+
+    public void testSetSensorFalse()
+    {
+        sensor.setSensor(false);
+        checkEnded();
+    }
+
+    public void testDestroySensorFixture()
+    {
+        sensorBody.destroyFixture(sensor);
+        checkEnded();
+    }
+
+    public void testDestroySensorBody()
+    {
+        world.destroyBody(sensorBody);
+        checkEnded();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.AABB;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Transform;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import junit.framework.TestCase;
+
+public class WorldQueryTest extends TestCase
+{
+    private static final int COUNT = 10;
+
+    private World world;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        world = new World(new Vec2());
+        CircleShape circle = new CircleShape();
+        circle.setRadius(1);
+        BodyDef bd = new BodyDef();
+        for (int i = 0; i < COUNT; i++)
+        {
+            bd.position.set(0.1f * i, 0);
+            world.createBody(bd).createFixture(circle, 0);
+        }
+    }
+
+    private static void checkStored(Fixture[] fixtures, int stored)
+    {
+        for (int i = 0; i < stored; i++)
+        {
+            assertNotNull(fixtures[i]);
+            for (int j = 0; j < i; j++)
+            {
+                assertNotSame(fixtures[j], fixtures[i]);
+            }
+        }
+    }
+
+    public void testQueryAABBOverflow()
+    {
+        AABB aabb = new AABB(new Vec2(-0.5f, -0.5f), new Vec2(0.5f, 0.5f));
+        Fixture[] fixtures = new Fixture[COUNT];
+        assertEquals(COUNT, world.queryAABB(aabb, -1, fixtures, null));
+        checkStored(fixtures, COUNT);
+        fixtures = new Fixture[3];
+        int[] children = new int[3];
+        assertEquals(COUNT, world.queryAABB(aabb, -1, fixtures, children));
+        checkStored(fixtures, 3);
+        assertEquals(COUNT, world.queryAABB(aabb, -1, new Fixture[0], null));
+    }
+
+    public void testQueryPointOverflow()
+    {
+        Fixture[] fixtures = new Fixture[4];
+        assertEquals(COUNT, world.queryPoint(new Vec2(0.5f, 0), -1, fixtures));
+        checkStored(fixtures, 4);
+    }
+
+    public void testQueryShapeOverflow()
+    {
+        CircleShape circle = new CircleShape();
+        circle.setRadius(0.1f);
+        Transform xf = new Transform();
+        xf.p.set(0.5f, 0);
+        Fixture[] fixtures = new Fixture[2];
+        assertEquals(COUNT,
+                world.queryShape(circle, xf, -1, fixtures, new int[2]));
+        checkStored(fixtures, 2);
+    }
+
+    public void testQueryAABBsOverflow()
+    {
+        int count = 20;
+        AABB[] aabbs = new AABB[count];
+        for (int i = 0; i < count; i++)
+        {
+            aabbs[i] = new AABB(new Vec2(-0.1f, 0), new Vec2(0.1f, 0.1f));
+        }
+        // Each fixture is found once per box.
+        Fixture[] fixtures = new Fixture[COUNT * count];
+        int[] boxes = new int[fixtures.length];
+        assertEquals(COUNT * count,
+                world.queryAABBs(aabbs, count, -1, fixtures, null, boxes));
+        fixtures = new Fixture[5];
+        boxes = new int[5];
+        assertEquals(COUNT * count,
+                world.queryAABBs(aabbs, count, -1, fixtures, null, boxes));
+        for (int i = 0; i < fixtures.length; i++)
+        {
+            assertNotNull(fixtures[i]);
+            assertTrue(boxes[i] >= 0 && boxes[i] < count);
+        }
+    }
+}
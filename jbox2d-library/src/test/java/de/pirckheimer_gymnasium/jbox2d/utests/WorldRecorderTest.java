@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Fixture;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import de.pirckheimer_gymnasium.jbox2d.recording.WorldRecorder;
+import de.pirckheimer_gymnasium.jbox2d.recording.WorldReplayer;
+import junit.framework.TestCase;
+
+public class WorldRecorderTest extends TestCase
+{
+    private static final float DT = 1 / 60f;
+
+    private static final int STEPS = 300;
+
+    private static Body createBody(World world, float x, float y, int i)
+    {
+        BodyDef bd = new BodyDef();
+        bd.type = BodyType.DYNAMIC;
+        bd.position.set(x, y);
+        bd.bullet = i % 5 == 0;
+        Body body = world.createBody(bd);
+        if (i % 2 == 0)
+        {
+            PolygonShape box = new PolygonShape();
+            box.setAsBox(0.5f, 0.25f);
+            body.createFixture(box, 1);
+        }
+        else
+        {
+            CircleShape circle = new CircleShape();
+            circle.radius = 0.4f;
+            body.createFixture(circle, 2);
+        }
+        return body;
+    }
+
+    /**
+     * Run a session that creates and destroys bodies and fixtures, applies
+     * impulses and forces and teleports bodies while it is recorded.
+     */
+    private static World record(ByteArrayOutputStream out)
+    {
+        World world = new World(new Vec2(0, -10));
+        PolygonShape ground = new PolygonShape();
+        ground.setAsBox(20, 0.5f);
+        world.createBody(new BodyDef()).createFixture(ground, 0);
+        List<Body> bodies = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            bodies.add(createBody(world, i - 5, 2, i));
+        }
+        // Start with a populated world.
+        WorldRecorder recorder = new WorldRecorder(out);
+        recorder.start(world);
+        for (int step = 0; step < STEPS; step++)
+        {
+            if (step % 20 == 0)
+            {
+                bodies.add(createBody(world, (step / 20) % 9 - 4, 8,
+                        bodies.size()));
+            }
+            if (step % 30 == 5)
+            {
+                Body b = bodies.get(step % bodies.size());
+                b.applyLinearImpulse(new Vec2(2, 8), b.getWorldCenter(),
+                        true);
+                b.applyAngularImpulse(0.5f);
+            }
+            if (step % 45 == 10)
+            {
+                Body b = bodies.get((step / 45) % bodies.size());
+                b.setTransform(new Vec2(0, 6), 0.3f);
+                b.setLinearVelocity(new Vec2(-1, 0));
+            }
+            if (step % 50 == 25)
+            {
+                world.destroyBody(bodies.remove(0));
+            }
+            if (step == 120)
+            {
+                Body b = bodies.get(0);
+                CircleShape circle = new CircleShape();
+                circle.radius = 0.2f;
+                circle.p.set(0.6f, 0);
+                b.createFixture(circle, 1);
+            }
+            if (step == 180)
+            {
+                Body b = bodies.get(1);
+                Fixture f = b.getFixtureList();
+                CircleShape circle = new CircleShape();
+                circle.radius = 0.3f;
+                b.createFixture(circle, 1);
+                b.destroyFixture(f);
+            }
+            bodies.get(bodies.size() - 1).applyForceToCenter(new Vec2(3, 0));
+            world.step(DT, 8, 3);
+        }
+        recorder.close();
+        return world;
+    }
+
+    public void testReplayMatchesSession() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        World session = record(out);
+        WorldReplayer replayer = new WorldReplayer(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(STEPS, replayer.replayAll());
+        World replay = replayer.getWorld();
+        assertEquals(session.getBodyCount(), replay.getBodyCount());
+        Body b = session.getBodyList();
+        Body r = replay.getBodyList();
+        while (b != null)
+        {
+            assertEquals(b.getType(), r.getType());
+            assertEquals(b.getPosition().x, r.getPosition().x, 0.0f);
+            assertEquals(b.getPosition().y, r.getPosition().y, 0.0f);
+            assertEquals(b.getAngle(), r.getAngle(), 0.0f);
+            assertEquals(b.getLinearVelocity().x, r.getLinearVelocity().x,
+                    0.0f);
+            assertEquals(b.getLinearVelocity().y, r.getLinearVelocity().y,
+                    0.0f);
+            assertEquals(b.isAwake(), r.isAwake());
+            b = b.getNext();
+            r = r.getNext();
+        }
+        assertNull(r);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.utests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.CircleShape;
+import de.pirckheimer_gymnasium.jbox2d.collision.shapes.PolygonShape;
+import de.pirckheimer_gymnasium.jbox2d.common.Settings;
+import de.pirckheimer_gymnasium.jbox2d.common.Vec2;
+import de.pirckheimer_gymnasium.jbox2d.common.WorldSettings;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyDef;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.BodyType;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import junit.framework.TestCase;
+
+public class WorldSettingsTest extends TestCase
+{
+    private static final int WORLDS = 8;
+
+    private static final int STEPS = 300;
+
+    private static World createWorld(WorldSettings settings)
+    {
+        World world = new World(new Vec2(0, -10), settings);
+        PolygonShape ground = new PolygonShape();
+        ground.setAsBox(20, 0.5f);
+        world.createBody(new BodyDef()).createFixture(ground, 0);
+        PolygonShape box = new PolygonShape();
+        box.setAsBox(0.5f, 0.5f);
+        CircleShape circle = new CircleShape();
+        circle.radius = 0.4f;
+        for (int i = 0; i < 40; i++)
+        {
+            BodyDef bd = new BodyDef();
+            bd.type = BodyType.DYNAMIC;
+            bd.position.set((i % 8) - 4 + 0.1f * (i / 8), 1 + 1.1f * (i / 8));
+            bd.bullet = i % 5 == 0;
+            world.createBody(bd).createFixture(i % 2 == 0 ? box : circle, 1);
+        }
+        return world;
+    }
+
+    private static float[] simulate(WorldSettings settings)
+    {
+        World world = createWorld(settings);
+        for (int i = 0; i < STEPS; i++)
+        {
+            world.step(1 / 60f, 8, 3);
+        }
+        float[] state = new float[3 * world.getBodyCount()];
+        int n = 0;
+        for (Body b = world.getBodyList(); b != null; b = b.getNext())
+        {
+            state[n++] = b.getPosition().x;
+            state[n++] = b.getPosition().y;
+            state[n++] = b.getAngle();
+        }
+        return state;
+    }
+
+    public void testDefaultsFromSettings()
+    {
+        WorldSettings settings = new WorldSettings();
+        assertEquals(Settings.linearSlop, settings.linearSlop);
+        assertEquals(Settings.aabbExtension, settings.aabbExtension);
+        assertEquals(Settings.maxSubSteps, settings.maxSubSteps);
+        World world = new World(new Vec2(0, -10));
+        assertEquals(Settings.baumgarte, world.getSettings().baumgarte);
+    }
+
+    public void testWorldsAreIndependent()
+    {
+        WorldSettings awake = new WorldSettings();
+        awake.timeToSleep = Float.MAX_VALUE;
+        WorldSettings sleepy = new WorldSettings();
+        sleepy.timeToSleep = 0.1f;
+        sleepy.linearSleepTolerance = 1.0f;
+        sleepy.angularSleepTolerance = 1.0f;
+        World a = createWorld(awake);
+        World b = createWorld(sleepy);
+        for (int i = 0; i < STEPS; i++)
+        {
+            a.step(1 / 60f, 8, 3);
+            b.step(1 / 60f, 8, 3);
+        }
+        int awakeA = 0;
+        for (Body body = a.getBodyList(); body != null; body = body.getNext())
+        {
+            if (body.isAwake() && body.getType() == BodyType.DYNAMIC)
+            {
+                awakeA++;
+            }
+        }
+        int awakeB = 0;
+        for (Body body = b.getBodyList(); body != null; body = body.getNext())
+        {
+            if (body.isAwake() && body.getType() == BodyType.DYNAMIC)
+            {
+                awakeB++;
+            }
+        }
+        assertEquals(40, awakeA);
+        assertEquals(0, awakeB);
+        assertEquals(0.5f, Settings.timeToSleep);
+    }
+
+    public void testConcurrentWorldsMatchSequential() throws Exception
+    {
+        final float[] expected = simulate(new WorldSettings());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<float[]>> results = new ArrayList<>();
+            for (int i = 0; i < WORLDS; i++)
+            {
+                results.add(executor.submit(new Callable<float[]>()
+                {
+                    @Override
+                    public float[] call()
+                    {
+                        return simulate(new WorldSettings());
+                    }
+                }));
+            }
+            for (Future<float[]> result : results)
+            {
+                float[] actual = result.get();
+                assertEquals(expected.length, actual.length);
+                for (int i = 0; i < expected.length; i++)
+                {
+                    assertEquals(expected[i], actual[i], 0.0f);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Body;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.Profile;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.ProfileMode;
+import de.pirckheimer_gymnasium.jbox2d.dynamics.World;
+import de.pirckheimer_gymnasium.jbox2d.profiling.ProfilePhase;
+import de.pirckheimer_gymnasium.jbox2d.profiling.StepCounter;
+import de.pirckheimer_gymnasium.jbox2d.profiling.StepProfiler;
+
+/**
+ * Health metrics of a single world, published as an MXBean.
+ *
+ * <p>
+ * The metrics are refreshed from the stepping thread every
+ * {@link #getRefreshInterval()} steps and kept in a snapshot, so reading them
+ * from a JMX or metrics thread never touches the world. Since this is a
+ * {@link StepProfiler}, the phase histograms and counter totals are available
+ * as well.
+ * </p>
+ *
+ * <pre>
+ * WorldMetrics metrics = WorldMetrics.attach(world, "match-42");
+ * metrics.register();
+ * ...
+ * metrics.unregister();
+ * </pre>
+ */
+public class WorldMetrics extends StepProfiler implements WorldMetricsMXBean
+{
+    /**
+     * The JMX domain of all world MBeans.
+     */
+    public static final String DOMAIN = "de.pirckheimer_gymnasium.jbox2d";
+
+    private static final ProfilePhase[] PHASES = ProfilePhase.values();
+
+    private static final StepCounter[] COUNTERS = StepCounter.values();
+
+    private final World world;
+
+    private volatile int refreshInterval = 60;
+
+    private int stepsSinceRefresh;
+
+    private volatile boolean resetRequested;
+
+    // The steps and counter totals cleared by resets, so the lifetime values
+    // never go backwards. Only accessed from the stepping thread.
+    private long stepsBeforeReset;
+
+    private final long[] totalsBeforeReset = new long[COUNTERS.length];
+
+    private ObjectName objectName;
+
+    private MBeanServer server;
+
+    private volatile Snapshot snapshot = new Snapshot();
+
+    /**
+     * Immutable values of one refresh.
+     */
+    private static class Snapshot
+    {
+        long stepCount;
+
+        long lifetimeStepCount;
+
+        long[] lifetimeTotals = new long[COUNTERS.length];
+
+        int bodyCount;
+
+        int awakeBodyCount;
+
+        int jointCount;
+
+        int contactCount;
+
+        int proxyCount;
+
+        int treeHeight;
+
+        float treeQuality;
+
+        int particleCount;
+
+        int islandCount;
+
+        long contactsCreated;
+
+        long contactsDestroyed;
+
+        long toiComputations;
+
+        double stepTime;
+
+        double stepTimeP99;
+
+        Map<String, Double> phaseTimes = Collections.emptyMap();
+    }
+
+    /**
+     * Create metrics for a world without attaching them, see
+     * {@link #attach(World, String)}.
+     */
+    public WorldMetrics(World world, String name)
+    {
+        super(name);
+        this.world = world;
+    }
+
+    /**
+     * Create metrics for a world and install them as its profiler. The timings
+     * stay empty while the world runs with {@link ProfileMode#OFF}.
+     */
+    public static WorldMetrics attach(World world, String name)
+    {
+        WorldMetrics metrics = new WorldMetrics(world, name);
+        world.setProfiler(metrics);
+        metrics.refresh(world.getProfile());
+        return metrics;
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    @Override
+    public int getRefreshInterval()
+    {
+        return refreshInterval;
+    }
+
+    @Override
+    public void setRefreshInterval(int steps)
+    {
+        if (steps < 1)
+        {
+            throw new IllegalArgumentException(
+                    "refresh interval must be positive: " + steps);
+        }
+        refreshInterval = steps;
+    }
+
+    @Override
+    public void endStep(Profile profile)
+    {
+        if (resetRequested)
+        {
+            resetRequested = false;
+            stepsBeforeReset += getStepCount();
+            for (int i = 0; i < COUNTERS.length; ++i)
+            {
+                totalsBeforeReset[i] += getCounterTotal(COUNTERS[i]);
+            }
+            super.reset();
+        }
+        super.endStep(profile);
+        if (++stepsSinceRefresh >= refreshInterval)
+        {
+            stepsSinceRefresh = 0;
+            refresh(profile);
+        }
+    }
+
+    /**
+     * Take a new snapshot. Must be called from the thread that steps the
+     * world, this is done automatically by {@link #endStep(Profile)}.
+     */
+    public void refresh(Profile profile)
+    {
+        Snapshot s = new Snapshot();
+        s.stepCount = getStepCount();
+        s.lifetimeStepCount = stepsBeforeReset + s.stepCount;
+        for (int i = 0; i < COUNTERS.length; ++i)
+        {
+            s.lifetimeTotals[i] = totalsBeforeReset[i]
+                    + getCounterTotal(COUNTERS[i]);
+        }
+        s.bodyCount = world.getBodyCount();
+        for (Body b = world.getBodyList(); b != null; b = b.getNext())
+        {
+            if (b.isAwake())
+            {
+                ++s.awakeBodyCount;
+            }
+        }
+        s.jointCount = world.getJointCount();
+        s.contactCount = world.getContactCount();
+        s.proxyCount = world.getProxyCount();
+        s.treeHeight = world.getTreeHeight();
+        s.treeQuality = world.getTreeQuality();
+        s.particleCount = world.getParticleCount();
+        s.islandCount = profile.islandCount;
+        s.contactsCreated = getCounterTotal(StepCounter.CONTACTS_CREATED);
+        s.contactsDestroyed = getCounterTotal(StepCounter.CONTACTS_DESTROYED);
+        s.toiComputations = getCounterTotal(StepCounter.TOI_COMPUTATIONS);
+        s.stepTime = profile.step.getLongAvg();
+        s.stepTimeP99 = getHistogram(ProfilePhase.STEP)
+                .getValueAtPercentile(99) / 1e6;
+        Map<String, Double> phaseTimes = new LinkedHashMap<>();
+        for (ProfilePhase phase : PHASES)
+        {
+            phaseTimes.put(phase.label,
+                    (double) phase.entry(profile).getLongAvg());
+        }
+        s.phaseTimes = Collections.unmodifiableMap(phaseTimes);
+        snapshot = s;
+    }
+
+    /**
+     * Register with the platform MBean server.
+     */
+    public ObjectName register() throws JMException
+    {
+        return register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Register as {@code <DOMAIN>:type=World,name=<name>}, the name being
+     * quoted.
+     */
+    public ObjectName register(MBeanServer server) throws JMException
+    {
+        if (objectName != null)
+        {
+            throw new IllegalStateException("already registered");
+        }
+        ObjectName name = new ObjectName(DOMAIN + ":type=World,name="
+                + ObjectName.quote(getName()));
+        server.registerMBean(this, name);
+        this.server = server;
+        objectName = name;
+        return name;
+    }
+
+    public void unregister() throws JMException
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        try
+        {
+            server.unregisterMBean(objectName);
+        }
+        finally
+        {
+            objectName = null;
+            server = null;
+        }
+    }
+
+    public ObjectName getObjectName()
+    {
+        return objectName;
+    }
+
+    /**
+     * Clear the histograms and counter totals. The reset is deferred to the
+     * end of the next step, so it is safe to call from any thread. The
+     * lifetime values are not cleared.
+     */
+    @Override
+    public void reset()
+    {
+        resetRequested = true;
+    }
+
+    @Override
+    public long getSnapshotStepCount()
+    {
+        return snapshot.stepCount;
+    }
+
+    /**
+     * Get the steps since the metrics were created, including those before
+     * any reset.
+     */
+    public long getLifetimeStepCount()
+    {
+        return snapshot.lifetimeStepCount;
+    }
+
+    /**
+     * Get the sum of a counter since the metrics were created, including the
+     * steps before any reset.
+     */
+    public long getLifetimeTotal(StepCounter counter)
+    {
+        return snapshot.lifetimeTotals[counter.ordinal()];
+    }
+
+    @Override
+    public int getBodyCount()
+    {
+        return snapshot.bodyCount;
+    }
+
+    @Override
+    public int getAwakeBodyCount()
+    {
+        return snapshot.awakeBodyCount;
+    }
+
+    @Override
+    public int getJointCount()
+    {
+        return snapshot.jointCount;
+    }
+
+    @Override
+    public int getContactCount()
+    {
+        return snapshot.contactCount;
+    }
+
+    @Override
+    public int getProxyCount()
+    {
+        return snapshot.proxyCount;
+    }
+
+    @Override
+    public int getTreeHeight()
+    {
+        return snapshot.treeHeight;
+    }
+
+    @Override
+    public float getTreeQuality()
+    {
+        return snapshot.treeQuality;
+    }
+
+    @Override
+    public int getParticleCount()
+    {
+        return snapshot.particleCount;
+    }
+
+    @Override
+    public int getIslandCount()
+    {
+        return snapshot.islandCount;
+    }
+
+    @Override
+    public long getContactsCreatedTotal()
+    {
+        return snapshot.contactsCreated;
+    }
+
+    @Override
+    public long getContactsDestroyedTotal()
+    {
+        return snapshot.contactsDestroyed;
+    }
+
+    @Override
+    public long getToiComputationsTotal()
+    {
+        return snapshot.toiComputations;
+    }
+
+    @Override
+    public double getStepTimeMillis()
+    {
+        return snapshot.stepTime;
+    }
+
+    @Override
+    public double getStepTimeP99Millis()
+    {
+        return snapshot.stepTimeP99;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseTimesMillis()
+    {
+        return snapshot.phaseTimes;
+    }
+
+    /**
+     * Get the long running average of a phase in milliseconds.
+     */
+    public double getPhaseTimeMillis(ProfilePhase phase)
+    {
+        Double value = snapshot.phaseTimes.get(phase.label);
+        return value != null ? value : 0;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.metrics;
+
+import java.util.Map;
+
+/**
+ * The attributes a {@link WorldMetrics} publishes over JMX. All values are
+ * taken from the most recent refresh, not computed on read.
+ */
+public interface WorldMetricsMXBean
+{
+    String getName();
+
+    /**
+     * Steps between two refreshes of the published values.
+     */
+    int getRefreshInterval();
+
+    void setRefreshInterval(int steps);
+
+    /**
+     * Steps since the metrics were created or reset, as of the most recent
+     * refresh.
+     */
+    long getSnapshotStepCount();
+
+    int getBodyCount();
+
+    int getAwakeBodyCount();
+
+    int getJointCount();
+
+    int getContactCount();
+
+    int getProxyCount();
+
+    int getTreeHeight();
+
+    float getTreeQuality();
+
+    int getParticleCount();
+
+    /**
+     * Islands solved in the most recent step.
+     */
+    int getIslandCount();
+
+    long getContactsCreatedTotal();
+
+    long getContactsDestroyedTotal();
+
+    long getToiComputationsTotal();
+
+    /**
+     * Long running average of a whole step in milliseconds.
+     */
+    double getStepTimeMillis();
+
+    /**
+     * 99th percentile of a whole step in milliseconds since the profiler was
+     * created or reset.
+     */
+    double getStepTimeP99Millis();
+
+    /**
+     * Long running averages of all profile phases in milliseconds, keyed by
+     * phase label.
+     */
+    Map<String, Double> getPhaseTimesMillis();
+
+    /**
+     * Clear the histograms and counter totals with the next step.
+     */
+    void reset();
+}
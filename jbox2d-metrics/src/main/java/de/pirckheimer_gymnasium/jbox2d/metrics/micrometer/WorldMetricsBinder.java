@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.pirckheimer_gymnasium.jbox2d.metrics.micrometer;
+
+import java.util.function.ToDoubleFunction;
+
+import de.pirckheimer_gymnasium.jbox2d.metrics.WorldMetrics;
+import de.pirckheimer_gymnasium.jbox2d.profiling.ProfilePhase;
+import de.pirckheimer_gymnasium.jbox2d.profiling.StepCounter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Binds the values of a {@link WorldMetrics} to a Micrometer registry. Every
+ * meter is tagged with {@code world=<name>}, phase timings additionally with
+ * {@code phase=<label>}. The counters export the lifetime values, so they
+ * keep increasing when the metrics are reset.
+ *
+ * <pre>
+ * new WorldMetricsBinder(WorldMetrics.attach(world, "match-42"))
+ *         .bindTo(registry);
+ * </pre>
+ */
+public class WorldMetricsBinder implements MeterBinder
+{
+    private final WorldMetrics metrics;
+
+    private final Iterable<Tag> tags;
+
+    public WorldMetricsBinder(WorldMetrics metrics)
+    {
+        this(metrics, Tags.empty());
+    }
+
+    public WorldMetricsBinder(WorldMetrics metrics, Iterable<Tag> tags)
+    {
+        this.metrics = metrics;
+        this.tags = Tags.concat(tags, "world", metrics.getName());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        gauge(registry, "jbox2d.world.bodies", "Bodies in the world",
+                WorldMetrics::getBodyCount);
+        gauge(registry, "jbox2d.world.bodies.awake", "Bodies that are awake",
+                WorldMetrics::getAwakeBodyCount);
+        gauge(registry, "jbox2d.world.joints", "Joints in the world",
+                WorldMetrics::getJointCount);
+        gauge(registry, "jbox2d.world.contacts", "Contacts in the world",
+                WorldMetrics::getContactCount);
+        gauge(registry, "jbox2d.world.proxies", "Broad-phase proxies",
+                WorldMetrics::getProxyCount);
+        gauge(registry, "jbox2d.world.tree.height",
+                "Height of the broad-phase tree", WorldMetrics::getTreeHeight);
+        gauge(registry, "jbox2d.world.tree.quality",
+                "Area ratio of the broad-phase tree",
+                WorldMetrics::getTreeQuality);
+        gauge(registry, "jbox2d.world.particles", "Particles in the world",
+                WorldMetrics::getParticleCount);
+        gauge(registry, "jbox2d.world.islands",
+                "Islands solved in the last step",
+                WorldMetrics::getIslandCount);
+        counter(registry, "jbox2d.world.steps", "Steps taken",
+                WorldMetrics::getLifetimeStepCount);
+        counter(registry, "jbox2d.world.contacts.created", "Contacts created",
+                m -> m.getLifetimeTotal(StepCounter.CONTACTS_CREATED));
+        counter(registry, "jbox2d.world.contacts.destroyed",
+                "Contacts destroyed",
+                m -> m.getLifetimeTotal(StepCounter.CONTACTS_DESTROYED));
+        counter(registry, "jbox2d.world.toi.computations",
+                "Time of impact computations",
+                m -> m.getLifetimeTotal(StepCounter.TOI_COMPUTATIONS));
+        Gauge.builder("jbox2d.world.step.time.p99", metrics,
+                WorldMetrics::getStepTimeP99Millis).tags(tags)
+                .description("99th percentile of the step time")
+                .baseUnit("milliseconds").register(registry);
+        for (ProfilePhase phase : ProfilePhase.values())
+        {
+            Gauge.builder("jbox2d.world.phase.time", metrics,
+                    m -> m.getPhaseTimeMillis(phase)).tags(tags)
+                    .tag("phase", phase.label)
+                    .description("Running average of a step phase")
+                    .baseUnit("milliseconds").register(registry);
+        }
+    }
+
+    private void gauge(MeterRegistry registry, String name,
+            String description,
+            ToDoubleFunction<WorldMetrics> value)
+    {
+        Gauge.builder(name, metrics, value).tags(tags).description(description)
+                .register(registry);
+    }
+
+    private void counter(MeterRegistry registry, String name,
+            String description,
+            ToDoubleFunction<WorldMetrics> value)
+    {
+        FunctionCounter.builder(name, metrics, value).tags(tags)
+                .description(description).register(registry);
+    }
+}